@@ -17,6 +17,8 @@ package org.apache.solr.search.federated;
  * limitations under the License.
  */
 
+import static org.apache.solr.common.SolrException.ErrorCode.SERVER_ERROR;
+
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -25,12 +27,17 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.ShardParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
@@ -51,6 +58,43 @@ import org.apache.solr.search.SortSpec;
  * ignore, rather, group together in results.
  */
 public class DJoinMergeStrategy implements MergeStrategy {
+
+  // converts shard responses in parallel (or null, to convert them on the request thread)
+  private final ExecutorService executor;
+
+  // a shard response, converted for merging
+  @SuppressWarnings("rawtypes")
+  private static class ShardResult {
+
+    private String shard;
+
+    // the shard info (if wanted)
+    private NamedList<Object> info;
+
+    private boolean failed;
+
+    private boolean partialResults;
+
+    private SolrDocumentList docs;
+
+    private NamedList sortFieldValues;
+
+    private NamedList unmarshalledSortFieldValues;
+
+    private ShardDoc[] shardDocs;
+
+  }
+
+  public DJoinMergeStrategy() {
+    this(null);
+  }
+
+  /**
+   * Convert shard responses in parallel with the given executor (if not null).
+   */
+  public DJoinMergeStrategy(ExecutorService executor) {
+    this.executor = executor;
+  }
   
   @Override
   public boolean mergesIds() {
@@ -71,7 +115,6 @@ public class DJoinMergeStrategy implements MergeStrategy {
     }
 
     IndexSchema schema = rb.req.getSchema();
-    SchemaField uniqueKeyField = schema.getUniqueKeyField();
 
     // Merge the docs via a priority queue so we don't have to sort *all* of the
     // documents... we only need to order the top (rows+start)
@@ -79,103 +122,54 @@ public class DJoinMergeStrategy implements MergeStrategy {
     Map<String, NamedList> unmarshalledSortFieldValuesMap = new HashMap<>();
     ShardFieldSortedHitQueue queue = new ShardFieldSortedHitQueue(unmarshalledSortFieldValuesMap, sortFields, ss.getOffset() + ss.getCount(), rb.req.getSearcher());
 
+    // the result ids, noting which shards hold each id, for the GET_FIELDS requests
+    ShardResultIds resultIds = new ShardResultIds(sreq.actualShards);
+
     NamedList<Object> shardInfo = null;
     if (rb.req.getParams().getBool(ShardParams.SHARDS_INFO, false)) {
       shardInfo = new SimpleOrderedMap<>();
       rb.rsp.getValues().add(ShardParams.SHARDS_INFO, shardInfo);
     }
 
+    // convert the shard responses (in parallel, if there is an executor), then merge them
+    // in response order
+    List<ShardResult> results = convertAll(sreq.responses, ss, schema, shardInfo != null);
+
     long numFound = 0;
     Float maxScore = null;
     boolean partialResults = false;
-    for (ShardResponse srsp : sreq.responses) {
-      String shard = srsp.getShard();
-      // this hack is needed for test code since ShardResponse is so unfriendly
-      if (shard == null) {
-        shard = (String)srsp.getSolrResponse().getResponse().get("shard");
-      }
-      
-      SolrDocumentList docs = null;
-
+    for (ShardResult result : results) {
+      String shard = result.shard;
       if (shardInfo != null) {
-        SimpleOrderedMap<Object> nl = new SimpleOrderedMap<>();
-
-        if (srsp.getException() != null) {
-          Throwable t = srsp.getException();
-          if (t instanceof SolrServerException) {
-            t = ((SolrServerException) t).getCause();
-          }
-          nl.add("error", t.toString());
-          StringWriter trace = new StringWriter();
-          t.printStackTrace(new PrintWriter(trace));
-          nl.add("trace", trace.toString());
-          if (srsp.getShardAddress() != null) {
-            nl.add("shardAddress", srsp.getShardAddress());
-          }
-        } else {
-          docs = (SolrDocumentList) srsp.getSolrResponse().getResponse().get("response");
-          nl.add("numFound", docs.getNumFound());
-          nl.add("maxScore", docs.getMaxScore());
-          nl.add("shardAddress", srsp.getShardAddress());
-        }
-        if (srsp.getSolrResponse() != null) {
-          nl.add("time", srsp.getSolrResponse().getElapsedTime());
-        }
-
-        shardInfo.add(shard, nl);
+        shardInfo.add(shard, result.info);
       }
       // now that we've added the shard info, let's only proceed if we have no error.
-      if (srsp.getException() != null) {
+      if (result.failed) {
         partialResults = true;
         continue;
       }
-
-      if (docs == null) { // could have been initialized in the shards info block above
-        docs = (SolrDocumentList) srsp.getSolrResponse().getResponse().get("response");
-      }
-
-      NamedList<?> responseHeader = (NamedList<?>) srsp.getSolrResponse().getResponse().get("responseHeader");
-      if (responseHeader != null && Boolean.TRUE.equals(responseHeader.get("partialResults"))) {
-        partialResults = true;
-      }
+      partialResults |= result.partialResults;
 
       // calculate global maxScore and numDocsFound
+      SolrDocumentList docs = result.docs;
       if (docs.getMaxScore() != null) {
         maxScore = maxScore == null ? docs.getMaxScore() : Math.max(maxScore, docs.getMaxScore());
       }
       numFound += docs.getNumFound();
 
-      NamedList sortFieldValues = (NamedList) (srsp.getSolrResponse().getResponse().get("sort_values"));
-      sortFieldValuesMap.put(shard, sortFieldValues);
-      NamedList unmarshalledSortFieldValues = unmarshalSortValues(ss, sortFieldValues, schema);
-      unmarshalledSortFieldValuesMap.put(shard, unmarshalledSortFieldValues);
-
-      // go through every doc in this response, construct a ShardDoc, and
-      // put it in the priority queue so it can be ordered.
-      for (int i = 0; i < docs.size(); i++) {
-        SolrDocument doc = docs.get(i);
-        Object id = doc.getFieldValue(uniqueKeyField.getName());
-
-        Object scoreObj = doc.getFieldValue("score");
-        Float score = null;
-        if (scoreObj != null) {
-          if (scoreObj instanceof String) {
-            score = Float.parseFloat((String)scoreObj);
-          } else {
-            score = (Float)scoreObj;
-          }
-        }
+      // if the shard returned all its docs, it holds only the ids returned
+      if (docs.getNumFound() <= docs.size()) {
+        resultIds.setComplete(shard);
+      }
 
-        ShardDoc shardDoc = new ShardDoc();
-        shardDoc.id = id;
-        shardDoc.shard = shard;
-        shardDoc.orderInShard = i;
-        if (score != null) {
-          shardDoc.score = score;
-        }
+      sortFieldValuesMap.put(shard, result.sortFieldValues);
+      unmarshalledSortFieldValuesMap.put(shard, result.unmarshalledSortFieldValues);
 
+      // put every doc in this response in the priority queue so it can be ordered.
+      for (ShardDoc shardDoc : result.shardDocs) {
+        resultIds.addShardId(shard, shardDoc.id.toString());
         queue.insertWithReplacement(shardDoc);
-      } // end for-each-doc-in-response
+      }
     } // end for-each-response
 
     // The queue now has 0 -> queuesize docs, where queuesize <= start + rows
@@ -186,7 +180,6 @@ public class DJoinMergeStrategy implements MergeStrategy {
     
     // build resultIds, which is used to request fields from each shard, and initialise responseDocs
     DuplicateDocumentList responseDocs = new DuplicateDocumentList(resultSize, maxScore, numFound, ss.getOffset());
-    Map<Object, ShardDoc> resultIds = new AllShardsResultIds(sreq.actualShards);
     for (int i = resultSize - 1; i >= 0; i--) {
       ShardDoc shardDoc = queue.pop();
       shardDoc.positionInResponse = i;
@@ -225,6 +218,146 @@ public class DJoinMergeStrategy implements MergeStrategy {
     }
   }
 
+  // convert the shard responses (in order), in parallel if there is an executor: the
+  // first on this thread, while the others are converted by the executor
+  private List<ShardResult> convertAll(List<ShardResponse> responses, final SortSpec ss, final IndexSchema schema, final boolean wantsShardInfo) {
+    List<ShardResult> results = new ArrayList<>(responses.size());
+    if (executor == null || responses.size() < 2) {
+      for (ShardResponse srsp : responses) {
+        results.add(convert(srsp, ss, schema, wantsShardInfo));
+      }
+      return results;
+    }
+
+    List<Future<ShardResult>> futures = new ArrayList<>(responses.size() - 1);
+    boolean done = false;
+    try {
+      for (final ShardResponse srsp : responses.subList(1, responses.size())) {
+        futures.add(executor.submit(new Callable<ShardResult>() {
+          @Override
+          public ShardResult call() {
+            return convert(srsp, ss, schema, wantsShardInfo);
+          }
+        }));
+      }
+      results.add(convert(responses.get(0), ss, schema, wantsShardInfo));
+      for (Future<ShardResult> future : futures) {
+        results.add(future.get());
+      }
+      done = true;
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SolrException(SERVER_ERROR, "Interrupted while converting shard responses", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+        throw (Error)cause;
+      }
+      throw new SolrException(SERVER_ERROR, "Error converting shard response", cause);
+    } finally {
+      if (! done) {
+        for (Future<ShardResult> future : futures) {
+          future.cancel(true);
+        }
+      }
+    }
+  }
+
+  // convert a shard response: its shard info (if wanted), sort values, and a ShardDoc for
+  // each doc in the response
+  @SuppressWarnings("rawtypes")
+  private ShardResult convert(ShardResponse srsp, SortSpec ss, IndexSchema schema, boolean wantsShardInfo) {
+    ShardResult result = new ShardResult();
+    String shard = srsp.getShard();
+    // this hack is needed for test code since ShardResponse is so unfriendly
+    if (shard == null) {
+      shard = (String)srsp.getSolrResponse().getResponse().get("shard");
+    }
+    result.shard = shard;
+
+    SolrDocumentList docs = null;
+
+    if (wantsShardInfo) {
+      SimpleOrderedMap<Object> nl = new SimpleOrderedMap<>();
+
+      if (srsp.getException() != null) {
+        Throwable t = srsp.getException();
+        if (t instanceof SolrServerException) {
+          t = ((SolrServerException) t).getCause();
+        }
+        nl.add("error", t.toString());
+        StringWriter trace = new StringWriter();
+        t.printStackTrace(new PrintWriter(trace));
+        nl.add("trace", trace.toString());
+        if (srsp.getShardAddress() != null) {
+          nl.add("shardAddress", srsp.getShardAddress());
+        }
+      } else {
+        docs = (SolrDocumentList) srsp.getSolrResponse().getResponse().get("response");
+        nl.add("numFound", docs.getNumFound());
+        nl.add("maxScore", docs.getMaxScore());
+        nl.add("shardAddress", srsp.getShardAddress());
+      }
+      if (srsp.getSolrResponse() != null) {
+        nl.add("time", srsp.getSolrResponse().getElapsedTime());
+      }
+
+      result.info = nl;
+    }
+    if (srsp.getException() != null) {
+      result.failed = true;
+      return result;
+    }
+
+    if (docs == null) { // could have been initialized in the shards info block above
+      docs = (SolrDocumentList) srsp.getSolrResponse().getResponse().get("response");
+    }
+    result.docs = docs;
+
+    NamedList<?> responseHeader = (NamedList<?>) srsp.getSolrResponse().getResponse().get("responseHeader");
+    if (responseHeader != null && Boolean.TRUE.equals(responseHeader.get("partialResults"))) {
+      result.partialResults = true;
+    }
+
+    result.sortFieldValues = (NamedList) (srsp.getSolrResponse().getResponse().get("sort_values"));
+    result.unmarshalledSortFieldValues = unmarshalSortValues(ss, result.sortFieldValues, schema);
+
+    // go through every doc in this response, and construct a ShardDoc
+    String uniqueKey = schema.getUniqueKeyField().getName();
+    result.shardDocs = new ShardDoc[docs.size()];
+    for (int i = 0; i < docs.size(); i++) {
+      SolrDocument doc = docs.get(i);
+      Object id = doc.getFieldValue(uniqueKey);
+
+      Object scoreObj = doc.getFieldValue("score");
+      Float score = null;
+      if (scoreObj != null) {
+        if (scoreObj instanceof String) {
+          score = Float.parseFloat((String)scoreObj);
+        } else {
+          score = (Float)scoreObj;
+        }
+      }
+
+      ShardDoc shardDoc = new ShardDoc();
+      shardDoc.id = id;
+      shardDoc.shard = shard;
+      shardDoc.orderInShard = i;
+      if (score != null) {
+        shardDoc.score = score;
+      }
+      result.shardDocs[i] = shardDoc;
+    }
+    return result;
+  }
+
+  // the next cursor mark is the sort values of the last doc on this page, which each shard
+  // then searches after - this pages exactly when the shards agree on the sort values of a
+  // joined id (e.g. when sorting on the join id), otherwise an id may be met again on a later
+  // page, on a shard whose doc for it sorts after the one merged
   @SuppressWarnings({ "rawtypes", "unchecked" })
   private void populateNextCursorMarkFromMergedShards(ResponseBuilder rb, Map<String, NamedList> sortFieldValuesMap) {
     final CursorMark lastCursorMark = rb.getCursorMark();
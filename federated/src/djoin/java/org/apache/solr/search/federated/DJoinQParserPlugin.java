@@ -18,8 +18,13 @@ package org.apache.solr.search.federated;
  */
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Sort;
@@ -31,16 +36,34 @@ import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.handler.component.MergeStrategy;
 import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.CursorMark;
 import org.apache.solr.search.QParser;
 import org.apache.solr.search.QParserPlugin;
 import org.apache.solr.search.RankQuery;
 import org.apache.solr.search.SolrIndexSearcher.QueryCommand;
 import org.apache.solr.search.SyntaxError;
+import org.apache.solr.util.DefaultSolrThreadFactory;
 
 public class DJoinQParserPlugin extends QParserPlugin {
 
+  // the number of threads converting shard responses for a merge (by default, 1: they
+  // are converted on the request thread)
+  public static final String INIT_MERGE_THREADS = "mergeThreads";
+
+  // how long an idle merge thread is kept (there is no hook for closing the executor)
+  private static final long MERGE_THREAD_KEEP_ALIVE_MS = 5000;
+
+  private ExecutorService mergeExecutor;
+
   @Override @SuppressWarnings("rawtypes")
   public void init(NamedList args) {
+    int n = args != null ? SolrParams.toSolrParams(args).getInt(INIT_MERGE_THREADS, 1) : 1;
+    if (n > 1) {
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(n, n, MERGE_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<Runnable>(), new DefaultSolrThreadFactory("djoinMerge"));
+      executor.allowCoreThreadTimeOut(true);
+      mergeExecutor = executor;
+    }
   }
 
   @Override
@@ -59,13 +82,17 @@ public class DJoinQParserPlugin extends QParserPlugin {
             if (sort == null) {
               return TopScoreDocCollector.create(len, false);
             } else {
-              return TopFieldCollector.create(sort.rewrite(searcher), len, false, true, true, false);
+              // with a cursor, collect just len docs after it (keeping their sort values
+              // for the next cursor mark)
+              CursorMark cursor = cmd.getCursorMark();
+              FieldDoc searchAfter = cursor != null ? cursor.getSearchAfterFieldDoc() : null;
+              return TopFieldCollector.create(sort.rewrite(searcher), len, searchAfter, cursor != null, true, true, false);
             }
           }
 
           @Override
           public MergeStrategy getMergeStrategy() {
-            return new DJoinMergeStrategy();
+            return new DJoinMergeStrategy(mergeExecutor);
           }
 
           @Override
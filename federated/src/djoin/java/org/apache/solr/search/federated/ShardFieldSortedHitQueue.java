@@ -22,19 +22,26 @@ import static org.apache.solr.common.SolrException.ErrorCode.SERVER_ERROR;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.lucene.search.FieldComparator;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.SortField;
-import org.apache.lucene.util.PriorityQueue;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.handler.component.ShardDoc;
 
-//used by distributed search to merge results.
-class ShardFieldSortedHitQueue extends PriorityQueue<ShardDoc> {
+/**
+ * Used by distributed search to merge results: a priority queue of the top docs (by
+ * the sort), with the least at the top, holding at most one doc for each id.
+ *
+ * The heap is kept here (rather than in a Lucene PriorityQueue) along with a map of
+ * each id to its slot in the heap, so a doc with the same id as one already queued is
+ * found, and replaces it, in O(log n) rather than by a scan of the heap.
+ */
+class ShardFieldSortedHitQueue {
 
   /** Stores a comparator corresponding to each field being sorted by */
   protected Comparator<ShardDoc>[] comparators;
@@ -51,9 +58,19 @@ class ShardFieldSortedHitQueue extends PriorityQueue<ShardDoc> {
   @SuppressWarnings("rawtypes")
   private Map<String, NamedList> sortFieldValuesMap;
 
+  // the heap (heap[1] is the least doc) and the number of docs in it
+  private final ShardDoc[] heap;
+  private final int maxSize;
+  private int size = 0;
+
+  // the heap slot of each id
+  private final Map<Object, Integer> slots;
+
   @SuppressWarnings({ "unchecked", "rawtypes" })
   public ShardFieldSortedHitQueue(Map<String, NamedList> sortFieldValuesMap, SortField[] fields, int size, IndexSearcher searcher) {
-    super(size);
+    this.maxSize = size;
+    heap = new ShardDoc[size + 1];
+    slots = new HashMap<>(size * 4 / 3 + 1);
     this.sortFieldValuesMap = sortFieldValuesMap;
     final int n = fields.length;
     comparators = new Comparator[n];
@@ -79,7 +96,6 @@ class ShardFieldSortedHitQueue extends PriorityQueue<ShardDoc> {
     }
   }
 
-  @Override
   protected boolean lessThan(ShardDoc docA, ShardDoc docB) {
     // If these docs are from the same shard, then the relative order
     // is how they appeared in the response from that shard.
@@ -108,26 +124,123 @@ class ShardFieldSortedHitQueue extends PriorityQueue<ShardDoc> {
 
     return c < 0;
   }
-  
+
+  /**
+   * Get the number of docs in the queue.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the least doc in the queue (or null if it is empty).
+   */
+  public ShardDoc top() {
+    return heap[1];
+  }
+
+  /**
+   * Remove and return the least doc in the queue (or null if it is empty).
+   */
+  public ShardDoc pop() {
+    if (size == 0) {
+      return null;
+    }
+    ShardDoc result = heap[1];
+    removeSlot(result, 1);
+    heap[1] = heap[size];
+    heap[size--] = null;
+    if (size > 0) {
+      downHeap(1);
+    }
+    return result;
+  }
+
+  /**
+   * Add a doc if the queue is not full, or if it is not less than the least doc (which
+   * it replaces). Returns null if the queue was not full, the doc replaced, or the given
+   * doc if it was not added. Unlike insertWithReplacement(), this does not look for a
+   * doc with the same id.
+   */
+  public ShardDoc insertWithOverflow(ShardDoc doc) {
+    if (size < maxSize) {
+      heap[++size] = doc;
+      slots.put(doc.id, size);
+      upHeap(size);
+      return null;
+    } else if (size > 0 && ! lessThan(doc, heap[1])) {
+      ShardDoc least = heap[1];
+      removeSlot(least, 1);
+      heap[1] = doc;
+      slots.put(doc.id, 1);
+      downHeap(1);
+      return least;
+    } else {
+      return doc;
+    }
+  }
+
+  /**
+   * As insertWithOverflow(), except that if there is a doc in the queue with the same
+   * id, the greater of the two is kept, and the other returned.
+   */
   public ShardDoc insertWithReplacement(ShardDoc doc) {
-    Object[] heap = getHeapArray();
-    for (int i = 1; i < heap.length; ++i) {
-      ShardDoc old = (ShardDoc)heap[i];
-      if (old != null && old.id.equals(doc.id)) {
-        if (lessThan(old, doc)) {
-          for (int j = i; j > 0; --j) {
-            heap[j] = heap[j - 1];
-          }
-          pop();
-          Object overflow = insertWithOverflow(doc);
-          assert overflow == null;
-          return old;
-        } else {
-          return doc;
-        }
+    Integer slot = slots.get(doc.id);
+    if (slot == null) {
+      return insertWithOverflow(doc);
+    }
+    ShardDoc old = heap[slot];
+    if (! lessThan(old, doc)) {
+      return doc;
+    }
+
+    // the doc is greater than the one it replaces, so can only move down the heap
+    heap[slot] = doc;
+    downHeap(slot);
+    return old;
+  }
+
+  // forget the slot of a doc leaving the heap (unless it is another doc's with the same id)
+  private void removeSlot(ShardDoc doc, int slot) {
+    Integer i = slots.get(doc.id);
+    if (i != null && i == slot) {
+      slots.remove(doc.id);
+    }
+  }
+
+  private void upHeap(int i) {
+    ShardDoc doc = heap[i];
+    int j = i >>> 1;
+    while (j > 0 && lessThan(doc, heap[j])) {
+      setSlot(i, heap[j]);
+      i = j;
+      j = j >>> 1;
+    }
+    setSlot(i, doc);
+  }
+
+  private void downHeap(int i) {
+    ShardDoc doc = heap[i];
+    int j = i << 1;
+    int k = j + 1;
+    if (k <= size && lessThan(heap[k], heap[j])) {
+      j = k;
+    }
+    while (j <= size && lessThan(heap[j], doc)) {
+      setSlot(i, heap[j]);
+      i = j;
+      j = i << 1;
+      k = j + 1;
+      if (k <= size && lessThan(heap[k], heap[j])) {
+        j = k;
       }
     }
-    return insertWithOverflow(doc);
+    setSlot(i, doc);
+  }
+
+  private void setSlot(int i, ShardDoc doc) {
+    heap[i] = doc;
+    slots.put(doc.id, i);
   }
   
   Comparator<ShardDoc> getCachedComparator(SortField sortField, IndexSearcher searcher) {
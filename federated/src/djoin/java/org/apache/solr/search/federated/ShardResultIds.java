@@ -0,0 +1,106 @@
+package org.apache.solr.search.federated;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.solr.handler.component.ShardDoc;
+
+/**
+ * The merged ShardDoc for each result id (by id string). When asked for values() (to
+ * request the stored fields of the results), returns a ShardDoc for each id for each
+ * shard that may hold it, so that each shard is only asked for its own ids.
+ *
+ * A shard holds the ids it returned in the first phase. If its first phase response held
+ * all its matching docs, it holds no others; but a shard whose response was cut short
+ * (by rows) may hold any id, below the cut, so is still asked for every id.
+ */
+@SuppressWarnings("serial")
+public class ShardResultIds extends HashMap<Object, ShardDoc> {
+
+  private String[] shardAddresses;
+
+  // the shards that returned each id (by id string) in the first phase
+  private Map<String, Set<String>> idShards = new HashMap<>();
+
+  // the shards whose first phase responses held all their matching docs
+  private Set<String> completeShards = new HashSet<>();
+  
+  public ShardResultIds(String[] shardAddresses) {
+    this.shardAddresses = shardAddresses;
+  }
+
+  /**
+   * Note that the given shard returned a doc with the given id (string).
+   */
+  public void addShardId(String shard, String id) {
+    Set<String> shards = idShards.get(id);
+    if (shards == null) {
+      shards = new HashSet<>();
+      idShards.put(id, shards);
+    }
+    shards.add(shard);
+  }
+
+  /**
+   * Note that the first phase response of the given shard held all its matching docs.
+   */
+  public void setComplete(String shard) {
+    completeShards.add(shard);
+  }
+
+  /**
+   * Whether the given shard may hold a doc with the given id (string).
+   */
+  public boolean mayHold(String shard, String id) {
+    if (! completeShards.contains(shard)) {
+      return true;
+    }
+    Set<String> shards = idShards.get(id);
+    return shards != null && shards.contains(shard);
+  }
+  
+  @Override
+  public Collection<ShardDoc> values() {
+    List<ShardDoc> sdocs = new ArrayList<>();
+    for (Map.Entry<Object, ShardDoc> entry : entrySet()) {
+      String id = entry.getKey().toString();
+      ShardDoc doc = entry.getValue();
+      sdocs.add(doc);
+      for (String shard : shardAddresses) {
+        if (shard.equals(doc.shard) || ! mayHold(shard, id)) {
+          continue;
+        }
+        ShardDoc sdoc = new ShardDoc();
+        sdoc.id = doc.id;
+        sdoc.shard = shard;
+        sdoc.score = doc.score;
+        sdoc.positionInResponse = doc.positionInResponse;
+        sdocs.add(sdoc);
+      }
+    }
+    return sdocs;
+  }
+  
+}
@@ -0,0 +1,188 @@
+package org.apache.solr.search.federated;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.search.Sort;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.SolrConfig;
+import org.apache.solr.core.SolrResourceLoader;
+import org.apache.solr.handler.component.ResponseBuilder;
+import org.apache.solr.handler.component.SearchComponent;
+import org.apache.solr.handler.component.ShardRequest;
+import org.apache.solr.handler.component.ShardResponse;
+import org.apache.solr.request.SolrQueryRequestBase;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.schema.IndexSchemaFactory;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.SortSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Merge the responses of many shards (each of rows docs, sorted by a string field, with
+ * ids shared between shards) by DJoinMergeStrategy, converting the shard responses on the
+ * request thread, and in parallel by an executor of a thread per processor.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DJoinMergeStrategyBenchmark {
+
+  @Param({ "4", "16" })
+  public int shards;
+
+  @Param({ "100", "1000" })
+  public int rows;
+
+  private ResponseBuilder rb;
+
+  private ShardRequest sreq;
+
+  private ExecutorService executor;
+
+  @Setup
+  public void setUp() throws Exception {
+    File dir = Files.createTempDirectory("djoin").toFile();
+    File conf = new File(dir, "conf");
+    conf.mkdir();
+    String xml = "<schema name=\"djoin\" version=\"1.5\"><types>"
+        + "<fieldType name=\"string\" class=\"solr.StrField\"/>"
+        + "</types><fields>"
+        + "<field name=\"id\" type=\"string\" indexed=\"true\" stored=\"true\" required=\"true\"/>"
+        + "<field name=\"letter\" type=\"string\" indexed=\"true\" stored=\"true\"/>"
+        + "</fields><uniqueKey>id</uniqueKey></schema>";
+    Files.write(new File(conf, "schema.xml").toPath(), xml.getBytes(StandardCharsets.UTF_8));
+    Files.write(new File(conf, "solrconfig.xml").toPath(),
+        "<config><luceneMatchVersion>4.10.3</luceneMatchVersion></config>".getBytes(StandardCharsets.UTF_8));
+    SolrConfig config = new SolrConfig(new SolrResourceLoader(dir.getPath()), "solrconfig.xml", null);
+    final IndexSchema indexSchema = IndexSchemaFactory.buildIndexSchema("schema.xml", config);
+
+    SolrQueryRequestBase req = new SolrQueryRequestBase(null, new ModifiableSolrParams()) {
+
+      @Override
+      public IndexSchema getSchema() {
+        return indexSchema;
+      }
+
+      @Override
+      public SolrIndexSearcher getSearcher() {
+        return null;
+      }
+
+    };
+    rb = new ResponseBuilder(req, new SolrQueryResponse(), Collections.<SearchComponent>emptyList());
+    SchemaField letter = indexSchema.getField("letter");
+    SortSpec ss = new SortSpec(new Sort(letter.getSortField(false)), new SchemaField[] { letter });
+    ss.setOffset(0);
+    ss.setCount(rows);
+    rb.setSortSpec(ss);
+
+    // each shard has rows of 2 * rows ids, sorted by letter
+    Random random = new Random(42);
+    sreq = new ShardRequest();
+    sreq.actualShards = new String[shards];
+    for (int s = 0; s < shards; ++s) {
+      String shard = "http://localhost:8983/solr/shard" + s;
+      sreq.actualShards[s] = shard;
+
+      List<String> ids = new ArrayList<>();
+      for (int i = 0; i < 2 * rows; ++i) {
+        ids.add(Integer.toString(i));
+      }
+      Collections.shuffle(ids, random);
+      List<String> letters = new ArrayList<>();
+      for (int i = 0; i < rows; ++i) {
+        letters.add("letter" + random.nextInt(10 * rows));
+      }
+      Collections.sort(letters);
+
+      SolrDocumentList docs = new SolrDocumentList();
+      for (int i = 0; i < rows; ++i) {
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", ids.get(i));
+        docs.add(doc);
+      }
+      docs.setNumFound(2 * rows);
+      NamedList<Object> sortValues = new NamedList<>();
+      sortValues.add("letter", letters);
+      NamedList<Object> response = new SimpleOrderedMap<>();
+      response.add("responseHeader", new SimpleOrderedMap<>());
+      response.add("response", docs);
+      response.add("sort_values", sortValues);
+      response.add("shard", shard);
+
+      QueryResponse qr = new QueryResponse();
+      qr.setResponse(response);
+      ShardResponse srsp = new ShardResponse();
+      srsp.setShardRequest(sreq);
+      srsp.setSolrResponse(qr);
+      sreq.responses.add(srsp);
+    }
+
+    executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Benchmark
+  public ResponseBuilder sequential() {
+    new DJoinMergeStrategy().merge(rb, sreq);
+    return rb;
+  }
+
+  @Benchmark
+  public ResponseBuilder parallel() {
+    new DJoinMergeStrategy(executor).merge(rb, sreq);
+    return rb;
+  }
+
+}
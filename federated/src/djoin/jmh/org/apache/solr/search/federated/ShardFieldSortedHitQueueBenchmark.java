@@ -0,0 +1,145 @@
+package org.apache.solr.search.federated;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.util.PriorityQueue;
+import org.apache.solr.handler.component.ShardDoc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Merge the responses of many shards (each of rows docs, with ids shared between
+ * shards, as in a DJoin) through ShardFieldSortedHitQueue, compared with the scan of the
+ * heap for a doc with the same id that insertWithReplacement() used to make.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardFieldSortedHitQueueBenchmark {
+
+  @Param({ "10", "20" })
+  public int shards;
+
+  @Param({ "100", "1000" })
+  public int rows;
+
+  private final SortField[] sort = new SortField[] { SortField.FIELD_SCORE };
+
+  private List<ShardDoc> docs;
+
+  // the queue as it was, with the scan for a doc with the same id
+  private static class ScanningQueue extends PriorityQueue<ShardDoc> {
+
+    private final ShardFieldSortedHitQueue order;
+
+    private ScanningQueue(ShardFieldSortedHitQueue order, int size) {
+      super(size);
+      this.order = order;
+    }
+
+    @Override
+    protected boolean lessThan(ShardDoc a, ShardDoc b) {
+      return order.lessThan(a, b);
+    }
+
+    private ShardDoc insertWithReplacement(ShardDoc doc) {
+      Object[] heap = getHeapArray();
+      for (int i = 1; i < heap.length; ++i) {
+        ShardDoc old = (ShardDoc)heap[i];
+        if (old != null && old.id.equals(doc.id)) {
+          if (lessThan(old, doc)) {
+            for (int j = i; j > 0; --j) {
+              heap[j] = heap[j - 1];
+            }
+            pop();
+            insertWithOverflow(doc);
+            return old;
+          } else {
+            return doc;
+          }
+        }
+      }
+      return insertWithOverflow(doc);
+    }
+
+  }
+
+  @Setup
+  public void setUp() {
+    // each shard has rows of 2 * rows ids, sorted by score
+    Random random = new Random(42);
+    docs = new ArrayList<>();
+    for (int s = 0; s < shards; ++s) {
+      String shard = "http://localhost:8983/solr/shard" + s;
+      List<Integer> ids = new ArrayList<>();
+      for (int i = 0; i < 2 * rows; ++i) {
+        ids.add(i);
+      }
+      Collections.shuffle(ids, random);
+      float[] scores = new float[rows];
+      for (int i = 0; i < rows; ++i) {
+        scores[i] = random.nextFloat();
+      }
+      Arrays.sort(scores);
+      for (int i = 0; i < rows; ++i) {
+        ShardDoc doc = new ShardDoc(scores[rows - i - 1], new Object[0], ids.get(i).toString(), shard);
+        doc.orderInShard = i;
+        docs.add(doc);
+      }
+    }
+  }
+
+  @Benchmark
+  public ShardDoc indexed() {
+    ShardFieldSortedHitQueue queue = new ShardFieldSortedHitQueue(null, sort, rows, null);
+    for (ShardDoc doc : docs) {
+      queue.insertWithReplacement(doc);
+    }
+    return queue.pop();
+  }
+
+  @Benchmark
+  public ShardDoc scanning() {
+    ScanningQueue queue = new ScanningQueue(new ShardFieldSortedHitQueue(null, sort, 0, null), rows);
+    for (ShardDoc doc : docs) {
+      queue.insertWithReplacement(doc);
+    }
+    return queue.pop();
+  }
+
+}
@@ -18,6 +18,7 @@ package org.apache.solr.search.federated;
  */
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.solr.client.solrj.SolrResponse;
@@ -40,6 +41,22 @@ import org.apache.solr.util.plugin.SolrCoreAware;
 
 public class LocalShardHandlerFactory extends HttpShardHandlerFactory implements SolrCoreAware {
 
+  /** A request submitted to a shard. */
+  public static class SubmittedRequest {
+    public final ShardRequest sreq;
+    public final String shard;
+    public final ModifiableSolrParams params;
+
+    private SubmittedRequest(ShardRequest sreq, String shard, ModifiableSolrParams params) {
+      this.sreq = sreq;
+      this.shard = shard;
+      this.params = params;
+    }
+  }
+
+  /** The requests submitted to shards, in order (for tests to check, and clear). */
+  public static final List<SubmittedRequest> SUBMITTED = Collections.synchronizedList(new ArrayList<SubmittedRequest>());
+
   private CoreContainer container;
 
   @Override
@@ -56,6 +73,7 @@ public class LocalShardHandlerFactory extends HttpShardHandlerFactory implements
       @Override
       @SuppressWarnings({ "serial", "rawtypes", "unchecked" })
       public void submit(ShardRequest sreq, final String shard, ModifiableSolrParams params) {
+        SUBMITTED.add(new SubmittedRequest(sreq, shard, params));
         try (SolrCore core = container.getCore(shard.replace("/", ""))) { // ignore any '/'
           SolrQueryRequest req = new SolrQueryRequestBase(core, params) {};
           SolrQueryResponse rsp = new SolrQueryResponse();
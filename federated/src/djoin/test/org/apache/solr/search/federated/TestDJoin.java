@@ -17,16 +17,29 @@ package org.apache.solr.search.federated;
  * limitations under the License.
  */
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.core.SolrCore;
+import org.apache.solr.handler.component.ShardRequest;
+import org.apache.solr.response.ResultContext;
 import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.DocIterator;
+import org.apache.solr.search.DocList;
+import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.search.federated.DuplicateDocumentList;
+import org.apache.solr.search.federated.LocalShardHandlerFactory.SubmittedRequest;
+import org.apache.solr.util.RefCounted;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -55,6 +68,7 @@ public class TestDJoin extends BaseTestCase {
     loadShardCore("shard1", DOCUMENTS_1, "id", "letter");
     loadShardCore("shard2", DOCUMENTS_2, "id", "letter");
     loadShardCore("shard3", DOCUMENTS_3, "id", "letter");
+    loadShardCore("djoin", DOCUMENTS_2, "id", "letter");
   }
   
   /**
@@ -95,4 +109,133 @@ public class TestDJoin extends BaseTestCase {
     }
   }
 
+  /**
+   * Test that each shard is asked for the fields of only the docs it may hold: those it
+   * returned, if it returned all its docs (shard1 holds docs 1 and 3, but not 2), or any,
+   * if its results were cut short by rows.
+   */
+  @Test
+  public void testFieldRequests() throws Exception {
+    try (SolrCore core = h.getCoreContainer().getCore("djoin")) {
+      ModifiableSolrParams params = new ModifiableSolrParams();
+      params.add("q", "*:*");
+      params.add("rows", "10");
+      params.add("sort", "letter asc");
+
+      LocalShardHandlerFactory.SUBMITTED.clear();
+      assertEquals(3, queryDocs(core, "djoin", params).size());
+      Map<String, Set<String>> ids = getFieldRequestIds();
+      assertEquals(new HashSet<String>(Arrays.asList("1", "3")), ids.get("shard1/"));
+      assertEquals(new HashSet<String>(Arrays.asList("1", "2", "3")), ids.get("shard2/"));
+      assertEquals(new HashSet<String>(Arrays.asList("1", "2", "3")), ids.get("shard3/"));
+
+      // shard1 returns docs 1 and 3 (all it has), shard2 docs 1 and 2, shard3 docs 2 and 3
+      params.set("rows", "2");
+      LocalShardHandlerFactory.SUBMITTED.clear();
+      SolrDocumentList docs = queryDocs(core, "djoin", params);
+      assertEquals(2, docs.size());
+      assertEquals(3, docs.get(0).getChildDocumentCount());
+      assertEquals(2, docs.get(1).getChildDocumentCount());
+      ids = getFieldRequestIds();
+      assertEquals(new HashSet<String>(Arrays.asList("1")), ids.get("shard1/"));
+      assertEquals(new HashSet<String>(Arrays.asList("1", "2")), ids.get("shard2/"));
+      assertEquals(new HashSet<String>(Arrays.asList("1", "2")), ids.get("shard3/"));
+    }
+  }
+
+  /**
+   * Test paging with a cursor, sorting on the join id: each page has the next id, with its
+   * docs from every shard, and each shard is asked for just rows docs past the cursor.
+   */
+  @Test
+  public void testCursor() throws Exception {
+    try (SolrCore core = h.getCoreContainer().getCore("djoin")) {
+      ModifiableSolrParams params = new ModifiableSolrParams();
+      params.add("q", "*:*");
+      params.add("rows", "1");
+      params.add("sort", "id asc");
+
+      String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+      String[] ids = new String[] { "1", "2", "3" };
+      int[] counts = new int[] { 3, 2, 3 };
+      for (int i = 0; i < ids.length; ++i) {
+        params.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+        LocalShardHandlerFactory.SUBMITTED.clear();
+        SolrQueryResponse rsp = query(core, "djoin", params);
+        assertNull(rsp.getException());
+        SolrDocumentList docs = (SolrDocumentList)rsp.getValues().get("response");
+        assertEquals(1, docs.size());
+        assertEquals(counts[i], docs.get(0).getChildDocumentCount());
+        for (SolrDocument doc : docs.get(0).getChildDocuments()) {
+          assertEquals(ids[i], doc.get("id"));
+        }
+        for (SubmittedRequest request : LocalShardHandlerFactory.SUBMITTED) {
+          if ((request.sreq.purpose & ShardRequest.PURPOSE_GET_TOP_IDS) != 0) {
+            assertEquals(cursorMark, request.params.get(CursorMarkParams.CURSOR_MARK_PARAM));
+            assertEquals(0, request.params.getInt("start", 0));
+            assertEquals(1, request.params.getInt("rows", 0));
+          }
+        }
+        cursorMark = (String)rsp.getValues().get(CursorMarkParams.CURSOR_MARK_NEXT);
+      }
+
+      // no more docs, and the cursor stays where it is
+      params.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+      SolrQueryResponse rsp = query(core, "djoin", params);
+      assertEquals(0, ((SolrDocumentList)rsp.getValues().get("response")).size());
+      assertEquals(cursorMark, rsp.getValues().get(CursorMarkParams.CURSOR_MARK_NEXT));
+    }
+  }
+
+  /**
+   * Test that the djoin rank query honours a cursor when the aggregator searches its own
+   * index (when not distributed).
+   */
+  @Test
+  public void testLocalCursor() throws Exception {
+    try (SolrCore core = h.getCoreContainer().getCore("djoin")) {
+      ModifiableSolrParams params = new ModifiableSolrParams();
+      params.add("q", "*:*");
+      params.add("rows", "2");
+      params.add("sort", "letter asc, id asc");
+      params.add("shards", "");
+      params.add(CursorMarkParams.CURSOR_MARK_PARAM, CursorMarkParams.CURSOR_MARK_START);
+
+      SolrQueryResponse rsp = query(core, "djoin", params);
+      assertNull(rsp.getException());
+      assertEquals(Arrays.asList("1", "2"), getIds(core, rsp));
+
+      params.set(CursorMarkParams.CURSOR_MARK_PARAM, (String)rsp.getValues().get(CursorMarkParams.CURSOR_MARK_NEXT));
+      rsp = query(core, "djoin", params);
+      assertNull(rsp.getException());
+      assertEquals(Arrays.asList("3"), getIds(core, rsp));
+    }
+  }
+
+  // the ids of the docs of a (local) response
+  private static List<String> getIds(SolrCore core, SolrQueryResponse rsp) throws IOException {
+    List<String> ids = new ArrayList<>();
+    DocList docs = ((ResultContext)rsp.getValues().get("response")).docs;
+    RefCounted<SolrIndexSearcher> searcher = core.getSearcher();
+    try {
+      for (DocIterator i = docs.iterator(); i.hasNext(); ) {
+        ids.add(searcher.get().doc(i.nextDoc()).get("id"));
+      }
+    } finally {
+      searcher.decref();
+    }
+    return ids;
+  }
+
+  // the ids of the GET_FIELDS requests submitted, by shard
+  private static Map<String, Set<String>> getFieldRequestIds() {
+    Map<String, Set<String>> ids = new HashMap<>();
+    for (SubmittedRequest request : LocalShardHandlerFactory.SUBMITTED) {
+      if ((request.sreq.purpose & ShardRequest.PURPOSE_GET_FIELDS) != 0) {
+        assertNull(ids.put(request.shard, new HashSet<>(Arrays.asList(request.params.get("ids").split(",")))));
+      }
+    }
+    return ids;
+  }
+
 }
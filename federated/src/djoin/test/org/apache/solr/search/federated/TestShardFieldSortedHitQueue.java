@@ -17,8 +17,15 @@ package org.apache.solr.search.federated;
  * limitations under the License.
  */
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.apache.lucene.search.SortField;
@@ -97,6 +104,105 @@ public class TestShardFieldSortedHitQueue {
     assert q.size() == 6;
   }
   
+  @Test
+  public void testRandomEquivalence() {
+    Random random = new Random(20150601);
+    for (int round = 0; round < 500; ++round) {
+      int shards = 1 + random.nextInt(12);
+      int rows = 1 + random.nextInt(40);
+      int ids = 1 + random.nextInt(3 * rows);
+      List<ShardDoc> docs = randomShardDocs(random, shards, rows, ids);
+
+      ShardFieldSortedHitQueue q = new ShardFieldSortedHitQueue(null, new SortField[] { SortField.FIELD_SCORE }, rows, null);
+      ReferenceQueue r = new ReferenceQueue(q, rows);
+      for (ShardDoc doc : docs) {
+        assertSame("round " + round, r.insertWithReplacement(doc), q.insertWithReplacement(doc));
+      }
+      assertEquals(r.docs.size(), q.size());
+      while (q.size() > 0) {
+        assertSame("round " + round, r.pop(), q.pop());
+      }
+    }
+  }
+
+  // the responses of the given number of shards, each with up to the given number of docs
+  // (with ids drawn from the given number), sorted by (often tied) score
+  /*package*/ static List<ShardDoc> randomShardDocs(Random random, int shards, int rows, int ids) {
+    List<ShardDoc> docs = new ArrayList<>();
+    for (int s = 0; s < shards; ++s) {
+      // (the docs of a shard share the same shard string, as in a merge)
+      String shard = "shard" + s;
+      List<Integer> shardIds = new ArrayList<>();
+      for (int i = 0; i < ids; ++i) {
+        shardIds.add(i);
+      }
+      Collections.shuffle(shardIds, random);
+      int n = Math.min(ids, random.nextInt(rows + 1));
+      float[] scores = new float[n];
+      for (int i = 0; i < n; ++i) {
+        scores[i] = random.nextInt(10);
+      }
+      Arrays.sort(scores);
+      for (int i = 0; i < n; ++i) {
+        ShardDoc doc = new ShardDoc(scores[n - i - 1], new Object[0], shardIds.get(i), shard);
+        doc.orderInShard = i;
+        docs.add(doc);
+      }
+    }
+    return docs;
+  }
+
+  // the same queue, as a sorted list (least first)
+  private static class ReferenceQueue {
+
+    private final ShardFieldSortedHitQueue order;
+
+    private final int maxSize;
+
+    private final List<ShardDoc> docs = new ArrayList<>();
+
+    private ReferenceQueue(ShardFieldSortedHitQueue order, int maxSize) {
+      this.order = order;
+      this.maxSize = maxSize;
+    }
+
+    private ShardDoc insertWithReplacement(ShardDoc doc) {
+      for (ShardDoc old : docs) {
+        if (old.id.equals(doc.id)) {
+          if (order.lessThan(old, doc)) {
+            docs.remove(old);
+            add(doc);
+            return old;
+          }
+          return doc;
+        }
+      }
+      if (docs.size() < maxSize) {
+        add(doc);
+        return null;
+      }
+      if (! order.lessThan(doc, docs.get(0))) {
+        ShardDoc least = docs.remove(0);
+        add(doc);
+        return least;
+      }
+      return doc;
+    }
+
+    private void add(ShardDoc doc) {
+      int i = 0;
+      while (i < docs.size() && order.lessThan(docs.get(i), doc)) {
+        ++i;
+      }
+      docs.add(i, doc);
+    }
+
+    private ShardDoc pop() {
+      return docs.remove(0);
+    }
+
+  }
+
   class TestShardDoc extends ShardDoc {
     TestShardDoc(Object id, int orderInShard, String shard) {
       super(1.0f, new Object[0], id, shard);
@@ -0,0 +1,300 @@
+package org.apache.solr.search.federated;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexableField;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.schema.CopyField;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.StrField;
+import org.apache.solr.schema.TextField;
+import org.apache.solr.schema.TrieDoubleField;
+import org.apache.solr.schema.TrieFloatField;
+import org.apache.solr.schema.TrieIntField;
+import org.apache.solr.schema.TrieLongField;
+import org.apache.solr.search.ReturnFields;
+import org.apache.solr.search.federated.fieldtypes.FederatedString;
+
+/**
+ * How to merge the children of merge parents, worked out once per request from the
+ * schema and the field list. Only fields in the field list are merged: the fields that
+ * the values of each shard field go to (itself, and any copy field destinations) are
+ * found when the shard field is first seen, each with a converter for its type; and the
+ * fields to check for default values and requiredness are found up front.
+ */
+class MergePlan {
+
+  // converts a shard value to the value of a field in the merged doc
+  private interface Converter {
+
+    Object convert(Object value);
+
+  }
+
+  // a field to merge shard values into
+  private static class Target {
+
+    private final SchemaField field;
+
+    private final Converter converter;
+
+    private Target(SchemaField field) {
+      this.field = field;
+      this.converter = getConverter(field);
+    }
+
+  }
+
+  private final IndexSchema schema;
+
+  private final ReturnFields rf;
+
+  // the targets of each shard field (by name)
+  private final Map<String, Target[]> targets = new HashMap<>();
+
+  // wanted fields with a default value or required, in schema order
+  private final List<SchemaField> checked = new ArrayList<>();
+
+  // names of fields that are not stored
+  private final Set<String> nonStored = new HashSet<>();
+
+  /*package*/ MergePlan(IndexSchema schema, ReturnFields rf) {
+    this.schema = schema;
+    this.rf = rf;
+    for (SchemaField field : schema.getFields().values()) {
+      if ((field.getDefaultValue() != null || field.isRequired()) && rf.wantsField(field.getName())) {
+        checked.add(field);
+      }
+      if (! field.stored()) {
+        nonStored.add(field.getName());
+      }
+    }
+  }
+
+  /**
+   * Merge the children of a merge parent into the parent.
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  /*package*/ void merge(SolrDocument parent) {
+    parent.remove(DuplicateDocumentList.MERGE_PARENT_FIELD);
+
+    Set shardList = new HashSet();
+    Float score = null;
+    for (SolrDocument doc : parent.getChildDocuments()) {
+      String shard = (String)doc.getFieldValue("[shard]");
+      NamedList nl = null;
+      if (shard != null) {
+        nl = new NamedList();
+        nl.add("address", shard);
+        shardList.add(nl);
+      }
+
+      for (Map.Entry<String, Object> entry : doc) {
+        String fieldName = entry.getKey();
+        Object value = entry.getValue();
+        if (fieldName.equals("score")) {
+          score = Math.max(score != null ? score : 0.0f, (Float)value);
+          if (nl != null) {
+            nl.add("score", score);
+          }
+          continue;
+        }
+
+        for (Target target : getTargets(fieldName)) {
+          addConvertedFieldValue(shard, parent, value, target);
+        }
+      }
+    }
+    if (shardList.size() > 0) {
+      parent.setField("[shard]", shardList);
+    } else {
+      parent.removeFields("[shard]");
+    }
+    if (score != null) {
+      parent.setField("score", score);
+    } else {
+      parent.removeFields("score");
+    }
+
+    // check required fields are present, and then remove if non-stored
+    for (SchemaField field : checked) {
+      Object value = parent.getFieldValue(field.getName());
+      if (value == null) {
+        value = field.getDefaultValue();
+        if (value != null) {
+          parent.setField(field.getName(), value);
+        }
+      }
+      if (value == null && field.isRequired()) {
+        throw new MergeException.MissingRequiredField(field);
+      }
+    }
+    if (nonStored.size() > 0) {
+      for (String fieldName : parent.getFieldNames().toArray(new String[0])) {
+        if (nonStored.contains(fieldName)) {
+          parent.removeFields(fieldName);
+        }
+      }
+    }
+
+    // remove child documents
+    while (parent.getChildDocumentCount() > 0) {
+      parent.getChildDocuments().remove(0);
+    }
+  }
+
+  // the wanted fields that values of the given shard field go to (copy field destinations
+  // first)
+  private Target[] getTargets(String fieldName) {
+    Target[] fieldTargets = targets.get(fieldName);
+    if (fieldTargets == null) {
+      List<Target> list = new ArrayList<>();
+      for (CopyField cf : schema.getCopyFieldsList(fieldName)) {
+        SchemaField field = cf.getDestination();
+        if (rf.wantsField(field.getName())) {
+          list.add(new Target(field));
+        }
+      }
+      SchemaField field = schema.getFieldOrNull(fieldName);
+      if (field != null && rf.wantsField(fieldName)) {
+        list.add(new Target(field));
+      }
+      fieldTargets = list.toArray(new Target[list.size()]);
+      targets.put(fieldName, fieldTargets);
+    }
+    return fieldTargets;
+  }
+
+  // get a converter for values of the given field: the value itself (as a string) for
+  // string and text fields, or (if already of the right class) for trie number fields,
+  // and MergeAbstractFieldType's own conversion, otherwise the value of the field created
+  // from the value, as for indexing
+  private static Converter getConverter(final SchemaField field) {
+    final FieldType type = field.getType();
+    if (field.indexed() || field.stored()) {
+      if (type instanceof MergeAbstractFieldType) {
+        return new Converter() {
+          @Override
+          public Object convert(Object value) {
+            String val = type.toInternal(value.toString());
+            return val == null ? null : ((MergeAbstractFieldType)type).convert(val);
+          }
+        };
+      }
+
+      Class<?> c = type.getClass();
+      if (c == StrField.class || c == FederatedString.class || c == TextField.class) {
+        return new Converter() {
+          @Override
+          public Object convert(Object value) {
+            return type.toInternal(value.toString());
+          }
+        };
+      }
+
+      // numbers of the field's own type (as shards return them) need no conversion
+      final Class<?> numberClass = c == TrieIntField.class ? Integer.class
+          : c == TrieLongField.class ? Long.class
+          : c == TrieFloatField.class ? Float.class
+          : c == TrieDoubleField.class ? Double.class
+          : null;
+      if (numberClass != null) {
+        return new Converter() {
+          @Override
+          public Object convert(Object value) {
+            if (value.getClass() == numberClass) {
+              return value;
+            }
+            return type.toObject(type.createField(field, value, 1.0f));
+          }
+        };
+      }
+    }
+
+    return new Converter() {
+      @Override
+      public Object convert(Object value) {
+        IndexableField indexable = type.createField(field, value, 1.0f);
+        return type.toObject(indexable);
+      }
+    };
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private void addConvertedFieldValue(String shard, SolrDocument superDoc, Object shardValue, Target target) {
+    SchemaField field = target.field;
+    Object mergeValue = superDoc.getFieldValue(field.getName());
+
+    if (field.getType() instanceof MergeAbstractFieldType) {
+      Object newValue = ((MergeAbstractFieldType)field.getType()).merge(shard, mergeValue, shardValue);
+      if (newValue != MergeAbstractFieldType.DEFAULT_MERGE_BEHAVIOUR) {
+        superDoc.setField(field.getName(), newValue);
+        return;
+      }
+    }
+    
+    // continue with the default merge behaviour...
+    if (shardValue == null) {
+      return;
+    }
+    List values = shardValue instanceof List ? (List)shardValue : Collections.singletonList(shardValue);
+
+    if (field.multiValued()) {
+      Set set = (Set)mergeValue;
+      for (Object value : values) {
+        Object converted = target.converter.convert(value);
+        if (converted == null) {
+          continue;
+        }
+        if (set == null) {
+          set = new HashSet();
+          superDoc.setField(field.getName(), set);
+        }
+        set.add(converted);
+      }
+    } else {
+      Object merged = mergeValue;
+      for (Object value : values) {
+        Object converted = target.converter.convert(value);
+        if (converted == null) {
+          continue;
+        }
+        if (merged == null) {
+          merged = converted;
+        } else if (! merged.equals(converted)) {
+          throw new MergeException.FieldNotMultiValued(field);
+        }
+      }
+      if (merged != mergeValue) {
+        superDoc.setField(field.getName(), merged);
+      }
+    }
+  }
+
+}
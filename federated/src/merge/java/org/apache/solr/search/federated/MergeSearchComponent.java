@@ -17,16 +17,10 @@ package org.apache.solr.search.federated;
  * limitations under the License.
  */
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-
-import org.apache.lucene.index.IndexableField;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.SolrParams;
-import org.apache.solr.common.util.NamedList;
 import org.apache.solr.handler.component.ResponseBuilder;
 import org.apache.solr.handler.component.SearchComponent;
 import org.apache.solr.handler.component.ShardRequest;
@@ -34,7 +28,6 @@ import org.apache.solr.schema.CopyField;
 import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.ReturnFields;
-import org.apache.solr.search.federated.DuplicateDocumentList;
 import org.apache.solr.search.federated.FilterDJoinQParserSearchComponent;
 
 /**
@@ -102,135 +95,12 @@ public class MergeSearchComponent extends FilterDJoinQParserSearchComponent {
     }
   }
   
-  @SuppressWarnings({ "rawtypes", "unchecked" })
+  // merge the children of each merge parent, by a plan worked out for the request
   private void mergeAndConvert(ResponseBuilder rb) {
-    IndexSchema schema = rb.req.getCore().getLatestSchema();
-    ReturnFields rf = rb.rsp.getReturnFields();
-
+    MergePlan plan = new MergePlan(rb.req.getCore().getLatestSchema(), rb.rsp.getReturnFields());
     SolrDocumentList docs = (SolrDocumentList)rb.rsp.getValues().get("response");
     for (SolrDocument parent : docs) {
-      parent.remove(DuplicateDocumentList.MERGE_PARENT_FIELD);
-
-      Set shardList = new HashSet();
-      Float score = null;
-      for (SolrDocument doc : parent.getChildDocuments()) {
-        String shard = (String)doc.getFieldValue("[shard]");
-        NamedList nl = null;
-        if (shard != null) {
-          nl = new NamedList();
-          nl.add("address", shard);
-          shardList.add(nl);
-        }
-        
-        for (String fieldName : doc.getFieldNames()) {
-          Object value = doc.getFieldValue(fieldName);
-          
-          for (CopyField cf : schema.getCopyFieldsList(fieldName)) {
-            SchemaField field = cf.getDestination();
-            addConvertedFieldValue(shard, parent, value, field);
-          }
-          
-          SchemaField field = schema.getFieldOrNull(fieldName);
-          if (fieldName.equals("score")) {
-            score = Math.max(score != null ? score : 0.0f, (Float)value);
-            if (nl != null) {
-              nl.add("score", score);
-            }
-          } else if (field != null) {
-            addConvertedFieldValue(shard, parent, value, field);          
-          }
-        }
-      }
-      if (shardList.size() > 0) {
-        parent.setField("[shard]", shardList);
-      } else {
-        parent.removeFields("[shard]");
-      }
-      if (score != null) {
-        parent.setField("score", score);
-      } else {
-        parent.removeFields("score");
-      }
-
-      // check required fields are present, and then remove if non-stored
-      for (SchemaField field : schema.getFields().values()) {
-        Object value = parent.getFieldValue(field.getName());
-        if (value == null) {
-          value = field.getDefaultValue();
-          if (value != null) {
-            parent.setField(field.getName(), value);
-          }
-        }
-        if (value == null && field.isRequired() && rf.wantsField(field.getName())) {
-          throw new MergeException.MissingRequiredField(field);
-        }
-        if (! field.stored()) {
-          parent.removeFields(field.getName());
-        }
-      }
-
-      // remove child documents
-      while (parent.getChildDocumentCount() > 0) {
-        parent.getChildDocuments().remove(0);
-      }
-    }
-  }
-
-  private void convert(SchemaField field, Object value, Set<Object> valueSet) {
-    IndexableField indexable = field.getType().createField(field, value, 1.0f);
-    valueSet.add(field.getType().toObject(indexable));
-  }
-  
-  @SuppressWarnings({ "unchecked", "rawtypes", "serial" })
-  private void addConvertedFieldValue(String shard, SolrDocument superDoc, Object shardValue, SchemaField field) {
-    Object mergeValue = superDoc.getFieldValue(field.getName());
-
-    if (field.getType() instanceof MergeAbstractFieldType) {
-      Object newValue = ((MergeAbstractFieldType)field.getType()).merge(shard, mergeValue, shardValue);
-      if (newValue != MergeAbstractFieldType.DEFAULT_MERGE_BEHAVIOUR) {
-        superDoc.setField(field.getName(), mergeValue);
-        return;
-      }
-    }
-    
-    // continue with the default merge behaviour...
-    if (shardValue == null) {
-      return;
-    }
-    
-    Set newValues = new HashSet() {
-      @Override
-      public boolean add(Object value) {
-        if (value == null) return false;
-        return super.add(value);
-      }
-    };
-    
-    if (shardValue instanceof List) {
-      for (Object value : (List)shardValue) {
-        convert(field, value, newValues);
-      }
-    } else {
-      convert(field, shardValue, newValues);
-    }
-    if (newValues.size() == 0) {
-      return;
-    }
-
-    if (field.multiValued()) {
-      Set set = (Set)mergeValue;
-      if (set == null) {
-        set = new HashSet();
-        superDoc.setField(field.getName(), set);
-      }
-      set.addAll(newValues);
-    } else {
-      newValues.add(mergeValue);
-      if (newValues.size() > 1) {
-        throw new MergeException.FieldNotMultiValued(field);
-      } else if (newValues.size() == 1) {
-        superDoc.setField(field.getName(), newValues.iterator().next());
-      }
+      plan.merge(parent);
     }
   }
 
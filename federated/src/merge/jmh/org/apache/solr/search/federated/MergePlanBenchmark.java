@@ -0,0 +1,230 @@
+package org.apache.solr.search.federated;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.IndexableField;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.core.SolrConfig;
+import org.apache.solr.core.SolrResourceLoader;
+import org.apache.solr.schema.CopyField;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.schema.IndexSchemaFactory;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.ReturnFields;
+import org.apache.solr.search.SolrReturnFields;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Merge a page of merge parents (each with a child from each of three shards, with a
+ * value for every tenth field) for a schema of the given number of fields, by MergePlan,
+ * and as MergeSearchComponent did before it (looking up and converting every field of
+ * every child, then checking every schema field of every parent).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MergePlanBenchmark {
+
+  private static final int ROWS = 10;
+
+  private static final int SHARDS = 3;
+
+  @Param({ "50", "500" })
+  public int fields;
+
+  @Param({ "*", "id,s0,t10,n20" })
+  public String fl;
+
+  private IndexSchema schema;
+
+  private ReturnFields rf;
+
+  // the children of each parent
+  private List<List<SolrDocument>> children;
+
+  @Setup
+  public void setUp() throws Exception {
+    // fields s<n> (string), t<n> (text) and n<n> (int), with some copied
+    File dir = Files.createTempDirectory("merge").toFile();
+    File conf = new File(dir, "conf");
+    conf.mkdir();
+    StringBuilder xml = new StringBuilder();
+    xml.append("<schema name=\"wide\" version=\"1.5\"><types>")
+        .append("<fieldType name=\"string\" class=\"solr.StrField\"/>")
+        .append("<fieldType name=\"int\" class=\"solr.TrieIntField\" precisionStep=\"0\"/>")
+        .append("<fieldType name=\"text\" class=\"solr.TextField\"><analyzer>")
+        .append("<tokenizer class=\"solr.WhitespaceTokenizerFactory\"/></analyzer></fieldType>")
+        .append("</types><fields>")
+        .append("<field name=\"id\" type=\"string\" indexed=\"true\" stored=\"true\" required=\"true\"/>");
+    for (int i = 0; i < fields; ++i) {
+      String type = new String[] { "string", "text", "int" }[i % 3];
+      xml.append("<field name=\"").append(getFieldName(i)).append("\" type=\"").append(type)
+          .append("\" indexed=\"true\" stored=\"true\" multiValued=\"").append(i % 2 == 0).append("\"/>");
+    }
+    xml.append("<field name=\"all\" type=\"text\" indexed=\"true\" stored=\"false\" multiValued=\"true\"/>")
+        .append("</fields><uniqueKey>id</uniqueKey>");
+    for (int i = 0; i < fields; i += 30) {
+      xml.append("<copyField source=\"s").append(i).append("\" dest=\"all\"/>");
+    }
+    xml.append("</schema>");
+    Files.write(new File(conf, "schema.xml").toPath(), xml.toString().getBytes(StandardCharsets.UTF_8));
+    Files.write(new File(conf, "solrconfig.xml").toPath(),
+        "<config><luceneMatchVersion>4.10.3</luceneMatchVersion></config>".getBytes(StandardCharsets.UTF_8));
+
+    SolrConfig config = new SolrConfig(new SolrResourceLoader(dir.getPath()), "solrconfig.xml", null);
+    schema = IndexSchemaFactory.buildIndexSchema("schema.xml", config);
+    rf = new SolrReturnFields(fl, null);
+
+    children = new ArrayList<>();
+    for (int d = 0; d < ROWS; ++d) {
+      List<SolrDocument> docs = new ArrayList<>();
+      for (int s = 0; s < SHARDS; ++s) {
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", "doc" + d);
+        for (int i = 0; i < fields; i += 10) {
+          String name = getFieldName(i);
+          Object value = i % 3 == 2 ? (Object)(d + i) : "value" + d + "_" + i;
+          doc.setField(name, schema.getField(name).multiValued() ? (Object)Arrays.asList(value) : value);
+        }
+        docs.add(doc);
+      }
+      children.add(docs);
+    }
+  }
+
+  private static String getFieldName(int i) {
+    return new String[] { "s", "t", "n" }[i % 3] + i;
+  }
+
+  // a page of merge parents
+  private List<SolrDocument> getParents() {
+    List<SolrDocument> parents = new ArrayList<>(ROWS);
+    for (List<SolrDocument> docs : children) {
+      SolrDocument parent = new SolrDocument();
+      parent.setField(DuplicateDocumentList.MERGE_PARENT_FIELD, true);
+      parent.addChildDocuments(docs);
+      parents.add(parent);
+    }
+    return parents;
+  }
+
+  @Benchmark
+  public List<SolrDocument> plan() {
+    List<SolrDocument> parents = getParents();
+    MergePlan plan = new MergePlan(schema, rf);
+    for (SolrDocument parent : parents) {
+      plan.merge(parent);
+    }
+    return parents;
+  }
+
+  @Benchmark
+  public List<SolrDocument> perField() {
+    List<SolrDocument> parents = getParents();
+    for (SolrDocument parent : parents) {
+      mergePerField(parent);
+    }
+    return parents;
+  }
+
+  // as MergeSearchComponent.mergeAndConvert() did for each parent (without [shard], score)
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private void mergePerField(SolrDocument parent) {
+    parent.remove(DuplicateDocumentList.MERGE_PARENT_FIELD);
+    for (SolrDocument doc : parent.getChildDocuments()) {
+      for (String fieldName : doc.getFieldNames()) {
+        Object value = doc.getFieldValue(fieldName);
+        for (CopyField cf : schema.getCopyFieldsList(fieldName)) {
+          addConvertedFieldValue(parent, value, cf.getDestination());
+        }
+        SchemaField field = schema.getFieldOrNull(fieldName);
+        if (field != null) {
+          addConvertedFieldValue(parent, value, field);
+        }
+      }
+    }
+    for (SchemaField field : schema.getFields().values()) {
+      Object value = parent.getFieldValue(field.getName());
+      if (value == null) {
+        value = field.getDefaultValue();
+        if (value != null) {
+          parent.setField(field.getName(), value);
+        }
+      }
+      if (value == null && field.isRequired() && rf.wantsField(field.getName())) {
+        throw new MergeException.MissingRequiredField(field);
+      }
+      if (! field.stored()) {
+        parent.removeFields(field.getName());
+      }
+    }
+    while (parent.getChildDocumentCount() > 0) {
+      parent.getChildDocuments().remove(0);
+    }
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private void addConvertedFieldValue(SolrDocument superDoc, Object shardValue, SchemaField field) {
+    Object mergeValue = superDoc.getFieldValue(field.getName());
+    Set newValues = new HashSet();
+    for (Object value : shardValue instanceof List ? (List)shardValue : Collections.singletonList(shardValue)) {
+      IndexableField indexable = field.getType().createField(field, value, 1.0f);
+      newValues.add(field.getType().toObject(indexable));
+    }
+    if (field.multiValued()) {
+      Set set = (Set)mergeValue;
+      if (set == null) {
+        set = new HashSet();
+        superDoc.setField(field.getName(), set);
+      }
+      set.addAll(newValues);
+    } else {
+      newValues.add(mergeValue);
+      newValues.remove(null);
+      if (newValues.size() > 1) {
+        throw new MergeException.FieldNotMultiValued(field);
+      }
+      superDoc.setField(field.getName(), newValues.iterator().next());
+    }
+  }
+
+}
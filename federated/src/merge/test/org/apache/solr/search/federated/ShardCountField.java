@@ -17,37 +17,29 @@ package org.apache.solr.search.federated;
  * limitations under the License.
  */
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
-
-import org.apache.solr.handler.component.ShardDoc;
+import org.apache.lucene.search.SortField;
+import org.apache.solr.schema.SchemaField;
 
 /**
- * When asked for values(), return a ShardDoc for every doc id for every shard.
+ * Field type with its own merge behaviour: the merged value is the number of shards
+ * with a value for the field.
  */
-@SuppressWarnings("serial")
-public class AllShardsResultIds extends HashMap<Object, ShardDoc> {
+public class ShardCountField extends MergeAbstractFieldType {
 
-  private String[] shardAddresses;
-  
-  public AllShardsResultIds(String[] shardAddresses) {
-    this.shardAddresses = shardAddresses;
+  @Override
+  public Object convert(String val) {
+    return val;
   }
-  
+
   @Override
-  public Collection<ShardDoc> values() {
-    List<ShardDoc> sdocs = new ArrayList<>();
-    for (Object id : this.keySet()) {
-      for (String shard : shardAddresses) {
-        ShardDoc sdoc = new ShardDoc();
-        sdoc.id = id;
-        sdoc.shard = shard;
-        sdocs.add(sdoc);
-      }
-    }
-    return sdocs;
+  public Object merge(String shardAddress, Object mergeValue, Object shardValue) {
+    return mergeValue != null ? (Integer)mergeValue + 1 : 1;
   }
-  
+
+  @Override
+  public SortField getSortField(SchemaField field, boolean reverse) {
+    field.checkSortability();
+    return new SortField(field.getName(), SortField.Type.INT, reverse);
+  }
+
 }
@@ -244,6 +244,30 @@ public class TestMerge extends BaseTestCase {
     }   
   }
   
+  /**
+   * Only fields in the field list should be merged: not the copy sources asked of shards
+   * for the copy fields wanted, nor other copy fields with the same sources.
+   */
+  @Test
+  public void testOnlyWantedFields() throws Exception {
+    try (SolrCore core = h.getCoreContainer().getCore("merge")) {
+      ModifiableSolrParams params = new ModifiableSolrParams();
+      params.add("q", "*:*");
+      params.add("sort", "letter asc");
+      params.add("fl", "multicopy");
+
+      SolrDocumentList docs = queryDocs(core, "merge", params);
+      assertEquals(3, docs.size());
+      
+      SolrDocument doc0 = docs.get(0);
+      assertEquals(new HashSet<String>(Arrays.asList("A", "D", "E", "x")), doc0.getFieldValue("multicopy"));
+      assertNull(doc0.getFieldValue("letter"));
+      assertNull(doc0.getFieldValue("single"));
+      assertNull(doc0.getFieldValue("copy"));
+      assertNull(doc0.getFieldValue("default"));
+    }   
+  }
+  
   /**
    * Default values in the schema should be used if no value is returned from shards.
    */
@@ -447,6 +471,25 @@ public class TestMerge extends BaseTestCase {
     }   
   }
   
+  /**
+   * A field type's own merge behaviour should give the merged value.
+   */
+  @Test
+  public void testCustomMerge() throws Exception {
+    try (SolrCore core = h.getCoreContainer().getCore("merge")) {
+      ModifiableSolrParams params = new ModifiableSolrParams();
+      params.add("q", "*:*");
+      params.add("sort", "letter asc");
+      params.add("fl", "lettershards");
+
+      SolrDocumentList docs = queryDocs(core, "merge", params);
+      assertEquals(3, docs.size());
+      assertEquals(3, docs.get(0).getFieldValue("lettershards"));
+      assertEquals(2, docs.get(1).getFieldValue("lettershards"));
+      assertEquals(3, docs.get(2).getFieldValue("lettershards"));
+    }   
+  }
+  
   /**
    * The merge should fail if a conversion error occurs.
    */
@@ -0,0 +1,55 @@
+package uk.co.flax.biosolr.pdbe.fasta;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compare FastaParser (scanning lines directly) with the original parsing (RegexFastaParser,
+ * matching every line against the regular expressions), on generated FASTA output with the
+ * given number of hits (each with a summary line and an alignment section).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FastaParserBenchmark {
+
+  @Param({ "1000", "10000", "50000" })
+  private int hits;
+
+  private String output;
+
+  private final FastaParser parser = new FastaParser();
+
+  @Setup
+  public void setup() {
+    output = TestFastaParser.generate(hits);
+  }
+
+  @Benchmark
+  public FastaJobResults parseFast() throws IOException {
+    return parser.parse(new BufferedReader(new StringReader(output)));
+  }
+
+  @Benchmark
+  public FastaJobResults parseRegex() throws IOException {
+    return new RegexFastaParser().parseResults(new BufferedReader(new StringReader(output)));
+  }
+
+}
@@ -0,0 +1,111 @@
+package uk.co.flax.biosolr.pdbe.fasta;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compare the work done with FASTA results for one request (the join ids asked for
+ * three times, then the alignments of every join id looked up) by the indexed
+ * FastaXJoinResultsFactory.Results (including building its index) with the way the
+ * results used to do it (sorting the ids on every call, and looking up alignments by
+ * upper case PDb id).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FastaResultsBenchmark {
+
+  // number of join ids (PDb entries) in the results
+  @Param({ "1000", "10000", "100000", "1000000" })
+  private int ids;
+
+  private FastaJobResults results;
+
+  @Setup
+  public void setup() {
+    // PDb ids in random order, with one or two chains each
+    List<String> pdbIds = new ArrayList<>();
+    for (int i = 0; i < ids; ++i) {
+      pdbIds.add(Integer.toString(1 + i % 9) + Integer.toString(46656 + i / 9, 36).substring(1).toUpperCase());
+    }
+    Random random = new Random(0);
+    Collections.shuffle(pdbIds, random);
+    results = new FastaJobResults();
+    for (String pdbId : pdbIds) {
+      for (int c = random.nextInt(2); c >= 0; --c) {
+        results.addAlignment(new PDb.Alignment(new PDb.Id(pdbId), Character.toString((char)('A' + c)), random.nextDouble()));
+      }
+    }
+  }
+
+  // as Results.getJoinIds() did before the join ids were cached
+  private static List<String> sortJoinIds(FastaJobResults results) {
+    Set<PDb.Id> pdbIds = results.getAlignments().keySet();
+    String[] entries = new String[pdbIds.size()];
+    int i = 0;
+    for (PDb.Id pdbId : pdbIds) {
+      entries[i++] = pdbId.toString().toLowerCase();
+    }
+    Arrays.sort(entries);
+    return Arrays.asList(entries);
+  }
+
+  // as Results.getResult() did before the results were indexed
+  private static Collection<PDb.Alignment> lookup(FastaJobResults results, String joinId) {
+    Map<String, PDb.Alignment> map = results.getAlignments().get(new PDb.Id(joinId.toUpperCase()));
+    return map != null ? map.values() : null;
+  }
+
+  @Benchmark
+  public int requestSorting() {
+    int n = 0;
+    for (int i = 0; i < 3; ++i) {
+      n += sortJoinIds(results).size();
+    }
+    for (String joinId : sortJoinIds(results)) {
+      n += lookup(results, joinId).size();
+    }
+    return n;
+  }
+
+  @Benchmark
+  public int requestIndexed() {
+    FastaXJoinResultsFactory.Results indexed = new FastaXJoinResultsFactory.Results(results);
+    int n = 0;
+    for (int i = 0; i < 3; ++i) {
+      n += indexed.getJoinIds().size();
+    }
+    for (String joinId : indexed.getJoinIds()) {
+      n += indexed.getResult(joinId).size();
+    }
+    return n;
+  }
+
+  @Benchmark
+  public FastaXJoinResultsFactory.Results build() {
+    return new FastaXJoinResultsFactory.Results(results);
+  }
+
+}
@@ -0,0 +1,342 @@
+package uk.co.flax.biosolr.pdbe.fasta;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.ac.ebi.webservices.axis1.stubs.fasta.InputParameters;
+import uk.ac.ebi.webservices.axis1.stubs.fasta.JDispatcherService_PortType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs FASTA jobs asynchronously. Jobs are submitted to the FASTA service and polled
+ * from a small, dedicated scheduler, with the delay between polls doubling (up to a
+ * maximum) while a job is queued or running, so no thread waits on a remote job.
+ *
+ * At most maxJobs jobs are running on the FASTA service at any time; further jobs
+ * wait (in submission order) until one finishes.
+ *
+ * Jobs submitted together (with submitAll()) are polled as a group: one scheduled poll
+ * checks every running job of the group, rather than each job having its own.
+ */
+public class FastaJobManager implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FastaJobManager.class);
+
+  // defaults
+  public static final int DEFAULT_MAX_JOBS = 8;
+  public static final long DEFAULT_POLL_DELAY = 200;
+  public static final long DEFAULT_MAX_POLL_DELAY = 5000;
+  public static final int DEFAULT_THREADS = 2;
+
+  private static final AtomicInteger managers = new AtomicInteger();
+
+  private final JDispatcherService_PortType fasta;
+
+  private final String email;
+
+  // maximum number of jobs running on the FASTA service
+  private final int maxJobs;
+
+  // initial and maximum delay between polls of a job, in milliseconds
+  private final long pollDelay;
+  private final long maxPollDelay;
+
+  // scheduler for starting and polling jobs
+  private final ScheduledExecutorService scheduler;
+
+  // jobs waiting to be started, and the number started but not finished (guarded by this)
+  private final Queue<Task> pending = new ArrayDeque<>();
+  private int running = 0;
+
+  public FastaJobManager(JDispatcherService_PortType fasta, String email, int maxJobs, long pollDelay, long maxPollDelay, int threads) {
+    if (maxJobs < 1 || pollDelay < 1 || maxPollDelay < pollDelay || threads < 1) {
+      throw new IllegalArgumentException("Bad FASTA job manager configuration");
+    }
+    this.fasta = fasta;
+    this.email = email;
+    this.maxJobs = maxJobs;
+    this.pollDelay = pollDelay;
+    this.maxPollDelay = maxPollDelay;
+
+    String name = "fasta-jobs-" + managers.incrementAndGet() + "-";
+    AtomicInteger count = new AtomicInteger();
+    ThreadFactory threadFactory = r -> {
+      Thread thread = new Thread(r, name + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    scheduler = Executors.newScheduledThreadPool(threads, threadFactory);
+  }
+
+  public FastaJobManager(JDispatcherService_PortType fasta, String email) {
+    this(fasta, email, DEFAULT_MAX_JOBS, DEFAULT_POLL_DELAY, DEFAULT_MAX_POLL_DELAY, DEFAULT_THREADS);
+  }
+
+  /**
+   * Submit a FASTA job, returning a future for its results. Cancelling the future stops
+   * the job from being started or polled.
+   */
+  public CompletableFuture<FastaJobResults> submit(InputParameters params) {
+    Task task = new Task(new FastaJob(fasta, email, params));
+    synchronized (this) {
+      pending.add(task);
+    }
+    startPending();
+    return task.future;
+  }
+
+  /**
+   * Submit several FASTA jobs, to be polled as a group, returning a future for their
+   * results (in the same order). Cancelling the future cancels all the jobs, and the
+   * failure of any job fails the future (and cancels the others).
+   */
+  public CompletableFuture<List<FastaJobResults>> submitAll(List<InputParameters> params) {
+    Group group = new Group();
+    List<Task> tasks = new ArrayList<>(params.size());
+    for (InputParameters p : params) {
+      Task task = new Task(new FastaJob(fasta, email, p));
+      task.group = group;
+      tasks.add(task);
+    }
+    synchronized (this) {
+      pending.addAll(tasks);
+    }
+    startPending();
+
+    CompletableFuture<List<FastaJobResults>> future = new CompletableFuture<>();
+    AtomicInteger remaining = new AtomicInteger(tasks.size());
+    for (Task task : tasks) {
+      task.future.whenComplete((results, t) -> {
+        if (t != null) {
+          future.completeExceptionally(t);
+        } else if (remaining.decrementAndGet() == 0) {
+          List<FastaJobResults> list = new ArrayList<>(tasks.size());
+          for (Task each : tasks) {
+            list.add(each.future.join());
+          }
+          future.complete(list);
+        }
+      });
+    }
+    future.whenComplete((results, t) -> {
+      if (t != null) {
+        for (Task task : tasks) {
+          task.future.cancel(false);
+        }
+      }
+    });
+    if (tasks.isEmpty()) {
+      future.complete(new ArrayList<>());
+    }
+    return future;
+  }
+
+  /**
+   * Get the number of jobs started but not yet finished.
+   */
+  public synchronized int getRunning() {
+    return running;
+  }
+
+  /**
+   * Get the number of jobs waiting to be started.
+   */
+  public synchronized int getPending() {
+    return pending.size();
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+    synchronized (this) {
+      for (Task task : pending) {
+        task.future.cancel(false);
+      }
+      pending.clear();
+    }
+  }
+
+  // start as many pending jobs as we can
+  private void startPending() {
+    while (true) {
+      Task task;
+      synchronized (this) {
+        if (running >= maxJobs || pending.isEmpty()) {
+          return;
+        }
+        task = pending.remove();
+        if (task.future.isDone()) {
+          continue;
+        }
+        ++running;
+      }
+      try {
+        scheduler.execute(task::start);
+      } catch (RejectedExecutionException e) {
+        finish(task, e);
+      }
+    }
+  }
+
+  // the job has finished (or failed, if the throwable is not null), so make room for another
+  private void finish(Task task, Throwable t) {
+    synchronized (this) {
+      --running;
+    }
+    if (t != null) {
+      task.future.completeExceptionally(t);
+    }
+    startPending();
+  }
+
+  // a job and its results future
+  private class Task {
+
+    private final FastaJob job;
+
+    private final CompletableFuture<FastaJobResults> future = new CompletableFuture<>();
+
+    // the group the job is polled with (or null, if it is polled on its own)
+    private Group group;
+
+    // delay before the next poll, in milliseconds
+    private long delay = pollDelay;
+
+    private Task(FastaJob job) {
+      this.job = job;
+    }
+
+    private void start() {
+      if (future.isDone()) {
+        finish(this, null);
+        return;
+      }
+      try {
+        job.start();
+        if (group != null) {
+          group.add(this);
+        } else {
+          schedule();
+        }
+      } catch (Throwable t) {
+        finish(this, t);
+      }
+    }
+
+    private void poll() {
+      if (! check()) {
+        delay = Math.min(delay * 2, maxPollDelay);
+        schedule();
+      }
+    }
+
+    // poll the job, returning whether it has finished (or failed, or been cancelled)
+    private boolean check() {
+      if (future.isDone()) {
+        finish(this, null);
+        return true;
+      }
+      try {
+        if (! job.poll()) {
+          return false;
+        }
+        if (! FastaStatus.DONE.equals(job.getStatus())) {
+          throw new IOException("Unexpected FASTA job status: " + job.getStatus());
+        }
+        FastaJobResults results = job.getResults();
+        finish(this, null);
+        future.complete(results);
+      } catch (Throwable t) {
+        finish(this, t);
+      }
+      return true;
+    }
+
+    private void schedule() {
+      try {
+        scheduler.schedule(this::poll, delay, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        LOG.warn("FASTA job manager closed while polling job " + job.getJobId());
+        finish(this, e);
+      }
+    }
+
+  }
+
+  // jobs polled together, with a single schedule
+  private class Group {
+
+    // started jobs not yet finished, and whether a poll is scheduled (guarded by this)
+    private final List<Task> polling = new ArrayList<>();
+    private boolean scheduled = false;
+
+    // delay before the next poll, in milliseconds
+    private long delay = pollDelay;
+
+    // poll a started job with the group
+    private void add(Task task) {
+      synchronized (this) {
+        polling.add(task);
+        if (scheduled) {
+          return;
+        }
+        scheduled = true;
+      }
+      schedule();
+    }
+
+    private void poll() {
+      List<Task> tasks;
+      synchronized (this) {
+        tasks = new ArrayList<>(polling);
+      }
+      List<Task> finished = new ArrayList<>();
+      for (Task task : tasks) {
+        if (task.check()) {
+          finished.add(task);
+        }
+      }
+      synchronized (this) {
+        polling.removeAll(finished);
+        if (polling.isEmpty()) {
+          scheduled = false;
+          return;
+        }
+        delay = Math.min(delay * 2, maxPollDelay);
+      }
+      schedule();
+    }
+
+    private void schedule() {
+      try {
+        scheduler.schedule(this::poll, delay, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        LOG.warn("FASTA job manager closed while polling a group of jobs");
+        List<Task> tasks;
+        synchronized (this) {
+          tasks = new ArrayList<>(polling);
+          polling.clear();
+          scheduled = false;
+        }
+        for (Task task : tasks) {
+          finish(task, e);
+        }
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,234 @@
+package uk.co.flax.biosolr.pdbe.fasta;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parser for FASTA output, filling a FastaJobResults as it reads the output (once, line by
+ * line). Lines in the summary ("The best scores are:") add alignments, and each alignment
+ * section (starting with a ">>" line) completes the first section for its PDB id and chain.
+ *
+ * The parser is a two state machine (outside or inside an alignment section). Each line
+ * is classified by prefix and scanned in place. Lines that don't have the usual shape
+ * (e.g. pre-release PDB entries) fall back to the regular expressions that used to be
+ * applied to every line, so the results are always the same as theirs.
+ */
+public class FastaParser {
+
+  // regexp patterns, for summary and section start lines without the usual shape
+  private final Pattern pattern1 = Pattern.compile("^PDB:(.*?_.*?)\\s+(.+?)\\s+([0-9.e-]+?)$|^PRE_PDB:(\\w{4} Entity)\\s+(.+?)\\s+([0-9.e-]+?)$");
+  private final Pattern pattern2 = Pattern.compile("^>>PDB:(.*?_.*?)\\s+.*?$|^>>PRE_PDB:(\\w{4} Entity).*?$");
+
+  // matchers, reset for each line
+  private final Matcher matcher1 = pattern1.matcher("");
+  private final Matcher matcher2 = pattern2.matcher("");
+
+  // the alignment section being read (or null), and whether to ignore it
+  private PDb.Alignment alignment;
+  private boolean complete;
+
+  // the start of the sequence in the current line, set by isQueryLine() and isReturnLine()
+  private int sequenceStart;
+
+  /**
+   * Parse FASTA output. A parser may be reused, but not concurrently.
+   */
+  public FastaJobResults parse(BufferedReader reader) throws IOException {
+    FastaJobResults results = new FastaJobResults();
+    alignment = null;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (alignment == null) {
+        // outside an alignment section
+        PDb.Alignment a = parseSummary(line);
+        if (a != null) {
+          results.addAlignment(a);
+        } else {
+          startSection(results, line);
+        }
+      } else if (line.startsWith("Smith-Waterman score:")) {
+        parseScore(line);
+      } else if (startSection(results, line)) {
+        // the next alignment section
+      } else if (isQueryLine(line)) {
+        if (! complete) {
+          alignment.addQuerySequence(line, sequenceStart, line.length());
+        }
+      } else if (isReturnLine(line)) {
+        if (! complete) {
+          alignment.addReturnSequence(line, sequenceStart, line.length());
+        }
+      }
+    }
+    alignment = null;
+    return results;
+  }
+
+  // start an alignment section, if the line is the start of one
+  private boolean startSection(FastaJobResults results, String line) {
+    String[] bits = parseSectionStart(line);
+    if (bits == null) {
+      return false;
+    }
+    alignment = results.getAlignment(bits[0], bits[1]);
+    if (alignment == null) {
+      throw new RuntimeException("Alignment not yet seen: " + bits[0] + "_" + bits[1]);
+    }
+
+    // sometimes an alignment appears twice in the results - need to ignore all
+    // but the first (but still need to consume lines)
+    complete = alignment.isComplete();
+    return true;
+  }
+
+  // get the Alignment for a summary line (or null if it isn't one)
+  private PDb.Alignment parseSummary(String line) {
+    if (! line.startsWith("PDB:") && ! line.startsWith("PRE_PDB:")) {
+      return null;
+    }
+    if (line.startsWith("PDB:")) {
+      // PDB:<id>_<chain> <description> <e-value>
+      int idEnd = whitespace(line, 4);
+      int underscore = line.indexOf('_', 4);
+      int last = line.length() - 1;
+      int valueStart = last;
+      while (valueStart > idEnd && isValueChar(line.charAt(valueStart))) {
+        --valueStart;
+      }
+      if (idEnd > 0 && underscore > 4 && underscore < idEnd - 1 && line.lastIndexOf('_', idEnd - 1) == underscore
+          && valueStart < last && isWhitespace(line.charAt(valueStart))
+          && nonWhitespace(line, idEnd, valueStart)) {
+        return new PDb.Alignment(new PDb.Id(line.substring(4, underscore)), line.substring(underscore + 1, idEnd),
+            Double.parseDouble(line.substring(valueStart + 1)));
+      }
+    }
+
+    matcher1.reset(line);
+    if (! matcher1.find()) {
+      return null;
+    }
+    int n = firstGroup(matcher1);
+    String[] s = idChain(matcher1.group(n));
+    double eValue = new Double(matcher1.group(n + 2));
+    return new PDb.Alignment(new PDb.Id(s[0]), s[1], eValue);
+  }
+
+  // get the id and chain of a section start line (or null if it isn't one)
+  private String[] parseSectionStart(String line) {
+    if (! line.startsWith(">>")) {
+      return null;
+    }
+    if (line.startsWith(">>PDB:")) {
+      // >>PDB:<id>_<chain> <description>
+      int idEnd = whitespace(line, 6);
+      int underscore = line.indexOf('_', 6);
+      if (idEnd > 0 && underscore > 6 && underscore < idEnd - 1 && line.lastIndexOf('_', idEnd - 1) == underscore) {
+        return new String[] { line.substring(6, underscore), line.substring(underscore + 1, idEnd) };
+      }
+    }
+
+    matcher2.reset(line);
+    if (! matcher2.find()) {
+      return null;
+    }
+    return idChain(matcher2.group(firstGroup(matcher2)));
+  }
+
+  // set the percent identity and overlaps of the current alignment from a score line
+  private void parseScore(String line) throws IOException {
+    // Smith-Waterman score: <score>; <identity>% identity (...) in <n> aa overlap (<overlap>)
+    int semicolon = line.indexOf(';', 21);
+    int percent = semicolon < 0 ? -1 : line.indexOf("% ", semicolon + 1);
+    int overlapStart = percent < 0 ? -1 : line.indexOf(" overlap (", percent + 2);
+    if (overlapStart < 0 || line.charAt(line.length() - 1) != ')') {
+      return;
+    }
+    String identity = line.substring(semicolon + 1, percent);
+    String overlap = line.substring(overlapStart + 10, line.length() - 1);
+
+    double percentIdentity = new Double(identity);
+    String[] o = overlap.split(":");
+    String[] oIn = o[0].split("-");
+    String[] oOut = o[1].split("-");
+    if (! complete) {
+      alignment.setPercentIdentity(percentIdentity);
+      try {
+        alignment.setQueryOverlapStart(Integer.valueOf(oIn[0]));
+        alignment.setQueryOverlapEnd(Integer.valueOf(oIn[1]));
+        alignment.setDbOverlapStart(Integer.valueOf(oOut[0]));
+        alignment.setDbOverlapEnd(Integer.valueOf(oOut[1]));
+      } catch (NumberFormatException e) {
+        throw new IOException("Error parsing line: " + line);
+      }
+    }
+  }
+
+  // whether the line is part of the query sequence ("EMBOSS " or "EMBOS  " then sequence)
+  private boolean isQueryLine(String line) {
+    if (line.length() >= 7 && line.startsWith("EMBOS") && (line.charAt(5) == 'S' || line.charAt(5) == ' ') && line.charAt(6) == ' ') {
+      sequenceStart = 7;
+      return true;
+    }
+    return false;
+  }
+
+  // whether the line is part of the returned sequence (a PDB id then sequence)
+  private boolean isReturnLine(String line) {
+    int space = line.startsWith("PDB:") ? line.indexOf(' ', 4) : line.startsWith("PRE_PD") ? line.indexOf(' ', 6) : -1;
+    if (space >= 0) {
+      sequenceStart = space + 1;
+      return true;
+    }
+    return false;
+  }
+
+  private static int firstGroup(Matcher m) {
+    for (int n = 1; n <= m.groupCount(); ++n) {
+      if (m.group(n) != null) {
+        return n;
+      }
+    }
+    return 0;
+  }
+
+  // split a matched id and chain (pre-release entries have an "Entity" chain)
+  private static String[] idChain(String pdbIdChain) {
+    if (pdbIdChain.contains("Entity")) {
+      pdbIdChain = pdbIdChain.replaceFirst(" ", "_");
+    }
+    return pdbIdChain.split("_");
+  }
+
+  // same as \s in a regular expression
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  // characters of an e-value (as matched by [0-9.e-])
+  private static boolean isValueChar(char c) {
+    return (c >= '0' && c <= '9') || c == '.' || c == 'e' || c == '-';
+  }
+
+  // index of the first whitespace character at or after start (or -1)
+  private static int whitespace(String line, int start) {
+    for (int i = start; i < line.length(); ++i) {
+      if (isWhitespace(line.charAt(i))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // whether there is a non-whitespace character in [start, end)
+  private static boolean nonWhitespace(String line, int start, int end) {
+    for (int i = start; i < end; ++i) {
+      if (! isWhitespace(line.charAt(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
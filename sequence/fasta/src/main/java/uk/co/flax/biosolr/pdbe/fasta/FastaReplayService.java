@@ -0,0 +1,152 @@
+package uk.co.flax.biosolr.pdbe.fasta;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.ac.ebi.webservices.axis1.stubs.fasta.InputParameters;
+import uk.ac.ebi.webservices.axis1.stubs.fasta.JDispatcherService_PortType;
+import uk.ac.ebi.webservices.axis1.stubs.fasta.WsResultType;
+
+/**
+ * Stand-in for the FASTA web service which replays recorded FASTA output, so that the
+ * FASTA xjoin can be run (and load tested) without network access.
+ *
+ * The recorded output is either a single file, returned for every job, or a directory
+ * of files, one of which is chosen for each job by the hash of its sequence (so the same
+ * sequence always gets the same output). Files are read once, when the service is
+ * created. Each job is reported as running until latency milliseconds after it was
+ * started, to simulate the remote service. A job is forgotten when its output is
+ * fetched, or when more than MAX_JOBS later jobs have been started (since the results of
+ * cancelled or failed jobs are never fetched).
+ */
+public class FastaReplayService implements InvocationHandler {
+
+  // identifier of the (only) result type
+  private static final String RESULT_TYPE = "out";
+
+  // maximum number of jobs remembered
+  public static final int MAX_JOBS = 1000;
+
+  // recorded outputs, in file name order
+  private final List<byte[]> outputs;
+
+  private final long latency;
+
+  // jobs whose output has not been fetched (the most recent MAX_JOBS), and the number
+  // of jobs run
+  private final Map<String, Job> jobs = Collections.synchronizedMap(new LinkedHashMap<String, Job>() {
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Job> eldest) {
+      return size() > MAX_JOBS;
+    }
+
+  });
+  private final AtomicInteger count = new AtomicInteger();
+
+  private static class Job {
+
+    private final byte[] output;
+
+    private final long started;
+
+    private Job(byte[] output, long started) {
+      this.output = output;
+      this.started = started;
+    }
+
+  }
+
+  private FastaReplayService(List<byte[]> outputs, long latency) {
+    this.outputs = outputs;
+    this.latency = latency;
+  }
+
+  /**
+   * Create a replay service for the given file or directory of recorded FASTA output.
+   */
+  public static JDispatcherService_PortType create(Path path, long latency) throws IOException {
+    List<Path> files = new ArrayList<>();
+    if (Files.isDirectory(path)) {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, Files::isRegularFile)) {
+        for (Path file : stream) {
+          files.add(file);
+        }
+      }
+      Collections.sort(files);
+    } else {
+      files.add(path);
+    }
+    if (files.isEmpty()) {
+      throw new IOException("No recorded FASTA output in " + path);
+    }
+
+    List<byte[]> outputs = new ArrayList<>();
+    for (Path file : files) {
+      outputs.add(Files.readAllBytes(file));
+    }
+    FastaReplayService handler = new FastaReplayService(outputs, latency);
+    return (JDispatcherService_PortType)Proxy.newProxyInstance(JDispatcherService_PortType.class.getClassLoader(),
+        new Class<?>[] { JDispatcherService_PortType.class }, handler);
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) {
+    switch (method.getName()) {
+    case "run":
+      return run((InputParameters)args[2]);
+    case "getStatus":
+      return getStatus((String)args[0]);
+    case "getResultTypes":
+      WsResultType type = new WsResultType();
+      type.setIdentifier(RESULT_TYPE);
+      return new WsResultType[] { type };
+    case "getResult":
+      return getResult((String)args[0]);
+    case "toString":
+      return "FastaReplayService[" + outputs.size() + " outputs]";
+    case "hashCode":
+      return System.identityHashCode(proxy);
+    case "equals":
+      return proxy == args[0];
+    default:
+      throw new UnsupportedOperationException("FASTA replay service does not support " + method.getName());
+    }
+  }
+
+  private String run(InputParameters params) {
+    String sequence = params.getSequence();
+    byte[] output = outputs.get(Math.floorMod(sequence != null ? sequence.hashCode() : 0, outputs.size()));
+    String jobId = "replay-" + count.incrementAndGet();
+    jobs.put(jobId, new Job(output, System.currentTimeMillis()));
+    return jobId;
+  }
+
+  private String getStatus(String jobId) {
+    Job job = jobs.get(jobId);
+    if (job == null) {
+      return FastaStatus.NOT_FOUND;
+    }
+    return System.currentTimeMillis() - job.started < latency ? FastaStatus.RUNNING : FastaStatus.DONE;
+  }
+
+  private byte[] getResult(String jobId) {
+    Job job = jobs.remove(jobId);
+    if (job == null) {
+      throw new IllegalStateException("No such FASTA replay job: " + jobId);
+    }
+    return job.output;
+  }
+
+}
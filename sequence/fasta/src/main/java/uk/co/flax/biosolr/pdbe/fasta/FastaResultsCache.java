@@ -0,0 +1,268 @@
+package uk.co.flax.biosolr.pdbe.fasta;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import uk.ac.ebi.webservices.axis1.stubs.fasta.InputParameters;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of parsed FASTA job results, keyed on the normalised query sequence and the
+ * other job parameters. Results are held in memory (up to a maximum number of entries,
+ * least recently used first out) and, if a directory is given, on disk (one gzipped file
+ * per entry, up to a maximum number of files), so that they survive core reloads and
+ * restarts. Entries expire timeToLive milliseconds after they were added (if positive).
+ */
+public class FastaResultsCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FastaResultsCache.class);
+
+  // file format version, written at the start of each file
+  private static final int VERSION = 1;
+
+  private static final String SUFFIX = ".fasta.gz";
+
+  public static final int DEFAULT_MAX_FILES = 1000;
+
+  private final int maxSize;
+
+  private final Path dir;
+
+  private final int maxFiles;
+
+  private final long timeToLive;
+
+  // LRU ordered in-memory entries (guarded by this)
+  private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private static class Entry {
+
+    private final FastaJobResults results;
+
+    private final long created;
+
+    private Entry(FastaJobResults results, long created) {
+      this.results = results;
+      this.created = created;
+    }
+
+  }
+
+  /**
+   * Create a cache holding up to maxSize entries in memory and, if dir is not null, up
+   * to maxFiles entries on disk, for timeToLive milliseconds (or forever, if not positive).
+   */
+  public FastaResultsCache(int maxSize, Path dir, int maxFiles, long timeToLive) throws IOException {
+    if (maxSize < 0 || (dir != null && maxFiles <= 0)) {
+      throw new IllegalArgumentException("Bad FASTA results cache configuration");
+    }
+    this.maxSize = maxSize;
+    this.dir = dir;
+    this.maxFiles = maxFiles;
+    this.timeToLive = timeToLive;
+    if (dir != null) {
+      Files.createDirectories(dir);
+    }
+  }
+
+  /**
+   * Get the cache key for the given FASTA job parameters. Sequences are normalised by
+   * dropping FASTA header lines and whitespace, and upper casing.
+   */
+  public static String key(InputParameters params) {
+    StringBuilder sequence = new StringBuilder();
+    for (String line : params.getSequence().split("\n")) {
+      if (! line.trim().startsWith(">")) {
+        sequence.append(line.replaceAll("\\s+", "").toUpperCase());
+      }
+    }
+    StringBuilder key = new StringBuilder();
+    key.append(params.getProgram()).append('\0');
+    key.append(String.join(",", params.getDatabase())).append('\0');
+    key.append(params.getStype()).append('\0');
+    key.append(params.getExplowlim()).append('\0');
+    key.append(params.getExpupperlim()).append('\0');
+    key.append(params.getScores()).append('\0');
+    key.append(params.getAlignments()).append('\0');
+    key.append(sequence);
+    return key.toString();
+  }
+
+  /**
+   * Get cached results for the given key, or null if there are none (or they have
+   * expired).
+   */
+  public FastaJobResults get(String key) throws IOException {
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        if (! isExpired(entry.created, now)) {
+          return entry.results;
+        }
+        entries.remove(key);
+      }
+    }
+
+    if (dir == null) {
+      return null;
+    }
+    Entry entry = read(key, now);
+    if (entry == null) {
+      return null;
+    }
+    putMemory(key, entry);
+    return entry.results;
+  }
+
+  /**
+   * Add results for the given key.
+   */
+  public void put(String key, FastaJobResults results) throws IOException {
+    Entry entry = new Entry(results, System.currentTimeMillis());
+    putMemory(key, entry);
+    if (dir != null) {
+      write(key, entry);
+    }
+  }
+
+  /**
+   * Get the number of entries held in memory.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  private synchronized void putMemory(String key, Entry entry) {
+    if (maxSize == 0) {
+      return;
+    }
+    entries.put(key, entry);
+    for (Iterator<String> it = entries.keySet().iterator(); entries.size() > maxSize; ) {
+      it.next();
+      it.remove();
+    }
+  }
+
+  private boolean isExpired(long created, long now) {
+    return timeToLive > 0 && now >= created + timeToLive;
+  }
+
+  // the file for the given key
+  private Path file(String key) {
+    try {
+      StringBuilder name = new StringBuilder();
+      for (byte b : MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8))) {
+        name.append(String.format("%02x", b));
+      }
+      return dir.resolve(name.append(SUFFIX).toString());
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // read the entry for the given key from disk (or return null)
+  private Entry read(String key, long now) throws IOException {
+    Path file = file(key);
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+      if (in.readInt() != VERSION) {
+        return null;
+      }
+      byte[] keyBytes = new byte[in.readInt()];
+      in.readFully(keyBytes);
+      if (! key.equals(new String(keyBytes, StandardCharsets.UTF_8))) {
+        return null;
+      }
+      long created = in.readLong();
+      if (isExpired(created, now)) {
+        Files.deleteIfExists(file);
+        return null;
+      }
+      FastaJobResults results = new FastaJobResults();
+      for (int n = in.readInt(); n > 0; --n) {
+        results.addAlignment(PDb.Alignment.read(in));
+      }
+      return new Entry(results, created);
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      LOG.warn("Ignoring unreadable FASTA results cache file " + file, e);
+      return null;
+    }
+  }
+
+  // write the entry for the given key to disk (via a temporary file, so readers never
+  // see a partial file), then remove the oldest files if there are too many
+  private void write(String key, Entry entry) throws IOException {
+    Path file = file(key);
+    Path tmp = Files.createTempFile(dir, "tmp", null);
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+        out.writeInt(VERSION);
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(keyBytes.length);
+        out.write(keyBytes);
+        out.writeLong(entry.created);
+        out.writeInt(entry.results.getNumChains());
+        for (Map<String, PDb.Alignment> chains : entry.results.getAlignments().values()) {
+          for (PDb.Alignment a : chains.values()) {
+            a.write(out);
+          }
+        }
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+    trim();
+  }
+
+  // remove the least recently written files beyond maxFiles
+  private void trim() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+      for (Path file : stream) {
+        files.add(file);
+      }
+    }
+    if (files.size() <= maxFiles) {
+      return;
+    }
+    Map<Path, FileTime> times = new LinkedHashMap<>();
+    for (Path file : files) {
+      try {
+        times.put(file, Files.getLastModifiedTime(file));
+      } catch (NoSuchFileException e) {
+        // removed by another thread
+      }
+    }
+    List<Path> oldest = new ArrayList<>(times.keySet());
+    oldest.sort(Comparator.comparing(times::get));
+    for (int i = 0; i < oldest.size() - maxFiles; ++i) {
+      Files.deleteIfExists(oldest.get(i));
+    }
+  }
+
+}
@@ -5,5 +5,6 @@ public class FastaStatus {
   public static final String RUNNING = "RUNNING";
   public static final String DONE = "FINISHED";
   public static final String QUEUED = "QUEUED";
+  public static final String NOT_FOUND = "NOT_FOUND";
 
 }
@@ -1,20 +1,26 @@
 package uk.co.flax.biosolr.pdbe.fasta;
 
-//import static org.mockito.Mockito.mock;
-//import static org.mockito.Mockito.when;
-
+import java.io.Closeable;
 import java.io.IOException;
-//import java.nio.file.Files;
-//import java.nio.file.Paths;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.xml.rpc.ServiceException;
 
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.search.xjoin.BatchResults;
 import org.apache.solr.search.xjoin.XJoinResults;
 import org.apache.solr.search.xjoin.XJoinResultsFactory;
 
@@ -22,7 +28,6 @@ import uk.ac.ebi.webservices.axis1.stubs.fasta.InputParameters;
 import uk.ac.ebi.webservices.axis1.stubs.fasta.JDispatcherService_PortType;
 import uk.ac.ebi.webservices.axis1.stubs.fasta.JDispatcherService_Service;
 import uk.ac.ebi.webservices.axis1.stubs.fasta.JDispatcherService_ServiceLocator;
-//import uk.ac.ebi.webservices.axis1.stubs.fasta.WsResultType;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,9 +35,10 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Connect to FASTA service and generate a PDB id filter based on a user
- * supplied sequence.
+ * supplied sequence. If a debug file is configured, recorded FASTA output is
+ * replayed instead (see FastaReplayService).
  */
-public class FastaXJoinResultsFactory implements XJoinResultsFactory<String> {
+public class FastaXJoinResultsFactory implements XJoinResultsFactory<String>, Closeable {
 
   private static final Logger LOG = LoggerFactory.getLogger(FastaXJoinResultsFactory.class);
 
@@ -42,6 +48,14 @@ public class FastaXJoinResultsFactory implements XJoinResultsFactory<String> {
   public static final String INIT_DATABASE = "database";
   public static final String INIT_STYPE = "stype";
   public static final String INIT_DEBUG_FILE = "debug.file";
+  public static final String INIT_DEBUG_LATENCY = "debug.latency";
+  public static final String INIT_MAX_JOBS = "maxJobs";
+  public static final String INIT_POLL_DELAY = "pollDelay";
+  public static final String INIT_MAX_POLL_DELAY = "maxPollDelay";
+  public static final String INIT_RESULTS_CACHE_SIZE = "resultsCacheSize";
+  public static final String INIT_RESULTS_CACHE_DIR = "resultsCacheDir";
+  public static final String INIT_RESULTS_CACHE_FILES = "resultsCacheFiles";
+  public static final String INIT_RESULTS_CACHE_TIME_TO_LIVE = "resultsCacheTimeToLive";
 
   // request parameters
   public static final String FASTA_EXPLOWLIM = "explowlim";
@@ -56,6 +70,8 @@ public class FastaXJoinResultsFactory implements XJoinResultsFactory<String> {
   private String program;
   private String database;
   private String sType;
+  private FastaJobManager jobs;
+  private FastaResultsCache cache;
 
   @Override
   @SuppressWarnings("rawtypes")
@@ -64,18 +80,15 @@ public class FastaXJoinResultsFactory implements XJoinResultsFactory<String> {
     
     String debugFile = (String) args.get(INIT_DEBUG_FILE);
     if (debugFile != null) {
-//      try {
-//        byte[] result = Files.readAllBytes(Paths.get(debugFile));
-//        fasta = mock(JDispatcherService_PortType.class);
-//        when(fasta.getStatus(null)).thenReturn(FastaStatus.DONE);
-//        WsResultType[] types = new WsResultType[] { mock(WsResultType.class) };
-//        when(fasta.getResultTypes(null)).thenReturn(types);
-//        when(fasta.getResult(null, null, null)).thenReturn(result);
-//      } catch (IOException e) {
-//        throw new RuntimeException(e);
-//      }
-        throw new UnsupportedOperationException("debug file not supported");
-    } 
+      // replay recorded output instead of calling the FASTA service
+      Number latency = (Number) args.get(INIT_DEBUG_LATENCY);
+      try {
+        fasta = FastaReplayService.create(Paths.get(debugFile), latency != null ? latency.longValue() : 0);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      LOG.info("debug.file=" + debugFile + ", debug.latency=" + latency);
+    }
     else {
       JDispatcherService_Service service = new JDispatcherService_ServiceLocator();
       try {
@@ -108,9 +121,34 @@ public class FastaXJoinResultsFactory implements XJoinResultsFactory<String> {
         throw new RuntimeException("external stype parameter is required");
     }
     LOG.info("sType=" + sType);
+
+    Number maxJobs = (Number) args.get(INIT_MAX_JOBS);
+    Number pollDelay = (Number) args.get(INIT_POLL_DELAY);
+    Number maxPollDelay = (Number) args.get(INIT_MAX_POLL_DELAY);
+    jobs = new FastaJobManager(fasta, email,
+        maxJobs != null ? maxJobs.intValue() : FastaJobManager.DEFAULT_MAX_JOBS,
+        pollDelay != null ? pollDelay.longValue() : FastaJobManager.DEFAULT_POLL_DELAY,
+        maxPollDelay != null ? maxPollDelay.longValue() : FastaJobManager.DEFAULT_MAX_POLL_DELAY,
+        FastaJobManager.DEFAULT_THREADS);
+
+    Number cacheSize = (Number) args.get(INIT_RESULTS_CACHE_SIZE);
+    String cacheDir = (String) args.get(INIT_RESULTS_CACHE_DIR);
+    if ((cacheSize != null && cacheSize.intValue() > 0) || cacheDir != null) {
+      Number cacheFiles = (Number) args.get(INIT_RESULTS_CACHE_FILES);
+      Number timeToLive = (Number) args.get(INIT_RESULTS_CACHE_TIME_TO_LIVE);
+      try {
+        cache = new FastaResultsCache(cacheSize != null ? cacheSize.intValue() : 0,
+            cacheDir != null ? Paths.get(cacheDir) : null,
+            cacheFiles != null ? cacheFiles.intValue() : FastaResultsCache.DEFAULT_MAX_FILES,
+            timeToLive != null ? timeToLive.longValue() : 0);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      LOG.info("resultsCacheSize=" + cacheSize + ", resultsCacheDir=" + cacheDir);
+    }
   }
 
-  private String getParam(SolrParams params, String name) {
+  private static String getParam(SolrParams params, String name) {
     String value = params.get(name);
     if (value == null || value.length() == 0) {
       throw new RuntimeException("Missing or empty " + name);
@@ -119,64 +157,192 @@ public class FastaXJoinResultsFactory implements XJoinResultsFactory<String> {
   }
 
   /**
-   * Call out to the FASTA service and add a filter query based on the response.
+   * Call out to the FASTA service and add a filter query based on the response. The job
+   * is run (and polled) by our job manager, unless we have cached results for the same
+   * sequence and parameters.
+   *
+   * If sequence.KEY parameters are given instead of a sequence, a job is run for each of
+   * them, the jobs being submitted and polled together, and BatchResults are returned,
+   * with the results for each sequence under its key.
    */
   @Override
   public XJoinResults<String> getResults(SolrParams params) throws IOException {
+    Map<String, String> batch = getBatchSequences(params);
+    if (batch.isEmpty()) {
+      return new Results(getJobResults(Collections.singletonList(getInput(params, getParam(params, FASTA_SEQUENCE)))).get(0));
+    }
+    if (params.get(FASTA_SEQUENCE) != null) {
+      throw new RuntimeException("Give either " + FASTA_SEQUENCE + " or " + FASTA_SEQUENCE + ".KEY parameters, not both");
+    }
+
+    List<InputParameters> inputs = new ArrayList<>(batch.size());
+    for (String sequence : batch.values()) {
+      inputs.add(getInput(params, sequence));
+    }
+    List<FastaJobResults> results = getJobResults(inputs);
+    Map<String, Results> members = new LinkedHashMap<>();
+    int i = 0;
+    for (String key : batch.keySet()) {
+      members.put(key, new Results(results.get(i++)));
+    }
+    return new BatchResults<>(members);
+  }
+
+  // the sequence.KEY parameters, by key (in order of key)
+  private static Map<String, String> getBatchSequences(SolrParams params) {
+    String prefix = FASTA_SEQUENCE + ".";
+    Map<String, String> batch = new TreeMap<>();
+    for (Iterator<String> it = params.getParameterNamesIterator(); it.hasNext(); ) {
+      String name = it.next();
+      if (name.startsWith(prefix) && name.length() > prefix.length()) {
+        batch.put(name.substring(prefix.length()), getParam(params, name));
+      }
+    }
+    return batch;
+  }
+
+  // FASTA job parameters for the given sequence
+  private InputParameters getInput(SolrParams params, String sequence) {
     InputParameters input = new InputParameters();
     input.setProgram(program);
     input.setDatabase(new String[] { database });
     input.setStype(sType);
-    input.setSequence(getParam(params, FASTA_SEQUENCE));
+    input.setSequence(sequence);
     input.setExplowlim(new Double(getParam(params, FASTA_EXPLOWLIM)));
     input.setExpupperlim(new Double(getParam(params, FASTA_EXPUPPERLIM)));
     input.setScores(new Integer(getParam(params, FASTA_SCORES)));
     input.setAlignments(new Integer(getParam(params, FASTA_ALIGNMENTS)));
+    return input;
+  }
 
-    FastaJob job = new FastaJob(fasta, email, input);
-    job.run();
-
-    if (!job.resultsOk()) {
-      if (job.getException() != null) {
-        throw new RuntimeException(job.getException());
+  // get results for each of the given jobs (in the same order), from our cache, or by
+  // running together those which are not cached
+  private List<FastaJobResults> getJobResults(List<InputParameters> inputs) throws IOException {
+    FastaJobResults[] results = new FastaJobResults[inputs.size()];
+    String[] keys = new String[inputs.size()];
+    List<InputParameters> uncached = new ArrayList<>(inputs.size());
+    for (int i = 0; i < results.length; ++i) {
+      if (cache != null) {
+        keys[i] = FastaResultsCache.key(inputs.get(i));
+        results[i] = cache.get(keys[i]);
+      }
+      if (results[i] == null) {
+        uncached.add(inputs.get(i));
       }
-      if (!FastaStatus.DONE.equals(job.getStatus())) {
-        throw new RuntimeException("Unexpected FASTA job status: "
-            + job.getStatus());
+    }
+    if (uncached.isEmpty()) {
+      return Arrays.asList(results);
+    }
+
+    // even a single job is submitted with submitAll(), so that cancelling the future
+    // cancels the job itself
+    Future<List<FastaJobResults>> future = jobs.submitAll(uncached);
+    try {
+      Iterator<FastaJobResults> it = future.get().iterator();
+      for (int i = 0; i < results.length; ++i) {
+        if (results[i] == null) {
+          results[i] = it.next();
+          if (cache != null) {
+            cache.put(keys[i], results[i]);
+          }
+        }
       }
-      if (job.isInterrupted()) {
-        throw new RuntimeException("FASTA job was interrupted");
+      return Arrays.asList(results);
+    } catch (InterruptedException e) {
+      future.cancel(false);
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("FASTA job was interrupted");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
       }
-      throw new RuntimeException("No results");
+      throw new RuntimeException(e.getCause());
     }
+  }
+
+  // the job manager (for tests)
+  FastaJobManager getJobManager() {
+    return jobs;
+  }
 
-    return new Results(job.getResults());
+  /**
+   * Stop running FASTA jobs.
+   */
+  @Override
+  public void close() {
+    if (jobs != null) {
+      jobs.close();
+    }
   }
 
+  /**
+   * FASTA results, indexed by join id (lower case PDB id). The sorted, distinct join ids
+   * and the alignments (and best alignment) for each join id are computed once, when the
+   * results are created, since they are used many times per request.
+   */
   public static class Results implements XJoinResults<String> {
 
-    private FastaJobResults results;
+    private final FastaJobResults results;
+
+    // sorted, distinct join ids (unmodifiable)
+    private final List<String> joinIds;
+
+    // alignments, and the best (lowest e-value) alignment, for each join id
+    private final Map<String, Collection<PDb.Alignment>> index;
+    private final Map<String, PDb.Alignment> best;
 
     public Results(FastaJobResults results) {
       this.results = results;
+
+      Map<PDb.Id, Map<String, PDb.Alignment>> alignments = results.getAlignments();
+      index = new HashMap<>(alignments.size() * 4 / 3 + 1);
+      best = new HashMap<>(alignments.size() * 4 / 3 + 1);
+      String[] ids = new String[alignments.size()];
+      int n = 0;
+      for (Map.Entry<PDb.Id, Map<String, PDb.Alignment>> entry : alignments.entrySet()) {
+        String joinId = entry.getKey().toString().toLowerCase();
+        Collection<PDb.Alignment> chains = Collections.unmodifiableCollection(entry.getValue().values());
+        Collection<PDb.Alignment> previous = index.put(joinId, chains);
+        if (previous == null) {
+          ids[n++] = joinId;
+        } else {
+          // PDb ids differing only in case have the same join id
+          List<PDb.Alignment> merged = new ArrayList<>(previous);
+          merged.addAll(chains);
+          index.put(joinId, Collections.unmodifiableList(merged));
+        }
+        for (PDb.Alignment a : entry.getValue().values()) {
+          PDb.Alignment b = best.get(joinId);
+          if (b == null || a.getEValue() < b.getEValue()) {
+            best.put(joinId, a);
+          }
+        }
+      }
+      Arrays.sort(ids, 0, n);
+      joinIds = Collections.unmodifiableList(Arrays.asList(n < ids.length ? Arrays.copyOf(ids, n) : ids));
     }
 
     @Override
-    public Iterable<String> getJoinIds() {
-      Set<PDb.Id> pdbIds = results.getAlignments().keySet();
-      String[] entries = new String[pdbIds.size()];
-      int i = 0;
-      for (PDb.Id pdbId : pdbIds) {
-        entries[i++] = pdbId.toString().toLowerCase();
-      }
-      Arrays.sort(entries);
-      return Arrays.asList(entries);
+    public List<String> getJoinIds() {
+      return joinIds;
     }
 
+    /**
+     * Get the alignments for the given join id (PDb id, in any case), or null.
+     */
     @Override
     public Collection<PDb.Alignment> getResult(String joinId) {
-      Map<String, PDb.Alignment> map = results.getAlignments().get(new PDb.Id(joinId.toUpperCase()));
-      return map != null ? map.values() : null;
+      Collection<PDb.Alignment> chains = index.get(joinId);
+      return chains != null ? chains : index.get(joinId.toLowerCase());
+    }
+
+    /**
+     * Get the best (lowest e-value) alignment for the given join id (PDb id, in any
+     * case), or null.
+     */
+    public PDb.Alignment getBestResult(String joinId) {
+      PDb.Alignment a = best.get(joinId);
+      return a != null ? a : best.get(joinId.toLowerCase());
     }
 
     public int getNumChains() {
@@ -1,5 +1,10 @@
 package uk.co.flax.biosolr.pdbe.fasta;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
 public class PDb {
   
   public static class Id {
@@ -58,6 +63,10 @@ public class PDb {
       querySeq.append(q);
     }
   
+    /*package*/ void addQuerySequence(CharSequence q, int start, int end) {
+      querySeq.append(q, start, end);
+    }
+
     public String getQuerySequenceString() {
       return querySeq.toString();
     }
@@ -74,6 +83,10 @@ public class PDb {
       retSeq.append(r);
     }
   
+    /*package*/ void addReturnSequence(CharSequence r, int start, int end) {
+      retSeq.append(r, start, end);
+    }
+
     public String getReturnSequenceString() {
       return retSeq.toString();
     }
@@ -141,6 +154,61 @@ public class PDb {
     public String toString() {
       return String.format("[%s:%0.2f]", getPdbIdChain(), eValue);
     }
+
+    // write this alignment (for FastaResultsCache)
+    /*package*/ void write(DataOutput out) throws IOException {
+      out.writeUTF(pdbId.id);
+      out.writeUTF(chain);
+      out.writeDouble(eValue);
+      writeInt(out, queryOverlapStart);
+      writeInt(out, queryOverlapEnd);
+      writeInt(out, dbOverlapStart);
+      writeInt(out, dbOverlapEnd);
+      out.writeBoolean(percentIdentity != null);
+      if (percentIdentity != null) {
+        out.writeDouble(percentIdentity);
+      }
+      writeString(out, querySeq);
+      writeString(out, retSeq);
+    }
+
+    // read an alignment written by write()
+    /*package*/ static Alignment read(DataInput in) throws IOException {
+      Alignment a = new Alignment(new Id(in.readUTF()), in.readUTF(), in.readDouble());
+      a.queryOverlapStart = readInt(in);
+      a.queryOverlapEnd = readInt(in);
+      a.dbOverlapStart = readInt(in);
+      a.dbOverlapEnd = readInt(in);
+      if (in.readBoolean()) {
+        a.percentIdentity = in.readDouble();
+      }
+      a.querySeq.append(readString(in));
+      a.retSeq.append(readString(in));
+      return a;
+    }
+
+    private static void writeInt(DataOutput out, Integer n) throws IOException {
+      out.writeBoolean(n != null);
+      if (n != null) {
+        out.writeInt(n);
+      }
+    }
+
+    private static Integer readInt(DataInput in) throws IOException {
+      return in.readBoolean() ? in.readInt() : null;
+    }
+
+    // sequences are ASCII, but may be longer than writeUTF() allows
+    private static void writeString(DataOutput out, CharSequence s) throws IOException {
+      out.writeInt(s.length());
+      out.writeBytes(s.toString());
+    }
+
+    private static String readString(DataInput in) throws IOException {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
   }
   
 }
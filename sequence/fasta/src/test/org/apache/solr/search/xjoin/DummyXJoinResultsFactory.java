@@ -19,6 +19,7 @@ package org.apache.solr.search.xjoin;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
@@ -27,6 +28,9 @@ import org.junit.Ignore;
 @Ignore
 public class DummyXJoinResultsFactory implements XJoinResultsFactory<String> {
   
+  // number of calls to getResults() (by any instance)
+  public static final AtomicInteger calls = new AtomicInteger();
+  
   private String string;
   
   private String[] values;
@@ -53,6 +57,18 @@ public class DummyXJoinResultsFactory implements XJoinResultsFactory<String> {
 
   @Override
   public XJoinResults<String> getResults(SolrParams params) throws IOException {
+    calls.incrementAndGet();
+    if (params != null && params.getBool("fail", false)) {
+      throw new IOException("Failed on request");
+    }
+    long delay = params != null ? params.getLong("delay", 0) : 0;
+    if (delay > 0) {
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
     String valuesStr = params != null ? (String)params.get("values") : null;
     return new Results(valuesStr != null ? valuesStr.split(",") : values);
   }
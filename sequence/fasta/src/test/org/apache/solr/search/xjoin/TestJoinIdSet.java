@@ -0,0 +1,157 @@
+package org.apache.solr.search.xjoin;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+public class TestJoinIdSet {
+
+  private static final Random RANDOM = new Random(42);
+
+  private static List<String> strings(JoinIdSet set) {
+    List<String> list = new ArrayList<>();
+    for (Iterator<BytesRef> it = set.terms(null); it.hasNext(); ) {
+      list.add(it.next().utf8ToString());
+    }
+    return list;
+  }
+
+  private static List<Long> longs(JoinIdSet set) {
+    List<Long> list = new ArrayList<>();
+    for (int i = 0; i < set.size(); ++i) {
+      list.add(((LongJoinIdSet)set).get(i));
+    }
+    return list;
+  }
+
+  private static List<Long> random(int n, int max) {
+    List<Long> list = new ArrayList<>();
+    for (int i = 0; i < n; ++i) {
+      list.add((long)RANDOM.nextInt(max));
+    }
+    return list;
+  }
+
+  @Test
+  public void construction() {
+    JoinIdSet set = BytesRefJoinIdSet.of(null, Arrays.asList("pear", "apple", "pear", "fig", "apple"));
+    assertEquals(Arrays.asList("apple", "fig", "pear"), strings(set));
+
+    set = LongJoinIdSet.of(Arrays.asList(10, "2", 10L, -5));
+    assertEquals(Arrays.asList(-5L, 2L, 10L), longs(set));
+  }
+
+  @Test
+  public void advance() {
+    JoinIdSet set = LongJoinIdSet.of(Arrays.asList(1, 3, 5, 7, 9, 11, 13, 15, 17));
+    JoinIdSet targets = LongJoinIdSet.of(Arrays.asList(0, 4, 9, 20));
+    assertEquals(0, set.advance(0, targets, 0));
+    assertEquals(2, set.advance(0, targets, 1));
+    assertEquals(4, set.advance(0, targets, 2));
+    assertEquals(4, set.advance(3, targets, 2));
+    assertEquals(6, set.advance(6, targets, 2));
+    assertEquals(9, set.advance(0, targets, 3));
+  }
+
+  @Test
+  public void randomLongs() {
+    for (int n = 0; n < 50; ++n) {
+      List<Long> a = random(RANDOM.nextInt(200), 300);
+      List<Long> b = random(RANDOM.nextInt(2000), 300);
+      JoinIdSet setA = LongJoinIdSet.of(a);
+      JoinIdSet setB = LongJoinIdSet.of(b);
+
+      TreeSet<Long> or = new TreeSet<>(a);
+      or.addAll(b);
+      assertEquals(new ArrayList<>(or), longs(JoinIdSet.or(setA, setB)));
+
+      TreeSet<Long> and = new TreeSet<>(a);
+      and.retainAll(b);
+      assertEquals(new ArrayList<>(and), longs(JoinIdSet.and(setA, setB)));
+      assertEquals(new ArrayList<>(and), longs(JoinIdSet.and(setB, setA)));
+
+      TreeSet<Long> andNot = new TreeSet<>(a);
+      andNot.removeAll(b);
+      assertEquals(new ArrayList<>(andNot), longs(JoinIdSet.andNot(setA, setB)));
+
+      TreeSet<Long> xor = new TreeSet<>(or);
+      xor.removeAll(and);
+      assertEquals(new ArrayList<>(xor), longs(JoinIdSet.xor(setA, setB)));
+    }
+  }
+
+  @Test
+  public void randomStrings() {
+    for (int n = 0; n < 50; ++n) {
+      List<String> a = new ArrayList<>();
+      for (Long value : random(RANDOM.nextInt(2000), 3000)) {
+        a.add(Long.toString(value, 36));
+      }
+      List<String> b = new ArrayList<>();
+      for (Long value : random(RANDOM.nextInt(200), 3000)) {
+        b.add(Long.toString(value, 36));
+      }
+      JoinIdSet setA = BytesRefJoinIdSet.of(null, a);
+      JoinIdSet setB = BytesRefJoinIdSet.of(null, b);
+
+      // ASCII strings, so String order is the same as unsigned byte order
+      TreeSet<String> or = new TreeSet<>(a);
+      or.addAll(b);
+      assertEquals(new ArrayList<>(or), strings(JoinIdSet.or(setA, setB)));
+
+      TreeSet<String> and = new TreeSet<>(a);
+      and.retainAll(b);
+      assertEquals(new ArrayList<>(and), strings(JoinIdSet.and(setA, setB)));
+
+      TreeSet<String> andNot = new TreeSet<>(a);
+      andNot.removeAll(b);
+      assertEquals(new ArrayList<>(andNot), strings(JoinIdSet.andNot(setA, setB)));
+
+      TreeSet<String> xor = new TreeSet<>(or);
+      xor.removeAll(and);
+      assertEquals(new ArrayList<>(xor), strings(JoinIdSet.xor(setA, setB)));
+    }
+  }
+
+  @Test
+  public void joinSpec() {
+    JoinIdSet.Source source = name -> {
+      switch (name) {
+      case "a":
+        return LongJoinIdSet.of(Arrays.asList(1, 2, 3, 4, 5));
+      case "b":
+        return LongJoinIdSet.of(Arrays.asList(4, 5, 6, 7));
+      default:
+        return LongJoinIdSet.of(Arrays.asList(2, 4, 6, 8));
+      }
+    };
+    JoinSpec<Long> js = JoinSpec.parse("(a XOR b) AND NOT c");
+    assertEquals(Arrays.asList(1L, 3L, 7L), longs(js.joinIdSet(source)));
+  }
+
+}
@@ -0,0 +1,96 @@
+package org.apache.solr.search.xjoin;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.solr.BaseDistributedSearchTestCase;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.search.xjoin.simple.TestSimple;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test that, in a distributed request, the external process is only called once (by the
+ * aggregator) and that its results are used by the shards.
+ */
+public class TestXJoinDistributed extends BaseDistributedSearchTestCase {
+
+  @BeforeClass
+  public static void beforeClass() {
+    System.setProperty("simple-test-file", TestSimple.class.getResource("results.json").toString());
+  }
+
+  @Override
+  public String getSolrHome() {
+    return getFile("xjoin/solr").getAbsolutePath();
+  }
+
+  // cores are created from the collection1 config set
+  @Override
+  protected void seedSolrHome(File jettyHome) throws IOException {
+    super.seedSolrHome(jettyHome);
+    FileUtils.copyDirectory(new File(getSolrHome(), "collection1"), new File(jettyHome, "configsets/collection1"));
+  }
+
+  @Test
+  @ShardsFixed(num = 3)
+  @SuppressWarnings("rawtypes")
+  public void test() throws Exception {
+    del("*:*");
+    int id = 0;
+    for (String[] doc : AbstractXJoinTestCase.DOCUMENTS) {
+      index("id", Integer.toString(id++), "colour", doc[0], "letter", doc[1], "letter", doc[2]);
+    }
+    commit();
+
+    DummyXJoinResultsFactory.calls.set(0);
+    ModifiableSolrParams params = params("q", "*:*", "fq", "{!xjoin}xjoin8", "sort", "id asc", "fl", "id",
+                                         "xjoin", "false", "xjoin8", "true", "shards", shards);
+    QueryResponse rsp = queryServer(params);
+    assertEquals(1, DummyXJoinResultsFactory.calls.get());
+
+    // only documents with matching join ids
+    List<String> ids = new ArrayList<>();
+    for (SolrDocument doc : rsp.getResults()) {
+      ids.add((String)doc.getFieldValue("id"));
+    }
+    assertEquals(Arrays.asList("0", "2", "4"), ids);
+
+    // external results for the join ids of those documents
+    NamedList xjoin = (NamedList)rsp.getResponse().get("xjoin8");
+    assertEquals("component with a stored join field", xjoin.get("string"));
+    List<String> joinIds = new ArrayList<>();
+    for (Object external : (List)xjoin.get("external")) {
+      String joinId = (String)((NamedList)external).get("joinId");
+      assertEquals(joinId, ((NamedList)((NamedList)external).get("doc")).get("value"));
+      joinIds.add(joinId);
+    }
+    joinIds.sort(null);
+    assertEquals(Arrays.asList("blue", "red"), joinIds);
+  }
+
+}
@@ -0,0 +1,111 @@
+package org.apache.solr.search.xjoin;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.LocalSolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.ResultContext;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.DocIterator;
+import org.apache.solr.search.DocList;
+import org.junit.Test;
+
+/**
+ * Test that the external calls of several XJoin components in one request run
+ * concurrently, with timeouts and failure policies applied.
+ */
+public class TestXJoinParallel extends AbstractXJoinTestCase {
+
+  private SolrQueryResponse request(ModifiableSolrParams params) {
+    SolrCore core = h.getCore();
+    params.add("q", "*:*");
+    params.add("fq", "{!xjoin}xjoin6 OR xjoin7");
+    params.add("xjoin6", "true");
+    params.add("xjoin7", "true");
+
+    SolrQueryResponse rsp = new SolrQueryResponse();
+    rsp.add("responseHeader", new SimpleOrderedMap<>());
+    SolrQueryRequest req = new LocalSolrQueryRequest(core, params);
+    core.getRequestHandler("parallel").handleRequest(req, rsp);
+    req.close();
+    return rsp;
+  }
+
+  private Set<Integer> docs(SolrQueryResponse rsp) {
+    Set<Integer> docs = new HashSet<>();
+    ResultContext response = (ResultContext)rsp.getValues().get("response");
+    DocList docList = response.docs;
+    for (DocIterator it = docList.iterator(); it.hasNext(); ) {
+      docs.add(it.nextDoc());
+    }
+    return docs;
+  }
+
+  @Test
+  public void testConcurrent() {
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.add("xjoin6.external.delay", "300");
+    params.add("xjoin7.external.delay", "300");
+    long start = System.currentTimeMillis();
+    SolrQueryResponse rsp = request(params);
+    long elapsed = System.currentTimeMillis() - start;
+    assertNull(rsp.getException());
+
+    assertTrue("took " + elapsed + "ms", elapsed < 600);
+    assertEquals(new HashSet<>(Arrays.asList(1, 2, 3, 4)), docs(rsp));
+    assertNull(rsp.getResponseHeader().get(SolrQueryResponse.RESPONSE_HEADER_PARTIAL_RESULTS_KEY));
+  }
+
+  @Test
+  public void testTimeoutIgnored() {
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.add("xjoin7.external.delay", "2000");
+    SolrQueryResponse rsp = request(params);
+    assertNull(rsp.getException());
+
+    assertEquals(new HashSet<>(Arrays.asList(1, 3)), docs(rsp));
+    NamedList<Object> header = rsp.getResponseHeader();
+    assertEquals(Boolean.TRUE, header.get(SolrQueryResponse.RESPONSE_HEADER_PARTIAL_RESULTS_KEY));
+  }
+
+  @Test
+  public void testFailureIgnored() {
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.add("xjoin7.external.fail", "true");
+    SolrQueryResponse rsp = request(params);
+    assertNull(rsp.getException());
+    assertEquals(new HashSet<>(Arrays.asList(1, 3)), docs(rsp));
+  }
+
+  @Test
+  public void testFailure() {
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.add("xjoin6.external.fail", "true");
+    SolrQueryResponse rsp = request(params);
+    assertNotNull(rsp.getException());
+  }
+
+}
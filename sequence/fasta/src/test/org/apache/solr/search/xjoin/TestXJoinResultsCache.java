@@ -0,0 +1,161 @@
+package org.apache.solr.search.xjoin;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+public class TestXJoinResultsCache {
+
+  // counts calls to getResults(), optionally blocking until released
+  private static class CountingFactory implements XJoinResultsFactory<String> {
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final CountDownLatch release;
+
+    private CountingFactory(CountDownLatch release) {
+      this.release = release;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void init(NamedList args) {
+      // nothing to do
+    }
+
+    @Override
+    public XJoinResults<String> getResults(SolrParams params) throws IOException {
+      calls.incrementAndGet();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      DummyXJoinResultsFactory factory = new DummyXJoinResultsFactory();
+      factory.init(new NamedList<>());
+      return factory.getResults(params);
+    }
+
+  }
+
+  private static SolrParams params(String... nameValues) {
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    for (int i = 0; i < nameValues.length; i += 2) {
+      params.add(nameValues[i], nameValues[i + 1]);
+    }
+    return params;
+  }
+
+  @Test
+  public void canonicalKey() throws IOException {
+    CountingFactory factory = new CountingFactory(new CountDownLatch(0));
+    XJoinResultsCache cache = new XJoinResultsCache(10, 0);
+
+    XJoinResults<?> results = cache.get("xjoin", factory, params("a", "1", "b", "2"));
+    assertSame(results, cache.get("xjoin", factory, params("b", "2", "a", "1")));
+    assertEquals(1, factory.calls.get());
+
+    assertNotSame(results, cache.get("xjoin", factory, params("a", "1", "b", "3")));
+    assertNotSame(results, cache.get("xjoin2", factory, params("a", "1", "b", "2")));
+    assertEquals(3, factory.calls.get());
+
+    Map<String, Object> stats = new HashMap<>();
+    cache.addStatistics(stats);
+    assertEquals(4L, stats.get("lookups"));
+    assertEquals(1L, stats.get("hits"));
+    assertEquals(3L, stats.get("misses"));
+  }
+
+  @Test
+  public void sizeBounded() throws IOException {
+    CountingFactory factory = new CountingFactory(new CountDownLatch(0));
+    XJoinResultsCache cache = new XJoinResultsCache(2, 0);
+
+    cache.get("xjoin", factory, params("a", "1"));
+    cache.get("xjoin", factory, params("a", "2"));
+    cache.get("xjoin", factory, params("a", "1"));
+    cache.get("xjoin", factory, params("a", "3"));
+    assertEquals(2, cache.size());
+
+    // "a=2" was least recently used, so should have been evicted
+    cache.get("xjoin", factory, params("a", "1"));
+    assertEquals(3, factory.calls.get());
+    cache.get("xjoin", factory, params("a", "2"));
+    assertEquals(4, factory.calls.get());
+
+    Map<String, Object> stats = new HashMap<>();
+    cache.addStatistics(stats);
+    assertEquals(2L, stats.get("evictions"));
+  }
+
+  @Test
+  public void timeToLive() throws Exception {
+    CountingFactory factory = new CountingFactory(new CountDownLatch(0));
+    XJoinResultsCache cache = new XJoinResultsCache(10, 50);
+
+    XJoinResults<?> results = cache.get("xjoin", factory, params("a", "1"));
+    assertSame(results, cache.get("xjoin", factory, params("a", "1")));
+    Thread.sleep(100);
+    assertNotSame(results, cache.get("xjoin", factory, params("a", "1")));
+    assertEquals(2, factory.calls.get());
+  }
+
+  @Test
+  public void singleFlight() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CountingFactory factory = new CountingFactory(release);
+    XJoinResultsCache cache = new XJoinResultsCache(10, 0);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<XJoinResults<?>>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; ++i) {
+        futures.add(executor.submit(() -> cache.get("xjoin", factory, params("a", "1"))));
+      }
+      Thread.sleep(100);
+      release.countDown();
+
+      XJoinResults<?> results = futures.get(0).get();
+      for (Future<XJoinResults<?>> future : futures) {
+        assertSame(results, future.get());
+      }
+      assertEquals(1, factory.calls.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+}
@@ -0,0 +1,270 @@
+package org.apache.solr.search.xjoin.simple;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.search.xjoin.XJoinResults;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test HttpTransport (and SimpleXJoinResultsFactory using it) against an embedded HTTP server.
+ */
+public class TestHttpTransport {
+
+  private HttpServer server;
+
+  private ExecutorService executor;
+
+  private String rootUrl;
+
+  // number of requests received
+  private final AtomicInteger requests = new AtomicInteger();
+
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    executor = Executors.newCachedThreadPool();
+    server.setExecutor(executor);
+    server.start();
+    rootUrl = "http://localhost:" + server.getAddress().getPort();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private HttpTransport transport(Object... args) {
+    NamedList list = new NamedList();
+    for (int i = 0; i < args.length; i += 2) {
+      list.add((String)args[i], args[i + 1]);
+    }
+    HttpTransport transport = new HttpTransport();
+    transport.init(list);
+    return transport;
+  }
+
+  private String read(HttpTransport transport, String path) throws IOException {
+    try (InputStream in = transport.open(rootUrl + path, "text/plain")) {
+      return IOUtils.toString(in, StandardCharsets.UTF_8);
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  @Test
+  public void testGzip() throws IOException {
+    server.createContext("/gzip", exchange -> {
+      requests.incrementAndGet();
+      String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+      if (encoding == null || ! encoding.contains("gzip")) {
+        respond(exchange, 400, "gzip not accepted");
+        return;
+      }
+      exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+      exchange.sendResponseHeaders(200, 0);
+      try (OutputStream out = new GZIPOutputStream(exchange.getResponseBody())) {
+        out.write("compressed".getBytes(StandardCharsets.UTF_8));
+      }
+    });
+    try (HttpTransport transport = transport()) {
+      assertEquals("compressed", read(transport, "/gzip"));
+    }
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  public void testRetry() throws IOException {
+    server.createContext("/flaky", exchange -> {
+      if (requests.incrementAndGet() < 3) {
+        respond(exchange, 503, "unavailable");
+      } else {
+        respond(exchange, 200, "ok");
+      }
+    });
+    try (HttpTransport transport = transport(HttpTransport.INIT_PARAM_RETRIES, 2, HttpTransport.INIT_PARAM_RETRY_BACKOFF, 10)) {
+      assertEquals("ok", read(transport, "/flaky"));
+    }
+    assertEquals(3, requests.get());
+  }
+
+  @Test
+  public void testRetriesExhausted() throws IOException {
+    server.createContext("/down", exchange -> {
+      requests.incrementAndGet();
+      respond(exchange, 500, "error");
+    });
+    try (HttpTransport transport = transport(HttpTransport.INIT_PARAM_RETRIES, 1, HttpTransport.INIT_PARAM_RETRY_BACKOFF, 10)) {
+      read(transport, "/down");
+      fail("expected IOException");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("500"));
+    }
+    assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void testNotFoundNotRetried() throws IOException {
+    server.createContext("/missing", exchange -> {
+      requests.incrementAndGet();
+      respond(exchange, 404, "not found");
+    });
+    try (HttpTransport transport = transport(HttpTransport.INIT_PARAM_RETRY_BACKOFF, 10)) {
+      read(transport, "/missing");
+      fail("expected IOException");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("404"));
+    }
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  public void testReadTimeout() throws IOException {
+    CountDownLatch release = new CountDownLatch(1);
+    server.createContext("/slow", exchange -> {
+      requests.incrementAndGet();
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      respond(exchange, 200, "too late");
+    });
+    long start = System.currentTimeMillis();
+    try (HttpTransport transport = transport(Transport.INIT_PARAM_READ_TIMEOUT, 200)) {
+      read(transport, "/slow");
+      fail("expected timeout");
+    } catch (InterruptedIOException e) {
+      // expected
+    } finally {
+      release.countDown();
+    }
+    assertTrue(System.currentTimeMillis() - start < 5000);
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  public void testConcurrencyLimit() throws Exception {
+    AtomicInteger active = new AtomicInteger();
+    AtomicInteger maxActive = new AtomicInteger();
+    server.createContext("/busy", exchange -> {
+      int n = active.incrementAndGet();
+      maxActive.accumulateAndGet(n, Math::max);
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      active.decrementAndGet();
+      respond(exchange, 200, "ok");
+    });
+    ExecutorService clients = Executors.newFixedThreadPool(6);
+    try (HttpTransport transport = transport(HttpTransport.INIT_PARAM_MAX_CONNECTIONS_PER_ENDPOINT, 2)) {
+      List<Future<String>> futures = new ArrayList<>();
+      for (int i = 0; i < 6; ++i) {
+        futures.add(clients.submit(() -> read(transport, "/busy")));
+      }
+      for (Future<String> future : futures) {
+        assertEquals("ok", future.get());
+      }
+      assertEquals(0, transport.getLeased());
+    } finally {
+      clients.shutdownNow();
+    }
+    assertEquals(2, maxActive.get());
+  }
+
+  @Test
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void testResultsFactory() throws IOException {
+    List<String> queries = new ArrayList<>();
+    server.createContext("/results", exchange -> {
+      queries.add(exchange.getRequestURI().getRawQuery());
+      try (InputStream in = getClass().getResourceAsStream("results.json")) {
+        respond(exchange, 200, IOUtils.toString(in, StandardCharsets.UTF_8));
+      }
+    });
+
+    NamedList args = new NamedList();
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_TYPE, SimpleXJoinResultsFactory.Type.JSON.toString());
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_ROOT_URL, rootUrl + "/results");
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_JOIN_ID_PATH, "$.hits[*].id");
+    NamedList transportArgs = new NamedList();
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_TRANSPORT, transportArgs);
+    transportArgs.add(Transport.INIT_PARAM_CLASS, HttpTransport.class.getName());
+    transportArgs.add(Transport.INIT_PARAM_READ_TIMEOUT, 5000);
+
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.add("q", "colour:blue & red");
+    SimpleXJoinResultsFactory factory = new SimpleXJoinResultsFactory();
+    factory.init(args);
+    try {
+      XJoinResults<String> results = factory.getResults(params);
+      assertEquals(1, queries.size());
+      assertEquals("q=colour%3Ablue+%26+red", queries.get(0));
+      assertTrue(results.getJoinIds().iterator().hasNext());
+    } finally {
+      factory.close();
+    }
+
+    // closing the factory closes its transport
+    try {
+      factory.getResults(params);
+      fail("Expected the transport to be closed");
+    } catch (IOException | IllegalStateException e) {
+      // expected
+    }
+    assertEquals(1, queries.size());
+  }
+
+}
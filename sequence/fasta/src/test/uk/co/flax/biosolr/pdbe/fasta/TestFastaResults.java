@@ -0,0 +1,82 @@
+package uk.co.flax.biosolr.pdbe.fasta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestFastaResults {
+
+  private FastaJobResults jobResults;
+
+  private FastaXJoinResultsFactory.Results results;
+
+  @Before
+  public void setup() throws Exception {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream("result2")))) {
+      jobResults = new FastaParser().parse(reader);
+    }
+    results = new FastaXJoinResultsFactory.Results(jobResults);
+  }
+
+  @Test
+  public void joinIds() {
+    List<String> joinIds = results.getJoinIds();
+    assertSame(joinIds, results.getJoinIds());
+    assertEquals(jobResults.getNumEntries(), joinIds.size());
+    for (int i = 1; i < joinIds.size(); ++i) {
+      assertTrue(joinIds.get(i - 1).compareTo(joinIds.get(i)) < 0);
+    }
+    for (String joinId : joinIds) {
+      assertEquals(joinId.toLowerCase(), joinId);
+    }
+  }
+
+  @Test(expected=UnsupportedOperationException.class)
+  public void immutable() {
+    results.getJoinIds().set(0, "1abc");
+  }
+
+  @Test
+  public void lookup() {
+    for (Map.Entry<PDb.Id, Map<String, PDb.Alignment>> entry : jobResults.getAlignments().entrySet()) {
+      String pdbId = entry.getKey().toString();
+      Collection<PDb.Alignment> chains = results.getResult(pdbId.toLowerCase());
+      assertEquals(new ArrayList<>(entry.getValue().values()), new ArrayList<>(chains));
+      assertSame(chains, results.getResult(pdbId.toLowerCase()));
+      assertEquals(new ArrayList<>(chains), new ArrayList<>(results.getResult(pdbId)));
+
+      PDb.Alignment best = results.getBestResult(pdbId.toLowerCase());
+      for (PDb.Alignment a : chains) {
+        assertTrue(best.getEValue() <= a.getEValue());
+      }
+      assertSame(best, results.getBestResult(pdbId));
+    }
+    assertNull(results.getResult("xxxx"));
+    assertNull(results.getBestResult("xxxx"));
+  }
+
+  @Test
+  public void mixedCase() {
+    FastaJobResults jobResults = new FastaJobResults();
+    jobResults.addAlignment(new PDb.Alignment(new PDb.Id("1ABC"), "A", 0.5));
+    jobResults.addAlignment(new PDb.Alignment(new PDb.Id("1abc"), "B", 0.1));
+    jobResults.addAlignment(new PDb.Alignment(new PDb.Id("2DEF"), "A", 0.2));
+    FastaXJoinResultsFactory.Results results = new FastaXJoinResultsFactory.Results(jobResults);
+    assertEquals(2, results.getJoinIds().size());
+    assertEquals("1abc", results.getJoinIds().get(0));
+    assertEquals(2, results.getResult("1abc").size());
+    assertEquals("B", results.getBestResult("1ABC").getChain());
+  }
+
+}
@@ -1,6 +1,8 @@
 package uk.co.flax.biosolr.pdbe.phmmer;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -14,7 +16,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import javax.json.Json;
-import javax.json.JsonReader;
+import javax.json.stream.JsonParser;
 
 import org.junit.Test;
 
@@ -22,15 +24,26 @@ public class TestPhmmerJob {
 
 	private static final String RESULT_PATH = "result";
 	
+	private static final String RESULT2_PATH = "result2";
+
+  // a client returning the result in the given (job status) response
+  @SuppressWarnings("unchecked")
+  private static PhmmerClient client(byte[] response) throws IOException {
+    PhmmerClient client = mock(PhmmerClient.class);
+    when(client.getResults(isNull(String.class), isNull(String.class), any(PhmmerClient.ResultReader.class))).thenAnswer(invocation -> {
+      try (JsonParser parser = Json.createParser(new ByteArrayInputStream(response))) {
+        JsonParsing.expect(parser, JsonParser.Event.START_OBJECT);
+        return PhmmerClient.readResponse(parser, (PhmmerClient.ResultReader<?>)invocation.getArguments()[2]).result;
+      }
+    });
+    return client;
+  }
+	
 	@Test
 	public void testParsing() throws IOException, URISyntaxException {
 		byte[] result = Files.readAllBytes(Paths.get(TestPhmmerJob.class.getResource(RESULT_PATH).toURI()));
 
-    PhmmerClient client = mock(PhmmerClient.class);
-    JsonReader reader = Json.createReader(new ByteArrayInputStream(result));
-    when(client.getResults(null, null)).thenReturn(reader.readObject());
-    
-		PhmmerJob job = new PhmmerJob(client, null, null);
+		PhmmerJob job = new PhmmerJob(client(result), null, null);
 		PhmmerResults results = job.runJob();
 		
 		assertEquals(116, results.getNumChains());
@@ -91,4 +104,51 @@ public class TestPhmmerJob {
                  a.getPosteriorProbability());
 	}
 	
+  @Test
+  public void testStreaming() throws IOException, URISyntaxException {
+    byte[] result = Files.readAllBytes(Paths.get(TestPhmmerJob.class.getResource(RESULT2_PATH).toURI()));
+    PhmmerResults results = new PhmmerJob(client(result), null, null).runJob();
+
+    // the third hit has no significant domain
+    assertEquals(2, results.getNumChains());
+    assertEquals(new HashSet<>(Arrays.asList("1abc")), results.getPdbIds());
+
+    // the first significant domain is used
+    Alignment a = results.getAlignments().get("1abc").get("A");
+    assertEquals("TEST PROTEIN A", a.getDescription());
+    assertEquals("Homo sapiens", a.getSpecies());
+    assertEquals(120.5, a.getScore(), 0.01);
+    assertEquals(2.5, a.getBias(), 0.01);
+    assertEquals(1.2e-30, a.getEValue(), 1e-32);
+    assertEquals(3.4e-29, a.getEValueInd(), 1e-31);
+    assertEquals(1.5e-31, a.getEValueCond(), 1e-33);
+    assertEquals(9, a.getTargetEnvelopeStart());
+    assertEquals(259, a.getTargetEnvelopeEnd());
+    assertEquals(0.78, a.getAccuracy(), 0.01);
+    assertEquals(74.0, a.getBitScore(), 0.1);
+    assertEquals("yfgkiylgtp", a.getQuerySequence());
+    assertEquals(16, a.getQuerySequenceStart());
+    assertEquals(25, a.getQuerySequenceEnd());
+    assertEquals("y+ ++ +gtp", a.getMatch());
+    assertEquals("YYLEMLIGTP", a.getTargetSequence());
+    assertEquals(18, a.getTargetSequenceStart());
+    assertEquals(27, a.getTargetSequenceEnd());
+    assertEquals("888999****", a.getPosteriorProbability());
+    assertEquals(31.6, a.getIdentityPercent(), 0.1);
+    assertEquals(67, a.getIdentityCount());
+    assertEquals(57.1, a.getSimilarityPercent(), 0.1);
+    assertEquals(121, a.getSimilarityCount());
+
+    Alignment b = results.getAlignments().get("1abc").get("B");
+    assertEquals(2.0e-28, b.getEValue(), 1e-30);
+    assertEquals("RIYLG", b.getTargetSequence());
+    assertEquals(100.0, b.getSimilarityPercent(), 0.1);
+  }
+
+  @Test(expected=IOException.class)
+  public void testNoHits() throws IOException {
+    byte[] result = "{\"status\":\"SUCCESS\",\"result\":{\"stats\":{}}}".getBytes();
+    new PhmmerJob(client(result), null, null).runJob();
+  }
+
 }
@@ -1,9 +1,20 @@
 package uk.co.flax.biosolr.pdbe.phmmer;
 
-import javax.json.JsonArray;
-import javax.json.JsonObject;
-import javax.json.JsonValue;
-
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+/**
+ * The PHMMER alignment of a target (PDB id and chain) with the query sequence, holding
+ * the hit's scores and its first significant domain.
+ *
+ * Which domain is the first significant one depends on the significance threshold, so
+ * the domains which could be (those more significant than all the domains before them)
+ * are kept, and atThreshold() gives the alignment for any threshold. The alignment
+ * itself is that for SIGNIFICANCE_THRESHOLD.
+ */
 public class Alignment {
   
   public static double SIGNIFICANCE_THRESHOLD = 1.0d;
@@ -56,80 +67,292 @@ public class Alignment {
   
   private int similarityCount;
   
-  public Alignment(JsonObject hit) {
-    JsonObject metadata = hit.getJsonObject("metadata");
-    target = metadata.getString("accession");
-    species = metadata.getString("species");
-    description = metadata.getString("description");
-    score = hit.getJsonNumber("score").doubleValue();
-    bias = hit.getJsonNumber("bias").doubleValue();
+  // whether the first significant domain has been added
+  private boolean complete;
+
+  // the threshold for which our domain was chosen
+  private double threshold = SIGNIFICANCE_THRESHOLD;
+
+  // the domains more significant than all those before them (so the first domain under
+  // any threshold is one of these), and the one our fields are taken from (or null)
+  private Domain[] candidates = NO_DOMAINS;
+  private Domain domain;
+
+  private static final Domain[] NO_DOMAINS = new Domain[0];
 
-    JsonValue eValueJSON = hit.get("evalue");
+  private Alignment() { }
 
-    if (eValueJSON.getValueType() == JsonValue.ValueType.NUMBER) {
-      eValue = hit.getJsonNumber("evalue").doubleValue();
-    } else if (eValueJSON.getValueType() == JsonValue.ValueType.STRING) {
-      eValue = Double.parseDouble(hit.getString("evalue"));
+  /*package*/ Alignment(String target, String species, String description, double score, double bias, double eValue) {
+    this.target = target;
+    this.species = species;
+    this.description = description;
+    this.score = score;
+    this.bias = bias;
+    this.eValue = eValue;
+  }
+
+  /**
+   * Read an alignment from a PHMMER hit, streaming (the parser must be just after the
+   * start of the hit object, and is left just after its end). Only the fields we keep
+   * are read, and only the domains which could be the first significant domain (by
+   * independent e-value) for some threshold are kept.
+   */
+  /*package*/ static Alignment read(JsonParser parser) throws IOException {
+    Alignment a = new Alignment();
+    Event event;
+    while ((event = parser.next()) == Event.KEY_NAME) {
+      String key = parser.getString();
+      event = parser.next();
+      switch (key) {
+      case "metadata":
+        a.readMetadata(parser, event);
+        break;
+      case "score":
+        a.score = JsonParsing.getDouble(parser, event);
+        break;
+      case "bias":
+        a.bias = JsonParsing.getDouble(parser, event);
+        break;
+      case "evalue":
+        a.eValue = JsonParsing.getDouble(parser, event);
+        break;
+      case "domains":
+        if (event != Event.START_ARRAY) {
+          JsonParsing.skip(parser, event);
+          break;
+        }
+        while ((event = parser.next()) != Event.END_ARRAY) {
+          if (event != Event.START_OBJECT) {
+            JsonParsing.skip(parser, event);
+          } else {
+            a.addDomain(Domain.read(parser));
+          }
+        }
+        break;
+      default:
+        JsonParsing.skip(parser, event);
+        break;
+      }
     }
+    if (event != Event.END_OBJECT) {
+      throw new IOException("Unexpected " + event + " in PHMMER hit");
+    }
+    return a;
+  }
 
-    JsonArray domains = hit.getJsonArray("domains");
-    for (int i = 0; i < domains.size(); ++i) {
-      JsonObject domain = domains.getJsonObject(i);
-      
-      // skip insignificant matches (by ind. eValue)
-      JsonValue eValue = domain.get("ievalue");
-      if (eValue.getValueType() == JsonValue.ValueType.NUMBER) {
-        eValueInd = domain.getJsonNumber("ievalue").doubleValue();
-      } else if (eValue.getValueType() == JsonValue.ValueType.STRING) {
-        eValueInd = Double.parseDouble(domain.getString("ievalue"));
+  private void readMetadata(JsonParser parser, Event event) throws IOException {
+    if (event != Event.START_OBJECT) {
+      JsonParsing.skip(parser, event);
+      return;
+    }
+    while ((event = parser.next()) == Event.KEY_NAME) {
+      String key = parser.getString();
+      event = parser.next();
+      switch (key) {
+      case "accession":
+        target = JsonParsing.getString(parser, event);
+        break;
+      case "species":
+        species = JsonParsing.getString(parser, event);
+        break;
+      case "description":
+        description = JsonParsing.getString(parser, event);
+        break;
+      default:
+        JsonParsing.skip(parser, event);
+        break;
       }
+    }
+  }
+
+  /**
+   * Add a domain of the hit (in order). The first significant domain is used.
+   */
+  /*package*/ void addDomain(Domain domain) {
+    int n = candidates.length;
+    if (n == 0 || domain.eValueInd < candidates[n - 1].eValueInd) {
+      candidates = Arrays.copyOf(candidates, n + 1);
+      candidates[n] = domain;
+    }
+    if (complete) {
+      return;
+    }
+    eValueInd = domain.eValueInd;
+
+    // skip insignificant matches (by ind. eValue)
+    if (eValueInd >= threshold) return;
+
+    // we consider only the first significant match
+    setDomain(domain);
+    complete = true;
+  }
 
-      if (eValueInd >= SIGNIFICANCE_THRESHOLD) continue;
+  /**
+   * Get the best (lowest) independent e-value of any domain of the hit, so the hit is
+   * significant for any threshold above it.
+   */
+  /*package*/ double getSignificance() {
+    return candidates.length > 0 ? candidates[candidates.length - 1].eValueInd : Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Get the alignment for the given significance threshold (this alignment, if the
+   * first significant domain is the same), or null if the hit is not significant.
+   */
+  /*package*/ Alignment atThreshold(double threshold) {
+    for (Domain d : candidates) {
+      if (d.eValueInd < threshold) {
+        if (d == domain) {
+          return this;
+        }
+        Alignment a = new Alignment(target, species, description, score, bias, eValue);
+        a.threshold = threshold;
+        a.candidates = candidates;
+        a.eValueInd = d.eValueInd;
+        a.setDomain(d);
+        a.complete = true;
+        return a;
+      }
+    }
+    return null;
+  }
 
-      JsonValue ceValue = domain.get("cevalue");
+  private void setDomain(Domain domain) {
+    this.domain = domain;
+    eValueCond = domain.eValueCond;
+    querySequence = domain.querySequence;
+    querySequenceStart = domain.querySequenceStart;
+    querySequenceEnd = domain.querySequenceEnd;
+    match = domain.match;
+    targetSequence = domain.targetSequence;
+    targetSequenceStart = domain.targetSequenceStart;
+    targetSequenceEnd = domain.targetSequenceEnd;
+    targetEnvelopeStart = domain.targetEnvelopeStart;
+    targetEnvelopeEnd = domain.targetEnvelopeEnd;
+    posteriorProbability = domain.posteriorProbability;
+    accuracy = domain.accuracy;
+    bitScore = domain.bitScore;
+    identityPercent = domain.identityPercent;
+    identityCount = domain.identityCount;
+    similarityPercent = domain.similarityPercent;
+    similarityCount = domain.similarityCount;
+  }
 
-      if (ceValue.getValueType() == JsonValue.ValueType.NUMBER) {
-        eValueCond = domain.getJsonNumber("cevalue").doubleValue();
-      } else if (ceValue.getValueType() == JsonValue.ValueType.STRING) {
-        eValueCond = Double.parseDouble(domain.getString("cevalue"));
+  // the fields we keep from a domain of a hit (set by the JSON and domain table parsers)
+  /*package*/ static class Domain {
+
+    double eValueInd = Double.POSITIVE_INFINITY;
+    double eValueCond;
+    String querySequence;
+    int querySequenceStart;
+    int querySequenceEnd;
+    String match;
+    String targetSequence;
+    int targetSequenceStart;
+    int targetSequenceEnd;
+    int targetEnvelopeStart;
+    int targetEnvelopeEnd;
+    String posteriorProbability;
+    double accuracy;
+    double bitScore;
+    double identityPercent;
+    int identityCount;
+    double similarityPercent;
+    int similarityCount;
+
+    // read a domain (the parser must be just after the start of the domain object)
+    private static Domain read(JsonParser parser) throws IOException {
+      Domain d = new Domain();
+      Event event;
+      while ((event = parser.next()) == Event.KEY_NAME) {
+        String key = parser.getString();
+        event = parser.next();
+        switch (key) {
+        case "ievalue":
+          d.eValueInd = JsonParsing.getDouble(parser, event);
+          break;
+        case "cevalue":
+          d.eValueCond = JsonParsing.getDouble(parser, event);
+          break;
+        case "ienv":
+          d.targetEnvelopeStart = JsonParsing.getInt(parser, event);
+          break;
+        case "jenv":
+          d.targetEnvelopeEnd = JsonParsing.getInt(parser, event);
+          break;
+        case "oasc":
+          d.accuracy = JsonParsing.getDouble(parser, event);
+          break;
+        case "bitscore":
+          d.bitScore = JsonParsing.getDouble(parser, event);
+          break;
+        case "alignment_display":
+          d.readAlignment(parser, event);
+          break;
+        default:
+          JsonParsing.skip(parser, event);
+          break;
+        }
       }
+      return d;
+    }
 
-      JsonObject alignment = domain.getJsonObject("alignment_display");
-
-      querySequence = alignment.getString("model");
-      querySequenceStart = alignment.getInt("hmmfrom");
-      querySequenceEnd = alignment.getInt("hmmto");
-      
-      match = alignment.getString("mline");
-      
-      targetSequence = alignment.getString("aseq");
-      targetSequenceStart = alignment.getInt("sqfrom");
-      targetSequenceEnd = alignment.getInt("sqto");
-      
-      targetEnvelopeStart = domain.getInt("ienv");
-      targetEnvelopeEnd = domain.getInt("jenv");
-      
-      posteriorProbability = alignment.getString("ppline");
-      
-      accuracy = domain.getJsonNumber("oasc").doubleValue();
-      bitScore = domain.getJsonNumber("bitscore").doubleValue();
-
-      JsonArray identity = alignment.getJsonArray("identity");
-      JsonArray similarity = alignment.getJsonArray("similarity");
-      
-      identityPercent = 100 * identity.getJsonNumber(0).doubleValue();
-      identityCount = identity.getInt(1);
-      
-      similarityPercent = 100 * similarity.getJsonNumber(0).doubleValue();
-      similarityCount = similarity.getInt(1);
-      
-      // we consider only the first significant match
-      break;
+    private void readAlignment(JsonParser parser, Event event) throws IOException {
+      if (event != Event.START_OBJECT) {
+        JsonParsing.skip(parser, event);
+        return;
+      }
+      while ((event = parser.next()) == Event.KEY_NAME) {
+        String key = parser.getString();
+        event = parser.next();
+        switch (key) {
+        case "model":
+          querySequence = JsonParsing.getString(parser, event);
+          break;
+        case "hmmfrom":
+          querySequenceStart = JsonParsing.getInt(parser, event);
+          break;
+        case "hmmto":
+          querySequenceEnd = JsonParsing.getInt(parser, event);
+          break;
+        case "mline":
+          match = JsonParsing.getString(parser, event);
+          break;
+        case "aseq":
+          targetSequence = JsonParsing.getString(parser, event);
+          break;
+        case "sqfrom":
+          targetSequenceStart = JsonParsing.getInt(parser, event);
+          break;
+        case "sqto":
+          targetSequenceEnd = JsonParsing.getInt(parser, event);
+          break;
+        case "ppline":
+          posteriorProbability = JsonParsing.getString(parser, event);
+          break;
+        case "identity":
+          JsonParsing.expectArray(parser, event);
+          identityPercent = 100 * JsonParsing.getDouble(parser, parser.next());
+          identityCount = JsonParsing.getInt(parser, parser.next());
+          JsonParsing.skip(parser, Event.START_ARRAY);
+          break;
+        case "similarity":
+          JsonParsing.expectArray(parser, event);
+          similarityPercent = 100 * JsonParsing.getDouble(parser, parser.next());
+          similarityCount = JsonParsing.getInt(parser, parser.next());
+          JsonParsing.skip(parser, Event.START_ARRAY);
+          break;
+        default:
+          JsonParsing.skip(parser, event);
+          break;
+        }
+      }
     }
+
   }
 
   public double getSignificanceThreshold() {
-    return SIGNIFICANCE_THRESHOLD;
+    return threshold;
   }
 
   public String getTarget() {
@@ -0,0 +1,83 @@
+package uk.co.flax.biosolr.pdbe.phmmer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parser for phmmer's per-domain tabular output (--domtblout). Each line is a domain
+ * of a hit, and the domains of a hit are on consecutive lines, so an Alignment is built
+ * for each hit, as for the web service's JSON, from the hit's scores and its first
+ * significant domain. (The table has no alignment display, so there are no sequences
+ * or identity and similarity values.)
+ */
+public class DomainTableParser {
+
+  // columns
+  private static final int TARGET = 0;
+  private static final int FULL_EVALUE = 6;
+  private static final int FULL_SCORE = 7;
+  private static final int FULL_BIAS = 8;
+  private static final int COND_EVALUE = 11;
+  private static final int IND_EVALUE = 12;
+  private static final int DOMAIN_SCORE = 13;
+  private static final int HMM_FROM = 15;
+  private static final int HMM_TO = 16;
+  private static final int ALI_FROM = 17;
+  private static final int ALI_TO = 18;
+  private static final int ENV_FROM = 19;
+  private static final int ENV_TO = 20;
+  private static final int ACCURACY = 21;
+  private static final int DESCRIPTION = 22;
+
+  private DomainTableParser() { }
+
+  /**
+   * Parse a domain table.
+   */
+  public static PhmmerResults parse(BufferedReader reader) throws IOException {
+    List<Alignment> hits = new ArrayList<>();
+    Alignment alignment = null;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] cols = line.trim().split("\\s+", DESCRIPTION + 1);
+      if (cols.length < DESCRIPTION) {
+        throw new IOException("Bad phmmer domain table line: " + line);
+      }
+      try {
+        if (alignment == null || ! alignment.getTarget().equals(cols[TARGET])) {
+          if (alignment != null) {
+            hits.add(alignment);
+          }
+          String description = cols.length > DESCRIPTION ? cols[DESCRIPTION] : null;
+          alignment = new Alignment(cols[TARGET], null, description,
+              Double.parseDouble(cols[FULL_SCORE]), Double.parseDouble(cols[FULL_BIAS]), Double.parseDouble(cols[FULL_EVALUE]));
+        }
+
+        Alignment.Domain domain = new Alignment.Domain();
+        domain.eValueCond = Double.parseDouble(cols[COND_EVALUE]);
+        domain.eValueInd = Double.parseDouble(cols[IND_EVALUE]);
+        domain.bitScore = Double.parseDouble(cols[DOMAIN_SCORE]);
+        domain.querySequenceStart = Integer.parseInt(cols[HMM_FROM]);
+        domain.querySequenceEnd = Integer.parseInt(cols[HMM_TO]);
+        domain.targetSequenceStart = Integer.parseInt(cols[ALI_FROM]);
+        domain.targetSequenceEnd = Integer.parseInt(cols[ALI_TO]);
+        domain.targetEnvelopeStart = Integer.parseInt(cols[ENV_FROM]);
+        domain.targetEnvelopeEnd = Integer.parseInt(cols[ENV_TO]);
+        domain.accuracy = Double.parseDouble(cols[ACCURACY]);
+        alignment.addDomain(domain);
+      } catch (NumberFormatException e) {
+        throw new IOException("Bad phmmer domain table line: " + line);
+      }
+    }
+    if (alignment != null) {
+      hits.add(alignment);
+    }
+    return new PhmmerResults(hits);
+  }
+
+}
@@ -0,0 +1,96 @@
+package uk.co.flax.biosolr.pdbe.phmmer;
+
+import java.io.IOException;
+
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+/**
+ * Helpers for reading PHMMER JSON responses with a streaming JsonParser.
+ */
+/*package*/ final class JsonParsing {
+
+  private JsonParsing() { }
+
+  /**
+   * Skip the value which started with the given event (so, for an object or array,
+   * consume events up to and including its end).
+   */
+  /*package*/ static void skip(JsonParser parser, Event event) {
+    if (event != Event.START_OBJECT && event != Event.START_ARRAY) {
+      return;
+    }
+    for (int depth = 1; depth > 0; ) {
+      switch (parser.next()) {
+      case START_OBJECT:
+      case START_ARRAY:
+        ++depth;
+        break;
+      case END_OBJECT:
+      case END_ARRAY:
+        --depth;
+        break;
+      default:
+        break;
+      }
+    }
+  }
+
+  /**
+   * Get a string value (or null) for the given event, skipping anything else.
+   */
+  /*package*/ static String getString(JsonParser parser, Event event) {
+    if (event == Event.VALUE_STRING || event == Event.VALUE_NUMBER) {
+      return parser.getString();
+    }
+    skip(parser, event);
+    return null;
+  }
+
+  /**
+   * Get a number for the given event, which may be a number or a string holding one
+   * (PHMMER gives some e-values as strings).
+   */
+  /*package*/ static double getDouble(JsonParser parser, Event event) throws IOException {
+    if (event == Event.VALUE_NUMBER || event == Event.VALUE_STRING) {
+      try {
+        return Double.parseDouble(parser.getString());
+      } catch (NumberFormatException e) {
+        throw new IOException("Bad number in PHMMER response: " + parser.getString());
+      }
+    }
+    skip(parser, event);
+    throw new IOException("Expected a number in PHMMER response, not " + event);
+  }
+
+  /**
+   * Get an integer for the given event.
+   */
+  /*package*/ static int getInt(JsonParser parser, Event event) throws IOException {
+    if (event == Event.VALUE_NUMBER && parser.isIntegralNumber()) {
+      return parser.getInt();
+    }
+    return (int)getDouble(parser, event);
+  }
+
+  /**
+   * Check that the given event starts an array.
+   */
+  /*package*/ static void expectArray(JsonParser parser, Event event) throws IOException {
+    if (event != Event.START_ARRAY) {
+      skip(parser, event);
+      throw new IOException("Expected an array in PHMMER response, not " + event);
+    }
+  }
+
+  /**
+   * Expect the given event next.
+   */
+  /*package*/ static void expect(JsonParser parser, Event expected) throws IOException {
+    Event event = parser.hasNext() ? parser.next() : null;
+    if (event != expected) {
+      throw new IOException("Expected " + expected + " in PHMMER response, not " + event);
+    }
+  }
+
+}
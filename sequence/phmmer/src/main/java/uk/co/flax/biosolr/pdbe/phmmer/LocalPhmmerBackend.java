@@ -0,0 +1,140 @@
+package uk.co.flax.biosolr.pdbe.phmmer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Backend running phmmer locally, against a local sequence database (the path of a FASTA
+ * file). Searches are run by a pool of workers, so at most that many are running at
+ * once (further searches wait their turn). Each search writes its query to a temporary
+ * directory, has the Runner write a domain table there, and parses it.
+ */
+public class LocalPhmmerBackend implements PhmmerBackend {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LocalPhmmerBackend.class);
+
+  public static final int DEFAULT_WORKERS = 2;
+
+  private static final AtomicInteger backends = new AtomicInteger();
+
+  /**
+   * Runs phmmer (or something like it) on a query file, writing a domain table.
+   */
+  public interface Runner {
+
+    void run(Path query, Path database, Path domainTable) throws IOException, InterruptedException;
+
+  }
+
+  private final Runner runner;
+
+  private final ExecutorService workers;
+
+  public LocalPhmmerBackend(Runner runner, int workers) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("Bad local PHMMER configuration");
+    }
+    this.runner = runner;
+
+    String name = "phmmer-" + backends.incrementAndGet() + "-";
+    AtomicInteger count = new AtomicInteger();
+    ThreadFactory threadFactory = r -> {
+      Thread thread = new Thread(r, name + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    this.workers = Executors.newFixedThreadPool(workers, threadFactory);
+  }
+
+  @Override
+  public PhmmerResults search(String database, String sequence) throws IOException {
+    return get(workers.submit(() -> run(Paths.get(database), sequence)));
+  }
+
+  // wait for a search
+  private static PhmmerResults get(Future<PhmmerResults> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for phmmer");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException)e.getCause();
+      }
+      throw new IOException("Error running phmmer", e.getCause());
+    }
+  }
+
+  /**
+   * Submit all the searches to our workers, then wait for them all.
+   */
+  @Override
+  public Map<String, PhmmerResults> searchAll(String database, Map<String, String> sequences) throws IOException {
+    Map<String, Future<PhmmerResults>> futures = new LinkedHashMap<>();
+    for (Map.Entry<String, String> entry : sequences.entrySet()) {
+      String sequence = entry.getValue();
+      futures.put(entry.getKey(), workers.submit(() -> run(Paths.get(database), sequence)));
+    }
+    Map<String, PhmmerResults> results = new LinkedHashMap<>();
+    try {
+      for (Map.Entry<String, Future<PhmmerResults>> entry : futures.entrySet()) {
+        results.put(entry.getKey(), get(entry.getValue()));
+      }
+      return results;
+    } finally {
+      if (results.size() < futures.size()) {
+        for (Future<PhmmerResults> future : futures.values()) {
+          future.cancel(true);
+        }
+      }
+    }
+  }
+
+  // run a search in a temporary directory
+  private PhmmerResults run(Path database, String sequence) throws IOException, InterruptedException {
+    Path dir = Files.createTempDirectory("phmmer");
+    try {
+      Path query = dir.resolve("query.fasta");
+      Path domainTable = dir.resolve("hits.domtbl");
+      Files.write(query, (">Seq\n" + sequence + "\n").getBytes(StandardCharsets.UTF_8));
+      long start = System.currentTimeMillis();
+      runner.run(query, database, domainTable);
+      LOG.debug("phmmer took " + (System.currentTimeMillis() - start) + "ms");
+      try (BufferedReader reader = Files.newBufferedReader(domainTable, StandardCharsets.UTF_8)) {
+        return DomainTableParser.parse(reader);
+      }
+    } finally {
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+        for (Path file : files) {
+          Files.deleteIfExists(file);
+        }
+      }
+      Files.deleteIfExists(dir);
+    }
+  }
+
+  @Override
+  public void close() {
+    workers.shutdownNow();
+  }
+
+}
@@ -9,9 +9,8 @@ public class Main {
       System.err.println("Arguments: [url] [sequence]");
       return;
     }
-    PhmmerClient client = new PhmmerClient(args[0]);
-    PhmmerJob job = new PhmmerJob(client, "pdb", args[1]);
-    try {
+    try (PhmmerClient client = new PhmmerClient(args[0])) {
+      PhmmerJob job = new PhmmerJob(client, "pdb", args[1]);
       PhmmerResults results = job.runJob();
       for (String pdbId : results.getPdbIds()) {
         System.out.println(pdbId);
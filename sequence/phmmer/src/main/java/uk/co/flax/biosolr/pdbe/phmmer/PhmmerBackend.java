@@ -0,0 +1,33 @@
+package uk.co.flax.biosolr.pdbe.phmmer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Means of running PHMMER searches: the EBI web service (PhmmerClient) or a local
+ * phmmer (LocalPhmmerBackend). Implementations must be safe to use from several threads
+ * at once.
+ */
+public interface PhmmerBackend extends Closeable {
+
+  /**
+   * Search the given database (a database name for the web service, or the path of a
+   * FASTA file for a local phmmer) for the given sequence.
+   */
+  public PhmmerResults search(String database, String sequence) throws IOException;
+
+  /**
+   * Search the given database for each of the given sequences (by key), returning the
+   * results by key (in the same order). By default, the searches are made one at a time.
+   */
+  public default Map<String, PhmmerResults> searchAll(String database, Map<String, String> sequences) throws IOException {
+    Map<String, PhmmerResults> results = new LinkedHashMap<>();
+    for (Map.Entry<String, String> entry : sequences.entrySet()) {
+      results.put(entry.getKey(), search(database, entry.getValue()));
+    }
+    return results;
+  }
+
+}
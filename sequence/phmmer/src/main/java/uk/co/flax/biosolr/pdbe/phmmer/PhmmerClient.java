@@ -2,153 +2,308 @@ package uk.co.flax.biosolr.pdbe.phmmer;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.ProtocolException;
-import java.net.URL;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.json.Json;
-import javax.json.JsonObject;
-import javax.json.JsonReader;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-//import uk.co.flax.biosolr.pdbe.fasta.FastaJob;
-
-public class PhmmerClient {
+/**
+ * Client for the PHMMER web service. Requests share a pool of keep-alive connections.
+ * A job is submitted, then its results are polled, with the delay between polls
+ * doubling (up to a maximum) while the job is pending or running.
+ *
+ * Several jobs may be run together (getAllResults()), in which case they are all
+ * submitted, then polled as a group.
+ *
+ * Responses are read with a streaming parser, so the result of a finished job is
+ * read straight into whatever the caller's ResultReader makes of it.
+ */
+public class PhmmerClient implements PhmmerBackend {
 
   private static final Logger LOG = LoggerFactory.getLogger(PhmmerClient.class);
-  
-  private String phmmerUrl;
-  
+
+  // defaults
+  public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+  public static final int DEFAULT_READ_TIMEOUT = 60000;
+  public static final long DEFAULT_POLL_DELAY = 500;
+  public static final long DEFAULT_MAX_POLL_DELAY = 5000;
+  public static final int DEFAULT_MAX_CONNECTIONS = 8;
+
+  // job status values
+  private static final String STATUS_SUCCESS = "SUCCESS";
+  private static final String STATUS_FAILURE = "FAILURE";
+
+  /**
+   * Reads the "result" object of a finished job. The parser is just after the start of
+   * the object, and must be left just after its end.
+   */
+  public interface ResultReader<T> {
+
+    T read(JsonParser parser) throws IOException;
+
+  }
+
+  // a job status response
+  /*package*/ static class Response<T> {
+
+    /*package*/ String status;
+
+    /*package*/ String message;
+
+    /*package*/ T result;
+
+  }
+
+  private final String phmmerUrl;
+
+  // initial and maximum delay between polls of a job, in milliseconds
+  private final long pollDelay;
+  private final long maxPollDelay;
+
+  private final PoolingHttpClientConnectionManager connectionManager;
+
+  private final CloseableHttpClient client;
+
+  public PhmmerClient(String phmmerUrl, int connectTimeout, int readTimeout, long pollDelay, long maxPollDelay, int maxConnections) {
+    if (pollDelay < 1 || maxPollDelay < pollDelay || maxConnections < 1) {
+      throw new IllegalArgumentException("Bad PHMMER client configuration");
+    }
+    this.phmmerUrl = phmmerUrl;
+    this.pollDelay = pollDelay;
+    this.maxPollDelay = maxPollDelay;
+
+    // all requests go to the one host
+    connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+    RequestConfig config = RequestConfig.custom()
+        .setConnectionRequestTimeout(connectTimeout)
+        .setConnectTimeout(connectTimeout)
+        .setSocketTimeout(readTimeout)
+        .build();
+    client = HttpClients.custom()
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(config)
+        .disableAutomaticRetries()
+        .build();
+  }
+
   public PhmmerClient(String phmmerUrl) {
-      this.phmmerUrl = phmmerUrl;
+    this(phmmerUrl, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_POLL_DELAY, DEFAULT_MAX_POLL_DELAY, DEFAULT_MAX_CONNECTIONS);
+  }
+
+  @Override
+  public PhmmerResults search(String database, String sequence) throws IOException {
+    return new PhmmerJob(this, database, sequence).runJob();
   }
 
-  public JsonObject getResults(String database, String sequence) throws IOException {
-    String submissionUrl = this.phmmerUrl + "/search/phmmer";
-
-    // submit the job
-    LOG.debug("submission URL=" + submissionUrl);
-    try (HttpConnection http = new HttpConnection(submissionUrl)) {
-      http.post("{" +
-            "\"database\":\"" + database + "\"," +
-            "\"input\":\">Seq\\n" + sequence + "\"" +
-            "}");
-      String jobId = http.getJson().getString("id");
+  /**
+   * Submit all the jobs, then poll them together.
+   */
+  @Override
+  public Map<String, PhmmerResults> searchAll(String database, Map<String, String> sequences) throws IOException {
+    return getAllResults(database, sequences, PhmmerJob::readResult);
+  }
+
+  /**
+   * Run a PHMMER job for the given sequence, and read its result.
+   */
+  public <T> T getResults(String database, String sequence, ResultReader<T> reader) throws IOException {
+    return getAllResults(database, Collections.singletonMap(sequence, sequence), reader).get(sequence);
+  }
+
+  /**
+   * Run a PHMMER job for each of the given sequences (by key), and read their results
+   * (returned by key, in the same order). The jobs are all submitted, then polled as a
+   * group, so the time taken is that of the slowest job, not the sum of them all.
+   */
+  public <T> Map<String, T> getAllResults(String database, Map<String, String> sequences, ResultReader<T> reader) throws IOException {
+    // job ids by key, while running
+    Map<String, String> jobIds = new LinkedHashMap<>();
+    for (Map.Entry<String, String> entry : sequences.entrySet()) {
+      String jobId = submit(database, entry.getValue());
       LOG.debug("Submitted job with ID=" + jobId);
+      jobIds.put(entry.getKey(), jobId);
+    }
 
-      // get the results
-      String resultsUrl = this.phmmerUrl + "/result/" + jobId +"?with_domains=true";
-      LOG.debug("results URL=" + resultsUrl);
-
-      try (HttpConnection http2 = new HttpConnection(resultsUrl)) {
-        http2.get("application/json");
-
-        LOG.debug("Response is " + http2.getResponseCode() + " " + http2.getResponseMessage());
-        JsonObject response = http2.getJson();
-        String status = response.getString("status");
-        while (!status.equals("SUCCESS")) {
-          LOG.debug("Job status is " + status + "; waiting 3s ...");
-          try {
-            Thread.sleep(3000);
-          } catch (InterruptedException e) {
-            e.printStackTrace();
-          }
-
-          // handle failures
-          if (status.equals("failure")) {
-            LOG.error("Job failed: " +jobId);
-            throw new IOException("Job failed: " + response.getString("message"));
-          }
-
-          try (HttpConnection httpRetry = new HttpConnection(resultsUrl)) {
-            httpRetry.get("application/json");
-            response = httpRetry.getJson();
-            status = response.getString("status");
-          }
+    Map<String, T> results = new HashMap<>();
+    for (long delay = pollDelay; ; delay = Math.min(delay * 2, maxPollDelay)) {
+      for (Iterator<Map.Entry<String, String>> it = jobIds.entrySet().iterator(); it.hasNext(); ) {
+        Map.Entry<String, String> entry = it.next();
+        T result = poll(entry.getValue(), reader);
+        if (result != null) {
+          results.put(entry.getKey(), result);
+          it.remove();
         }
+      }
+      if (jobIds.isEmpty()) {
+        break;
+      }
 
-        return response;
+      LOG.debug(jobIds.size() + " jobs pending or running; waiting " + delay + "ms ...");
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for jobs " + jobIds.values());
       }
-      
     }
 
-  }
-  
-  private String getResultsUrl(String database, String sequence) throws IOException {
-    LOG.debug("getting PHMMER data for seqdb=" + database + "; sequence=" + sequence);
-    try (HttpConnection http = new HttpConnection(phmmerUrl)) {
-      // http.post("seqdb=" + database + "&seq=>Seq%0D%0A" + sequence);
-      http.post("{" +
-            "\"database\":\"" + database + "\"," +
-            "\"input\":\">Seq\\n" + sequence + "\"" +
-            "}");
-      return http.getJson().getString("id");
-      // return http.getHeader("Location");
+    Map<String, T> ordered = new LinkedHashMap<>();
+    for (String key : sequences.keySet()) {
+      ordered.put(key, results.get(key));
     }
+    return ordered;
   }
 
-  private JsonObject getResultsJson(String url) throws IOException {
-    try (HttpConnection http = new HttpConnection(url)) {
-      http.get("application/json");
-      return http.getJson();
-    }
-  }
-  
-  private class HttpConnection implements AutoCloseable {
-
-    private HttpURLConnection http;
-    
-    private HttpConnection(String url) throws IOException {
-      LOG.debug("opening connection to " + url);
-      http = (HttpURLConnection)new URL(url).openConnection();
-    }
-    
-    private void post(String params) throws IOException {
-      LOG.debug("POSTing \"" + params + "\"");
-      http.setRequestMethod("POST");
-      http.setDoOutput(true);
-      http.setInstanceFollowRedirects(false);
-      http.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=utf-8");
-      http.setRequestProperty("Content-Length", Integer.toString(params.getBytes().length));
-      try (OutputStream out = http.getOutputStream()) {
-        out.write(params.getBytes());
+  // poll a job, returning its result if it has finished (or null if it is still pending
+  // or running)
+  private <T> T poll(String jobId, ResultReader<T> reader) throws IOException {
+    String resultsUrl = phmmerUrl + "/result/" + jobId + "?with_domains=true";
+    LOG.debug("results URL=" + resultsUrl);
+    Response<T> response = execute(new HttpGet(resultsUrl), parser -> readResponse(parser, reader));
+    if (STATUS_SUCCESS.equalsIgnoreCase(response.status)) {
+      if (response.result == null) {
+        throw new IOException("No result for job " + jobId);
       }
-      
-      LOG.debug("response is " + http.getResponseCode() + " " + http.getResponseMessage());
+      return response.result;
     }
-    
-    private String getHeader(String key) {
-      return http.getHeaderField(key);
+    if (response.status == null || STATUS_FAILURE.equalsIgnoreCase(response.status)) {
+      LOG.error("Job failed: " + jobId);
+      throw new IOException("Job failed: " + response.message);
     }
-    
-    private void get(String accept) throws ProtocolException {
-      http.setRequestMethod("GET");
-      http.setRequestProperty("Accept", accept);
+    LOG.debug("Job " + jobId + " status is " + response.status);
+    return null;
+  }
+
+  // submit a job, returning its id
+  private String submit(String database, String sequence) throws IOException {
+    StringWriter json = new StringWriter();
+    try (JsonGenerator generator = Json.createGenerator(json)) {
+      generator.writeStartObject()
+          .write("database", database)
+          .write("input", ">Seq\n" + sequence)
+          .writeEnd();
     }
-    
-    private JsonObject getJson() throws IOException {
-      try (InputStream in = http.getInputStream();
-           JsonReader reader = Json.createReader(in)) {
-        return reader.readObject();
+    String submissionUrl = phmmerUrl + "/search/phmmer";
+    LOG.debug("POSTing \"" + json + "\" to " + submissionUrl);
+
+    HttpPost post = new HttpPost(submissionUrl);
+    post.setEntity(new StringEntity(json.toString(), ContentType.create("application/x-www-form-urlencoded", StandardCharsets.UTF_8)));
+    return execute(post, parser -> {
+      String id = null;
+      Event event;
+      while ((event = parser.next()) == Event.KEY_NAME) {
+        String key = parser.getString();
+        event = parser.next();
+        if (key.equals("id")) {
+          id = JsonParsing.getString(parser, event);
+        } else {
+          JsonParsing.skip(parser, event);
+        }
       }
-    }
+      if (id == null) {
+        throw new IOException("No job id in PHMMER response");
+      }
+      return id;
+    });
+  }
 
-    private int getResponseCode() throws IOException {
-      return http.getResponseCode();
-    }
+  // make a request, and read the JSON object in the response (the reader is given the
+  // parser just after the start of the object)
+  private <T> T execute(HttpUriRequest request, ResultReader<T> reader) throws IOException {
+    request.setHeader("Accept", "application/json");
+    try (CloseableHttpResponse response = client.execute(request)) {
+      HttpEntity entity = response.getEntity();
+      int status = response.getStatusLine().getStatusCode();
+      if (status != HttpStatus.SC_OK && status != HttpStatus.SC_CREATED) {
+        EntityUtils.consumeQuietly(entity);
+        throw new IOException("HTTP status " + status + " from " + request.getURI());
+      }
+      if (entity == null) {
+        throw new IOException("No content in HTTP response from " + request.getURI());
+      }
 
-    private String getResponseMessage() throws IOException {
-      return http.getResponseMessage();
+      // reading to the end of the content releases the connection for reuse
+      try (InputStream in = entity.getContent();
+           JsonParser parser = Json.createParser(in)) {
+        JsonParsing.expect(parser, Event.START_OBJECT);
+        return reader.read(parser);
+      } finally {
+        EntityUtils.consumeQuietly(entity);
+      }
     }
-    
-    @Override
-    public void close() {
-      http.disconnect();
+  }
+
+  /**
+   * Read a job status response (the parser must be just after the start of the response
+   * object), using the given reader for the result (if there is one).
+   */
+  /*package*/ static <T> Response<T> readResponse(JsonParser parser, ResultReader<T> reader) throws IOException {
+    Response<T> response = new Response<>();
+    Event event;
+    while ((event = parser.next()) == Event.KEY_NAME) {
+      String key = parser.getString();
+      event = parser.next();
+      switch (key) {
+      case "status":
+        response.status = JsonParsing.getString(parser, event);
+        break;
+      case "message":
+        response.message = JsonParsing.getString(parser, event);
+        break;
+      case "result":
+        if (event == Event.START_OBJECT) {
+          response.result = reader.read(parser);
+        } else {
+          JsonParsing.skip(parser, event);
+        }
+        break;
+      default:
+        JsonParsing.skip(parser, event);
+        break;
+      }
     }
-    
+    return response;
+  }
+
+  /**
+   * Get the number of requests currently being made.
+   */
+  public int getLeased() {
+    return connectionManager.getTotalStats().getLeased();
   }
-  
+
+  @Override
+  public void close() throws IOException {
+    client.close();
+  }
+
 }
@@ -1,9 +1,11 @@
 package uk.co.flax.biosolr.pdbe.phmmer;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
-import javax.json.JsonArray;
-import javax.json.JsonObject;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
 
 public class PhmmerJob {
   
@@ -20,15 +22,36 @@ public class PhmmerJob {
   }
 
   public PhmmerResults runJob() throws IOException {
-    JsonObject response = client.getResults(database, sequence);
-    JsonObject results = response.getJsonObject("result");
-    JsonArray hits = results.getJsonArray("hits");
-    PhmmerResults phmmer = new PhmmerResults(hits.size());
-    for (int i = 0; i < hits.size(); ++i) {
-      Alignment a = new Alignment(hits.getJsonObject(i));
-      phmmer.addAlignment(a);
+    return client.getResults(database, sequence, PhmmerJob::readResult);
+  }
+
+  /**
+   * Read the result of a PHMMER job, streaming an Alignment from each hit (so the hit
+   * list is never held as JSON). The parser must be just after the start of the result
+   * object.
+   */
+  /*package*/ static PhmmerResults readResult(JsonParser parser) throws IOException {
+    List<Alignment> hits = null;
+    Event event;
+    while ((event = parser.next()) == Event.KEY_NAME) {
+      String key = parser.getString();
+      event = parser.next();
+      if (key.equals("hits") && event == Event.START_ARRAY) {
+        hits = new ArrayList<>();
+        while ((event = parser.next()) == Event.START_OBJECT) {
+          hits.add(Alignment.read(parser));
+        }
+        if (event != Event.END_ARRAY) {
+          throw new IOException("Unexpected " + event + " in PHMMER hits");
+        }
+      } else {
+        JsonParsing.skip(parser, event);
+      }
+    }
+    if (hits == null) {
+      throw new IOException("No hits in PHMMER result");
     }
-    return phmmer;
+    return new PhmmerResults(hits);
   }
   
 }
@@ -0,0 +1,69 @@
+package uk.co.flax.biosolr.pdbe.phmmer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a locally installed phmmer binary (from HMMER 3), writing a domain table and
+ * no alignments. Its other output goes to a log file beside the domain table, which is
+ * reported if phmmer fails.
+ */
+public class PhmmerProcess implements LocalPhmmerBackend.Runner {
+
+  public static final String DEFAULT_BINARY = "phmmer";
+  public static final int DEFAULT_CPU = 1;
+  public static final long DEFAULT_TIMEOUT = 600000;
+
+  // characters of the log to report
+  private static final int LOG_TAIL = 1000;
+
+  private final String binary;
+
+  // number of threads for each phmmer
+  private final int cpu;
+
+  // maximum run time, in milliseconds
+  private final long timeout;
+
+  public PhmmerProcess(String binary, int cpu, long timeout) {
+    if (cpu < 1 || timeout < 1) {
+      throw new IllegalArgumentException("Bad phmmer process configuration");
+    }
+    this.binary = binary;
+    this.cpu = cpu;
+    this.timeout = timeout;
+  }
+
+  @Override
+  public void run(Path query, Path database, Path domainTable) throws IOException, InterruptedException {
+    Path log = domainTable.resolveSibling("phmmer.log");
+    List<String> command = Arrays.asList(binary, "--noali", "--cpu", Integer.toString(cpu),
+        "--domtblout", domainTable.toString(), query.toString(), database.toString());
+    Process process = new ProcessBuilder(command)
+        .redirectErrorStream(true)
+        .redirectOutput(log.toFile())
+        .start();
+    try {
+      if (! process.waitFor(timeout, TimeUnit.MILLISECONDS)) {
+        throw new IOException("phmmer timed out after " + timeout + "ms");
+      }
+      if (process.exitValue() != 0) {
+        throw new IOException("phmmer exited with status " + process.exitValue() + ": " + tail(log));
+      }
+    } finally {
+      process.destroyForcibly();
+    }
+  }
+
+  // the end of the log
+  private static String tail(Path log) throws IOException {
+    String s = new String(Files.readAllBytes(log), StandardCharsets.UTF_8).trim();
+    return s.length() > LOG_TAIL ? s.substring(s.length() - LOG_TAIL) : s;
+  }
+
+}
@@ -1,52 +1,179 @@
 package uk.co.flax.biosolr.pdbe.phmmer;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+/**
+ * The hits of a PHMMER search. All the hits are kept, in order of significance (the best
+ * independent e-value of their domains), so the results for any significance threshold
+ * are found by binary search, without searching again. The methods without a threshold
+ * give the results for Alignment.SIGNIFICANCE_THRESHOLD.
+ */
 public class PhmmerResults {
 
-  private Map<String, Map<String, Alignment>> alignments;
-  
-  private int numChains;
-  
-  public PhmmerResults(int size) {
-    alignments = new HashMap<>(size);
-    numChains = 0;
-  }
-  
-  /*package*/ void addAlignment(Alignment alignment) {
-    String[] bits = alignment.getTarget().split("_"); // split out the pdb id from e.g. 1cms_A
-    Double significanceValue = alignment.getEValueInd();
-    Double significanceThreshold = alignment.getSignificanceThreshold();
-    Map<String, Alignment> map = alignments.get(bits[0]);
-    if (map == null) {
-      map = new HashMap<>();
-      if (significanceValue <= significanceThreshold){
-          alignments.put(bits[0], map);
+  // all hits (one per target), and their significance, most significant first
+  private final Alignment[] hits;
+  private final double[] significance;
+
+  // distinct PDB ids, in order of the significance of their best hits (most significant
+  // first), and that significance
+  private final String[] pdbIds;
+  private final double[] entrySignificance;
+
+  // the indexes of the hits for each PDB id (most significant first)
+  private final Map<String, int[]> index;
+
+  // alignments at the default threshold, by PDB id and chain (built when first needed)
+  private volatile Map<String, Map<String, Alignment>> alignments;
+
+  public PhmmerResults(Collection<Alignment> alignments) {
+    // sort by significance, keeping the best hit for each target
+    Alignment[] sorted = alignments.toArray(new Alignment[alignments.size()]);
+    Arrays.sort(sorted, (a, b) -> Double.compare(a.getSignificance(), b.getSignificance()));
+    hits = new Alignment[sorted.length];
+    significance = new double[sorted.length];
+    Set<String> targets = new HashSet<>();
+    int n = 0;
+    for (Alignment a : sorted) {
+      if (targets.add(a.getTarget())) {
+        hits[n] = a;
+        significance[n++] = a.getSignificance();
+      }
+    }
+
+    // hit indexes for each PDB id
+    Map<String, List<Integer>> lists = new HashMap<>();
+    for (int i = 0; i < n; ++i) {
+      lists.computeIfAbsent(getPdbId(hits[i]), k -> new ArrayList<>(2)).add(i);
+    }
+    index = new HashMap<>(lists.size() * 4 / 3 + 1);
+    for (Map.Entry<String, List<Integer>> entry : lists.entrySet()) {
+      List<Integer> list = entry.getValue();
+      int[] indexes = new int[list.size()];
+      for (int j = 0; j < indexes.length; ++j) {
+        indexes[j] = list.get(j);
       }
+      index.put(entry.getKey(), indexes);
     }
-    if (significanceValue <= significanceThreshold){
-        if (map.put(bits[1], alignment) == null) {
-            ++numChains;
-        }
+
+    // PDB ids by the significance of their best hits (the first of their hit indexes)
+    pdbIds = index.keySet().toArray(new String[index.size()]);
+    Arrays.sort(pdbIds, (a, b) -> Integer.compare(index.get(a)[0], index.get(b)[0]));
+    entrySignificance = new double[pdbIds.length];
+    for (int i = 0; i < pdbIds.length; ++i) {
+      entrySignificance[i] = significance[index.get(pdbIds[i])[0]];
+    }
+  }
+
+  // split out the pdb id from e.g. 1cms_A
+  private static String getPdbId(Alignment a) {
+    String target = a.getTarget();
+    int i = target.indexOf('_');
+    return i < 0 ? target : target.substring(0, i);
+  }
+
+  private static String getChain(Alignment a) {
+    String target = a.getTarget();
+    int i = target.indexOf('_');
+    return i < 0 ? "" : target.substring(i + 1);
+  }
+
+  // the number of the given (sorted) values below the threshold
+  private static int countBelow(double[] values, double threshold) {
+    int lo = 0;
+    int hi = values.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (values[mid] < threshold) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
     }
+    return lo;
   }
-  
+
+  /**
+   * Get the number of hits (whatever their significance).
+   */
+  public int getNumHits() {
+    return hits.length;
+  }
+
+  /**
+   * Get the (sorted) PDB ids with a hit significant at the given threshold.
+   */
+  public List<String> getPdbIds(double threshold) {
+    String[] ids = Arrays.copyOf(pdbIds, getNumEntries(threshold));
+    Arrays.sort(ids);
+    return Arrays.asList(ids);
+  }
+
+  /**
+   * Get the alignments for the given PDB id significant at the given threshold (most
+   * significant first), or null if there are none.
+   */
+  public List<Alignment> getAlignments(String pdbId, double threshold) {
+    int[] indexes = index.get(pdbId);
+    if (indexes == null || significance[indexes[0]] >= threshold) {
+      return null;
+    }
+    List<Alignment> list = new ArrayList<>(indexes.length);
+    for (int i : indexes) {
+      if (significance[i] >= threshold) {
+        break;
+      }
+      list.add(hits[i].atThreshold(threshold));
+    }
+    return list;
+  }
+
+  /**
+   * Get the number of chains with a hit significant at the given threshold.
+   */
+  public int getNumChains(double threshold) {
+    return countBelow(significance, threshold);
+  }
+
+  /**
+   * Get the number of PDB entries with a hit significant at the given threshold.
+   */
+  public int getNumEntries(double threshold) {
+    return countBelow(entrySignificance, threshold);
+  }
+
   public Set<String> getPdbIds() {
-    return alignments.keySet();
+    return new LinkedHashSet<>(getPdbIds(Alignment.SIGNIFICANCE_THRESHOLD));
   }
-  
+
   public Map<String, Map<String, Alignment>> getAlignments() {
-    return alignments;
+    Map<String, Map<String, Alignment>> map = alignments;
+    if (map == null) {
+      map = new HashMap<>();
+      int n = getNumChains();
+      for (int i = 0; i < n; ++i) {
+        Alignment a = hits[i].atThreshold(Alignment.SIGNIFICANCE_THRESHOLD);
+        map.computeIfAbsent(getPdbId(a), k -> new HashMap<>()).put(getChain(a), a);
+      }
+      alignments = map = Collections.unmodifiableMap(map);
+    }
+    return map;
   }
 
   public int getNumChains() {
-    return numChains;
+    return getNumChains(Alignment.SIGNIFICANCE_THRESHOLD);
   }
 
   public int getNumEntries() {
-    return alignments.size();
+    return getNumEntries(Alignment.SIGNIFICANCE_THRESHOLD);
   }
-  
+
 }
@@ -5,13 +5,17 @@ package uk.co.flax.biosolr.pdbe.phmmer;
 //import static org.mockito.Matchers.any;
 
 //import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
 //import java.nio.file.Files;
 //import java.nio.file.Paths;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.TreeMap;
 
 //import javax.json.Json;
 //import javax.json.JsonObject;
@@ -19,6 +23,7 @@ import java.util.Set;
 
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.search.xjoin.BatchResults;
 import org.apache.solr.search.xjoin.XJoinResults;
 import org.apache.solr.search.xjoin.XJoinResultsFactory;
 
@@ -26,7 +31,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
-public class PhmmerXJoinResultsFactory implements XJoinResultsFactory<String> {
+public class PhmmerXJoinResultsFactory implements XJoinResultsFactory<String>, Closeable {
   
   private static final Logger LOG = LoggerFactory.getLogger(PhmmerXJoinResultsFactory.class);
 
@@ -34,14 +39,36 @@ public class PhmmerXJoinResultsFactory implements XJoinResultsFactory<String> {
   public static final String INIT_DATABASE = "database";
   public static final String INIT_DEBUG_FILE = "debug.file";
   public static final String PHMMER_URL = "url";
+  public static final String INIT_BACKEND = "backend";
+  public static final String INIT_BINARY = "binary";
+  public static final String INIT_CPU = "cpu";
+  public static final String INIT_WORKERS = "workers";
+  public static final String INIT_TIMEOUT = "timeout";
+  public static final String INIT_CONNECT_TIMEOUT = "connectTimeout";
+  public static final String INIT_READ_TIMEOUT = "readTimeout";
+  public static final String INIT_POLL_DELAY = "pollDelay";
+  public static final String INIT_MAX_POLL_DELAY = "maxPollDelay";
+  public static final String INIT_MAX_CONNECTIONS = "maxConnections";
+  public static final String INIT_RESULTS_CACHE_SIZE = "resultsCacheSize";
+
+  // defaults
+  public static final int DEFAULT_RESULTS_CACHE_SIZE = 16;
+
+  // backends
+  public static final String BACKEND_REMOTE = "remote";
+  public static final String BACKEND_LOCAL = "local";
 
   // request parameters
   public static final String PHMMER_SEQUENCE = "sequence";
+  public static final String PHMMER_THRESHOLD = "threshold";
 
-  private PhmmerClient client;
+  private PhmmerBackend backend;
   
   private String database;
 
+  // recent search results, by sequence (with all hits, so good for any threshold)
+  private Map<String, PhmmerResults> cache;
+
   @Override
   @SuppressWarnings("rawtypes")
   public void init(NamedList args) {
@@ -64,12 +91,14 @@ public class PhmmerXJoinResultsFactory implements XJoinResultsFactory<String> {
         throw new UnsupportedOperationException("debug file not supported");
     } 
     else {
-      String url = (String) args.get(PHMMER_URL);
-      if (url == null || url.isEmpty()) {
-          throw new RuntimeException("external url parameter is required");
+      String backendName = (String) args.get(INIT_BACKEND);
+      if (backendName == null || backendName.equals(BACKEND_REMOTE)) {
+        backend = createClient(args);
+      } else if (backendName.equals(BACKEND_LOCAL)) {
+        backend = createLocal(args);
+      } else {
+        throw new RuntimeException("unknown PHMMER backend: " + backendName);
       }
-      LOG.info("creating PHMMER client with URL " + url);
-      client = new PhmmerClient(url);
     }
 
     database = (String)args.get(INIT_DATABASE);
@@ -77,46 +106,181 @@ public class PhmmerXJoinResultsFactory implements XJoinResultsFactory<String> {
         throw new RuntimeException("external database parameter is required");        
     }
     LOG.info("PHMMER database is " + database);
+
+    Number cacheSize = (Number) args.get(INIT_RESULTS_CACHE_SIZE);
+    int maxCached = cacheSize != null ? cacheSize.intValue() : DEFAULT_RESULTS_CACHE_SIZE;
+    cache = Collections.synchronizedMap(new LinkedHashMap<String, PhmmerResults>(16, 0.75f, true) {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, PhmmerResults> eldest) {
+        return size() > maxCached;
+      }
+
+    });
+    LOG.info("resultsCacheSize=" + maxCached);
+  }
+
+  // a client for the PHMMER web service
+  @SuppressWarnings("rawtypes")
+  private PhmmerClient createClient(NamedList args) {
+    String url = (String) args.get(PHMMER_URL);
+    if (url == null || url.isEmpty()) {
+        throw new RuntimeException("external url parameter is required");
+    }
+    LOG.info("creating PHMMER client with URL " + url);
+    Number connectTimeout = (Number) args.get(INIT_CONNECT_TIMEOUT);
+    Number readTimeout = (Number) args.get(INIT_READ_TIMEOUT);
+    Number pollDelay = (Number) args.get(INIT_POLL_DELAY);
+    Number maxPollDelay = (Number) args.get(INIT_MAX_POLL_DELAY);
+    Number maxConnections = (Number) args.get(INIT_MAX_CONNECTIONS);
+    return new PhmmerClient(url,
+        connectTimeout != null ? connectTimeout.intValue() : PhmmerClient.DEFAULT_CONNECT_TIMEOUT,
+        readTimeout != null ? readTimeout.intValue() : PhmmerClient.DEFAULT_READ_TIMEOUT,
+        pollDelay != null ? pollDelay.longValue() : PhmmerClient.DEFAULT_POLL_DELAY,
+        maxPollDelay != null ? maxPollDelay.longValue() : PhmmerClient.DEFAULT_MAX_POLL_DELAY,
+        maxConnections != null ? maxConnections.intValue() : PhmmerClient.DEFAULT_MAX_CONNECTIONS);
+  }
+
+  // a local phmmer (the database being the path of a FASTA file)
+  @SuppressWarnings("rawtypes")
+  private LocalPhmmerBackend createLocal(NamedList args) {
+    Number workers = (Number) args.get(INIT_WORKERS);
+    String binary = (String) args.get(INIT_BINARY);
+    Number cpu = (Number) args.get(INIT_CPU);
+    Number timeout = (Number) args.get(INIT_TIMEOUT);
+    LOG.info("using local phmmer " + (binary != null ? binary : PhmmerProcess.DEFAULT_BINARY));
+    LocalPhmmerBackend.Runner runner = new PhmmerProcess(binary != null ? binary : PhmmerProcess.DEFAULT_BINARY,
+        cpu != null ? cpu.intValue() : PhmmerProcess.DEFAULT_CPU,
+        timeout != null ? timeout.longValue() : PhmmerProcess.DEFAULT_TIMEOUT);
+    return new LocalPhmmerBackend(runner, workers != null ? workers.intValue() : LocalPhmmerBackend.DEFAULT_WORKERS);
   }
 
+  /**
+   * Search for the sequence parameter or, if sequence.KEY parameters are given instead,
+   * for each of them together, returning BatchResults with the results for each sequence
+   * under its key.
+   *
+   * Hits are significant if their independent e-value is below the threshold parameter
+   * (by default, Alignment.SIGNIFICANCE_THRESHOLD). Since the results of recent searches
+   * are kept with all their hits, asking again with another threshold does not search
+   * again.
+   */
   @Override
   public XJoinResults<String> getResults(SolrParams params) throws IOException {
-    String sequence = params.get(PHMMER_SEQUENCE);
+    double threshold = params.getDouble(PHMMER_THRESHOLD, Alignment.SIGNIFICANCE_THRESHOLD);
+    Map<String, String> batch = getBatchSequences(params);
+    if (batch.isEmpty()) {
+      String sequence = getSequence(params, PHMMER_SEQUENCE);
+      return new Results(search(Collections.singletonMap(sequence, sequence)).get(sequence), threshold);
+    }
+    if (params.get(PHMMER_SEQUENCE) != null) {
+      throw new RuntimeException("Give either " + PHMMER_SEQUENCE + " or " + PHMMER_SEQUENCE + ".KEY parameters, not both");
+    }
+
+    Map<String, Results> members = new LinkedHashMap<>();
+    for (Map.Entry<String, PhmmerResults> entry : search(batch).entrySet()) {
+      members.put(entry.getKey(), new Results(entry.getValue(), threshold));
+    }
+    return new BatchResults<>(members);
+  }
+
+  // get results for the given sequences (by key), from our cache, or by searching
+  // together for those not cached
+  private Map<String, PhmmerResults> search(Map<String, String> sequences) throws IOException {
+    Map<String, PhmmerResults> results = new LinkedHashMap<>();
+    Map<String, String> uncached = new LinkedHashMap<>();
+    for (Map.Entry<String, String> entry : sequences.entrySet()) {
+      PhmmerResults cached = cache.get(entry.getValue());
+      results.put(entry.getKey(), cached);
+      if (cached == null) {
+        uncached.put(entry.getKey(), entry.getValue());
+      }
+    }
+    if (uncached.size() == 1) {
+      Map.Entry<String, String> entry = uncached.entrySet().iterator().next();
+      PhmmerResults searched = backend.search(database, entry.getValue());
+      cache.put(entry.getValue(), searched);
+      results.put(entry.getKey(), searched);
+    } else if (uncached.size() > 1) {
+      for (Map.Entry<String, PhmmerResults> entry : backend.searchAll(database, uncached).entrySet()) {
+        cache.put(uncached.get(entry.getKey()), entry.getValue());
+        results.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return results;
+  }
+
+  // the sequence.KEY parameters, by key (in order of key)
+  private static Map<String, String> getBatchSequences(SolrParams params) {
+    String prefix = PHMMER_SEQUENCE + ".";
+    Map<String, String> batch = new TreeMap<>();
+    for (Iterator<String> it = params.getParameterNamesIterator(); it.hasNext(); ) {
+      String name = it.next();
+      if (name.startsWith(prefix) && name.length() > prefix.length()) {
+        batch.put(name.substring(prefix.length()), getSequence(params, name));
+      }
+    }
+    return batch;
+  }
+
+  private static String getSequence(SolrParams params, String name) {
+    String sequence = params.get(name);
     if (sequence == null || sequence.length() == 0) {
-      throw new RuntimeException("Missing or empty sequence");
+      throw new RuntimeException("Missing or empty " + name);
+    }
+    return sequence;
+  }
+
+  /**
+   * Close the PHMMER backend (its connections or workers).
+   */
+  @Override
+  public void close() throws IOException {
+    if (backend != null) {
+      backend.close();
     }
-    PhmmerJob job = new PhmmerJob(client, database, sequence);
-    return new Results(job.runJob());
   }
   
+  /**
+   * PHMMER results at a significance threshold. The (sorted) join ids are found once,
+   * when the results are created.
+   */
   public class Results implements XJoinResults<String> {
 
-    private PhmmerResults results;
+    private final PhmmerResults results;
+
+    private final double threshold;
+
+    private final List<String> joinIds;
     
-    private Results(PhmmerResults results) {
+    private Results(PhmmerResults results, double threshold) {
       this.results = results;
+      this.threshold = threshold;
+      joinIds = Collections.unmodifiableList(results.getPdbIds(threshold));
     }
 
     @Override
-    public Iterable<String> getJoinIds() {
-      Set<String> pdbIds = results.getPdbIds();
-      String[] ids = pdbIds.toArray(new String[pdbIds.size()]);
-      Arrays.sort(ids);
-      return Arrays.asList(ids);
+    public List<String> getJoinIds() {
+      return joinIds;
     }
     
     @Override
     public Collection<Alignment> getResult(String joinIdStr) {
-      Map<String, Alignment> map = results.getAlignments().get(joinIdStr);
-      return map != null ? map.values() : null;
+      return results.getAlignments(joinIdStr, threshold);
+    }
+
+    public double getThreshold() {
+      return threshold;
     }
 
     public int getNumChains() {
-      return results.getNumChains();
+      return results.getNumChains(threshold);
     }
     
     public int getNumEntries() {
-      return results.getNumEntries();
+      return results.getNumEntries(threshold);
     }
     
   }
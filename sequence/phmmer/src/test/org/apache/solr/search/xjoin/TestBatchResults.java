@@ -0,0 +1,88 @@
+package org.apache.solr.search.xjoin;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestBatchResults {
+
+  // results with the given join ids, the result for each being a list of its letters
+  private static class Results implements XJoinResults<String> {
+
+    private final List<String> joinIds;
+
+    private Results(String... joinIds) {
+      this.joinIds = Arrays.asList(joinIds);
+    }
+
+    @Override
+    public Object getResult(String joinId) {
+      if (! joinIds.contains(joinId)) {
+        return null;
+      }
+      return joinId.length() == 1 ? joinId : Arrays.asList(joinId.split(""));
+    }
+
+    @Override
+    public Iterable<String> getJoinIds() {
+      return joinIds;
+    }
+
+  }
+
+  private static BatchResults<String> batch() {
+    Map<String, XJoinResults<String>> members = new LinkedHashMap<>();
+    members.put("q2", new Results("b", "cd", "e"));
+    members.put("q1", new Results("a", "b", "cd"));
+    members.put("q3", new Results());
+    return new BatchResults<>(members);
+  }
+
+  @Test
+  public void keys() {
+    BatchResults<String> batch = batch();
+    assertEquals(Arrays.asList("q2", "q1", "q3"), new ArrayList<>(batch.getKeys()));
+    assertEquals(Arrays.asList("a", "b", "cd"), batch.getResults("q1").getJoinIds());
+    assertNull(batch.getResults("q4"));
+  }
+
+  @Test
+  public void joinIds() {
+    assertEquals(Arrays.asList("a", "b", "cd", "e"), batch().getJoinIds());
+  }
+
+  @Test
+  public void results() {
+    BatchResults<String> batch = batch();
+    assertEquals(Arrays.asList("b", "b"), batch.getResult("b"));
+    assertEquals(Arrays.asList("c", "d", "c", "d"), batch.getResult("cd"));
+    assertEquals(Collections.singletonList("a"), batch.getResult("a"));
+    assertNull(batch.getResult("z"));
+  }
+
+}
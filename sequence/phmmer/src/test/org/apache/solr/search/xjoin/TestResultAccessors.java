@@ -0,0 +1,99 @@
+package org.apache.solr.search.xjoin;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class TestResultAccessors {
+
+  public static class Result {
+
+    public double getScore() {
+      return 0.5;
+    }
+
+    public boolean isGood() {
+      return true;
+    }
+
+    public String getFooBar() {
+      return "foo";
+    }
+
+    public String getBroken() {
+      throw new IllegalStateException("broken");
+    }
+
+  }
+
+  @Test
+  public void accessors() {
+    ResultAccessors accessors = ResultAccessors.forClass(Result.class);
+    assertSame(accessors, ResultAccessors.forClass(Result.class));
+    assertSame(Result.class, accessors.getType());
+
+    Result result = new Result();
+    assertEquals(0.5, accessors.getField("score").apply(result));
+    assertEquals(true, accessors.getField("good").apply(result));
+    assertEquals("foo", accessors.getField("foo_bar").apply(result));
+    assertEquals("foo", accessors.getMethod("getFooBar").apply(result));
+    assertEquals(Result.class, accessors.getField("class").apply(result));
+    assertNull(accessors.getField("nothing"));
+
+    assertEquals(new HashSet<>(Arrays.asList("score", "good", "foo_bar", "broken", "class")), accessors.getFields().keySet());
+  }
+
+  @Test(expected=IllegalStateException.class)
+  public void exceptions() {
+    ResultAccessors.forClass(Result.class).getField("broken").apply(new Result());
+  }
+
+  @Test
+  public void visibility() {
+    assertTrue(ResultAccessors.isVisible(Result.class));
+    assertTrue(ResultAccessors.isVisible(String.class));
+    assertFalse(ResultAccessors.isVisible(new ClassLoader(null) {
+
+      // define a copy of Result in another class loader
+      Class<?> define() throws Exception {
+        byte[] bytes = IOUtils.toByteArray(Result.class.getResourceAsStream("TestResultAccessors$Result.class"));
+        return defineClass(null, bytes, 0, bytes.length);
+      }
+
+      Class<?> type() {
+        try {
+          return define();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+
+    }.type()));
+  }
+
+}
@@ -0,0 +1,147 @@
+package org.apache.solr.search.xjoin;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestShardResults {
+
+  public static class Result {
+
+    public double getScore() {
+      return 0.5;
+    }
+
+    public String[] getNames() {
+      return new String[] { "a", "b" };
+    }
+
+  }
+
+  private static class Results implements XJoinResults<String> {
+
+    @Override
+    public Object getResult(String joinId) {
+      switch (joinId) {
+      case "x":
+        return new Result();
+      case "y":
+        return Arrays.asList(new Result(), Collections.singletonMap("value", 3));
+      default:
+        return null;
+      }
+    }
+
+    @Override
+    public Iterable<String> getJoinIds() {
+      return Arrays.asList("x", "y", "z");
+    }
+
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void roundTrip() throws Exception {
+    ShardResults results = ShardResults.decode(ShardResults.encode(new Results()));
+    assertEquals(Arrays.asList("x", "y", "z"), results.getJoinIds());
+
+    Map<String, Object> fields = new HashMap<>();
+    fields.put("score", 0.5);
+    fields.put("names", Arrays.asList("a", "b"));
+    assertEquals(fields, results.getResult("x"));
+
+    List<Object> list = (List<Object>)results.getResult("y");
+    assertEquals(fields, list.get(0));
+    assertEquals(Collections.singletonMap("value", 3), list.get(1));
+
+    assertNull(results.getResult("z"));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void batchRoundTrip() throws Exception {
+    Map<String, XJoinResults<String>> members = new LinkedHashMap<>();
+    members.put("q2", new Results());
+    members.put("q1", new ShardResultsHelper(Arrays.asList("w", "y"), Collections.singletonMap("w", Collections.singletonMap("value", 1))));
+    String encoded = ShardResults.encode(new BatchResults<>(members));
+
+    BatchResults<String> batch = (BatchResults<String>)ShardResults.decodeResults(encoded);
+    assertEquals(Arrays.asList("q2", "q1"), new ArrayList<>(batch.getKeys()));
+    assertEquals(Arrays.asList("x", "y", "z"), batch.getResults("q2").getJoinIds());
+    assertEquals(Collections.singletonMap("value", 1), batch.getResults("q1").getResult("w"));
+    assertEquals(Arrays.asList("w", "x", "y", "z"), batch.getJoinIds());
+
+    // decoded as the batch as a whole
+    ShardResults results = ShardResults.decode(encoded);
+    assertEquals(Arrays.asList("w", "x", "y", "z"), results.getJoinIds());
+    assertEquals(Collections.singletonList(Collections.singletonMap("value", 1)), results.getResult("w"));
+    assertEquals(2, ((List<Object>)results.getResult("y")).size());
+    assertNull(results.getResult("z"));
+  }
+
+  @Test
+  public void limit() throws Exception {
+    String encoded = ShardResults.encode(new Results());
+    ShardResults.decodeResults(encoded, 1024);
+    try {
+      ShardResults.decodeResults(encoded, 16);
+      fail("decoded results larger than the limit");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  // results from a map
+  private static class ShardResultsHelper implements XJoinResults<String> {
+
+    private final List<String> joinIds;
+
+    private final Map<String, Object> results;
+
+    private ShardResultsHelper(List<String> joinIds, Map<String, Object> results) {
+      this.joinIds = joinIds;
+      this.results = results;
+    }
+
+    @Override
+    public Object getResult(String joinId) {
+      return results.get(joinId);
+    }
+
+    @Override
+    public Iterable<String> getJoinIds() {
+      return joinIds;
+    }
+
+  }
+
+}
@@ -21,15 +21,23 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.schema.FieldType;
 import org.apache.solr.search.DocIterator;
+import org.apache.solr.search.DocList;
 import org.apache.solr.search.DocSet;
+import org.apache.solr.search.PostFilter;
 import org.apache.solr.search.QParser;
 import org.apache.solr.search.QParserPlugin;
 import org.apache.solr.search.QueryParsing;
@@ -46,6 +54,8 @@ public class TestXJoinQParserPlugin extends AbstractXJoinTestCase {
   static final String COMPONENT_NAME_2 = "xjoin2";
   static final String COMPONENT_NAME_3 = "xjoin3";
   static final String COMPONENT_NAME_4 = "xjoin4";
+  static final String COMPONENT_NAME_DV = "xjoin9";
+  static final String COMPONENT_NAME_DV_MULTI = "xjoin10";
   static final String PARSER_NAME = "xjoin";
   
   static SolrCore core;
@@ -60,8 +70,19 @@ public class TestXJoinQParserPlugin extends AbstractXJoinTestCase {
   }
   
   private static Query parse(String v) throws SyntaxError {
+    return parse(v, null);
+  }
+  
+  private static Query parse(String v, String method) throws SyntaxError {
+    return parse(req, v, method);
+  }
+
+  private static Query parse(SolrQueryRequest req, String v, String method) throws SyntaxError {
     ModifiableSolrParams localParams = new ModifiableSolrParams();
     localParams.add(QueryParsing.V, v);
+    if (method != null) {
+      localParams.add(XJoinQParserPlugin.METHOD, method);
+    }
     QParserPlugin qpp = core.getQueryPlugin(PARSER_NAME);
     QParser qp = qpp.createParser(null, localParams, null, req);
     return qp.parse();
@@ -84,6 +105,8 @@ public class TestXJoinQParserPlugin extends AbstractXJoinTestCase {
     initComponent(core, context, COMPONENT_NAME_2);
     initComponent(core, context, COMPONENT_NAME_3);
     initComponent(core, context, COMPONENT_NAME_4);
+    initComponent(core, context, COMPONENT_NAME_DV);
+    initComponent(core, context, COMPONENT_NAME_DV_MULTI);
     
     // get a search, used by some tests
     searcher = core.getRegisteredSearcher().get();
@@ -150,4 +173,79 @@ public class TestXJoinQParserPlugin extends AbstractXJoinTestCase {
     assertFalse(it.hasNext());    
   }
   
+  @Test
+  public void testPostFilter() throws Exception {
+    Query q = parse(COMPONENT_NAME_DV, "postFilter");
+    assertTrue(q instanceof PostFilter);
+    assertFalse(((PostFilter)q).getCache());
+    assertTrue(((PostFilter)q).getCost() >= 100);
+    
+    // as a post filter
+    DocList docs = searcher.getDocList(new MatchAllDocsQuery(), Collections.singletonList(q), null, 0, 10, 0);
+    assertDocs(docs.iterator(), 0, 2, 4);
+    
+    // as an ordinary filter
+    assertDocs(searcher.getDocSet(q).iterator(), 0, 2, 4);
+  }
+  
+  @Test
+  public void testPostFilterMultiValued() throws Exception {
+    Query q = parse(COMPONENT_NAME_DV_MULTI, "postFilter");
+    DocList docs = searcher.getDocList(new MatchAllDocsQuery(), Collections.singletonList(q), null, 0, 10, 0);
+    assertDocs(docs.iterator(), 0, 1, 2, 3);
+    assertDocs(searcher.getDocSet(q).iterator(), 0, 1, 2, 3);
+  }
+  
+  @Test
+  public void testPostFilterNoMatches() throws Exception {
+    FieldType ft = core.getLatestSchema().getFieldType("colour_dv");
+    Query q = new JoinIdPostFilter("colour_dv", ft, JoinIdSet.of(ft, Arrays.asList("orange", "purple")));
+    DocList docs = searcher.getDocList(new MatchAllDocsQuery(), Collections.singletonList(q), null, 0, 10, 0);
+    assertEquals(0, docs.size());
+    assertEquals(0, searcher.getDocSet(q).size());
+  }
+  
+  @Test(expected=XJoinQParserPlugin.Exception.class)
+  public void testPostFilterNeedsDocValues() throws Exception {
+    parse(COMPONENT_NAME, "postFilter");
+  }
+  
+  @Test
+  public void testBatchKeys() throws Exception {
+    // batch results for one component, with the results of two others as its members
+    Map<Object, Object> context = new HashMap<>();
+    Map<String, XJoinResults<String>> members = new LinkedHashMap<>();
+    members.put("a", getResults(COMPONENT_NAME));
+    members.put("b", getResults(COMPONENT_NAME_2));
+    context.put(((XJoinSearchComponent)core.getSearchComponent(COMPONENT_NAME)).getResultsTag(), new BatchResults<>(members));
+    SolrQueryRequest batchReq = mock(SolrQueryRequest.class);
+    when(batchReq.getContext()).thenReturn(context);
+    when(batchReq.getCore()).thenReturn(core);
+    when(batchReq.getSchema()).thenReturn(core.getLatestSchema());
+
+    assertEquals(1, searcher.getDocSet(parse(batchReq, COMPONENT_NAME + ":a AND " + COMPONENT_NAME + ":b", null)).size());
+    assertEquals(2, searcher.getDocSet(parse(batchReq, COMPONENT_NAME + ":a", null)).size());
+    assertEquals(searcher.getDocSet(parse(COMPONENT_NAME + " OR " + COMPONENT_NAME_2)).size(),
+        searcher.getDocSet(parse(batchReq, COMPONENT_NAME, null)).size());
+  }
+
+  @Test(expected=SolrException.class)
+  public void testBatchKeyWithoutBatch() throws Exception {
+    parse(COMPONENT_NAME + ":a");
+  }
+
+  @SuppressWarnings("unchecked")
+  private static XJoinResults<String> getResults(String componentName) throws IOException {
+    XJoinSearchComponent xjsc = (XJoinSearchComponent)core.getSearchComponent(componentName);
+    return (XJoinResults<String>)xjsc.getResultsFactory().getResults(null);
+  }
+
+  private static void assertDocs(DocIterator it, int... expected) {
+    for (int doc : expected) {
+      assertTrue(it.hasNext());
+      assertEquals(doc, it.nextDoc());
+    }
+    assertFalse(it.hasNext());
+  }
+  
 }
@@ -18,8 +18,10 @@ package org.apache.solr.search.xjoin;
  */
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.solr.common.params.ModifiableSolrParams;
@@ -121,6 +123,82 @@ public class TestXJoinSearchComponent extends AbstractXJoinTestCase {
     assertEquals(list.get(4).get("joinId"), "theta");
   }
   
+  @Test
+  public void testStoredJoinField() {
+    testJoinIds("xjoin8", null, "red", "blue");
+    testJoinIds("xjoin8", "id desc", "blue", "red");
+  }
+
+  @Test
+  public void testDocValuesJoinField() {
+    testJoinIds("xjoin9", null, "red", "blue");
+    testJoinIds("xjoin9", "id desc", "blue", "red");
+  }
+
+  @Test
+  public void testMultiValuedDocValues() {
+    testJoinIds("xjoin10", null, "alpha", "beta", "gamma", "delta", "theta");
+    testJoinIds("xjoin10", "id desc", "gamma", "theta", "delta", "alpha", "beta");
+  }
+
+  // check the join ids of external results are distinct and in result order
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private void testJoinIds(String componentName, String sort, String... expected) {
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.add(componentName, "true");
+    if (sort != null) {
+      params.add("sort", sort);
+    }
+    NamedList results = test(params, componentName);
+    NamedList xjoin = (NamedList)results.get(componentName);
+    List<NamedList> list = (List)xjoin.get("external");
+    assertEquals(expected.length, list.size());
+    for (int i = 0; i < expected.length; ++i) {
+      assertEquals(expected[i], list.get(i).get("joinId"));
+    }
+  }
+
+  @Test
+  public void testCached() {
+    XJoinSearchComponent xjoin = (XJoinSearchComponent)h.getCore().getSearchComponent("xjoin");
+    XJoinResultsCache cache = xjoin.getResultsCache();
+    assertNotNull(cache);
+    cache.clear();
+
+    Map<String, Object> before = new HashMap<>();
+    cache.addStatistics(before);
+    test(new ModifiableSolrParams(), "xjoin");
+    test(new ModifiableSolrParams(), "xjoin");
+    Map<String, Object> after = new HashMap<>();
+    cache.addStatistics(after);
+
+    assertEquals(1, cache.size());
+    assertEquals(2L, (long)after.get("lookups") - (long)before.get("lookups"));
+    assertEquals(1L, (long)after.get("hits") - (long)before.get("hits"));
+  }
+
+  @Test
+  @SuppressWarnings("rawtypes")
+  public void testShardResultsIgnored() throws Exception {
+    // results sent to a request which isn't a shard request are ignored
+    String forged = ShardResults.encode(new XJoinResults<String>() {
+
+      @Override
+      public Object getResult(String joinId) {
+        return null;
+      }
+
+      @Override
+      public Iterable<String> getJoinIds() {
+        return Arrays.asList("2");
+      }
+
+    });
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.add("xjoin." + XJoinParameters.SHARD_RESULTS, forged);
+    testXJoinResults(test(params, "xjoin"), "xjoin");
+  }
+
   @SuppressWarnings({ "unchecked", "rawtypes" })
   private void testXJoinResults(NamedList results, String componentName) {
     NamedList xjoin = (NamedList)results.get(componentName);
@@ -23,8 +23,18 @@ import static org.mockito.Mockito.when;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.queries.function.FunctionValues;
 import org.apache.lucene.queries.function.ValueSource;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.request.SolrQueryRequest;
@@ -44,6 +54,7 @@ public class TestXJoinValueSourceParser extends AbstractXJoinTestCase {
   static SolrIndexSearcher searcher;
   static SolrQueryRequest sqr;
   static int missingDoc;
+  static XJoinResults<?> results;
 
   @BeforeClass
   public static void initialise() throws Exception {
@@ -51,7 +62,7 @@ public class TestXJoinValueSourceParser extends AbstractXJoinTestCase {
 
     XJoinSearchComponent xjsc = (XJoinSearchComponent)core.getSearchComponent(componentName);
     DummyXJoinResultsFactory xjrf = (DummyXJoinResultsFactory)xjsc.getResultsFactory();
-    XJoinResults<?> results = xjrf.getResults(null);
+    results = xjrf.getResults(null);
     
     // mock SolrQueryRequest with join results in the context
     sqr = mock(SolrQueryRequest.class);
@@ -115,5 +126,88 @@ public class TestXJoinValueSourceParser extends AbstractXJoinTestCase {
     FunctionValues fv = functionValues(initArgs, componentName);
     assertEquals(defaultValue, fv.doubleVal(missingDoc), 0);
   }
+
+  @Test
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void testMissingJoinValue() throws Exception {
+    try (Directory dir = newDirectory();
+         IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(null))) {
+      String[] ids = { "5", null, Integer.toString(missingDoc), "6", "5" };
+      for (String id : ids) {
+        Document doc = new Document();
+        if (id != null) {
+          doc.add(new SortedDocValuesField("id", new BytesRef(id)));
+        }
+        writer.addDocument(doc);
+      }
+      writer.forceMerge(1);
+
+      try (DirectoryReader reader = DirectoryReader.open(writer)) {
+        NamedList initArgs = new NamedList();
+        initArgs.add(XJoinParameters.INIT_XJOIN_COMPONENT_NAME, componentName);
+        initArgs.add(XJoinParameters.INIT_ATTRIBUTE, resultAttribute);
+        initArgs.add(XJoinParameters.INIT_DEFAULT_VALUE, defaultValue);
+        XJoinValueSourceParser vsp = new XJoinValueSourceParser();
+        vsp.init(initArgs);
+        ValueSource vs = vsp.new XJoinValueSource("id", results, resultAttribute);
+        FunctionValues fv = vs.getValues(null, reader.leaves().get(0));
+
+        assertEquals(value, fv.doubleVal(0), 0);
+        assertTrue(fv.exists(0));
+        assertEquals(defaultValue, fv.doubleVal(1), 0);
+        assertFalse(fv.exists(1));
+        assertEquals(defaultValue, fv.doubleVal(2), 0);
+        assertFalse(fv.exists(2));
+        assertEquals(value, fv.doubleVal(3), 0);
+        assertEquals(value, fv.doubleVal(4), 0);
+      }
+    }
+  }
+
+  @Test
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void testNoJoinField() throws Exception {
+    try (Directory dir = newDirectory();
+         IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(null))) {
+      Document doc = new Document();
+      doc.add(new StringField("other", "5", Field.Store.NO));
+      writer.addDocument(doc);
+
+      try (DirectoryReader reader = DirectoryReader.open(writer)) {
+        NamedList initArgs = new NamedList();
+        initArgs.add(XJoinParameters.INIT_XJOIN_COMPONENT_NAME, componentName);
+        initArgs.add(XJoinParameters.INIT_ATTRIBUTE, resultAttribute);
+        initArgs.add(XJoinParameters.INIT_DEFAULT_VALUE, defaultValue);
+        XJoinValueSourceParser vsp = new XJoinValueSourceParser();
+        vsp.init(initArgs);
+        ValueSource vs = vsp.new XJoinValueSource("id", results, resultAttribute);
+        FunctionValues fv = vs.getValues(null, reader.leaves().get(0));
+
+        assertEquals(defaultValue, fv.doubleVal(0), 0);
+        assertFalse(fv.exists(0));
+      }
+    }
+  }
+
+  @Test(expected=IllegalStateException.class)
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void testSortedSetJoinField() throws Exception {
+    try (Directory dir = newDirectory();
+         IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(null))) {
+      Document doc = new Document();
+      doc.add(new SortedSetDocValuesField("id", new BytesRef("5")));
+      writer.addDocument(doc);
+
+      try (DirectoryReader reader = DirectoryReader.open(writer)) {
+        NamedList initArgs = new NamedList();
+        initArgs.add(XJoinParameters.INIT_XJOIN_COMPONENT_NAME, componentName);
+        initArgs.add(XJoinParameters.INIT_ATTRIBUTE, resultAttribute);
+        XJoinValueSourceParser vsp = new XJoinValueSourceParser();
+        vsp.init(initArgs);
+        ValueSource vs = vsp.new XJoinValueSource("id", results, resultAttribute);
+        vs.getValues(null, reader.leaves().get(0));
+      }
+    }
+  }
   
 }
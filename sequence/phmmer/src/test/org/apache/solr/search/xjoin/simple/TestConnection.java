@@ -47,4 +47,14 @@ public class TestConnection {
     }
   }
   
+  @Test
+  public void testEncoding() throws IOException {
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.add("q", "a b&c=d");
+    params.add("x/y", "\u00e9");
+    try (Connection cnx = new Connection(ROOT_URL + "?key=1", "", params)) {
+      assertEquals(ROOT_URL + "?key=1&q=a+b%26c%3Dd&x%2Fy=%C3%A9", cnx.getUrl());
+    }
+  }
+  
 }
@@ -18,9 +18,18 @@ package org.apache.solr.search.xjoin.simple;
  */
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -95,6 +104,7 @@ public class TestSimpleXJoinResultsFactory {
     
     Set<String> joinIds = new HashSet<>(IteratorUtils.toList(results.getJoinIds().iterator()));
     assertEquals(new HashSet<>(Arrays.asList(new String[] { "a3e5bd", "252ae1", "912151" })), joinIds);
+    assertEquals(Arrays.asList("252ae1", "912151", "a3e5bd"), IteratorUtils.toList(results.getJoinIds().iterator()));
     Map<String, String> result1 = (Map<String, String>)results.getResult("a3e5bd");
     Map<String, String> result2 = (Map<String, String>)results.getResult("252ae1");
     if (resultValues) {
@@ -184,4 +194,165 @@ public class TestSimpleXJoinResultsFactory {
     testResultsFile(args, true, false);
   }
   
+  @Test
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void testNotStreamed() throws IOException {
+    NamedList args = new NamedList();
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_TYPE, SimpleXJoinResultsFactory.Type.JSON.toString());
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_ROOT_URL, getClass().getResource("results.json").toString());
+    
+    NamedList globalPaths = new NamedList();
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_GLOBAL_FIELD_PATHS, globalPaths);
+    globalPaths.add("total", "$.count");
+    
+    // not a path the streaming extractor handles
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_JOIN_ID_PATH, "$.hits[?(@.colour)].id");
+    
+    NamedList resultPaths = new NamedList();
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_RESULT_FIELD_PATHS, resultPaths);
+    resultPaths.add("colour", "$.hits[?(@.id == 'JOINID')].colour");
+    resultPaths.add("value", "$.meta[?(@.id == 'JOINID')].value");
+    
+    testResultsFile(args, true, true);
+  }
+  
+  @Test
+  public void testStreamingPaths() {
+    Map<String, String> globals = new HashMap<>();
+    Map<String, String> results = new HashMap<>();
+    globals.put("total", "$.count");
+    results.put("colour", "$.hits[?(@.id == 'JOINID')].colour");
+    results.put("value", "$.meta[?(@.id == \"JOINID\")].data.value");
+    assertNotNull(JsonStreamingExtractor.compile(globals, "$.hits[*].id", "JOINID", results));
+    assertNull(JsonStreamingExtractor.compile(globals, "$..id", "JOINID", results));
+    assertNull(JsonStreamingExtractor.compile(globals, "$.hits[*].id", "%%", results));
+    globals.put("hits", "$.hits");
+    assertNull(JsonStreamingExtractor.compile(globals, "$.hits[*].id", "JOINID", results));
+    
+    globals.clear();
+    results.clear();
+    globals.put("total", "/results/count");
+    globals.put("version", "/results/@version");
+    results.put("colour", "/results/hits/doc[@id='JOINID']/colour/text()");
+    results.put("value", "/results/meta/doc[id=JOINID]/@value");
+    assertNotNull(XmlStreamingExtractor.compile(globals, "/results/hits/doc/@id", "JOINID", results));
+    assertNull(XmlStreamingExtractor.compile(globals, "//doc/@id", "JOINID", results));
+    assertNull(XmlStreamingExtractor.compile(globals, "/results/hits/doc[1]/@id", "JOINID", results));
+  }
+  
+  @Test
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void testLargeJson() throws IOException {
+    // a response with many hits, in reverse order of id, and metadata for every other hit
+    final int n = 50000;
+    File file = File.createTempFile("results", ".json");
+    file.deleteOnExit();
+    try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+      out.write("{ \"count\": " + n + ", \"ignored\": { \"a\": [1, 2, {}] }, \"hits\": [");
+      for (int i = n - 1; i >= 0; --i) {
+        out.write(String.format("{ \"id\": \"id%05d\", \"colour\": \"c%d\", \"nested\": { \"x\": [%d] } }%s", i, i, i, i > 0 ? "," : ""));
+      }
+      out.write("], \"meta\": [");
+      for (int i = 0; i < n; i += 2) {
+        out.write(String.format("%s{ \"id\": \"id%05d\", \"value\": %d.5 }", i > 0 ? "," : "", i, i));
+      }
+      out.write("] }");
+    }
+    
+    NamedList args = new NamedList();
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_TYPE, SimpleXJoinResultsFactory.Type.JSON.toString());
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_ROOT_URL, file.toURI().toString());
+    NamedList globalPaths = new NamedList();
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_GLOBAL_FIELD_PATHS, globalPaths);
+    globalPaths.add("total", "$.count");
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_JOIN_ID_PATH, "$.hits[*].id");
+    NamedList resultPaths = new NamedList();
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_RESULT_FIELD_PATHS, resultPaths);
+    resultPaths.add("colour", "$.hits[?(@.id == 'JOINID')].colour");
+    resultPaths.add("value", "$.meta[?(@.id == 'JOINID')].value");
+    
+    SimpleXJoinResultsFactory factory = new SimpleXJoinResultsFactory();
+    factory.init(args);
+    XJoinResults<String> results = factory.getResults(new ModifiableSolrParams());
+    
+    assertEquals(n, ((Map<String, Object>)results).get("total"));
+    String previous = null;
+    int count = 0;
+    for (String joinId : results.getJoinIds()) {
+      assertTrue(previous == null || previous.compareTo(joinId) < 0);
+      previous = joinId;
+      ++count;
+    }
+    assertEquals(n, count);
+    Map<String, Object> result = (Map<String, Object>)results.getResult("id01234");
+    assertEquals("c1234", result.get("colour"));
+    assertEquals(1234.5, result.get("value"));
+    result = (Map<String, Object>)results.getResult("id01235");
+    assertEquals("c1235", result.get("colour"));
+    assertNull(result.get("value"));
+  }
+  
+  // write the given content to a temporary file, returning its URL
+  private static String tempFile(String suffix, String content) throws IOException {
+    File file = File.createTempFile("results", suffix);
+    file.deleteOnExit();
+    try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+      out.write(content);
+    }
+    return file.toURI().toString();
+  }
+  
+  @Test
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void testXmlNumericJoinIds() throws IOException {
+    // join ids and keys are kept as they are, though they look like numbers
+    NamedList args = new NamedList();
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_TYPE, SimpleXJoinResultsFactory.Type.XML.toString());
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_ROOT_URL, tempFile(".xml", "<results>"
+        + "<hits><doc id='007'><colour>red</colour></doc><doc id='1e10'><colour>green</colour></doc>"
+        + "<doc id='100d'><colour>blue</colour></doc></hits>"
+        + "<meta><doc id='007' value='10.5'/><doc id='100d' value='42'/></meta>"
+        + "</results>"));
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_JOIN_ID_PATH, "/results/hits/doc/@id");
+    NamedList resultPaths = new NamedList();
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_RESULT_FIELD_PATHS, resultPaths);
+    resultPaths.add("colour", "/results/hits/doc[@id='JOINID']/colour");
+    resultPaths.add("value", "/results/meta/doc[@id='JOINID']/@value");
+    
+    SimpleXJoinResultsFactory factory = new SimpleXJoinResultsFactory();
+    factory.init(args);
+    XJoinResults<String> results = factory.getResults(new ModifiableSolrParams());
+    
+    assertEquals(Arrays.asList("007", "100d", "1e10"), IteratorUtils.toList(results.getJoinIds().iterator()));
+    Map<String, Object> result = (Map<String, Object>)results.getResult("007");
+    assertEquals("red", result.get("colour"));
+    assertEquals(10.5, result.get("value"));
+    result = (Map<String, Object>)results.getResult("100d");
+    assertEquals("blue", result.get("colour"));
+    assertEquals(42, result.get("value"));
+    assertEquals("green", ((Map<String, Object>)results.getResult("1e10")).get("colour"));
+  }
+  
+  @Test
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void testJsonGlobalArray() throws IOException {
+    // a global path to an array gives its first element (or null, if it is empty)
+    NamedList args = new NamedList();
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_TYPE, SimpleXJoinResultsFactory.Type.JSON.toString());
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_ROOT_URL, tempFile(".json",
+        "{ \"counts\": [3, 4], \"none\": [], \"hits\": [ { \"id\": \"a\" } ] }"));
+    NamedList globalPaths = new NamedList();
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_GLOBAL_FIELD_PATHS, globalPaths);
+    globalPaths.add("count", "$.counts");
+    globalPaths.add("none", "$.none");
+    args.add(SimpleXJoinResultsFactory.INIT_PARAM_JOIN_ID_PATH, "$.hits[*].id");
+    
+    SimpleXJoinResultsFactory factory = new SimpleXJoinResultsFactory();
+    factory.init(args);
+    Map<String, Object> results = (Map<String, Object>)factory.getResults(new ModifiableSolrParams());
+    
+    assertEquals(3, results.get("count"));
+    assertNull(results.get("none"));
+  }
+  
 }
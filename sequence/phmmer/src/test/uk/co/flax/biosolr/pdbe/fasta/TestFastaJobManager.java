@@ -0,0 +1,254 @@
+package uk.co.flax.biosolr.pdbe.fasta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.ebi.webservices.axis1.stubs.fasta.InputParameters;
+import uk.ac.ebi.webservices.axis1.stubs.fasta.JDispatcherService_PortType;
+import uk.ac.ebi.webservices.axis1.stubs.fasta.WsRawOutputParameter;
+import uk.ac.ebi.webservices.axis1.stubs.fasta.WsResultType;
+
+public class TestFastaJobManager {
+
+  // time each job takes on the stub service, in milliseconds
+  private static final long JOB_TIME = 100;
+
+  private byte[] result;
+
+  // stub FASTA service state: job start times, running jobs, and counts
+  private final Map<String, Long> started = new ConcurrentHashMap<>();
+  private final AtomicInteger jobCount = new AtomicInteger();
+  private final AtomicInteger running = new AtomicInteger();
+  private final AtomicInteger maxRunning = new AtomicInteger();
+  private final AtomicInteger polls = new AtomicInteger();
+  private volatile String finalStatus = FastaStatus.DONE;
+
+  private JDispatcherService_PortType fasta;
+
+  private FastaJobManager manager;
+
+  @Before
+  public void setup() throws Exception {
+    result = Files.readAllBytes(Paths.get(TestFastaJob.class.getResource("result2").toURI()));
+
+    // a stub SOAP service, on which each job is running for JOB_TIME ms
+    fasta = mock(JDispatcherService_PortType.class);
+    when(fasta.run(anyString(), anyString(), any(InputParameters.class))).thenAnswer(invocation -> {
+      String jobId = "job-" + jobCount.incrementAndGet();
+      started.put(jobId, System.currentTimeMillis());
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      return jobId;
+    });
+    when(fasta.getStatus(anyString())).thenAnswer(invocation -> {
+      polls.incrementAndGet();
+      Long start = started.get((String) invocation.getArguments()[0]);
+      if (System.currentTimeMillis() - start < JOB_TIME) {
+        return FastaStatus.RUNNING;
+      }
+      if (started.remove((String) invocation.getArguments()[0]) != null) {
+        running.decrementAndGet();
+      }
+      return finalStatus;
+    });
+    WsResultType[] types = new WsResultType[] { mock(WsResultType.class) };
+    when(fasta.getResultTypes(anyString())).thenReturn(types);
+    when(fasta.getResult(anyString(), anyString(), any(WsRawOutputParameter[].class))).thenReturn(result);
+  }
+
+  @After
+  public void teardown() {
+    if (manager != null) {
+      manager.close();
+    }
+  }
+
+  private static InputParameters params() {
+    InputParameters params = new InputParameters();
+    params.setProgram("ssearch");
+    params.setDatabase(new String[] { "pdb" });
+    params.setStype("protein");
+    params.setSequence("<DUMMY>");
+    return params;
+  }
+
+  @Test
+  public void results() throws Exception {
+    manager = new FastaJobManager(fasta, "test@ebi.ac.uk", 2, 10, 1000, 1);
+    FastaJobResults results = manager.submit(params()).get(10, TimeUnit.SECONDS);
+    assertEquals(504, results.getNumChains());
+    assertEquals(317, results.getNumEntries());
+
+    // polls back off: 10, 20, 40, 80 ms covers the job time
+    assertTrue("Too many polls: " + polls.get(), polls.get() <= 5);
+  }
+
+  @Test
+  public void load() throws Exception {
+    int n = 40;
+    int maxJobs = 4;
+    manager = new FastaJobManager(fasta, "test@ebi.ac.uk", maxJobs, 10, 40, 2);
+    long start = System.currentTimeMillis();
+    List<CompletableFuture<FastaJobResults>> futures = new ArrayList<>();
+    for (int i = 0; i < n; ++i) {
+      futures.add(manager.submit(params()));
+    }
+    assertTrue(manager.getRunning() <= maxJobs);
+    for (CompletableFuture<FastaJobResults> future : futures) {
+      assertEquals(504, future.get(30, TimeUnit.SECONDS).getNumChains());
+    }
+    long time = System.currentTimeMillis() - start;
+
+    assertEquals(n, jobCount.get());
+    assertTrue("Too many concurrent jobs: " + maxRunning.get(), maxRunning.get() <= maxJobs);
+    assertEquals(0, manager.getRunning());
+    assertEquals(0, manager.getPending());
+
+    // jobs are run in n / maxJobs batches, so it should take a bit over n / maxJobs * JOB_TIME
+    assertTrue("Took too long: " + time + "ms", time < 4 * n / maxJobs * JOB_TIME);
+  }
+
+  @Test
+  public void failure() throws Exception {
+    finalStatus = "ERROR";
+    manager = new FastaJobManager(fasta, "test@ebi.ac.uk", 2, 10, 1000, 1);
+    try {
+      manager.submit(params()).get(10, TimeUnit.SECONDS);
+      fail("Expected failure");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+    assertEquals(0, manager.getRunning());
+  }
+
+  @Test
+  public void batch() throws Exception {
+    int n = 6;
+    manager = new FastaJobManager(fasta, "test@ebi.ac.uk", 8, 10, 1000, 1);
+    List<InputParameters> params = new ArrayList<>();
+    for (int i = 0; i < n; ++i) {
+      params.add(params());
+    }
+    long start = System.currentTimeMillis();
+    List<FastaJobResults> results = manager.submitAll(params).get(10, TimeUnit.SECONDS);
+    long time = System.currentTimeMillis() - start;
+    assertEquals(n, results.size());
+    for (FastaJobResults r : results) {
+      assertEquals(504, r.getNumChains());
+    }
+    assertEquals(n, jobCount.get());
+    assertEquals(0, manager.getRunning());
+
+    // the jobs run together, and each group poll backs off as for a single job
+    assertTrue("Took too long: " + time + "ms", time < 4 * JOB_TIME);
+    assertTrue("Too many polls: " + polls.get(), polls.get() <= 5 * n);
+  }
+
+  @Test
+  public void batchFailure() throws Exception {
+    finalStatus = "ERROR";
+    manager = new FastaJobManager(fasta, "test@ebi.ac.uk", 2, 10, 1000, 1);
+    List<InputParameters> params = new ArrayList<>();
+    for (int i = 0; i < 4; ++i) {
+      params.add(params());
+    }
+    try {
+      manager.submitAll(params).get(10, TimeUnit.SECONDS);
+      fail("Expected failure");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+
+    // the other jobs are cancelled
+    Thread.sleep(50);
+    assertEquals(0, manager.getRunning());
+    assertEquals(0, manager.getPending());
+    assertTrue(jobCount.get() < 4);
+  }
+
+  @Test
+  public void cancel() throws Exception {
+    manager = new FastaJobManager(fasta, "test@ebi.ac.uk", 1, 10, 1000, 1);
+    CompletableFuture<FastaJobResults> first = manager.submit(params());
+    CompletableFuture<FastaJobResults> second = manager.submit(params());
+    second.cancel(false);
+    first.get(10, TimeUnit.SECONDS);
+    Thread.sleep(50);
+    assertEquals(1, jobCount.get());
+    assertEquals(0, manager.getRunning());
+  }
+
+  @Test
+  public void interruptSingle() throws Exception {
+    // replayed jobs which run for much longer than the test
+    NamedList<Object> args = new NamedList<>();
+    args.add(FastaXJoinResultsFactory.INIT_DEBUG_FILE, Paths.get(TestFastaJob.class.getResource("result2").toURI()).toString());
+    args.add(FastaXJoinResultsFactory.INIT_DEBUG_LATENCY, 60000L);
+    args.add(FastaXJoinResultsFactory.INIT_EMAIL, "test@ebi.ac.uk");
+    args.add(FastaXJoinResultsFactory.INIT_PROGRAM, "ssearch");
+    args.add(FastaXJoinResultsFactory.INIT_DATABASE, "pdb");
+    args.add(FastaXJoinResultsFactory.INIT_STYPE, "protein");
+    args.add(FastaXJoinResultsFactory.INIT_MAX_JOBS, 1);
+    args.add(FastaXJoinResultsFactory.INIT_POLL_DELAY, 10L);
+    args.add(FastaXJoinResultsFactory.INIT_MAX_POLL_DELAY, 20L);
+    FastaXJoinResultsFactory factory = new FastaXJoinResultsFactory();
+    factory.init(args);
+    try {
+      ModifiableSolrParams params = new ModifiableSolrParams();
+      params.set(FastaXJoinResultsFactory.FASTA_SEQUENCE, "MKTAYIAKQR");
+      params.set(FastaXJoinResultsFactory.FASTA_EXPLOWLIM, "0.0");
+      params.set(FastaXJoinResultsFactory.FASTA_EXPUPPERLIM, "1.0");
+      params.set(FastaXJoinResultsFactory.FASTA_SCORES, "1000");
+      params.set(FastaXJoinResultsFactory.FASTA_ALIGNMENTS, "1000");
+      Thread thread = new Thread(() -> {
+        try {
+          factory.getResults(params);
+        } catch (Exception e) {
+          // expected, when interrupted
+        }
+      });
+      thread.start();
+
+      FastaJobManager jobs = factory.getJobManager();
+      long deadline = System.currentTimeMillis() + 10000;
+      while (jobs.getRunning() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(1, jobs.getRunning());
+
+      // interrupting the request cancels the job, so it stops being polled
+      thread.interrupt();
+      thread.join(10000);
+      while ((jobs.getRunning() > 0 || jobs.getPending() > 0) && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(0, jobs.getRunning());
+      assertEquals(0, jobs.getPending());
+    } finally {
+      factory.close();
+    }
+  }
+
+}
@@ -0,0 +1,140 @@
+package uk.co.flax.biosolr.pdbe.fasta;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestFastaParser {
+
+  private static final String RESIDUES = "ACDEFGHIKLMNPQRSTVWY";
+
+  // a description of every alignment, in order
+  private static List<String> describe(FastaJobResults results) {
+    List<String> list = new ArrayList<>();
+    for (Map<String, PDb.Alignment> chains : results.getAlignments().values()) {
+      for (PDb.Alignment a : chains.values()) {
+        StringBuilder s = new StringBuilder(a.getPdbIdChain()).append(' ').append(a.getEValue());
+        if (a.isComplete()) {
+          s.append(' ').append(a.getPercentIdentity())
+           .append(' ').append(a.getQueryOverlapStart()).append('-').append(a.getQueryOverlapEnd())
+           .append(' ').append(a.getDbOverlapStart()).append('-').append(a.getDbOverlapEnd());
+        }
+        s.append(" [").append(a.getQuerySequenceString()).append("] [").append(a.getReturnSequenceString()).append(']');
+        list.add(s.toString());
+      }
+    }
+    return list;
+  }
+
+  private static FastaJobResults parse(String output) throws IOException {
+    return new FastaParser().parse(new BufferedReader(new StringReader(output)));
+  }
+
+  private static String read(String name) throws Exception {
+    return new String(Files.readAllBytes(Paths.get(TestFastaJob.class.getResource(name).toURI())), "UTF-8");
+  }
+
+  /**
+   * Generated FASTA output with the given number of hits, each with a summary line and an
+   * alignment section.
+   */
+  public static String generate(int hits) {
+    Random random = new Random(0);
+    StringBuilder query = new StringBuilder();
+    for (int i = 0; i < 300; ++i) {
+      query.append(RESIDUES.charAt(random.nextInt(RESIDUES.length())));
+    }
+
+    StringBuilder out = new StringBuilder();
+    out.append("SSEARCH performs a Smith-Waterman search\n\n");
+    out.append("The best scores are:                                      s-w bits E(559944)\n");
+    String[] ids = new String[hits];
+    for (int i = 0; i < hits; ++i) {
+      ids[i] = Integer.toString(1 + i % 9) + Integer.toString(46656 + i / 9, 36).substring(1).toUpperCase() + "_" + (char)('A' + i % 4);
+      out.append(String.format("PDB:%s mol:protein length:300  PROTEIN %d      ( 300) %4d %.1f %.2g\n",
+          ids[i], i, 2000 - i % 2000, 500 - i % 500 / 10.0, Math.pow(10, -100 + i % 100)));
+    }
+    out.append('\n');
+    for (int i = 0; i < hits; ++i) {
+      out.append(">>PDB:").append(ids[i]).append(" mol:protein length:300  PROTEIN             (300 aa)\n");
+      out.append(" s-w opt: 2000  Z-score: 2804.5  bits: 527.2 E(559944): 1.2e-148\n");
+      out.append("Smith-Waterman score: 2000; 98.5% identity (99.0% similar) in 300 aa overlap (1-300:1-300)\n\n");
+      for (int start = 0; start < query.length(); start += 60) {
+        String line = query.substring(start, Math.min(start + 60, query.length()));
+        out.append("               10        20        30        40        50        60\n");
+        out.append("EMBOS  ").append(line).append('\n');
+        out.append("       ::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::\n");
+        out.append("PDB:").append(ids[i], 0, 2).append(' ').append(line).append('\n');
+        out.append("               10        20        30        40        50        60\n\n");
+      }
+    }
+    out.append("300 residues in 1 query   sequences\n");
+    return out.toString();
+  }
+
+  // check FastaParser gets the same results as the original parsing
+  private static void assertSameResults(String output) throws IOException {
+    FastaJobResults expected = new RegexFastaParser().parseResults(new BufferedReader(new StringReader(output)));
+    FastaJobResults actual = parse(output);
+    assertEquals(expected.getNumChains(), actual.getNumChains());
+    assertEquals(expected.getNumEntries(), actual.getNumEntries());
+    assertEquals(describe(expected), describe(actual));
+  }
+
+  @Test
+  public void recorded() throws Exception {
+    assertSameResults(read("result"));
+    assertSameResults(read("result2"));
+    assertEquals(504, parse(read("result2")).getNumChains());
+  }
+
+  @Test
+  public void generated() throws Exception {
+    assertSameResults(generate(1000));
+  }
+
+  @Test
+  public void unusualLines() throws Exception {
+    assertSameResults(String.join("\n",
+        "The best scores are:                                      s-w bits E(559944)",
+        "PDB:1ABC_A mol:protein length:323  ONE     ( 323) 2180 527.2 1.2e-148",
+        "PRE_PDB:2DEF Entity 1                              ( 330)  492 123.5   4e-27",
+        "PDB:3GHI_B_C mol:protein length:100  UNDERSCORES  ( 100)  100 10.0 0.5",
+        "PDB:4JKL_D mol:protein with_underscore  ( 100)  100 10.0 0.25",
+        "PDB:5MNO_E  1e-5",
+        "PDB:6PQR_F mol:protein trailing space  ( 100)  100 10.0 0.5 ",
+        "PDB:7STU mol:protein no chain_here ( 100)  100 10.0 0.5",
+        "",
+        ">>PDB:1ABC_A mol:protein length:323  ONE             (323 aa)",
+        "Smith-Waterman score: 2180; 99.5% identity (100.0% similar) in 323 aa overlap (1-323:2-324)",
+        "EMBOSS ABCDEF",
+        "PDB:1A ABCDEG  ",
+        ">>><<< not a section",
+        "EMBOS    GHI",
+        "PDB:1A   GHJ",
+        ">>PRE_PDB:2DEF Entity 1                                   (330 aa)",
+        "Smith-Waterman score: 492; 40.0% identity (60.0% similar) in 300 aa overlap (10-310:20-320)",
+        "EMBOS  KLM",
+        "PRE_PD KLN",
+        ">>PDB:4JKL_D mol:protein with_underscore   (100 aa)",
+        "Smith-Waterman score: 100; 20.0% identity; 30.0% similar in 50 aa overlap (1-50:1-50)",
+        "EMBOSS NOP",
+        "PDB:4J",
+        "PDB:4J QRS",
+        ">>PDB:1ABC_A mol:protein length:323  ONE             (323 aa)",
+        "Smith-Waterman score: 1; 1.0% identity (1.0% similar) in 1 aa overlap (1-1:1-1)",
+        "EMBOSS IGNORED",
+        "323 residues in 1 query   sequences"));
+  }
+
+}
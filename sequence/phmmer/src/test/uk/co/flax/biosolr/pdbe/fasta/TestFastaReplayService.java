@@ -0,0 +1,89 @@
+package uk.co.flax.biosolr.pdbe.fasta;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.ebi.webservices.axis1.stubs.fasta.InputParameters;
+import uk.ac.ebi.webservices.axis1.stubs.fasta.JDispatcherService_PortType;
+
+public class TestFastaReplayService {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static Path resource(String name) throws Exception {
+    return Paths.get(TestFastaReplayService.class.getResource(name).toURI());
+  }
+
+  private static InputParameters params(String sequence) {
+    InputParameters params = new InputParameters();
+    params.setSequence(sequence);
+    return params;
+  }
+
+  @Test
+  public void file() throws Exception {
+    JDispatcherService_PortType fasta = FastaReplayService.create(resource("result2"), 0);
+    FastaJob job = new FastaJob(fasta, "test@example.com", params("MKTAYIAKQR"));
+    job.run();
+    assertTrue(job.resultsOk());
+    assertEquals(504, job.getResults().getNumChains());
+    assertEquals(FastaStatus.NOT_FOUND, fasta.getStatus(job.getJobId()));
+  }
+
+  @Test
+  public void directory() throws Exception {
+    Path dir = folder.newFolder().toPath();
+    Files.copy(resource("result"), dir.resolve("a"));
+    Files.copy(resource("result2"), dir.resolve("b"));
+    JDispatcherService_PortType fasta = FastaReplayService.create(dir, 0);
+
+    // the same sequence always gets the same output, and both outputs are used
+    Set<Integer> sizes = new HashSet<>();
+    for (int i = 0; i < 10; ++i) {
+      String sequence = "MKTAYIAKQR" + i;
+      String jobId1 = fasta.run("test@example.com", "", params(sequence));
+      String jobId2 = fasta.run("test@example.com", "", params(sequence));
+      byte[] output = fasta.getResult(jobId1, "out", null);
+      assertArrayEquals(output, fasta.getResult(jobId2, "out", null));
+      sizes.add(output.length);
+    }
+    assertEquals(new HashSet<>(Arrays.asList((int)Files.size(dir.resolve("a")), (int)Files.size(dir.resolve("b")))), sizes);
+  }
+
+  @Test
+  public void latency() throws Exception {
+    JDispatcherService_PortType fasta = FastaReplayService.create(resource("result"), 200);
+    String jobId = fasta.run("test@example.com", "", params("MKTAYIAKQR"));
+    assertEquals(FastaStatus.RUNNING, fasta.getStatus(jobId));
+    Thread.sleep(300);
+    assertEquals(FastaStatus.DONE, fasta.getStatus(jobId));
+  }
+
+  @Test
+  public void abandonedJobs() throws Exception {
+    JDispatcherService_PortType fasta = FastaReplayService.create(resource("result"), 0);
+
+    // jobs whose output is never fetched are forgotten once enough later jobs are run
+    String first = fasta.run("test@example.com", "", params("MKTAYIAKQR"));
+    String last = null;
+    for (int i = 0; i < FastaReplayService.MAX_JOBS; ++i) {
+      last = fasta.run("test@example.com", "", params("MKTAYIAKQR"));
+    }
+    assertEquals(FastaStatus.NOT_FOUND, fasta.getStatus(first));
+    assertEquals(FastaStatus.DONE, fasta.getStatus(last));
+  }
+
+}
@@ -0,0 +1,135 @@
+package uk.co.flax.biosolr.pdbe.fasta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.ebi.webservices.axis1.stubs.fasta.InputParameters;
+import uk.ac.ebi.webservices.axis1.stubs.fasta.JDispatcherService_PortType;
+import uk.ac.ebi.webservices.axis1.stubs.fasta.WsResultType;
+
+public class TestFastaResultsCache {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static FastaJobResults results;
+
+  @BeforeClass
+  public static void parse() throws Exception {
+    byte[] result = Files.readAllBytes(Paths.get(TestFastaJob.class.getResource("result2").toURI()));
+    JDispatcherService_PortType fasta = mock(JDispatcherService_PortType.class);
+    when(fasta.getStatus(null)).thenReturn(FastaStatus.DONE);
+    WsResultType[] types = new WsResultType[] { mock(WsResultType.class) };
+    when(fasta.getResultTypes(null)).thenReturn(types);
+    when(fasta.getResult(null, null, null)).thenReturn(result);
+    FastaJob job = new FastaJob(fasta, "test@ebi.ac.uk", params("<DUMMY>"));
+    job.run();
+    results = job.getResults();
+  }
+
+  private static InputParameters params(String sequence) {
+    InputParameters params = new InputParameters();
+    params.setProgram("ssearch");
+    params.setDatabase(new String[] { "pdb" });
+    params.setStype("protein");
+    params.setSequence(sequence);
+    params.setExplowlim(0.0d);
+    params.setExpupperlim(1.0d);
+    params.setScores(1000);
+    params.setAlignments(1000);
+    return params;
+  }
+
+  // a description of every alignment, in order
+  private static List<String> describe(FastaJobResults results) {
+    List<String> list = new ArrayList<>();
+    for (Map<String, PDb.Alignment> chains : results.getAlignments().values()) {
+      for (PDb.Alignment a : chains.values()) {
+        list.add(a.getPdbIdChain() + " " + a.getEValue() + " " + a.getPercentIdentity() + " "
+            + a.getQueryOverlapStart() + "-" + a.getQueryOverlapEnd() + " "
+            + a.getDbOverlapStart() + "-" + a.getDbOverlapEnd() + " "
+            + a.getQuerySequenceString() + " " + a.getReturnSequenceString());
+      }
+    }
+    return list;
+  }
+
+  @Test
+  public void keys() {
+    String key = FastaResultsCache.key(params("MKVLA\nGHTY"));
+    assertEquals(key, FastaResultsCache.key(params(">sp|P1|TEST test\nmkvla ghty\n")));
+    assertNotEquals(key, FastaResultsCache.key(params("MKVLAGHTW")));
+    InputParameters params = params("MKVLAGHTY");
+    params.setExpupperlim(10.0d);
+    assertNotEquals(key, FastaResultsCache.key(params));
+  }
+
+  @Test
+  public void memory() throws Exception {
+    FastaResultsCache cache = new FastaResultsCache(2, null, 0, 0);
+    cache.put("a", results);
+    cache.put("b", results);
+    assertSame(results, cache.get("a"));
+    cache.put("c", results);
+    assertEquals(2, cache.size());
+    assertNull(cache.get("b"));
+    assertSame(results, cache.get("a"));
+    assertSame(results, cache.get("c"));
+  }
+
+  @Test
+  public void disk() throws Exception {
+    Path dir = folder.getRoot().toPath().resolve("cache");
+    new FastaResultsCache(1, dir, 10, 0).put("a", results);
+
+    // as after a core reload
+    FastaResultsCache cache = new FastaResultsCache(1, dir, 10, 0);
+    FastaJobResults cached = cache.get("a");
+    assertEquals(results.getNumChains(), cached.getNumChains());
+    assertEquals(results.getNumEntries(), cached.getNumEntries());
+    assertEquals(describe(results), describe(cached));
+    assertSame(cached, cache.get("a"));
+    assertNull(cache.get("b"));
+  }
+
+  @Test
+  public void diskLimit() throws Exception {
+    Path dir = folder.getRoot().toPath();
+    FastaResultsCache cache = new FastaResultsCache(0, dir, 2, 0);
+    for (String key : new String[] { "a", "b", "c" }) {
+      cache.put(key, results);
+      Thread.sleep(20);
+    }
+    assertEquals(2, dir.toFile().list().length);
+    assertNull(cache.get("a"));
+    assertEquals(results.getNumChains(), cache.get("c").getNumChains());
+  }
+
+  @Test
+  public void expiry() throws Exception {
+    Path dir = folder.getRoot().toPath();
+    FastaResultsCache cache = new FastaResultsCache(1, dir, 10, 500);
+    cache.put("a", results);
+    assertSame(results, cache.get("a"));
+    Thread.sleep(600);
+    assertNull(cache.get("a"));
+    assertEquals(0, dir.toFile().list().length);
+  }
+
+}
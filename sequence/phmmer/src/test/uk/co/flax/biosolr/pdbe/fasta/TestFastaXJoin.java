@@ -0,0 +1,202 @@
+package uk.co.flax.biosolr.pdbe.fasta;
+
+import java.io.BufferedReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.LocalSolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.ResultContext;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.DocIterator;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Run the whole FASTA xjoin pipeline (parse, join ids, filter, value source and
+ * field appender) against recorded FASTA output, with simulated FASTA job latency.
+ */
+public class TestFastaXJoin extends SolrTestCaseJ4 {
+
+  // simulated FASTA job time, in milliseconds
+  private static final long LATENCY = 20;
+
+  // documents which match no FASTA result
+  private static final int OTHER_DOCS = 200;
+
+  // best percent identity for each PDB id in the recorded output
+  private static Map<String, Double> identities;
+
+  private static double bestIdentity;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    String file = Paths.get(TestFastaXJoin.class.getResource("result2").toURI()).toString();
+    System.setProperty("fasta-test-file", file);
+    System.setProperty("fasta-test-latency", Long.toString(LATENCY));
+
+    initCore("solrconfig.xml", "schema.xml", "fasta/solr");
+
+    FastaJobResults results;
+    try (BufferedReader reader = Files.newBufferedReader(Paths.get(file))) {
+      results = new FastaParser().parse(reader);
+    }
+    identities = new HashMap<>();
+    bestIdentity = 0;
+    for (Map.Entry<PDb.Id, Map<String, PDb.Alignment>> entry : results.getAlignments().entrySet()) {
+      double identity = 0;
+      for (PDb.Alignment a : entry.getValue().values()) {
+        identity = Math.max(identity, a.getPercentIdentity());
+      }
+      identities.put(entry.getKey().toString().toLowerCase(), identity);
+      bestIdentity = Math.max(bestIdentity, identity);
+    }
+
+    for (String pdbId : identities.keySet()) {
+      assertNull(h.validateUpdate(adoc("id", pdbId, "pdb_id", pdbId)));
+    }
+    for (int i = 0; i < OTHER_DOCS; ++i) {
+      String pdbId = String.format("x%03d", i);
+      assertNull(h.validateUpdate(adoc("id", pdbId, "pdb_id", pdbId)));
+    }
+    assertNull(h.validateUpdate(commit()));
+  }
+
+  // run an xjoin query for the given sequence, checking the response, and return the
+  // PDB ids of the documents found
+  @SuppressWarnings("rawtypes")
+  private List<String> query(String sequence, int rows) throws Exception {
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.set("q", "*:*");
+    params.set("fq", "{!xjoin}fasta");
+    params.set("sort", "fasta(percent_identity) desc");
+    params.set("rows", rows);
+    params.set("fasta.external.sequence", sequence);
+    params.set("fasta.results", "num_chains,num_entries");
+    params.set("fasta.fl", "pdb_id_chain,e_value,percent_identity");
+
+    SolrCore core = h.getCore();
+    SolrQueryResponse rsp = new SolrQueryResponse();
+    rsp.add("responseHeader", new SimpleOrderedMap<>());
+    SolrQueryRequest req = new LocalSolrQueryRequest(core, params);
+    try {
+      core.getRequestHandler("standard").handleRequest(req, rsp);
+      assertNull(rsp.getException());
+
+      ResultContext response = (ResultContext)rsp.getValues().get("response");
+      assertEquals(identities.size(), response.getDocList().matches());
+      List<String> pdbIds = new ArrayList<>();
+      for (DocIterator it = response.getDocList().iterator(); it.hasNext(); ) {
+        pdbIds.add(req.getSearcher().doc(it.nextDoc()).get("pdb_id"));
+      }
+
+      NamedList fasta = (NamedList)rsp.getValues().get("fasta");
+      assertEquals(identities.size(), fasta.get("num_entries"));
+      List external = (List)fasta.get("external");
+      assertEquals(pdbIds.size(), external.size());
+      for (int i = 0; i < pdbIds.size(); ++i) {
+        NamedList result = (NamedList)external.get(i);
+        assertEquals(pdbIds.get(i), result.get("joinId"));
+        for (Object doc : result.getAll("doc")) {
+          String pdbIdChain = (String)((NamedList)doc).get("pdb_id_chain");
+          assertTrue(pdbIdChain.toLowerCase().startsWith(pdbIds.get(i) + "_"));
+        }
+      }
+      return pdbIds;
+    } finally {
+      req.close();
+    }
+  }
+
+  @Test
+  public void pipeline() throws Exception {
+    List<String> pdbIds = query("MKTAYIAKQRQISFVKSHFSRQ", 20);
+    assertEquals(20, pdbIds.size());
+    assertEquals(bestIdentity, identities.get(pdbIds.get(0)), 0.0);
+    for (int i = 1; i < pdbIds.size(); ++i) {
+      assertTrue(identities.get(pdbIds.get(i - 1)) >= identities.get(pdbIds.get(i)));
+    }
+  }
+
+  @Test
+  @SuppressWarnings("rawtypes")
+  public void batch() throws Exception {
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.set("q", "*:*");
+    params.set("fq", "{!xjoin}fasta:q1 AND fasta:q2");
+    params.set("sort", "fasta(percent_identity, q2) desc");
+    params.set("rows", 5);
+    params.set("fasta.external.sequence.q1", "MKTAYIAKQRQISFVKSHFSRQ");
+    params.set("fasta.external.sequence.q2", "MKTAYIAKQRQISFVKSHFSRQLEERLGLIEVQ");
+    params.set("fasta.results", "num_entries");
+    params.set("fasta.fl", "pdb_id_chain");
+
+    SolrCore core = h.getCore();
+    SolrQueryResponse rsp = new SolrQueryResponse();
+    rsp.add("responseHeader", new SimpleOrderedMap<>());
+    SolrQueryRequest req = new LocalSolrQueryRequest(core, params);
+    try {
+      core.getRequestHandler("standard").handleRequest(req, rsp);
+      assertNull(rsp.getException());
+
+      ResultContext response = (ResultContext)rsp.getValues().get("response");
+      assertEquals(identities.size(), response.getDocList().matches());
+      String first = req.getSearcher().doc(response.getDocList().iterator().nextDoc()).get("pdb_id");
+      assertEquals(bestIdentity, identities.get(first), 0.0);
+
+      // general results, and docs, for each sequence
+      NamedList fasta = (NamedList)rsp.getValues().get("fasta");
+      assertEquals(identities.size(), ((NamedList)fasta.get("q1")).get("num_entries"));
+      assertEquals(identities.size(), ((NamedList)fasta.get("q2")).get("num_entries"));
+      List external = (List)fasta.get("external");
+      assertEquals(5, external.size());
+      NamedList result = (NamedList)external.get(0);
+      assertEquals(first, result.get("joinId"));
+      for (String key : new String[] { "q1", "q2" }) {
+        for (Object doc : ((NamedList)result.get(key)).getAll("doc")) {
+          assertTrue(((String)((NamedList)doc).get("pdb_id_chain")).toLowerCase().startsWith(first + "_"));
+        }
+      }
+    } finally {
+      req.close();
+    }
+  }
+
+  @Test
+  public void load() throws Exception {
+    final int threads = 8;
+    final int requests = 200;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<List<String>>> futures = new ArrayList<>();
+      for (int i = 0; i < requests; ++i) {
+        // a different sequence for each request, so no results are shared
+        String sequence = "MKTAYIAKQRQISFVKSHFSRQ" + "ACDEFGHIKLMNPQRSTVWY".charAt(i % 20) + i;
+        futures.add(executor.submit(() -> query(sequence, 10)));
+      }
+      for (Future<List<String>> future : futures) {
+        Collection<String> pdbIds = future.get();
+        assertEquals(10, pdbIds.size());
+        for (String pdbId : pdbIds) {
+          assertTrue(identities.containsKey(pdbId));
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+}
@@ -0,0 +1,156 @@
+package uk.co.flax.biosolr.pdbe.phmmer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pure Java stand-in for the phmmer binary, for testing LocalPhmmerBackend. It is not a sequence search: each sequence in the (FASTA)
+ * database is scored by the number of distinct k-mers it shares with the query, and any
+ * sharing at least one is reported as a hit with a single domain, spanning the first to
+ * the last shared k-mer, in phmmer's domain table format.
+ */
+public class StubPhmmer implements LocalPhmmerBackend.Runner {
+
+  // k-mer length
+  private static final int K = 3;
+
+  // databases read so far
+  private final Map<Path, List<Target>> databases = new ConcurrentHashMap<>();
+
+  // a database sequence
+  private static class Target {
+
+    private final String name;
+
+    private final String description;
+
+    private final String sequence;
+
+    private Target(String name, String description, String sequence) {
+      this.name = name;
+      this.description = description;
+      this.sequence = sequence;
+    }
+
+  }
+
+  // a target sharing k-mers with the query
+  private static class Hit {
+
+    private final Target target;
+
+    private int score;
+    private int queryFrom;
+    private int queryTo;
+    private int targetFrom;
+    private int targetTo;
+
+    private Hit(Target target) {
+      this.target = target;
+    }
+
+  }
+
+  @Override
+  public void run(Path query, Path database, Path domainTable) throws IOException {
+    String sequence = readSequences(query).get(0).sequence;
+    List<Target> targets;
+    try {
+      targets = databases.computeIfAbsent(database.toAbsolutePath(), path -> {
+        try {
+          return readSequences(path);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    // first position of each query k-mer
+    Map<String, Integer> kmers = new HashMap<>();
+    for (int i = 0; i + K <= sequence.length(); ++i) {
+      kmers.putIfAbsent(sequence.substring(i, i + K), i);
+    }
+
+    List<Hit> hits = new ArrayList<>();
+    for (Target target : targets) {
+      Hit hit = new Hit(target);
+      Map<String, Boolean> seen = new HashMap<>();
+      for (int i = 0; i + K <= target.sequence.length(); ++i) {
+        String kmer = target.sequence.substring(i, i + K);
+        Integer q = kmers.get(kmer);
+        if (q == null || seen.put(kmer, true) != null) {
+          continue;
+        }
+        if (hit.score++ == 0) {
+          hit.queryFrom = q + 1;
+          hit.targetFrom = i + 1;
+        }
+        hit.queryTo = Math.max(hit.queryTo, q + K);
+        hit.targetTo = i + K;
+      }
+      if (hit.score > 0) {
+        hits.add(hit);
+      }
+    }
+    hits.sort((a, b) -> Integer.compare(b.score, a.score));
+
+    try (BufferedWriter out = Files.newBufferedWriter(domainTable, StandardCharsets.UTF_8)) {
+      out.write("# target name  accession  tlen  query name  accession  qlen  E-value  score  bias"
+          + "  #  of  c-Evalue  i-Evalue  score  bias  hmm from  to  ali from  to  env from  to  acc  description\n");
+      for (Hit hit : hits) {
+        double eValue = targets.size() * Math.pow(2, -hit.score);
+        out.write(String.format(Locale.ROOT, "%-20s - %5d %-10s - %5d %9.2g %6.1f %5.1f %3d %3d %9.2g %9.2g %6.1f %5.1f %5d %5d %5d %5d %5d %5d %4.2f %s\n",
+            hit.target.name, hit.target.sequence.length(), "Seq", sequence.length(),
+            eValue, (double)hit.score, 0.0, 1, 1, eValue, eValue, (double)hit.score, 0.0,
+            hit.queryFrom, hit.queryTo, hit.targetFrom, hit.targetTo, hit.targetFrom, hit.targetTo,
+            1.0, hit.target.description.isEmpty() ? "-" : hit.target.description));
+      }
+    }
+  }
+
+  // read the sequences in a FASTA file
+  private static List<Target> readSequences(Path file) throws IOException {
+    List<Target> targets = new ArrayList<>();
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String name = null;
+      String description = null;
+      StringBuilder sequence = new StringBuilder();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.startsWith(">")) {
+          if (name != null) {
+            targets.add(new Target(name, description, sequence.toString()));
+          }
+          String[] bits = line.substring(1).split("\\s+", 2);
+          name = bits[0];
+          description = bits.length > 1 ? bits[1] : "";
+          sequence.setLength(0);
+        } else {
+          sequence.append(line.toUpperCase(Locale.ROOT));
+        }
+      }
+      if (name != null) {
+        targets.add(new Target(name, description, sequence.toString()));
+      }
+    }
+    if (targets.isEmpty()) {
+      throw new IOException("No sequences in " + file);
+    }
+    return targets;
+  }
+
+}
@@ -0,0 +1,66 @@
+package uk.co.flax.biosolr.pdbe.phmmer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class TestDomainTableParser {
+
+  private static PhmmerResults parse() throws IOException {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        TestDomainTableParser.class.getResourceAsStream("domtblout"), StandardCharsets.UTF_8))) {
+      return DomainTableParser.parse(reader);
+    }
+  }
+
+  @Test
+  public void fields() throws IOException {
+    PhmmerResults results = parse();
+    Alignment a = results.getAlignments().get("1cms").get("A");
+    assertEquals("1cms_A", a.getTarget());
+    assertEquals("mol:protein length:323  CHYMOSIN B", a.getDescription());
+    assertEquals(4.5e-160, a.getEValue(), 0);
+    assertEquals(535.2, a.getScore(), 0);
+    assertEquals(6.5, a.getBias(), 0);
+    assertEquals(1.1e-164, a.getEValueCond(), 0);
+    assertEquals(5.1e-160, a.getEValueInd(), 0);
+    assertEquals(535.0, a.getBitScore(), 0);
+    assertEquals(1, a.getQuerySequenceStart());
+    assertEquals(323, a.getQuerySequenceEnd());
+    assertEquals(1, a.getTargetSequenceStart());
+    assertEquals(323, a.getTargetSequenceEnd());
+    assertEquals(1.0, a.getAccuracy(), 0);
+    assertNull(a.getQuerySequence());
+  }
+
+  @Test
+  public void firstSignificantDomain() throws IOException {
+    Alignment a = parse().getAlignments().get("3zkm").get("A");
+    assertEquals(1.5e-19, a.getEValueInd(), 0);
+    assertEquals(18, a.getTargetSequenceStart());
+    assertEquals(240, a.getTargetSequenceEnd());
+    assertEquals(9, a.getTargetEnvelopeStart());
+    assertEquals(259, a.getTargetEnvelopeEnd());
+  }
+
+  @Test
+  public void insignificantHitsDropped() throws IOException {
+    PhmmerResults results = parse();
+    assertEquals(2, results.getNumEntries());
+    assertEquals(3, results.getNumChains());
+    assertNull(results.getAlignments().get("9xyz"));
+  }
+
+  @Test(expected=IOException.class)
+  public void badLine() throws IOException {
+    DomainTableParser.parse(new BufferedReader(new StringReader("1cms_A - 323 Seq - 323 x y z\n")));
+  }
+
+}
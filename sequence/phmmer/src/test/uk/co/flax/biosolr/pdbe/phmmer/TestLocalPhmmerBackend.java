@@ -0,0 +1,158 @@
+package uk.co.flax.biosolr.pdbe.phmmer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestLocalPhmmerBackend {
+
+  private static final String SEQUENCE = "MKTAYIAKQRQISFVKSHFSRQLEERLGLIEVQAPILSRV";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private String database;
+
+  private LocalPhmmerBackend backend;
+
+  @Before
+  public void setup() throws Exception {
+    database = Paths.get(TestLocalPhmmerBackend.class.getResource("pdb.fasta").toURI()).toString();
+  }
+
+  @After
+  public void teardown() {
+    if (backend != null) {
+      backend.close();
+    }
+  }
+
+  @Test
+  public void stub() throws IOException {
+    backend = new LocalPhmmerBackend(new StubPhmmer(), 1);
+    PhmmerResults results = backend.search(database, SEQUENCE);
+    assertEquals(new HashSet<>(Arrays.asList("1abc", "3ghi")), results.getPdbIds());
+    assertEquals(3, results.getNumChains());
+
+    Alignment a = results.getAlignments().get("1abc").get("B");
+    assertEquals("mol:protein length:40  ALPHA PROTEIN", a.getDescription());
+    assertEquals(1, a.getTargetSequenceStart());
+    assertEquals(SEQUENCE.length(), a.getTargetSequenceEnd());
+    assertTrue(a.getEValue() < results.getAlignments().get("3ghi").get("A").getEValue());
+  }
+
+  @Test
+  public void workers() throws Exception {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    StubPhmmer stub = new StubPhmmer();
+    backend = new LocalPhmmerBackend((query, db, table) -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(20);
+        stub.run(query, db, table);
+      } finally {
+        running.decrementAndGet();
+      }
+    }, 2);
+
+    ExecutorService clients = Executors.newFixedThreadPool(6);
+    try {
+      List<Future<PhmmerResults>> futures = new ArrayList<>();
+      for (int i = 0; i < 12; ++i) {
+        futures.add(clients.submit(() -> backend.search(database, SEQUENCE)));
+      }
+      for (Future<PhmmerResults> future : futures) {
+        assertEquals(3, future.get().getNumChains());
+      }
+    } finally {
+      clients.shutdown();
+    }
+    assertEquals(2, maxRunning.get());
+  }
+
+  @Test
+  public void batch() throws Exception {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    StubPhmmer stub = new StubPhmmer();
+    backend = new LocalPhmmerBackend((query, db, table) -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(50);
+        stub.run(query, db, table);
+      } finally {
+        running.decrementAndGet();
+      }
+    }, 3);
+
+    Map<String, String> sequences = new LinkedHashMap<>();
+    sequences.put("alpha", SEQUENCE);
+    sequences.put("beta", "GDVEKGKKIFVQKCAQCHTVEKGGKHKTGP");
+    sequences.put("none", "YYYYYYYYYY");
+    Map<String, PhmmerResults> results = backend.searchAll(database, sequences);
+    assertEquals(Arrays.asList("alpha", "beta", "none"), new ArrayList<>(results.keySet()));
+    assertEquals(3, results.get("alpha").getNumChains());
+    assertEquals(Collections.singleton("2def"), results.get("beta").getPdbIds());
+    assertEquals(0, results.get("none").getNumChains());
+
+    // the searches ran at once
+    assertEquals(3, maxRunning.get());
+  }
+
+  // a fake phmmer, which copies the test domain table to the --domtblout argument
+  private String script(String body) throws Exception {
+    assumeTrue(File.separatorChar == '/');
+    Path table = Paths.get(TestLocalPhmmerBackend.class.getResource("domtblout").toURI());
+    Path script = folder.newFile("phmmer.sh").toPath();
+    Files.write(script, ("#!/bin/sh\n"
+        + "while [ \"$1\" != \"--domtblout\" ]; do shift; done\n"
+        + body.replace("TABLE", "'" + table + "'") + "\n").getBytes(StandardCharsets.UTF_8));
+    assertTrue(script.toFile().setExecutable(true));
+    return script.toString();
+  }
+
+  @Test
+  public void process() throws Exception {
+    backend = new LocalPhmmerBackend(new PhmmerProcess(script("cp TABLE \"$2\""), 1, 10000), 1);
+    PhmmerResults results = backend.search(database, SEQUENCE);
+    assertEquals(3, results.getNumChains());
+  }
+
+  @Test(expected=IOException.class)
+  public void processFails() throws Exception {
+    backend = new LocalPhmmerBackend(new PhmmerProcess(script("echo broken >&2; exit 1"), 1, 10000), 1);
+    backend.search(database, SEQUENCE);
+  }
+
+  @Test(expected=IOException.class)
+  public void processTimeout() throws Exception {
+    backend = new LocalPhmmerBackend(new PhmmerProcess(script("sleep 10"), 1, 200), 1);
+    backend.search(database, SEQUENCE);
+  }
+
+}
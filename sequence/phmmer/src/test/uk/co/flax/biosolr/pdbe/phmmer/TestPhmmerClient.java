@@ -0,0 +1,173 @@
+package uk.co.flax.biosolr.pdbe.phmmer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class TestPhmmerClient {
+
+  // number of polls before a job is finished
+  private static final int PENDING_POLLS = 2;
+
+  private byte[] result;
+
+  // stub PHMMER service state
+  private HttpServer server;
+  private final AtomicInteger jobs = new AtomicInteger();
+  private final AtomicInteger polls = new AtomicInteger();
+  private final Map<String, AtomicInteger> jobPolls = new ConcurrentHashMap<>();
+  private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+  private volatile JsonObject submitted;
+  private volatile String pendingStatus = "PEND";
+  private volatile String finalStatus = "SUCCESS";
+  private volatile long responseDelay = 0;
+
+  private PhmmerClient client;
+
+  @Before
+  public void setup() throws Exception {
+    result = Files.readAllBytes(Paths.get(TestPhmmerClient.class.getResource("result2").toURI()));
+
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/search/phmmer", exchange -> {
+      clientPorts.add(exchange.getRemoteAddress().getPort());
+      try (InputStream in = exchange.getRequestBody();
+           JsonReader reader = Json.createReader(in)) {
+        submitted = reader.readObject();
+      }
+      respond(exchange, 200, ("{\"id\":\"job" + jobs.incrementAndGet() + "\",\"other\":[1,2]}").getBytes(StandardCharsets.UTF_8));
+    });
+    server.createContext("/result/job", exchange -> {
+      clientPorts.add(exchange.getRemoteAddress().getPort());
+      try {
+        Thread.sleep(responseDelay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      polls.incrementAndGet();
+      String jobId = exchange.getRequestURI().getPath().substring("/result/".length());
+      if (jobPolls.computeIfAbsent(jobId, id -> new AtomicInteger()).incrementAndGet() <= PENDING_POLLS) {
+        respond(exchange, 200, ("{\"status\":\"" + pendingStatus + "\"}").getBytes(StandardCharsets.UTF_8));
+      } else if (finalStatus.equals("SUCCESS")) {
+        respond(exchange, 200, result);
+      } else if (finalStatus.equals("ERROR")) {
+        respond(exchange, 500, "{}".getBytes(StandardCharsets.UTF_8));
+      } else {
+        respond(exchange, 200, ("{\"status\":\"" + finalStatus + "\",\"message\":\"it broke\"}").getBytes(StandardCharsets.UTF_8));
+      }
+    });
+    server.start();
+
+    String url = "http://localhost:" + server.getAddress().getPort();
+    client = new PhmmerClient(url, 1000, 1000, 10, 20, 2);
+  }
+
+  private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  @After
+  public void teardown() throws IOException {
+    client.close();
+    server.stop(0);
+  }
+
+  @Test
+  public void results() throws IOException {
+    PhmmerResults results = new PhmmerJob(client, "pdb", "MKT\"AYIAKQR").runJob();
+    assertEquals(2, results.getNumChains());
+    assertEquals(PENDING_POLLS + 1, polls.get());
+
+    // the request is well formed JSON, however odd the sequence
+    assertEquals("pdb", submitted.getString("database"));
+    assertEquals(">Seq\nMKT\"AYIAKQR", submitted.getString("input"));
+
+    // the submission and every poll used the same (kept alive) connection
+    assertEquals(1, clientPorts.size());
+    assertEquals(0, client.getLeased());
+  }
+
+  @Test
+  public void running() throws IOException {
+    // a job reported as running is polled until it has results
+    pendingStatus = "RUN";
+    PhmmerResults results = new PhmmerJob(client, "pdb", "MKTAYIAKQR").runJob();
+    assertEquals(2, results.getNumChains());
+    assertEquals(1, jobs.get());
+    assertEquals(PENDING_POLLS + 1, polls.get());
+    assertEquals(0, client.getLeased());
+  }
+
+  @Test
+  public void batch() throws IOException {
+    Map<String, String> sequences = new LinkedHashMap<>();
+    sequences.put("q2", "MKTAYIAKQR");
+    sequences.put("q1", "QISFVKSHFS");
+    sequences.put("q3", "RQLEERLGLI");
+    Map<String, PhmmerResults> results = client.searchAll("pdb", sequences);
+    assertEquals(Arrays.asList("q2", "q1", "q3"), new ArrayList<>(results.keySet()));
+    for (PhmmerResults r : results.values()) {
+      assertEquals(2, r.getNumChains());
+    }
+
+    // all submitted, then polled together until each was done
+    assertEquals(3, jobs.get());
+    assertEquals(3 * (PENDING_POLLS + 1), polls.get());
+    assertEquals(0, client.getLeased());
+  }
+
+  @Test
+  public void failure() {
+    finalStatus = "FAILURE";
+    try {
+      new PhmmerJob(client, "pdb", "MKTAYIAKQR").runJob();
+      fail("expected IOException");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("it broke"));
+    }
+  }
+
+  @Test(expected=IOException.class)
+  public void httpError() throws IOException {
+    finalStatus = "ERROR";
+    new PhmmerJob(client, "pdb", "MKTAYIAKQR").runJob();
+  }
+
+  @Test(expected=SocketTimeoutException.class)
+  public void timeout() throws IOException {
+    responseDelay = 2000;
+    new PhmmerJob(client, "pdb", "MKTAYIAKQR").runJob();
+  }
+
+}
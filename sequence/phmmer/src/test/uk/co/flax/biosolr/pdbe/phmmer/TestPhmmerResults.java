@@ -0,0 +1,79 @@
+package uk.co.flax.biosolr.pdbe.phmmer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPhmmerResults {
+
+  private PhmmerResults results;
+
+  @Before
+  public void setup() throws IOException {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        TestPhmmerResults.class.getResourceAsStream("domtblout"), StandardCharsets.UTF_8))) {
+      results = DomainTableParser.parse(reader);
+    }
+  }
+
+  @Test
+  public void allHitsKept() {
+    assertEquals(4, results.getNumHits());
+  }
+
+  @Test
+  public void defaultThreshold() {
+    assertEquals(3, results.getNumChains());
+    assertEquals(2, results.getNumEntries());
+    assertEquals(Arrays.asList("1cms", "3zkm"), results.getPdbIds(Alignment.SIGNIFICANCE_THRESHOLD));
+    assertEquals(results.getNumChains(), results.getNumChains(Alignment.SIGNIFICANCE_THRESHOLD));
+  }
+
+  @Test
+  public void thresholds() {
+    // a looser threshold includes the insignificant hit
+    assertEquals(4, results.getNumChains(10));
+    assertEquals(3, results.getNumEntries(10));
+    assertEquals(Arrays.asList("1cms", "3zkm", "9xyz"), results.getPdbIds(10));
+
+    // between the two 3zkm chains
+    assertEquals(2, results.getNumChains(1.55e-19));
+    assertEquals(2, results.getNumEntries(1.55e-19));
+    assertEquals(1, results.getAlignments("3zkm", 1.55e-19).size());
+
+    // hits must be below the threshold
+    assertEquals(1, results.getNumChains(1.5e-19));
+    assertEquals(Collections.singletonList("1cms"), results.getPdbIds(1e-100));
+    assertEquals(0, results.getNumChains(1e-200));
+    assertNull(results.getAlignments("3zkm", 1e-100));
+  }
+
+  @Test
+  public void domainForThreshold() {
+    // the first domain of 3zkm_A is significant only at a looser threshold
+    List<Alignment> loose = results.getAlignments("3zkm", 10);
+    assertEquals(2, loose.size());
+    Alignment a = loose.get(0);
+    assertEquals("3zkm_A", a.getTarget());
+    assertEquals(5.5, a.getEValueInd(), 0);
+    assertEquals(1, a.getTargetSequenceStart());
+    assertEquals(10, a.getSignificanceThreshold(), 0);
+
+    Alignment b = results.getAlignments("3zkm", 1).get(0);
+    assertEquals(1.5e-19, b.getEValueInd(), 0);
+    assertEquals(18, b.getTargetSequenceStart());
+    assertSame(results.getAlignments().get("3zkm").get("A"), b);
+  }
+
+}
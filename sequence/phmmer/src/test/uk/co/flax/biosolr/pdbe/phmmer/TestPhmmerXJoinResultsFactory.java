@@ -0,0 +1,107 @@
+package uk.co.flax.biosolr.pdbe.phmmer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.search.xjoin.BatchResults;
+import org.apache.solr.search.xjoin.XJoinResults;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestPhmmerXJoinResultsFactory {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  // each run of the fake phmmer adds a line to this file
+  private Path runs;
+
+  private PhmmerXJoinResultsFactory factory;
+
+  @Before
+  public void setup() throws Exception {
+    assumeTrue(File.separatorChar == '/');
+    Path table = Paths.get(TestPhmmerXJoinResultsFactory.class.getResource("domtblout").toURI());
+    runs = folder.newFile("runs").toPath();
+    Path script = folder.newFile("phmmer.sh").toPath();
+    Files.write(script, ("#!/bin/sh\n"
+        + "echo run >> '" + runs + "'\n"
+        + "while [ \"$1\" != \"--domtblout\" ]; do shift; done\n"
+        + "cp '" + table + "' \"$2\"\n").getBytes(StandardCharsets.UTF_8));
+    assertTrue(script.toFile().setExecutable(true));
+
+    NamedList<Object> args = new NamedList<>();
+    args.add(PhmmerXJoinResultsFactory.INIT_BACKEND, PhmmerXJoinResultsFactory.BACKEND_LOCAL);
+    args.add(PhmmerXJoinResultsFactory.INIT_BINARY, script.toString());
+    args.add(PhmmerXJoinResultsFactory.INIT_DATABASE, Paths.get(TestPhmmerXJoinResultsFactory.class.getResource("pdb.fasta").toURI()).toString());
+    factory = new PhmmerXJoinResultsFactory();
+    factory.init(args);
+  }
+
+  @After
+  public void teardown() throws IOException {
+    if (factory != null) {
+      factory.close();
+    }
+  }
+
+  private int runs() throws IOException {
+    return Files.readAllLines(runs).size();
+  }
+
+  @Test
+  public void thresholdWithoutSearchingAgain() throws IOException {
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.set(PhmmerXJoinResultsFactory.PHMMER_SEQUENCE, "MKTAYIAKQR");
+    PhmmerXJoinResultsFactory.Results results = (PhmmerXJoinResultsFactory.Results)factory.getResults(params);
+    assertEquals(Arrays.asList("1cms", "3zkm"), results.getJoinIds());
+    assertEquals(3, results.getNumChains());
+
+    params.set(PhmmerXJoinResultsFactory.PHMMER_THRESHOLD, "10");
+    results = (PhmmerXJoinResultsFactory.Results)factory.getResults(params);
+    assertEquals(Arrays.asList("1cms", "3zkm", "9xyz"), results.getJoinIds());
+    assertEquals(4, results.getNumChains());
+    assertEquals(10, results.getThreshold(), 0);
+
+    params.set(PhmmerXJoinResultsFactory.PHMMER_THRESHOLD, "1e-100");
+    results = (PhmmerXJoinResultsFactory.Results)factory.getResults(params);
+    assertEquals(Arrays.asList("1cms"), results.getJoinIds());
+    assertEquals(1, runs());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void batchThreshold() throws IOException {
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.set(PhmmerXJoinResultsFactory.PHMMER_SEQUENCE, "MKTAYIAKQR");
+    factory.getResults(params);
+
+    params.remove(PhmmerXJoinResultsFactory.PHMMER_SEQUENCE);
+    params.set(PhmmerXJoinResultsFactory.PHMMER_SEQUENCE + ".a", "MKTAYIAKQR");
+    params.set(PhmmerXJoinResultsFactory.PHMMER_SEQUENCE + ".b", "GDVEKGKKIF");
+    params.set(PhmmerXJoinResultsFactory.PHMMER_THRESHOLD, "10");
+    BatchResults<String> batch = (BatchResults<String>)factory.getResults(params);
+    for (String key : new String[] { "a", "b" }) {
+      XJoinResults<String> results = batch.getResults(key);
+      assertEquals(Arrays.asList("1cms", "3zkm", "9xyz"), results.getJoinIds());
+    }
+
+    // only the new sequence was searched for
+    assertEquals(2, runs());
+  }
+
+}
@@ -0,0 +1,101 @@
+package uk.co.flax.examples.xjoin;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.search.xjoin.XJoinResultsFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Benchmark OfferXJoinResultsFactory, with the 'offers' API stubbed by a local HTTP
+ * server. linearLookup() does what getResult() used to do for a page of join ids (scan
+ * the offers for one with each id), for comparison with process() - a scan for every
+ * join id, as lookup() makes, takes too long to measure with many offers.
+ */
+@State(Scope.Benchmark)
+public class OfferXJoinBenchmark extends XJoinResultsFactoryBenchmark {
+
+  @Param({ "1000", "10000", "100000" })
+  public int offers;
+
+  private HttpServer server;
+
+  private JsonArray json;
+
+  @Override
+  protected void setUpExternal() throws Exception {
+    StringWriter out = new StringWriter();
+    Random random = new Random(42);
+    try (JsonGenerator generator = Json.createGenerator(out)) {
+      generator.writeStartArray();
+      for (int i = 0; i < offers; ++i) {
+        generator.writeStartObject()
+            .write("id", "product" + i)
+            .write("discountPct", random.nextInt(80) + 1)
+            .writeEnd();
+      }
+      generator.writeEnd();
+    }
+    byte[] body = out.toString().getBytes(StandardCharsets.UTF_8);
+    try (JsonReader reader = Json.createReader(new ByteArrayInputStream(body))) {
+      json = reader.readArray();
+    }
+
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/products", exchange -> {
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream os = exchange.getResponseBody()) {
+        os.write(body);
+      }
+    });
+    server.start();
+  }
+
+  @Override
+  protected void tearDownExternal() {
+    server.stop(0);
+  }
+
+  @Override
+  protected XJoinResultsFactory<?> createFactory() {
+    NamedList<String> args = new NamedList<>();
+    args.add("url", "http://localhost:" + server.getAddress().getPort() + "/products");
+    args.add("field", "id");
+    args.add("discountField", "discountPct");
+    OfferXJoinResultsFactory factory = new OfferXJoinResultsFactory();
+    factory.init(args);
+    return factory;
+  }
+
+  @Benchmark
+  public void linearLookup(Blackhole bh) {
+    for (String joinId : getJoinIds().subList(0, Math.min(rows, getJoinIds().size()))) {
+      for (JsonValue offer : json) {
+        if (((JsonObject)offer).getString("id").equals(joinId)) {
+          bh.consume(((JsonObject)offer).getInt("discountPct") * 0.01d);
+          break;
+        }
+      }
+    }
+  }
+
+}
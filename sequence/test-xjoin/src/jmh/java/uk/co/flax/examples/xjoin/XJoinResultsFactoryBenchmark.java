@@ -0,0 +1,164 @@
+package uk.co.flax.examples.xjoin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.search.xjoin.FieldAppender;
+import org.apache.solr.search.xjoin.XJoinResults;
+import org.apache.solr.search.xjoin.XJoinResultsFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Harness for benchmarking any XJoinResultsFactory. A subclass says how to create the
+ * factory (and anything it talks to) and the request parameters; the benchmarks then
+ * use the factory and its results the way an xjoin request does:
+ *
+ *   search     - the external search (XJoinSearchComponent.prepare())
+ *   joinIds    - reading the join ids (XJoinQParserPlugin, building the filter)
+ *   lookup     - getResult() for every join id, in document order (XJoinValueSource)
+ *   process    - the general results, and getResult() for a page of join ids, through
+ *                FieldAppenders (XJoinSearchComponent.process())
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public abstract class XJoinResultsFactoryBenchmark {
+
+  // the number of result documents on a page
+  @Param({ "10" })
+  public int rows;
+
+  private XJoinResultsFactory<?> factory;
+
+  private SolrParams params;
+
+  private XJoinResults<?> results;
+
+  // the join ids of the results, shuffled (as they would be met in documents)
+  private List<String> joinIds;
+
+  private final FieldAppender appender = new FieldAppender("*");
+
+  /**
+   * Create and initialise the factory to be benchmarked (after setUpExternal()).
+   */
+  protected abstract XJoinResultsFactory<?> createFactory() throws Exception;
+
+  /**
+   * Get the request parameters (none, by default).
+   */
+  protected SolrParams getParams() {
+    return new ModifiableSolrParams();
+  }
+
+  /**
+   * Set up whatever the factory talks to (nothing, by default).
+   */
+  protected void setUpExternal() throws Exception {
+    // nothing
+  }
+
+  /**
+   * Tear down whatever the factory talks to (nothing, by default).
+   */
+  protected void tearDownExternal() throws Exception {
+    // nothing
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    setUpExternal();
+    factory = createFactory();
+    params = getParams();
+    results = factory.getResults(params);
+    joinIds = new ArrayList<>();
+    for (Object joinId : results.getJoinIds()) {
+      joinIds.add(joinId.toString());
+    }
+    Collections.shuffle(joinIds, new Random(42));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    try {
+      if (factory instanceof AutoCloseable) {
+        ((AutoCloseable)factory).close();
+      }
+    } finally {
+      tearDownExternal();
+    }
+  }
+
+  /**
+   * Get the results of the request (made in setup).
+   */
+  protected XJoinResults<?> getResults() {
+    return results;
+  }
+
+  /**
+   * Get the join ids of the results, in document order.
+   */
+  protected List<String> getJoinIds() {
+    return joinIds;
+  }
+
+  @Benchmark
+  public XJoinResults<?> search() throws Exception {
+    return factory.getResults(params);
+  }
+
+  @Benchmark
+  public int joinIds() {
+    int n = 0;
+    for (Object joinId : results.getJoinIds()) {
+      n += joinId.hashCode();
+    }
+    return n;
+  }
+
+  @Benchmark
+  public void lookup(Blackhole bh) {
+    for (String joinId : joinIds) {
+      bh.consume(results.getResult(joinId));
+    }
+  }
+
+  @Benchmark
+  @SuppressWarnings("rawtypes")
+  public NamedList process() {
+    NamedList<Object> rsp = new SimpleOrderedMap<>();
+    appender.addNamedList(rsp, "xjoin", results);
+    for (String joinId : joinIds.subList(0, Math.min(rows, joinIds.size()))) {
+      Object result = results.getResult(joinId);
+      if (result != null) {
+        appender.addNamedList(rsp, joinId, result);
+      }
+    }
+    return rsp;
+  }
+
+}
@@ -2,7 +2,10 @@ package uk.co.flax.examples.xjoin;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.json.JsonArray;
 import javax.json.JsonObject;
@@ -14,7 +17,7 @@ import org.apache.solr.search.xjoin.XJoinResults;
 import org.apache.solr.search.xjoin.XJoinResultsFactory;
 
 public class OfferXJoinResultsFactory
-implements XJoinResultsFactory {
+implements XJoinResultsFactory<String> {
   private String url;
   private String field;
   private String discountField;
@@ -31,7 +34,7 @@ implements XJoinResultsFactory {
    * Use 'offers' REST API to fetch current offer data.
    */
   @Override
-  public XJoinResults getResults(SolrParams params)
+  public XJoinResults<String> getResults(SolrParams params)
   throws IOException {
     try (HttpConnection http = new HttpConnection(url)) {
       JsonArray offers = (JsonArray)http.getJson();
@@ -42,36 +45,45 @@ implements XJoinResultsFactory {
   /**
    * Results of the external search - methods like getXXX() are used
    * to expose the property XXX in the SOLR results.
+   *
+   * getResult() is called for every join id in the Solr results (and
+   * more than once, by the field appender and value source), so the
+   * offers are indexed by join id, and the join ids sorted, just once,
+   * when the results are created.
    */
-  public class OfferResults implements XJoinResults {
-    private JsonArray offers;
+  public class OfferResults implements XJoinResults<String> {
+    private int count;
+
+    // offers by join id (the first, if an id is repeated)
+    private Map<String, Offer> index;
+
+    // sorted, distinct join ids
+    private List<String> joinIds;
 
     public OfferResults(JsonArray offers) {
-      this.offers = offers;
+      count = offers.size();
+      index = new HashMap<>(count * 4 / 3 + 1);
+      for (JsonValue offer : offers) {
+        String id = ((JsonObject)offer).getString(field);
+        index.putIfAbsent(id, new Offer(offer));
+      }
+      List<String> ids = new ArrayList<>(index.keySet());
+      Collections.sort(ids);
+      joinIds = Collections.unmodifiableList(ids);
     }
 
     public int getCount() {
-      return offers.size();
+      return count;
     }
 
     @Override
-    public Iterable getJoinIds() {
-      List ids = new ArrayList<>();
-      for (JsonValue offer : offers) {
-        ids.add(((JsonObject)offer).getString(field));
-      }
-      return ids;
+    public Iterable<String> getJoinIds() {
+      return joinIds;
     }
 
     @Override
     public Object getResult(String joinIdStr) {
-      for (JsonValue offer : offers) {
-        String id = ((JsonObject)offer).getString(field);
-        if (id.equals(joinIdStr)) {
-          return new Offer(offer);
-        }
-      }
-      return null;
+      return index.get(joinIdStr);
     }
   }
 
@@ -81,14 +93,14 @@ implements XJoinResultsFactory {
    * id field.
    */
   public class Offer {
-    private JsonValue offer;
+    private double discount;
 
     public Offer(JsonValue offer) {
-      this.offer = offer;
+      discount = ((JsonObject)offer).getInt(discountField) * 0.01d;
     }
 
     public double getDiscount() {
-      return ((JsonObject)offer).getInt(discountField) * 0.01d;
+      return discount;
     }
   }
 }
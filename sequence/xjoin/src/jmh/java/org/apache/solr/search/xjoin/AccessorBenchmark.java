@@ -0,0 +1,104 @@
+package org.apache.solr.search.xjoin;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compare reflective attribute access (as FieldAppender and XJoinValueSource used to do
+ * it, looking up Methods for every result) with the cached ResultAccessors.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccessorBenchmark {
+
+  public static class Result {
+
+    private double score = Math.random();
+
+    public double getScore() {
+      return score;
+    }
+
+    public String getPdbId() {
+      return "1abc";
+    }
+
+    public int getChainCount() {
+      return 4;
+    }
+
+    public boolean isObsolete() {
+      return false;
+    }
+
+  }
+
+  private final Result result = new Result();
+
+  private final FieldAppender appender = new FieldAppender(true);
+
+  @Benchmark
+  public Object valueReflective() throws Exception {
+    // as XJoinValueSource.getValue() did for each document
+    Method method = result.getClass().getMethod(NameConverter.getMethodName("score"));
+    return method.invoke(result);
+  }
+
+  @Benchmark
+  public Object valueAccessor() {
+    return ResultAccessors.forClass(result.getClass()).getMethod("getScore").apply(result);
+  }
+
+  @Benchmark
+  public NamedList<Object> appendReflective() throws Exception {
+    // as FieldAppender.addNamedList() did for each result
+    NamedList<Object> list = new SimpleOrderedMap<>();
+    for (Method method : result.getClass().getMethods()) {
+      if (method.getParameterTypes().length > 0) continue;
+      String fieldName = NameConverter.getFieldName(method.getName());
+      if (fieldName == null || fieldName.equals("class")) continue;
+      list.add(fieldName, method.invoke(result));
+    }
+    return list;
+  }
+
+  @Benchmark
+  @SuppressWarnings("rawtypes")
+  public NamedList appendAccessors() {
+    return appender.addNamedList(new SimpleOrderedMap<>(), "doc", result);
+  }
+
+}
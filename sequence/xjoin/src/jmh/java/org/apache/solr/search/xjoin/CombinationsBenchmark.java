@@ -0,0 +1,142 @@
+package org.apache.solr.search.xjoin;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.util.BytesRefBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compare JoinSpec evaluation using Combinations (boxed, step-by-step iterators) with
+ * JoinIdSet (primitive, galloping) for a small and a large set of PDB-like join ids.
+ * Both produce the terms that XJoinQParserPlugin would pass to a query. Join id sets are
+ * built once per set of results (and reused while XJoinSearchComponent caches results),
+ * so the cost of building a set is measured separately.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CombinationsBenchmark {
+
+  @Param({ "1000", "100000" })
+  private int smallSize;
+
+  @Param({ "100000", "1000000" })
+  private int largeSize;
+
+  private List<String> small;
+
+  private List<String> large;
+
+  private JoinIdSet smallSet;
+
+  private JoinIdSet largeSet;
+
+  private JoinSpec<String> and = JoinSpec.parse("small AND large");
+
+  private JoinSpec<String> or = JoinSpec.parse("small OR large");
+
+  @Setup
+  public void setup() {
+    Random random = new Random(0);
+    small = joinIds(random, smallSize);
+    large = joinIds(random, largeSize);
+    smallSet = BytesRefJoinIdSet.of(null, small);
+    largeSet = BytesRefJoinIdSet.of(null, large);
+  }
+
+  // sorted, distinct ids like "1abc"
+  private static List<String> joinIds(Random random, int size) {
+    TreeSet<String> ids = new TreeSet<>();
+    while (ids.size() < size) {
+      ids.add(Integer.toString(1 + random.nextInt(9)) + Integer.toString(random.nextInt(36 * 36 * 36 * 36), 36));
+    }
+    return new ArrayList<>(ids);
+  }
+
+  private final JoinSpec.Iterable iterators = new JoinSpec.Iterable() {
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Comparable<T>> Iterator<T> iterator(String componentName) {
+      return (Iterator<T>)(componentName.equals("small") ? small : large).iterator();
+    }
+  };
+
+  private final JoinIdSet.Source sets = componentName -> componentName.equals("small") ? smallSet : largeSet;
+
+  private static void consume(Iterator<String> it, Blackhole bh) {
+    BytesRefBuilder term = new BytesRefBuilder();
+    while (it.hasNext()) {
+      term.copyChars(it.next());
+      bh.consume(term.toBytesRef());
+    }
+  }
+
+  private static void consume(JoinIdSet set, Blackhole bh) {
+    bh.consume(set.size());
+    for (Iterator<?> it = set.terms(null); it.hasNext(); ) {
+      bh.consume(it.next());
+    }
+  }
+
+  @Benchmark
+  public void andCombinations(Blackhole bh) {
+    consume(and.iterator(iterators), bh);
+  }
+
+  @Benchmark
+  public void andJoinIdSet(Blackhole bh) {
+    consume(and.joinIdSet(sets), bh);
+  }
+
+  @Benchmark
+  public JoinIdSet buildJoinIdSet() {
+    return BytesRefJoinIdSet.of(null, large);
+  }
+
+  @Benchmark
+  public void orCombinations(Blackhole bh) {
+    consume(or.iterator(iterators), bh);
+  }
+
+  @Benchmark
+  public void orJoinIdSet(Blackhole bh) {
+    consume(or.joinIdSet(sets), bh);
+  }
+
+}
@@ -0,0 +1,106 @@
+package org.apache.solr.search.xjoin;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * External process results for a batch of requests made together (e.g. several query
+ * sequences), each of which has its own results, addressed by a key. Queries refer to
+ * the results for one key as component:key (so, fq={!xjoin}fasta:q1 AND NOT fasta:q2),
+ * or to the batch as a whole by the component name.
+ *
+ * The batch as a whole has the union of the join ids of its members, and the result for
+ * a join id is the list of all the members' results for it (items of Iterable results
+ * being flattened into the list).
+ */
+public class BatchResults<IdType extends Comparable<? super IdType>> implements XJoinResults<IdType> {
+
+  // results by key, in order
+  private final Map<String, XJoinResults<IdType>> members;
+
+  // sorted, distinct join ids of all members
+  private final List<IdType> joinIds;
+
+  public BatchResults(Map<String, ? extends XJoinResults<IdType>> members) {
+    this.members = Collections.unmodifiableMap(new LinkedHashMap<>(members));
+
+    List<IdType> ids = new ArrayList<>();
+    for (XJoinResults<IdType> results : members.values()) {
+      for (IdType joinId : results.getJoinIds()) {
+        ids.add(joinId);
+      }
+    }
+    Collections.sort(ids);
+    int n = 0;
+    for (IdType joinId : ids) {
+      if (n == 0 || joinId.compareTo(ids.get(n - 1)) != 0) {
+        ids.set(n++, joinId);
+      }
+    }
+    joinIds = Collections.unmodifiableList(new ArrayList<>(ids.subList(0, n)));
+  }
+
+  /**
+   * Get the keys of the batch, in order.
+   */
+  public Set<String> getKeys() {
+    return members.keySet();
+  }
+
+  /**
+   * Get the results for the given key (or null if there is no such key).
+   */
+  public XJoinResults<IdType> getResults(String key) {
+    return members.get(key);
+  }
+
+  @Override
+  public Iterable<IdType> getJoinIds() {
+    return joinIds;
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public List<Object> getResult(String joinIdStr) {
+    List<Object> list = null;
+    for (XJoinResults<IdType> results : members.values()) {
+      Object result = results.getResult(joinIdStr);
+      if (result == null) {
+        continue;
+      }
+      if (list == null) {
+        list = new ArrayList<>();
+      }
+      if (result instanceof Iterable) {
+        for (Object item : (Iterable)result) {
+          list.add(item);
+        }
+      } else {
+        list.add(result);
+      }
+    }
+    return list;
+  }
+
+}
@@ -0,0 +1,207 @@
+package org.apache.solr.search.xjoin;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IntroSorter;
+import org.apache.solr.schema.FieldType;
+
+/**
+ * Join id set of indexed terms, held (in unsigned byte order) in a single block of bytes.
+ */
+public class BytesRefJoinIdSet extends JoinIdSet {
+
+  // the concatenated terms
+  private final byte[] bytes;
+
+  // offset of each term in bytes, followed by the total length
+  private final int[] offsets;
+
+  private final int size;
+
+  private BytesRefJoinIdSet(byte[] bytes, int[] offsets, int size) {
+    this.bytes = bytes;
+    this.offsets = offsets;
+    this.size = size;
+  }
+
+  /**
+   * Create a join id set of the given join ids (in any order, possibly with repeats)
+   * converted to indexed terms of the given field type (which may be null).
+   */
+  public static BytesRefJoinIdSet of(FieldType ft, Iterable<?> joinIds) {
+    // XJoinResults usually give join ids in order, in which case this is all we need to do
+    byte[] bytes = new byte[1024];
+    int[] offsets = new int[17];
+    int size = 0;
+    boolean sorted = true;
+    BytesRefBuilder term = new BytesRefBuilder();
+    for (Object joinId : joinIds) {
+      // logic same as TermQParserPlugin
+      if (ft != null) {
+        ft.readableToIndexed(joinId.toString(), term);
+      } else {
+        term.copyChars(joinId.toString());
+      }
+      int start = offsets[size];
+      int end = start + term.length();
+      if (size > 0) {
+        int cmp = compare(bytes, offsets[size - 1], start, term.bytes(), 0, term.length());
+        if (cmp == 0) {
+          continue;
+        }
+        sorted &= cmp < 0;
+      }
+      bytes = ArrayUtil.grow(bytes, end);
+      System.arraycopy(term.bytes(), 0, bytes, start, term.length());
+      offsets = ArrayUtil.grow(offsets, size + 2);
+      offsets[++size] = end;
+    }
+    BytesRefJoinIdSet set = new BytesRefJoinIdSet(bytes, offsets, size);
+    return sorted ? set : set.sort();
+  }
+
+  // sort (and remove repeats from) a set whose join ids are not in order
+  private BytesRefJoinIdSet sort() {
+    int[] ords = new int[size];
+    for (int i = 0; i < size; ++i) {
+      ords[i] = i;
+    }
+    new IntroSorter() {
+
+      private int pivot;
+
+      @Override
+      protected void swap(int i, int j) {
+        int ord = ords[i];
+        ords[i] = ords[j];
+        ords[j] = ord;
+      }
+
+      @Override
+      protected void setPivot(int i) {
+        pivot = ords[i];
+      }
+
+      @Override
+      protected int comparePivot(int j) {
+        return BytesRefJoinIdSet.this.compare(pivot, BytesRefJoinIdSet.this, ords[j]);
+      }
+
+      @Override
+      protected int compare(int i, int j) {
+        return BytesRefJoinIdSet.this.compare(ords[i], BytesRefJoinIdSet.this, ords[j]);
+      }
+
+    }.sort(0, size);
+
+    Builder builder = builder(size);
+    for (int i = 0; i < size; ++i) {
+      if (i == 0 || compare(ords[i - 1], this, ords[i]) != 0) {
+        builder.add(this, ords[i]);
+      }
+    }
+    return (BytesRefJoinIdSet)builder.build();
+  }
+
+  // compare two terms in unsigned byte order
+  private static int compare(byte[] a, int aStart, int aEnd, byte[] b, int bStart, int bEnd) {
+    while (aStart < aEnd && bStart < bEnd) {
+      int cmp = (a[aStart++] & 0xff) - (b[bStart++] & 0xff);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return (aEnd - aStart) - (bEnd - bStart);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get join id i (sharing this set's bytes).
+   */
+  public BytesRef get(int i) {
+    return new BytesRef(bytes, offsets[i], offsets[i + 1] - offsets[i]);
+  }
+
+  @Override
+  public Iterator<BytesRef> terms(FieldType ft) {
+    // our terms are already in indexed form
+    return new Iterator<BytesRef>() {
+
+      private int i = 0;
+
+      @Override
+      public boolean hasNext() {
+        return i < size;
+      }
+
+      @Override
+      public BytesRef next() {
+        if (i >= size) {
+          throw new NoSuchElementException();
+        }
+        return get(i++);
+      }
+
+    };
+  }
+
+  @Override
+  /*package*/ int compare(int i, JoinIdSet other, int j) {
+    BytesRefJoinIdSet that = (BytesRefJoinIdSet)other;
+    return compare(bytes, offsets[i], offsets[i + 1], that.bytes, that.offsets[j], that.offsets[j + 1]);
+  }
+
+  @Override
+  /*package*/ Builder builder(int capacity) {
+    return new Builder() {
+
+      private byte[] bytes = new byte[Math.min(BytesRefJoinIdSet.this.bytes.length, 1024)];
+
+      private int[] offsets = new int[capacity + 1];
+
+      private int size = 0;
+
+      @Override
+      void add(JoinIdSet set, int i) {
+        BytesRefJoinIdSet from = (BytesRefJoinIdSet)set;
+        int length = from.offsets[i + 1] - from.offsets[i];
+        int end = offsets[size] + length;
+        bytes = ArrayUtil.grow(bytes, end);
+        System.arraycopy(from.bytes, from.offsets[i], bytes, offsets[size], length);
+        offsets[++size] = end;
+      }
+
+      @Override
+      JoinIdSet build() {
+        return new BytesRefJoinIdSet(bytes, offsets, size);
+      }
+
+    };
+  }
+
+}
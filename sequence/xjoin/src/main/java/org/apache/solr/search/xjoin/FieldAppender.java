@@ -17,11 +17,10 @@ package org.apache.solr.search.xjoin;
  * limitations under the License.
  */
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
@@ -33,6 +32,9 @@ public class FieldAppender {
 
   // selected properties (or null for all)
   private Set<String> fieldNames;
+
+  // accessors for the class of the last object added
+  private ResultAccessors accessors;
   
   /**
    * Create a FieldAppender for adding the fields specified by the given
@@ -102,14 +104,13 @@ public class FieldAppender {
         list.add(fieldName, map.get(field));
       }
     } else {
-      for (Method method : object.getClass().getMethods()) {
-        if (method.getParameterTypes().length > 0) continue;
-        String fieldName = NameConverter.getFieldName(method.getName());
+      for (Map.Entry<String, Function<Object, Object>> field : getAccessors(object.getClass()).getFields().entrySet()) {
+        String fieldName = field.getKey();
         if (! includeField(fieldName)) continue;
         try {
-          list.add(fieldName, method.invoke(object));
-        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-          throw new RuntimeException(e.getClass().getName() + " (" + fieldName + ": " + e.getMessage() + ")", e.getCause());
+          list.add(fieldName, field.getValue().apply(object));
+        } catch (RuntimeException e) {
+          throw new RuntimeException(e.getClass().getName() + " (" + fieldName + ": " + e.getMessage() + ")", e);
         }
       }
     }
@@ -117,6 +118,14 @@ public class FieldAppender {
     return list;
   }
   
+  // get accessors for the given class (usually the same as for the last object)
+  private ResultAccessors getAccessors(Class<?> type) {
+    if (accessors == null || accessors.getType() != type) {
+      accessors = ResultAccessors.forClass(type);
+    }
+    return accessors;
+  }
+
   // whether to include a particular object field based on fieldNames
   private boolean includeField(String fieldName) {
     if (fieldName == null) return false;
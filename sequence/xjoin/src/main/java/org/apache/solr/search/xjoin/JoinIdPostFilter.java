@@ -0,0 +1,192 @@
+package org.apache.solr.search.xjoin;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.ConstantScoreScorer;
+import org.apache.lucene.search.ConstantScoreWeight;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LongBitSet;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.search.DelegatingCollector;
+import org.apache.solr.search.ExtendedQueryBase;
+import org.apache.solr.search.PostFilter;
+
+/**
+ * Query matching documents with a join field value in a set of join ids, by checking the
+ * (sorted or sorted set) doc values ordinals of each document against the set of ordinals
+ * of the join ids in its segment. The set of ordinals is built, from the sorted join ids,
+ * the first time a segment is visited.
+ *
+ * By default this is not cached and has a cost of 100, so is used as a post filter: only
+ * documents already matching the main query and all other filters are checked, and the
+ * join ids are only looked up in segments that have such documents. If it is cached, or
+ * given a lower cost, it is used as an ordinary filter.
+ */
+public class JoinIdPostFilter extends ExtendedQueryBase implements PostFilter {
+
+  public static final int DEFAULT_COST = 100;
+
+  private final String field;
+
+  private final FieldType ft;
+
+  private final JoinIdSet joinIds;
+
+  public JoinIdPostFilter(String field, FieldType ft, JoinIdSet joinIds) {
+    this.field = field;
+    this.ft = ft;
+    this.joinIds = joinIds;
+    setCache(false);
+    setCost(DEFAULT_COST);
+  }
+
+  // matches documents in one segment
+  private class SegmentMatcher {
+
+    private final SortedSetDocValues values;
+
+    // ordinals of join ids (or null if not yet built)
+    private LongBitSet ords;
+
+    // whether any join ids are in the segment
+    private boolean any;
+
+    private SegmentMatcher(LeafReader reader) throws IOException {
+      values = DocValues.getSortedSet(reader, field);
+    }
+
+    // build the set of join id ordinals (if not already done) and return whether it is empty
+    private boolean isEmpty() throws IOException {
+      if (ords == null) {
+        ords = new LongBitSet(Math.max(1, values.getValueCount()));
+        TermsEnum terms = values.termsEnum();
+        for (Iterator<BytesRef> it = joinIds.terms(ft); it.hasNext(); ) {
+          TermsEnum.SeekStatus status = terms.seekCeil(it.next());
+          if (status == TermsEnum.SeekStatus.END) {
+            break;
+          }
+          if (status == TermsEnum.SeekStatus.FOUND) {
+            ords.set(terms.ord());
+            any = true;
+          }
+        }
+      }
+      return ! any;
+    }
+
+    // whether the given document (not before the current one) matches
+    private boolean matches(int doc) throws IOException {
+      return ! isEmpty() && values.advanceExact(doc) && matchesCurrent();
+    }
+
+    // whether the current document matches
+    private boolean matchesCurrent() throws IOException {
+      for (long ord = values.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = values.nextOrd()) {
+        if (ords.get(ord)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+  }
+
+  @Override
+  public DelegatingCollector getFilterCollector(IndexSearcher searcher) {
+    return new DelegatingCollector() {
+
+      private SegmentMatcher matcher;
+
+      @Override
+      protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        super.doSetNextReader(context);
+        matcher = new SegmentMatcher(context.reader());
+      }
+
+      @Override
+      public void collect(int doc) throws IOException {
+        if (matcher.matches(doc)) {
+          super.collect(doc);
+        }
+      }
+
+    };
+  }
+
+  @Override
+  public Weight createWeight(IndexSearcher searcher, boolean needsScores, float boost) {
+    return new ConstantScoreWeight(this, boost) {
+
+      @Override
+      public Scorer scorer(LeafReaderContext context) throws IOException {
+        SegmentMatcher matcher = new SegmentMatcher(context.reader());
+        if (matcher.isEmpty()) {
+          return null;
+        }
+        return new ConstantScoreScorer(this, score(), new TwoPhaseIterator(matcher.values) {
+
+          @Override
+          public boolean matches() throws IOException {
+            return matcher.matchesCurrent();
+          }
+
+          @Override
+          public float matchCost() {
+            return 3;
+          }
+
+        });
+      }
+
+      @Override
+      public boolean isCacheable(LeafReaderContext context) {
+        return DocValues.isCacheable(context, field);
+      }
+
+    };
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    // join id sets are compared by identity (they are reused when results are cached)
+    return sameClassAs(other) && field.equals(((JoinIdPostFilter)other).field) && joinIds == ((JoinIdPostFilter)other).joinIds;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (31 * classHash() + field.hashCode()) + System.identityHashCode(joinIds);
+  }
+
+  @Override
+  public String toString(String defaultField) {
+    return "JoinIdPostFilter(" + field + ":" + joinIds.size() + " join ids)" + getOptions();
+  }
+
+}
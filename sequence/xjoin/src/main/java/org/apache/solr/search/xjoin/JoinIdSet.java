@@ -0,0 +1,207 @@
+package org.apache.solr.search.xjoin;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Iterator;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.NumberType;
+
+/**
+ * Immutable set of join ids, held in ascending order in a compact (primitive array) form.
+ *
+ * Set operations between two join id sets skip ahead through the larger set using
+ * advance() (galloping, then binary search), so intersecting a small set with a large one
+ * costs much less than stepping through both. Operations are only valid between sets of
+ * the same type, as created by of() for the same field type.
+ */
+public abstract class JoinIdSet {
+
+  /**
+   * Source of join id sets for named XJoin components.
+   */
+  public interface Source {
+    JoinIdSet joinIdSet(String componentName);
+  }
+
+  /**
+   * Create a join id set for the given join ids and join field type (which may be null).
+   * Integer and long fields give a LongJoinIdSet, all others a BytesRefJoinIdSet of
+   * indexed terms.
+   */
+  public static JoinIdSet of(FieldType ft, Iterable<?> joinIds) {
+    NumberType type = ft != null ? ft.getNumberType() : null;
+    if (type == NumberType.INTEGER || type == NumberType.LONG) {
+      return LongJoinIdSet.of(joinIds);
+    }
+    return BytesRefJoinIdSet.of(ft, joinIds);
+  }
+
+  /**
+   * Get the number of join ids in the set.
+   */
+  public abstract int size();
+
+  /**
+   * Get an iterator over the join ids (in ascending order) as indexed terms of the
+   * given field type (which may be null).
+   */
+  public abstract Iterator<BytesRef> terms(FieldType ft);
+
+  // compare join id i of this set with join id j of the other set
+  /*package*/ abstract int compare(int i, JoinIdSet other, int j);
+
+  // create a builder for a set of the same type as this one, with the given maximum size
+  /*package*/ abstract Builder builder(int capacity);
+
+  /**
+   * Builder for join id sets (join ids must be added in ascending order).
+   */
+  /*package*/ static abstract class Builder {
+
+    // add join id i of the given set
+    abstract void add(JoinIdSet set, int i);
+
+    abstract JoinIdSet build();
+
+  }
+
+  /**
+   * Get the index of the first join id in this set, at or after from, that is not less
+   * than join id j of the other set (or size() if there is no such join id).
+   */
+  public int advance(int from, JoinIdSet other, int j) {
+    int size = size();
+    if (from >= size || compare(from, other, j) >= 0) {
+      return from;
+    }
+
+    // gallop until the join id at hi is not less than the target
+    int lo = from;
+    int step = 1;
+    int hi = lo + step;
+    while (hi < size && compare(hi, other, j) < 0) {
+      lo = hi;
+      step <<= 1;
+      hi = lo + step;
+    }
+    hi = Math.min(hi, size);
+
+    // binary search between lo (less than the target) and hi
+    while (hi - lo > 1) {
+      int mid = (lo + hi) >>> 1;
+      if (compare(mid, other, j) < 0) {
+        lo = mid;
+      } else {
+        hi = mid;
+      }
+    }
+    return hi;
+  }
+
+  public static JoinIdSet or(JoinIdSet a, JoinIdSet b) {
+    if (b.size() == 0) {
+      return a;
+    }
+    if (a.size() == 0) {
+      return b;
+    }
+    Builder builder = a.builder(a.size() + b.size());
+    int i = 0, j = 0;
+    while (i < a.size() && j < b.size()) {
+      int cmp = a.compare(i, b, j);
+      if (cmp < 0) {
+        builder.add(a, i++);
+      } else if (cmp > 0) {
+        builder.add(b, j++);
+      } else {
+        builder.add(a, i++);
+        j++;
+      }
+    }
+    while (i < a.size()) {
+      builder.add(a, i++);
+    }
+    while (j < b.size()) {
+      builder.add(b, j++);
+    }
+    return builder.build();
+  }
+
+  public static JoinIdSet and(JoinIdSet a, JoinIdSet b) {
+    // step through the smaller set, skipping ahead in the larger
+    JoinIdSet small = a.size() <= b.size() ? a : b;
+    JoinIdSet large = small == a ? b : a;
+    Builder builder = small.builder(small.size());
+    int j = 0;
+    for (int i = 0; i < small.size() && j < large.size(); ++i) {
+      j = large.advance(j, small, i);
+      if (j < large.size() && large.compare(j, small, i) == 0) {
+        builder.add(small, i);
+        j++;
+      }
+    }
+    return builder.build();
+  }
+
+  public static JoinIdSet andNot(JoinIdSet a, JoinIdSet b) {
+    if (a.size() == 0 || b.size() == 0) {
+      return a;
+    }
+    Builder builder = a.builder(a.size());
+    int j = 0;
+    for (int i = 0; i < a.size(); ++i) {
+      j = b.advance(j, a, i);
+      if (j == b.size() || b.compare(j, a, i) != 0) {
+        builder.add(a, i);
+      }
+    }
+    return builder.build();
+  }
+
+  public static JoinIdSet xor(JoinIdSet a, JoinIdSet b) {
+    if (b.size() == 0) {
+      return a;
+    }
+    if (a.size() == 0) {
+      return b;
+    }
+    Builder builder = a.builder(a.size() + b.size());
+    int i = 0, j = 0;
+    while (i < a.size() && j < b.size()) {
+      int cmp = a.compare(i, b, j);
+      if (cmp < 0) {
+        builder.add(a, i++);
+      } else if (cmp > 0) {
+        builder.add(b, j++);
+      } else {
+        i++;
+        j++;
+      }
+    }
+    while (i < a.size()) {
+      builder.add(a, i++);
+    }
+    while (j < b.size()) {
+      builder.add(b, j++);
+    }
+    return builder.build();
+  }
+
+}
@@ -70,6 +70,29 @@ public class JoinSpec<T extends Comparable<T>> {
     }
   }
   
+  public JoinIdSet joinIdSet(JoinIdSet.Source source) {
+    if (operator == Op.xjoin) {
+      return source.joinIdSet(componentName);
+    }
+    JoinIdSet first = this.first.joinIdSet(source);
+    if (operator == Op.unary) {
+      return first;
+    }
+    JoinIdSet second = this.second.joinIdSet(source);
+    switch (operator) {
+    case or:
+      return JoinIdSet.or(first, second);
+    case and:
+      return JoinIdSet.and(first, second);
+    case xor:
+      return JoinIdSet.xor(first, second);
+    case and_not:
+      return JoinIdSet.andNot(first, second);
+    default:
+      throw new RuntimeException("Bad operator: " + operator);
+    }
+  }
+  
   public static <T extends Comparable<T>> JoinSpec<T> parse(String v) {
     // ((a OR b) AND c) XOR (d AND NOT e)
     JoinSpec<T> spec = new JoinSpec<>(null);
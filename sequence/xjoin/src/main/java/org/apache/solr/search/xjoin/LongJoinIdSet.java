@@ -0,0 +1,138 @@
+package org.apache.solr.search.xjoin;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.solr.schema.FieldType;
+
+/**
+ * Join id set of integer join ids, held in a sorted long array.
+ */
+public class LongJoinIdSet extends JoinIdSet {
+
+  private final long[] values;
+
+  private final int size;
+
+  private LongJoinIdSet(long[] values, int size) {
+    this.values = values;
+    this.size = size;
+  }
+
+  /**
+   * Create a join id set of the given join ids (in any order, possibly with repeats), which
+   * must be integral Numbers or strings parseable as longs.
+   */
+  public static LongJoinIdSet of(Iterable<?> joinIds) {
+    long[] values = new long[16];
+    int n = 0;
+    for (Object joinId : joinIds) {
+      values = ArrayUtil.grow(values, n + 1);
+      if (joinId instanceof Long || joinId instanceof Integer || joinId instanceof Short || joinId instanceof Byte) {
+        values[n++] = ((Number)joinId).longValue();
+      } else {
+        values[n++] = Long.parseLong(joinId.toString());
+      }
+    }
+    Arrays.sort(values, 0, n);
+
+    // remove repeats
+    int size = 0;
+    for (int i = 0; i < n; ++i) {
+      if (size == 0 || values[i] != values[size - 1]) {
+        values[size++] = values[i];
+      }
+    }
+    return new LongJoinIdSet(values, size);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get join id i.
+   */
+  public long get(int i) {
+    return values[i];
+  }
+
+  @Override
+  public Iterator<BytesRef> terms(FieldType ft) {
+    return new Iterator<BytesRef>() {
+
+      private BytesRefBuilder term = new BytesRefBuilder();
+
+      private int i = 0;
+
+      @Override
+      public boolean hasNext() {
+        return i < size;
+      }
+
+      @Override
+      public BytesRef next() {
+        if (i >= size) {
+          throw new NoSuchElementException();
+        }
+        String value = Long.toString(values[i++]);
+        if (ft != null) {
+          ft.readableToIndexed(value, term);
+        } else {
+          term.copyChars(value);
+        }
+        return term.toBytesRef();
+      }
+
+    };
+  }
+
+  @Override
+  /*package*/ int compare(int i, JoinIdSet other, int j) {
+    return Long.compare(values[i], ((LongJoinIdSet)other).values[j]);
+  }
+
+  @Override
+  /*package*/ Builder builder(int capacity) {
+    return new Builder() {
+
+      private long[] values = new long[capacity];
+
+      private int size = 0;
+
+      @Override
+      void add(JoinIdSet set, int i) {
+        values[size++] = ((LongJoinIdSet)set).values[i];
+      }
+
+      @Override
+      JoinIdSet build() {
+        return new LongJoinIdSet(values, size);
+      }
+
+    };
+  }
+
+}
@@ -0,0 +1,168 @@
+package org.apache.solr.search.xjoin;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Accessors for the no-argument (getter) methods of a result class, built once per class
+ * and shared by FieldAppender and XJoinValueSourceParser.
+ *
+ * Each accessor is a Function generated with LambdaMetafactory (or, if that is not possible,
+ * wrapping a MethodHandle), so calling it costs about the same as calling the getter
+ * directly. Accessors are held in a ClassValue, so they go away with their class (e.g. when
+ * a core is reloaded with a new results factory).
+ */
+public class ResultAccessors {
+
+  private static final ClassValue<ResultAccessors> REGISTRY = new ClassValue<ResultAccessors>() {
+    @Override
+    protected ResultAccessors computeValue(Class<?> type) {
+      return new ResultAccessors(type);
+    }
+  };
+
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+  // the result class
+  private final Class<?> type;
+
+  // accessors by field name (as given by NameConverter), in getMethods() order
+  private final Map<String, Function<Object, Object>> fields = new LinkedHashMap<>();
+
+  // accessors by method name
+  private final Map<String, Function<Object, Object>> methods = new HashMap<>();
+
+  private ResultAccessors(Class<?> type) {
+    this.type = type;
+    for (Method method : type.getMethods()) {
+      if (method.getParameterTypes().length > 0) {
+        continue;
+      }
+      Function<Object, Object> accessor = accessor(method);
+      methods.put(method.getName(), accessor);
+      String fieldName = NameConverter.getFieldName(method.getName());
+      if (fieldName != null) {
+        fields.put(fieldName, accessor);
+      }
+    }
+  }
+
+  /**
+   * Get the accessors for the given class.
+   */
+  public static ResultAccessors forClass(Class<?> type) {
+    return REGISTRY.get(type);
+  }
+
+  /**
+   * Get the class these are accessors for.
+   */
+  public Class<?> getType() {
+    return type;
+  }
+
+  /**
+   * Get the accessors by field name (in a consistent order).
+   */
+  public Map<String, Function<Object, Object>> getFields() {
+    return Collections.unmodifiableMap(fields);
+  }
+
+  /**
+   * Get the accessor for the given field name, or null if there is none.
+   */
+  public Function<Object, Object> getField(String fieldName) {
+    return fields.get(fieldName);
+  }
+
+  /**
+   * Get the accessor for the given (no-argument) method name, or null if there is none.
+   */
+  public Function<Object, Object> getMethod(String methodName) {
+    return methods.get(methodName);
+  }
+
+  // create an accessor for the given method
+  @SuppressWarnings("unchecked")
+  private static Function<Object, Object> accessor(Method method) {
+    if (method.getReturnType() == void.class) {
+      return object -> invoke(method, object);
+    }
+
+    MethodHandle handle;
+    try {
+      handle = LOOKUP.unreflect(method);
+    } catch (IllegalAccessException e) {
+      // method in a class we can't see, so use reflection (which will probably fail too)
+      return object -> invoke(method, object);
+    }
+
+    // the generated class refers to the declaring class, so it must be visible to us
+    if (isVisible(method.getDeclaringClass())) {
+      try {
+        CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply",
+            MethodType.methodType(Function.class),
+            MethodType.methodType(Object.class, Object.class),
+            handle, handle.type().wrap());
+        return (Function<Object, Object>)site.getTarget().invokeExact();
+      } catch (Throwable t) {
+        // fall back to using the method handle
+      }
+    }
+
+    MethodHandle generic = handle.asType(MethodType.methodType(Object.class, Object.class));
+    return object -> {
+      try {
+        return generic.invokeExact(object);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new RuntimeException(e);
+      }
+    };
+  }
+
+  // whether the given class is visible from our class loader
+  /*package*/ static boolean isVisible(Class<?> type) {
+    try {
+      return Class.forName(type.getName(), false, ResultAccessors.class.getClassLoader()) == type;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  private static Object invoke(Method method, Object object) {
+    try {
+      return method.invoke(object);
+    } catch (ReflectiveOperationException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+}
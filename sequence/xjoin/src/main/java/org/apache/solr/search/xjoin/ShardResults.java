@@ -0,0 +1,277 @@
+package org.apache.solr.search.xjoin;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+
+/**
+ * External results as sent from the aggregator of a distributed request to its shards, so
+ * that the external process is only run once per request. Each result (or each item of an
+ * Iterable result) is reduced to a map of its fields, which is all that shards need (for
+ * XJoinQParserPlugin and XJoinValueSourceParser).
+ *
+ * Results are encoded (as a request parameter value) in javabin format, deflated and
+ * then base 64 encoded. The members of BatchResults are encoded separately, by key.
+ * Decoding refuses results which inflate to more than 64MB, which may be changed with
+ * the solr.xjoin.shardResults.maxBytes system property.
+ */
+public class ShardResults implements XJoinResults<String> {
+
+  // system property for the maximum inflated size of encoded results, in bytes
+  public static final String MAX_BYTES_PROPERTY = "solr.xjoin.shardResults.maxBytes";
+
+  private static final long MAX_BYTES = Long.getLong(MAX_BYTES_PROPERTY, 64L * 1024 * 1024);
+
+  // join ids, in order
+  private final List<String> joinIds;
+
+  // results by join id
+  private final Map<String, Object> results;
+
+  private ShardResults(List<String> joinIds, Map<String, Object> results) {
+    this.joinIds = joinIds;
+    this.results = results;
+  }
+
+  @Override
+  public Object getResult(String joinIdStr) {
+    return results.get(joinIdStr);
+  }
+
+  @Override
+  public Iterable<String> getJoinIds() {
+    return joinIds;
+  }
+
+  /**
+   * Encode the given results (for BatchResults, the results of each member, by key).
+   */
+  public static String encode(XJoinResults<?> results) throws IOException {
+    Object encoded;
+    if (results instanceof BatchResults) {
+      BatchResults<?> batch = (BatchResults<?>)results;
+      NamedList<Object> members = new NamedList<>();
+      for (String key : batch.getKeys()) {
+        members.add(key, toList(batch.getResults(key)));
+      }
+      encoded = members;
+    } else {
+      encoded = toList(results);
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (OutputStream out = new DeflaterOutputStream(bytes); JavaBinCodec codec = new JavaBinCodec()) {
+      codec.marshal(encoded, out);
+    }
+    return Base64.getEncoder().encodeToString(bytes.toByteArray());
+  }
+
+  // the join ids, and their results reduced to fields, as a list of two lists
+  private static List<Object> toList(XJoinResults<?> results) {
+    List<String> joinIds = new ArrayList<>();
+    List<Object> values = new ArrayList<>();
+    for (Object joinId : results.getJoinIds()) {
+      String joinIdStr = joinId.toString();
+      joinIds.add(joinIdStr);
+      values.add(toFields(results.getResult(joinIdStr)));
+    }
+    List<Object> list = new ArrayList<>(2);
+    list.add(joinIds);
+    list.add(values);
+    return list;
+  }
+
+  /**
+   * Decode results encoded by encode() (batch results being decoded as the batch as a
+   * whole).
+   */
+  public static ShardResults decode(String encoded) throws IOException {
+    XJoinResults<String> results = decodeResults(encoded);
+    if (results instanceof ShardResults) {
+      return (ShardResults)results;
+    }
+    List<String> joinIds = new ArrayList<>();
+    Map<String, Object> values = new HashMap<>();
+    for (String joinId : results.getJoinIds()) {
+      joinIds.add(joinId);
+      values.put(joinId, results.getResult(joinId));
+    }
+    return new ShardResults(joinIds, values);
+  }
+
+  /**
+   * Decode results encoded by encode(), as BatchResults if batch results were encoded.
+   */
+  public static XJoinResults<String> decodeResults(String encoded) throws IOException {
+    return decodeResults(encoded, MAX_BYTES);
+  }
+
+  // decode results, failing if they inflate to more than maxBytes
+  @SuppressWarnings("unchecked")
+  /*package*/ static XJoinResults<String> decodeResults(String encoded, long maxBytes) throws IOException {
+    Object decoded;
+    byte[] deflated = Base64.getDecoder().decode(encoded);
+    try (InputStream in = new LimitedInputStream(new InflaterInputStream(new ByteArrayInputStream(deflated)), maxBytes);
+         JavaBinCodec codec = new JavaBinCodec()) {
+      decoded = codec.unmarshal(in);
+    }
+    if (decoded instanceof NamedList) {
+      NamedList<Object> members = (NamedList<Object>)decoded;
+      Map<String, ShardResults> batch = new LinkedHashMap<>();
+      for (int i = 0; i < members.size(); ++i) {
+        batch.put(members.getName(i), fromList((List<Object>)members.getVal(i)));
+      }
+      return new BatchResults<>(batch);
+    }
+    return fromList((List<Object>)decoded);
+  }
+
+  // results from a list made by toList()
+  @SuppressWarnings("unchecked")
+  private static ShardResults fromList(List<Object> list) {
+    List<String> joinIds = (List<String>)list.get(0);
+    List<Object> values = (List<Object>)list.get(1);
+    Map<String, Object> results = new HashMap<>();
+    for (int i = 0; i < joinIds.size(); ++i) {
+      if (values.get(i) != null) {
+        results.put(joinIds.get(i), values.get(i));
+      }
+    }
+    return new ShardResults(joinIds, results);
+  }
+
+  // reduce a result to a map of its fields (or a list of them, for an Iterable result)
+  @SuppressWarnings("rawtypes")
+  private static Object toFields(Object result) {
+    if (result == null) {
+      return null;
+    }
+    if (result instanceof Iterable) {
+      List<Object> list = new ArrayList<>();
+      for (Object item : (Iterable)result) {
+        list.add(toFields(item));
+      }
+      return list;
+    }
+    Map<String, Object> fields = new LinkedHashMap<>();
+    if (result instanceof Map) {
+      for (Object entry : ((Map)result).entrySet()) {
+        Map.Entry field = (Map.Entry)entry;
+        fields.put(field.getKey().toString(), toValue(field.getValue()));
+      }
+    } else {
+      for (Map.Entry<String, Function<Object, Object>> field : ResultAccessors.forClass(result.getClass()).getFields().entrySet()) {
+        if (! field.getKey().equals("class")) {
+          fields.put(field.getKey(), toValue(field.getValue().apply(result)));
+        }
+      }
+    }
+    return fields;
+  }
+
+  // convert a field value to something javabin can represent
+  @SuppressWarnings("rawtypes")
+  private static Object toValue(Object value) {
+    if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+        || value instanceof Date) {
+      return value;
+    }
+    if (value instanceof Iterable) {
+      List<Object> list = new ArrayList<>();
+      for (Object item : (Iterable)value) {
+        list.add(toValue(item));
+      }
+      return list;
+    }
+    if (value.getClass().isArray()) {
+      List<Object> list = new ArrayList<>();
+      for (int i = 0; i < Array.getLength(value); ++i) {
+        list.add(toValue(Array.get(value, i)));
+      }
+      return list;
+    }
+    if (value instanceof Map) {
+      return toFields(value);
+    }
+    return value.toString();
+  }
+
+  // input stream which fails once more than a given number of bytes have been read
+  private static class LimitedInputStream extends FilterInputStream {
+
+    private long remaining;
+
+    private LimitedInputStream(InputStream in, long maxBytes) {
+      super(in);
+      remaining = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        count(n);
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count(skipped);
+      return skipped;
+    }
+
+    private void count(long n) throws IOException {
+      remaining -= n;
+      if (remaining < 0) {
+        throw new IOException("Shard results exceed " + MAX_BYTES_PROPERTY + " when inflated");
+      }
+    }
+
+  }
+
+}
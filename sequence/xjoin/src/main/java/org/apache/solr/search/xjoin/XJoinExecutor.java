@@ -0,0 +1,68 @@
+package org.apache.solr.search.xjoin;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.common.util.ExecutorUtil;
+import org.apache.solr.util.DefaultSolrThreadFactory;
+
+/**
+ * Bounded executor, shared by all XJoin search components, on which the external calls
+ * of the other XJoin components in a request are run. The number of threads defaults to
+ * 16, and may be changed with the solr.xjoin.threads system property. At most
+ * solr.xjoin.queueSize calls (default 64) wait for a thread; further calls are rejected.
+ * Idle threads are released after a few seconds.
+ */
+public class XJoinExecutor {
+
+  // system properties for the number of threads and the size of the queue
+  public static final String THREADS_PROPERTY = "solr.xjoin.threads";
+  public static final String QUEUE_SIZE_PROPERTY = "solr.xjoin.queueSize";
+
+  private static final int THREADS = Integer.getInteger(THREADS_PROPERTY, 16);
+
+  private static final int QUEUE_SIZE = Integer.getInteger(QUEUE_SIZE_PROPERTY, 64);
+
+  private static final ThreadPoolExecutor EXECUTOR;
+
+  static {
+    EXECUTOR = new ExecutorUtil.MDCAwareThreadPoolExecutor(THREADS, THREADS, 5, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(QUEUE_SIZE), new DefaultSolrThreadFactory("xjoin"));
+    EXECUTOR.allowCoreThreadTimeOut(true);
+  }
+
+  private XJoinExecutor() {
+    // static methods only
+  }
+
+  /**
+   * Submit a task to the shared executor.
+   *
+   * @throws RejectedExecutionException if the executor's queue is full
+   */
+  public static <T> Future<T> submit(Callable<T> task) {
+    return EXECUTOR.submit(task);
+  }
+
+}
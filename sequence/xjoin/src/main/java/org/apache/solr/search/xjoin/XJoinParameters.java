@@ -30,6 +30,13 @@ public class XJoinParameters {
   public static final String EXTERNAL_PREFIX = "external";
   public static final String RESULTS_FIELD_LIST = "results";
   public static final String DOC_FIELD_LIST = CommonParams.FL;
+  public static final String INIT_CACHE_SIZE = "cacheSize";
+  public static final String INIT_CACHE_TIME_TO_LIVE = "cacheTimeToLive";
+  public static final String INIT_TIMEOUT = "timeout";
+  public static final String INIT_FAILURE_POLICY = "failurePolicy";
+  public static final String SHARD_RESULTS = "shardResults";
+  public static final String SHARD_JOIN_IDS = "joinIds";
+  public static final String BATCH_SEPARATOR = ":";
 
   // XJoinValueSourceParser parameters
   public static final String INIT_XJOIN_COMPONENT_NAME = "xJoinSearchComponent";
@@ -20,8 +20,6 @@ package org.apache.solr.search.xjoin;
 import java.util.Iterator;
 
 import org.apache.commons.collections.IteratorUtils;
-import org.apache.commons.collections.Transformer;
-import org.apache.commons.collections.iterators.TransformIterator;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.TermInSetQuery;
 import org.apache.lucene.search.AutomatonQuery;
@@ -32,13 +30,12 @@ import org.apache.lucene.search.Query;
 import org.apache.solr.search.QueryWrapperFilter;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.util.BytesRef;
-import org.apache.lucene.util.BytesRefBuilder;
 import org.apache.lucene.util.automaton.Automata;
 import org.apache.lucene.util.automaton.Automaton;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.request.SolrQueryRequest;
-import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.QParser;
 import org.apache.solr.search.QParserPlugin;
 import org.apache.solr.search.QueryParsing;
@@ -61,75 +58,82 @@ public class XJoinQParserPlugin extends QParserPlugin {
     // nothing to do
   }
  
+  // makes a query matching documents with any of the given terms of a field
+  private interface TermsQuery {
+    Query makeQuery(String fname, Iterator<BytesRef> it);
+  }
+
   // this code is modified from TermsQParserPlugin
   private static enum Method {
     termsFilter {
       @Override
       @SuppressWarnings("unchecked")
-      Query makeQuery(String fname, Iterator<BytesRef> it) {
-        return new TermInSetQuery(fname, IteratorUtils.toList(it));
+      Query makeFilter(SchemaField field, JoinIdSet joinIds) {
+        return termsQueryFilter(field, joinIds, (fname, it) -> new TermInSetQuery(fname, IteratorUtils.toList(it)));
       }
     },
     booleanQuery {
       @Override
-      Query makeQuery(String fname, Iterator<BytesRef> it) {
-        BooleanQuery.Builder bq = new BooleanQuery.Builder();
-//        bq.setDisableCoord(true);
-        while (it.hasNext()) {
-          bq.add(new TermQuery(new Term(fname, it.next())), BooleanClause.Occur.SHOULD);
-        }
-        return bq.build();
+      Query makeFilter(SchemaField field, JoinIdSet joinIds) {
+        return termsQueryFilter(field, joinIds, (fname, it) -> {
+          BooleanQuery.Builder bq = new BooleanQuery.Builder();
+//          bq.setDisableCoord(true);
+          while (it.hasNext()) {
+            bq.add(new TermQuery(new Term(fname, it.next())), BooleanClause.Occur.SHOULD);
+          }
+          return bq.build();
+        });
       }
     },
     automaton {
       @Override
       @SuppressWarnings("unchecked")
-      Query makeQuery(String fname, Iterator<BytesRef> it) {
-        Automaton union = Automata.makeStringUnion(IteratorUtils.toList(it));
-        return new AutomatonQuery(new Term(fname), union);
+      Query makeFilter(SchemaField field, JoinIdSet joinIds) {
+        return termsQueryFilter(field, joinIds, (fname, it) -> {
+          Automaton union = Automata.makeStringUnion(IteratorUtils.toList(it));
+          return new AutomatonQuery(new Term(fname), union);
+        });
       }
     },
     docValuesTermsFilter {
       @Override
-      Query makeQuery(String fname, Iterator<BytesRef> it) {
-        return new DocValuesTermsQuery(fname, (BytesRef[])IteratorUtils.toArray(it, BytesRef.class));
+      Query makeFilter(SchemaField field, JoinIdSet joinIds) {
+        return termsQueryFilter(field, joinIds,
+            (fname, it) -> new DocValuesTermsQuery(fname, (BytesRef[])IteratorUtils.toArray(it, BytesRef.class)));
       }
-    };
-
-    abstract Query makeQuery(String fname, Iterator<BytesRef> it);
-  }
-  
-  // transformer from Object to BytesRef (using the given FieldType)
-  static private Transformer transformer(final FieldType ft) {
-    return new Transformer() {
-      
-      BytesRefBuilder term = new BytesRefBuilder();
-      
+    },
+    postFilter {
       @Override
-      public BytesRef transform(Object joinId) {
-        String joinStr = joinId.toString();
-        // logic same as TermQParserPlugin
-        if (ft != null) {
-          ft.readableToIndexed(joinStr, term);
-        } else {
-          term.copyChars(joinStr);
+      Query makeFilter(SchemaField field, JoinIdSet joinIds) {
+        if (! field.hasDocValues() || field.getType().getNumberType() != null) {
+          throw new Exception("The postFilter method needs a join field with (non-numeric) doc values");
         }
-        return term.toBytesRef();
+        return new JoinIdPostFilter(field.getName(), field.getType(), joinIds);
       }
-      
     };
-  }
 
+    /**
+     * Make a filter matching documents with any of the given join ids in the given field.
+     */
+    abstract Query makeFilter(SchemaField field, JoinIdSet joinIds);
+
+    // a filter from a query for the terms of the join ids
+    private static Query termsQueryFilter(SchemaField field, JoinIdSet joinIds, TermsQuery termsQuery) {
+      Query query = termsQuery.makeQuery(field.getName(), joinIds.terms(field.getType()));
+      return new SolrConstantScoreQuery(new QueryWrapperFilter(query));
+    }
+  }
+  
   /**
-   * Like fq={!xjoin}xjoin_component_name OR xjoin_component_name2
+   * Like fq={!xjoin}xjoin_component_name OR xjoin_component_name2 (or, for batch results,
+   * xjoin_component_name:key)
    */
   @Override
-  @SuppressWarnings("rawtypes")
   public QParser createParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req) {
     return new XJoinQParser(qstr, localParams, params, req);
   }
   
-  static class XJoinQParser<T extends Comparable<T>> extends QParser implements JoinSpec.Iterable {
+  static class XJoinQParser extends QParser implements JoinIdSet.Source {
     
     // record the join field when retrieving external results
     // must be the same for all external sources referenced in our query
@@ -141,37 +145,34 @@ public class XJoinQParserPlugin extends QParserPlugin {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Query parse() throws SyntaxError {
       Method method = Method.valueOf(localParams.get(METHOD, Method.termsFilter.name()));
-      JoinSpec<T> js = JoinSpec.parse(localParams.get(QueryParsing.V));
-      Iterator<T> it = js.iterator(this);
+      JoinSpec<?> js = JoinSpec.parse(localParams.get(QueryParsing.V));
+      JoinIdSet joinIds = js.joinIdSet(this);
       if (joinField == null) {
         throw new Exception("No XJoin component referenced by query");
       }
-      FieldType ft = req.getSchema().getFieldTypeNoEx(joinField);
-      Iterator<BytesRef> bytesRefs = new TransformIterator(it, transformer(ft));
-      if (! bytesRefs.hasNext()) {
+      if (joinIds.size() == 0) {
         return new BooleanQuery.Builder().build(); // matches nothing
       }
-      Query query = method.makeQuery(joinField, bytesRefs);
-      return new SolrConstantScoreQuery(new QueryWrapperFilter(query));
+      return method.makeFilter(req.getSchema().getField(joinField), joinIds);
     }
     
+    // the reference is a component name, or component:key for one member of batch results
     @Override
-    @SuppressWarnings("unchecked")
-    public Iterator<T> iterator(String componentName) {
+    public JoinIdSet joinIdSet(String reference) {
+      String componentName = XJoinSearchComponent.getComponentName(reference);
       XJoinSearchComponent xJoin = (XJoinSearchComponent)req.getCore().getSearchComponent(componentName);
       if (joinField == null) {
         joinField = xJoin.getJoinField();
       } else if (! xJoin.getJoinField().equals(joinField)) {
         throw new Exception("XJoin components used in the same query must have same join field");
       }
-      XJoinResults<T> results = (XJoinResults<T>)req.getContext().get(xJoin.getResultsTag());
+      XJoinResults<?> results = xJoin.getResults(req, XJoinSearchComponent.getBatchKey(reference));
       if (results == null) {
         throw new Exception("No xjoin results in request context");
       }
-      return results.getJoinIds().iterator();
+      return xJoin.getJoinIdSet(results, req.getSchema().getFieldTypeNoEx(joinField));
     }
     
   }
@@ -0,0 +1,199 @@
+package org.apache.solr.search.xjoin;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.common.params.SolrParams;
+
+/**
+ * Size and time-to-live bounded cache of XJoinResults, shared across requests.
+ *
+ * Entries are keyed on the results factory name and the canonicalised (sorted) external
+ * parameters. When several requests ask for the same key at once, only the first calls
+ * the results factory; the others wait for (and share) its results.
+ */
+public class XJoinResultsCache {
+
+  // maximum number of entries (including in-flight calls)
+  private final int maxSize;
+
+  // entry time to live, in milliseconds (0 for no expiry)
+  private final long timeToLive;
+
+  // LRU ordered entries, guarded by this
+  private final Map<List<Object>, Entry> entries;
+
+  // statistics
+  private final AtomicLong lookups = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong expirations = new AtomicLong();
+
+  // a cached (or in-flight) call to the results factory
+  private static class Entry {
+
+    private final FutureTask<XJoinResults<?>> task;
+
+    private volatile long expires = Long.MAX_VALUE;
+
+    private Entry(FutureTask<XJoinResults<?>> task) {
+      this.task = task;
+    }
+
+    private boolean isExpired(long now) {
+      return task.isDone() && now >= expires;
+    }
+
+  }
+
+  /**
+   * Create a cache holding up to maxSize results for timeToLive milliseconds each
+   * (or forever, if timeToLive is not positive).
+   */
+  public XJoinResultsCache(int maxSize, long timeToLive) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+    }
+    this.maxSize = maxSize;
+    this.timeToLive = timeToLive;
+    entries = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Get results for the given factory and external parameters, calling the factory
+   * only if there are no cached results (or call in progress) for them.
+   */
+  public XJoinResults<?> get(String factoryName, XJoinResultsFactory<?> factory, SolrParams params) throws IOException {
+    List<Object> key = key(factoryName, params);
+    lookups.incrementAndGet();
+
+    Entry entry;
+    boolean owner = false;
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+        entries.remove(key);
+        expirations.incrementAndGet();
+        entry = null;
+      }
+      if (entry == null) {
+        entry = new Entry(new FutureTask<>(() -> factory.getResults(params)));
+        entries.put(key, entry);
+        owner = true;
+        evict();
+      } else {
+        hits.incrementAndGet();
+      }
+    }
+
+    if (owner) {
+      entry.task.run();
+      entry.expires = timeToLive > 0 ? System.currentTimeMillis() + timeToLive : Long.MAX_VALUE;
+    }
+
+    try {
+      return entry.task.get();
+    } catch (ExecutionException e) {
+      // don't cache failures
+      synchronized (this) {
+        entries.remove(key, entry);
+      }
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      throw new RuntimeException(cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for external results", e);
+    }
+  }
+
+  // remove expired entries, then least recently used entries while over size
+  private void evict() {
+    long now = System.currentTimeMillis();
+    for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+      if (it.next().isExpired(now)) {
+        it.remove();
+        expirations.incrementAndGet();
+      }
+    }
+    for (Iterator<Entry> it = entries.values().iterator(); entries.size() > maxSize && it.hasNext(); ) {
+      it.next();
+      it.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  /**
+   * Remove all entries from the cache.
+   */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Get the number of entries in the cache.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Add cache statistics to the given map.
+   */
+  public void addStatistics(Map<String, Object> map) {
+    long lookups = this.lookups.get();
+    long hits = this.hits.get();
+    map.put("lookups", lookups);
+    map.put("hits", hits);
+    map.put("misses", lookups - hits);
+    map.put("hitratio", lookups == 0 ? 0.0 : (double)hits / lookups);
+    map.put("evictions", evictions.get());
+    map.put("expirations", expirations.get());
+    map.put("size", size());
+    map.put("maxSize", maxSize);
+    map.put("timeToLive", timeToLive);
+  }
+
+  // canonical key: factory name followed by the sorted external parameters
+  /*package*/ static List<Object> key(String factoryName, SolrParams params) {
+    Map<String, List<String>> sorted = new TreeMap<>();
+    for (Iterator<String> it = params.getParameterNamesIterator(); it.hasNext(); ) {
+      String name = it.next();
+      String[] values = params.getParams(name);
+      sorted.put(name, values != null ? Arrays.asList(values) : new ArrayList<>());
+    }
+    return Arrays.asList(factoryName, sorted);
+  }
+
+}
@@ -17,32 +17,57 @@ package org.apache.solr.search.xjoin;
  * limitations under the License.
  */
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.IndexableField;
-import org.apache.solr.client.solrj.SolrResponse;
-import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrDocumentList;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.CharsRefBuilder;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.ShardParams;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.CloseHook;
+import org.apache.solr.core.SolrCore;
 import org.apache.solr.handler.component.ResponseBuilder;
 import org.apache.solr.handler.component.SearchComponent;
 import org.apache.solr.handler.component.ShardRequest;
 import org.apache.solr.handler.component.ShardResponse;
+import org.apache.solr.metrics.MetricsMap;
+import org.apache.solr.metrics.SolrMetricManager;
+import org.apache.solr.metrics.SolrMetricProducer;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.DocIterator;
 import org.apache.solr.search.DocList;
 import org.apache.solr.search.Grouping;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.plugin.SolrCoreAware;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,8 +84,30 @@ import org.slf4j.LoggerFactory;
  * Note that results can be sorted or boosted by a property of external results by using
  * the associated XjoinValueSourceParser (creating a custom function which may be referenced
  * in, for example, a sort spec or a boost query).
+ *
+ * If a cacheSize is configured, external results are cached across requests (for up to
+ * cacheTimeToLive milliseconds, if given) and cache statistics are reported as metrics.
+ *
+ * When a request uses several XJoin components, whichever component is prepared first
+ * makes its own external call on the request thread, having started those of the others
+ * on a shared, bounded executor, so the request waits for the slowest call rather than
+ * for the sum of all calls. A call that has not started on the executor (or was rejected
+ * by it) by the time its component is prepared is made on the request thread instead.
+ * Each component may be given a timeout (in milliseconds), bounding the wait for a call
+ * running on the executor, and a failurePolicy, which is either "fail" (the default: the
+ * request fails) or "ignore" (the component is treated as having no results, and the
+ * response is marked as having partial results).
+ *
+ * In a distributed request, only the aggregator calls the external process. Its results
+ * are sent to the shards (encoded by ShardResults, as the shardResults parameter), and
+ * shards return just the join ids of their result documents, which the aggregator
+ * matches up with its own results in finishStage().
+ *
+ * A factory may return BatchResults, for several requests (e.g. query sequences) made
+ * together. The results for each key of the batch are then reported separately, and may
+ * be referred to (in XJoin queries and functions) as component:key.
  */
-public class XJoinSearchComponent extends SearchComponent {
+public class XJoinSearchComponent extends SearchComponent implements SolrMetricProducer, SolrCoreAware {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(XJoinSearchComponent.class);
 
@@ -70,6 +117,41 @@ public class XJoinSearchComponent extends SearchComponent {
   // document field on which to join with external results
   private String joinField;
 
+  // cross-request cache of external results (null if not configured)
+  private XJoinResultsCache cache;
+
+  // join ids of the most recently used (cached) results
+  private volatile JoinIds lastJoinIds;
+
+  // maximum time to wait for external results, in milliseconds (0 to wait indefinitely)
+  private long timeout;
+
+  // what to do if external results cannot be obtained
+  private FailurePolicy failurePolicy;
+
+  /**
+   * What to do when the external call fails or times out.
+   */
+  public static enum FailurePolicy {
+    fail,
+    ignore
+  }
+
+  // results used in place of those from a failed external call
+  private static final XJoinResults<Object> NO_RESULTS = new XJoinResults<Object>() {
+
+    @Override
+    public Object getResult(String joinId) {
+      return null;
+    }
+
+    @Override
+    public Iterable<Object> getJoinIds() {
+      return Collections.emptyList();
+    }
+
+  };
+
   /**
    * Initialise the component by instantiating our factory class, and initialising
    * the join field.
@@ -88,6 +170,63 @@ public class XJoinSearchComponent extends SearchComponent {
     }
 
     joinField = (String)args.get(XJoinParameters.INIT_JOIN_FIELD);
+
+    Number cacheSize = (Number)args.get(XJoinParameters.INIT_CACHE_SIZE);
+    if (cacheSize != null && cacheSize.intValue() > 0) {
+      Number timeToLive = (Number)args.get(XJoinParameters.INIT_CACHE_TIME_TO_LIVE);
+      cache = new XJoinResultsCache(cacheSize.intValue(), timeToLive != null ? timeToLive.longValue() : 0);
+    }
+
+    Number timeout = (Number)args.get(XJoinParameters.INIT_TIMEOUT);
+    this.timeout = timeout != null ? timeout.longValue() : 0;
+
+    String failurePolicy = (String)args.get(XJoinParameters.INIT_FAILURE_POLICY);
+    this.failurePolicy = failurePolicy != null ? FailurePolicy.valueOf(failurePolicy) : FailurePolicy.fail;
+  }
+
+  /**
+   * Close our factory (if it holds resources, e.g. threads) when the core is closed.
+   */
+  @Override
+  public void inform(SolrCore core) {
+    if (! (factory instanceof Closeable)) {
+      return;
+    }
+    core.addCloseHook(new CloseHook() {
+
+      @Override
+      public void preClose(SolrCore core) {
+        try {
+          ((Closeable)factory).close();
+        } catch (IOException e) {
+          LOGGER.warn("Error closing XJoin results factory for " + getName(), e);
+        }
+      }
+
+      @Override
+      public void postClose(SolrCore core) {
+        // nothing to do
+      }
+
+    });
+  }
+
+  /**
+   * Register cache statistics (if we have a cache).
+   */
+  @Override
+  public void initializeMetrics(SolrMetricManager manager, String registryName, String scope) {
+    if (cache == null) {
+      return;
+    }
+    registry = manager.registry(registryName);
+    MetricsMap metrics = new MetricsMap((detailed, map) -> cache.addStatistics(map));
+    manager.registerGauge(this, registryName, metrics, true, "cache", getCategory().toString(), scope);
+  }
+
+  // get the external results cache (or null)
+  /*package*/ XJoinResultsCache getResultsCache() {
+    return cache;
   }
 
   // get the results factory
@@ -100,6 +239,80 @@ public class XJoinSearchComponent extends SearchComponent {
     return XJoinResults.class.getName() + "::" + getName();
   }
 
+  // join id set built for the given results and join field type
+  private static class JoinIds {
+
+    private final XJoinResults<?> results;
+
+    private final FieldType ft;
+
+    private final JoinIdSet joinIdSet;
+
+    private JoinIds(XJoinResults<?> results, FieldType ft, JoinIdSet joinIdSet) {
+      this.results = results;
+      this.ft = ft;
+      this.joinIdSet = joinIdSet;
+    }
+
+  }
+
+  // get the join id set for the given results, reusing the last one built if the
+  // results are the same (which happens when they come from our cache)
+  /*package*/ JoinIdSet getJoinIdSet(XJoinResults<?> results, FieldType ft) {
+    JoinIds joinIds = lastJoinIds;
+    if (joinIds != null && joinIds.results == results && joinIds.ft == ft) {
+      return joinIds.joinIdSet;
+    }
+    JoinIdSet joinIdSet = JoinIdSet.of(ft, results.getJoinIds());
+    if (cache != null) {
+      lastJoinIds = new JoinIds(results, ft, joinIdSet);
+    }
+    return joinIdSet;
+  }
+
+  /**
+   * Get our results from the request context (or null if there are none) or, given a
+   * key, the results for that key of our batch results.
+   */
+  /*package*/ XJoinResults<?> getResults(SolrQueryRequest req, String key) {
+    XJoinResults<?> results = (XJoinResults<?>)req.getContext().get(getResultsTag());
+    if (results == null || key == null || results == NO_RESULTS) {
+      return results;
+    }
+    XJoinResults<?> member = results instanceof BatchResults ? ((BatchResults<?>)results).getResults(key) : null;
+    if (member == null) {
+      throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "No batch results for " + getName() + " with key " + key);
+    }
+    return member;
+  }
+
+  // get the component name from a reference to XJoin results (component or component:key)
+  /*package*/ static String getComponentName(String reference) {
+    int i = reference.indexOf(XJoinParameters.BATCH_SEPARATOR);
+    return i < 0 ? reference : reference.substring(0, i);
+  }
+
+  // get the batch key from a reference to XJoin results (or null if there is none)
+  /*package*/ static String getBatchKey(String reference) {
+    int i = reference.indexOf(XJoinParameters.BATCH_SEPARATOR);
+    return i < 0 ? null : reference.substring(i + XJoinParameters.BATCH_SEPARATOR.length());
+  }
+
+  // get the context tag for a pending external call
+  private String getCallTag() {
+    return ExternalCall.class.getName() + "::" + getResultsTag();
+  }
+
+  // get the context tag for XJoin results encoded for shard requests
+  private String getShardResultsTag() {
+    return ShardResults.class.getName() + "::" + getName();
+  }
+
+  // get the name of the parameter used to send results to shards
+  private String getShardResultsParam() {
+    return getName() + "." + XJoinParameters.SHARD_RESULTS;
+  }
+
   /**
    * Generate external process results (if they have not already been generated).
    */
@@ -116,6 +329,73 @@ public class XJoinSearchComponent extends SearchComponent {
       return;
     }
 
+    // start the external calls of the other XJoin components in this request, so they
+    // run concurrently with our own, which is made on this thread
+    if (rb.components != null) {
+      for (SearchComponent component : rb.components) {
+        if (component instanceof XJoinSearchComponent && component != this) {
+          ((XJoinSearchComponent)component).submit(rb, true);
+        }
+      }
+    }
+    submit(rb, false);
+    if (! rb.req.getContext().containsKey(getResultsTag())) {
+      try {
+        rb.req.getContext().put(getResultsTag(), await(rb));
+      } catch (IOException | RuntimeException | Error e) {
+        // the request fails, so the other components' results won't be wanted
+        if (rb.components != null) {
+          for (SearchComponent component : rb.components) {
+            if (component instanceof XJoinSearchComponent) {
+              ((XJoinSearchComponent)component).cancel(rb);
+            }
+          }
+        }
+        throw e;
+      }
+    }
+  }
+
+  // cancel our pending external call, if any (without interrupting a call in progress,
+  // which may be shared, through our cache, with other requests)
+  private void cancel(ResponseBuilder rb) {
+    ExternalCall call = (ExternalCall)rb.req.getContext().remove(getCallTag());
+    if (call != null) {
+      call.claim();
+      if (call.future != null) {
+        call.future.cancel(false);
+      }
+    }
+  }
+
+  // prepare an external call, if this component is enabled and there isn't one already
+  // (or, on a shard, decode the results sent to us), starting it on the shared executor
+  // if async is true
+  private void submit(ResponseBuilder rb, boolean async) throws IOException {
+    SolrParams params = rb.req.getParams();
+    Map<Object, Object> context = rb.req.getContext();
+    if (! params.getBool(getName(), false) || context.containsKey(getResultsTag()) || context.containsKey(getCallTag())) {
+      return;
+    }
+
+    // on a shard, use the results sent by the aggregator (or none, when just fetching
+    // documents by id, which doesn't apply the query or filters)
+    if (params.getBool(ShardParams.IS_SHARD, false)) {
+      String shardResults = params.get(getShardResultsParam());
+      if (shardResults != null) {
+        try {
+          context.put(getResultsTag(), ShardResults.decodeResults(shardResults));
+        } catch (IOException | RuntimeException e) {
+          throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "Invalid " + getShardResultsParam(), e);
+        }
+        return;
+      }
+      if (params.get(ShardParams.IDS) != null) {
+        context.put(getResultsTag(), NO_RESULTS);
+        return;
+      }
+    }
+
     // generate external process results, by passing 'external' prefixed parameters
     // from the query string to our factory
     String prefix = getName() + "." + XJoinParameters.EXTERNAL_PREFIX + ".";
@@ -126,8 +406,98 @@ public class XJoinSearchComponent extends SearchComponent {
         externalParams.set(name.substring(prefix.length()), params.get(name));
       }
     }
-    results = factory.getResults(externalParams);
-    rb.req.getContext().put(getResultsTag(), results);
+    ExternalCall call = new ExternalCall(externalParams);
+    if (async) {
+      try {
+        call.future = XJoinExecutor.submit(call);
+      } catch (RejectedExecutionException e) {
+        LOGGER.warn("XJoin executor is busy, so the external call for " + getName() + " will be made on the request thread");
+      }
+    }
+    context.put(getCallTag(), call);
+  }
+
+  // get external process results (the call must have been submitted), making the call
+  // on this thread unless it has started on the shared executor
+  private XJoinResults<?> await(ResponseBuilder rb) throws IOException {
+    ExternalCall call = (ExternalCall)rb.req.getContext().remove(getCallTag());
+    if (call.claim()) {
+      if (call.future != null) {
+        call.future.cancel(false);
+      }
+      try {
+        return call.getResults();
+      } catch (IOException | RuntimeException e) {
+        return failed(rb, e);
+      }
+    }
+
+    Future<XJoinResults<?>> future = call.future;
+    try {
+      return timeout > 0 ? future.get(timeout, TimeUnit.MILLISECONDS) : future.get();
+    } catch (TimeoutException e) {
+      future.cancel(false);
+      return failed(rb, new SolrException(SolrException.ErrorCode.SERVER_ERROR,
+          "Timed out after " + timeout + "ms waiting for external results for " + getName(), e));
+    } catch (ExecutionException e) {
+      return failed(rb, e.getCause());
+    } catch (InterruptedException e) {
+      future.cancel(false);
+      Thread.currentThread().interrupt();
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+    }
+  }
+
+  // an external call, made either on the shared executor or on the request thread,
+  // whichever starts it first
+  private class ExternalCall implements Callable<XJoinResults<?>> {
+
+    private final SolrParams params;
+
+    // whether the call has been started (or cancelled)
+    private final AtomicBoolean claimed = new AtomicBoolean();
+
+    // the call on the shared executor (or null, if it wasn't submitted or was rejected)
+    private Future<XJoinResults<?>> future;
+
+    private ExternalCall(SolrParams params) {
+      this.params = params;
+    }
+
+    // claim the call for the current thread, returning false if it has already started
+    private boolean claim() {
+      return claimed.compareAndSet(false, true);
+    }
+
+    private XJoinResults<?> getResults() throws IOException {
+      return cache != null ? cache.get(getName(), factory, params) : factory.getResults(params);
+    }
+
+    // run on the shared executor (returning null if the call was claimed by the request)
+    @Override
+    public XJoinResults<?> call() throws IOException {
+      return claim() ? getResults() : null;
+    }
+
+  }
+
+  // apply our failure policy when external process results could not be generated
+  private XJoinResults<?> failed(ResponseBuilder rb, Throwable cause) throws IOException {
+    if (failurePolicy == FailurePolicy.ignore) {
+      LOGGER.warn("Ignoring failure of external results for " + getName(), cause);
+      NamedList<Object> header = rb.rsp.getResponseHeader();
+      if (header != null && header.get(SolrQueryResponse.RESPONSE_HEADER_PARTIAL_RESULTS_KEY) == null) {
+        header.add(SolrQueryResponse.RESPONSE_HEADER_PARTIAL_RESULTS_KEY, Boolean.TRUE);
+      }
+      return NO_RESULTS;
+    }
+    if (cause instanceof IOException) {
+      throw (IOException)cause;
+    }
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException)cause;
+    }
+    throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, cause);
   }
 
   /**
@@ -147,27 +517,87 @@ public class XJoinSearchComponent extends SearchComponent {
       return;
     }
 
+    // a shard only returns the join ids of the documents it is asked for, since the
+    // aggregator has the external results
+    if (params.getBool(ShardParams.IS_SHARD, false)) {
+      if ((params.getInt(ShardParams.SHARDS_PURPOSE, ShardRequest.PURPOSE_GET_FIELDS) & ShardRequest.PURPOSE_GET_FIELDS) != 0) {
+        NamedList<Object> shardList = new SimpleOrderedMap<>();
+        shardList.add(XJoinParameters.SHARD_JOIN_IDS, new ArrayList<>(getJoinIds(rb)));
+        rb.rsp.add(getName(), shardList);
+      }
+      return;
+    }
+
     // general results
     FieldAppender appender = new FieldAppender((String)params.get(getName() + "." + XJoinParameters.RESULTS_FIELD_LIST, "*"));
-    NamedList general = appender.addNamedList(rb.rsp.getValues(), getName(), results);
+    NamedList general = addGeneralResults(rb.rsp.getValues(), results, appender);
 
     // per join id results
     FieldAppender docAppender = new FieldAppender((String)params.get(getName() + "." + XJoinParameters.DOC_FIELD_LIST, "*"));
-    Set<String> joinFields = new HashSet<>();
-    joinFields.add(joinField);
+    List externalList = getExternalResults(getJoinIds(rb), results, docAppender);
+    general.add("external", externalList);
+  }
 
-    List<String> joinIds = new ArrayList<>();
-    for (Iterator<Integer> it = docIterator(rb); it.hasNext(); ) {
-      Document doc = rb.req.getSearcher().doc(it.next(), joinFields);
-      for (String joinId : doc.getValues(joinField)) {
-        if (! joinIds.contains(joinId)) {
+  // get the (distinct) join ids of the result documents, in result order
+  private Set<String> getJoinIds(ResponseBuilder rb) throws IOException {
+    SolrIndexSearcher searcher = rb.req.getSearcher();
+    SchemaField field = searcher.getSchema().getField(joinField);
+    Set<String> joinIds = new LinkedHashSet<>();
+
+    // read values from doc values if the field has them (and they hold terms)
+    if (field.hasDocValues() && field.getType().getNumberType() == null) {
+      for (String[] values : docValues(searcher, field, docIterator(rb))) {
+        for (String joinId : values) {
           joinIds.add(joinId);
         }
       }
+      return joinIds;
     }
 
-    List externalList = getExternalResults(joinIds, results, docAppender);
-    general.add("external", externalList);
+    // otherwise read stored values
+    Set<String> joinFields = Collections.singleton(joinField);
+    for (Iterator<Integer> it = docIterator(rb); it.hasNext(); ) {
+      Document doc = searcher.doc(it.next(), joinFields);
+      for (IndexableField value : doc.getFields(joinField)) {
+        joinIds.add(field.getType().toExternal(value));
+      }
+    }
+    return joinIds;
+  }
+
+  // read the doc values of the given field for each of the given documents, visiting
+  // them in index order (as doc values must be read) but returning them in the given order
+  private static String[][] docValues(SolrIndexSearcher searcher, SchemaField field, Iterator<Integer> docs) throws IOException {
+    // sort (doc id, position) pairs by doc id
+    long[] order = new long[16];
+    int n = 0;
+    while (docs.hasNext()) {
+      order = ArrayUtil.grow(order, n + 1);
+      order[n] = ((long)docs.next() << 32) | n;
+      ++n;
+    }
+    Arrays.sort(order, 0, n);
+
+    String[][] values = new String[n][];
+    List<LeafReaderContext> leaves = searcher.getTopReaderContext().leaves();
+    CharsRefBuilder chars = new CharsRefBuilder();
+    LeafReaderContext leaf = null;
+    SortedSetDocValues docValues = null;
+    for (int i = 0; i < n; ++i) {
+      int doc = (int)(order[i] >>> 32);
+      if (leaf == null || doc >= leaf.docBase + leaf.reader().maxDoc()) {
+        leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+        docValues = DocValues.getSortedSet(leaf.reader(), field.getName());
+      }
+      List<String> docJoinIds = new ArrayList<>(1);
+      if (docValues.advanceExact(doc - leaf.docBase)) {
+        for (long ord = docValues.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = docValues.nextOrd()) {
+          docJoinIds.add(field.getType().indexedToReadable(docValues.lookupOrd(ord), chars).toString());
+        }
+      }
+      values[(int)order[i]] = docJoinIds.toArray(new String[docJoinIds.size()]);
+    }
+    return values;
   }
 
   @SuppressWarnings({ "rawtypes", "unchecked" })
@@ -198,7 +628,36 @@ public class XJoinSearchComponent extends SearchComponent {
 
   }
 
+  /**
+   * Send our (encoded) external process results with each shard request that runs the
+   * query, so that shards don't call the external process themselves. Requests fetching
+   * documents by id don't need them.
+   */
+  @Override
+  public void modifyRequest(ResponseBuilder rb, SearchComponent who, ShardRequest sreq) {
+    SolrParams params = rb.req.getParams();
+    if (! params.getBool(getName(), false) || sreq.params == null || sreq.params.get(ShardParams.IDS) != null) {
+      return;
+    }
+
+    XJoinResults<?> results = (XJoinResults<?>)rb.req.getContext().get(getResultsTag());
+    if (results == null) {
+      return;
+    }
+    String shardResults = (String)rb.req.getContext().get(getShardResultsTag());
+    if (shardResults == null) {
+      try {
+        shardResults = ShardResults.encode(results);
+      } catch (IOException e) {
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+      }
+      rb.req.getContext().put(getShardResultsTag(), shardResults);
+    }
+    sreq.params.set(getShardResultsParam(), shardResults);
+  }
+
   @Override
+  @SuppressWarnings({ "rawtypes", "unchecked" })
   public void finishStage(ResponseBuilder rb) {
     SolrParams params = rb.req.getParams();
     if (! params.getBool(getName(), false)) {
@@ -206,90 +665,60 @@ public class XJoinSearchComponent extends SearchComponent {
     }
 
     if (rb.stage == ResponseBuilder.STAGE_GET_FIELDS) {
-      try {
-        XJoinResults<?> results = (XJoinResults<?>) rb.req.getContext().get(getResultsTag());
-        if (results == null) {
-          LOGGER.warn("Sreq results are null");
-          return;
-        }
+      XJoinResults<?> results = (XJoinResults<?>) rb.req.getContext().get(getResultsTag());
+      if (results == null) {
+        LOGGER.warn("Sreq results are null");
+        return;
+      }
 
-        Set<String> joinIds = new HashSet<>();
-        Set<String> joinFields = new HashSet<>();
-        joinFields.add(joinField);
-
-        // Loop through the shard requests and gather the join IDs
-        for (ShardRequest sreq : rb.finished) {
-          for (ShardResponse sresp : sreq.responses) {
-            String shardAddress = sresp.getShardAddress();
-            LOGGER.info("Dealing with response from shard {}", shardAddress);
-            SolrResponse solrResponse = sresp.getSolrResponse();
-
-            NamedList<Object> response = solrResponse.getResponse();
-            if (response == null) {
-              LOGGER.warn("Solr response is null for shard {}", shardAddress);
-              continue;
-            }
-            Iterator<SolrDocument> it = distDocIterator(rb, solrResponse.getResponse(), joinFields);
-            while (it.hasNext()) {
-              SolrDocument doc = it.next();
-              Collection<Object> fieldValues = doc.getFieldValues(joinField);
-              if (fieldValues == null) {
-                LOGGER.debug("Field values are null for joinField {} in document {}", joinField, doc);
-                continue;
-              }
-              for (Object joinId : fieldValues) {
-                LOGGER.debug("JoinId found {} for {}", joinId.toString(), joinField);
-                joinIds.add(joinId.toString());
-              }
-            }
-            LOGGER.info("finishStage(): Found {} joinIds", joinIds.size());
+      // gather the join ids returned by the shards
+      Set<String> joinIds = new LinkedHashSet<>();
+      for (ShardRequest sreq : rb.finished) {
+        for (ShardResponse sresp : sreq.responses) {
+          NamedList<Object> response = sresp.getSolrResponse().getResponse();
+          if (response == null) {
+            LOGGER.warn("Solr response is null for shard {}", sresp.getShardAddress());
+            continue;
+          }
+          NamedList shardList = (NamedList)response.get(getName());
+          Collection<String> shardJoinIds = shardList != null ? (Collection<String>)shardList.get(XJoinParameters.SHARD_JOIN_IDS) : null;
+          if (shardJoinIds != null) {
+            joinIds.addAll(shardJoinIds);
           }
         }
+      }
+      LOGGER.debug("finishStage(): Found {} joinIds", joinIds.size());
 
-        // Avoid adding the xjoin element more than once
-        if (!joinIds.isEmpty() && rb.rsp.getValues().indexOf(getName(), 0) == -1) {
-          // general results
-          FieldAppender appender = new FieldAppender(params.get(getName() + "." + XJoinParameters.RESULTS_FIELD_LIST, "*"));
-          NamedList general = appender.addNamedList(rb.rsp.getValues(), getName(), results);
+      // Avoid adding the xjoin element more than once
+      if (!joinIds.isEmpty() && rb.rsp.getValues().indexOf(getName(), 0) == -1) {
+        // general results
+        FieldAppender appender = new FieldAppender(params.get(getName() + "." + XJoinParameters.RESULTS_FIELD_LIST, "*"));
+        NamedList general = addGeneralResults(rb.rsp.getValues(), results, appender);
 
-          // per join id results
-          FieldAppender docAppender = new FieldAppender(params.get(getName() + "." + XJoinParameters.DOC_FIELD_LIST, "*"));
-          general.add("external", getExternalResults(joinIds, results, docAppender));
-        }
-      } catch (IOException e) {
-        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+        // per join id results
+        FieldAppender docAppender = new FieldAppender(params.get(getName() + "." + XJoinParameters.DOC_FIELD_LIST, "*"));
+        general.add("external", getExternalResults(joinIds, results, docAppender));
       }
     }
   }
 
-  private Iterator<SolrDocument> distDocIterator(ResponseBuilder rb, NamedList<?> response, Set<String> fields) throws IOException {
-    if (rb.grouping()) {
-      List<SolrDocument> docList = new ArrayList<>();
-      NamedList grouped = (NamedList) response.get("grouped");
-      for (String field : rb.getGroupingSpec().getFields()) {
-        NamedList fieldResults = (NamedList)grouped.get(field);
-        if (rb.getGroupingSpec().getResponseFormat() == Grouping.Format.grouped) {
-          List<NamedList> groups = (List<NamedList>)fieldResults.get("groups");
-          for (NamedList group : groups) {
-            for (DocIterator it = ((DocList)group.get("doclist")).iterator(); it.hasNext(); ) {
-              Document dc = rb.req.getSearcher().doc(it.nextDoc(), fields);
-              docList.add(new SolrDocument(dc.getFields().stream().collect(Collectors.toMap(IndexableField::name, IndexableField::stringValue))));
-            }
-          }
-        } else {
-          for (DocIterator it = ((DocList)fieldResults.get("doclist")).iterator(); it.hasNext(); ) {
-            Document dc = rb.req.getSearcher().doc(it.nextDoc(), fields);
-            docList.add(new SolrDocument(dc.getFields().stream().collect(Collectors.toMap(IndexableField::name, IndexableField::stringValue))));
-          }
-        }
-      }
-      return docList.iterator();
+  // add our general results to the response (for batch results, those of each member,
+  // by key), returning the NamedList added
+  @SuppressWarnings("rawtypes")
+  private NamedList addGeneralResults(NamedList target, XJoinResults<?> results, FieldAppender appender) {
+    if (! (results instanceof BatchResults)) {
+      return appender.addNamedList(target, getName(), results);
     }
-    else {
-      return ((SolrDocumentList)response.get("response")).iterator();
+    BatchResults<?> batch = (BatchResults<?>)results;
+    NamedList<Object> general = new SimpleOrderedMap<>();
+    target.add(getName(), general);
+    for (String key : batch.getKeys()) {
+      appender.addNamedList(general, key, batch.getResults(key));
     }
+    return general;
   }
 
+  @SuppressWarnings({ "rawtypes", "unchecked" })
   private List getExternalResults(Collection<String> joinIds, XJoinResults<?> results, FieldAppender docAppender) {
     List externalList = new ArrayList();
 
@@ -300,19 +729,38 @@ public class XJoinSearchComponent extends SearchComponent {
       SimpleOrderedMap external = new SimpleOrderedMap<>();
       externalList.add(external);
       external.add("joinId", joinId);
-      if (object instanceof Iterable) {
-        for (Object item : (Iterable) object) {
-          docAppender.addNamedList(external, "doc", item);
+      if (results instanceof BatchResults) {
+        // the docs of each member of the batch, by key
+        BatchResults<?> batch = (BatchResults<?>)results;
+        for (String key : batch.getKeys()) {
+          Object member = batch.getResults(key).getResult(joinId);
+          if (member != null) {
+            SimpleOrderedMap memberExternal = new SimpleOrderedMap<>();
+            external.add(key, memberExternal);
+            addDocs(memberExternal, member, docAppender);
+          }
         }
-      }
-      else {
-        docAppender.addNamedList(external, "doc", object);
+      } else {
+        addDocs(external, object, docAppender);
       }
     }
 
     return externalList;
   }
 
+  // add a result (or each item of an Iterable result) as a doc
+  @SuppressWarnings("rawtypes")
+  private static void addDocs(NamedList target, Object result, FieldAppender docAppender) {
+    if (result instanceof Iterable) {
+      for (Object item : (Iterable) result) {
+        docAppender.addNamedList(target, "doc", item);
+      }
+    }
+    else {
+      docAppender.addNamedList(target, "doc", result);
+    }
+  }
+
   /*package*/ String getJoinField() {
     return joinField;
   }
@@ -18,17 +18,21 @@ package org.apache.solr.search.xjoin;
  */
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.Map;
+import java.util.function.Function;
 
 import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.queries.function.FunctionValues;
 import org.apache.lucene.queries.function.ValueSource;
 import org.apache.lucene.queries.function.docvalues.DoubleDocValues;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.search.FunctionQParser;
 import org.apache.solr.search.SyntaxError;
@@ -81,15 +85,24 @@ public class XJoinValueSourceParser extends ValueSourceParser {
   /**
    * Provide a ValueSource for external process results, which are obtained from the
    * request context (having been placed there by XJoinSearchComponent).
+   *
+   * For batch results, the component argument may be given as component:key, or (when
+   * the component is configured) the key may be given as a final argument, to use the
+   * results for that key.
    */
   @Override
   public ValueSource parse(FunctionQParser fqp) throws SyntaxError {
-    String componentName = this.componentName != null ? this.componentName : fqp.parseArg();
+    String reference = this.componentName != null ? this.componentName : fqp.parseArg();
     String attribute = this.attribute != null ? this.attribute : fqp.parseArg();
+    String componentName = XJoinSearchComponent.getComponentName(reference);
+    String key = XJoinSearchComponent.getBatchKey(reference);
+    if (key == null && fqp.hasMoreArguments()) {
+      key = fqp.parseArg();
+    }
     
     XJoinSearchComponent xJoin = (XJoinSearchComponent)fqp.getReq().getCore().getSearchComponent(componentName);
     String joinField = xJoin.getJoinField();
-    XJoinResults<?> results = (XJoinResults<?>)fqp.getReq().getContext().get(xJoin.getResultsTag());
+    XJoinResults<?> results = xJoin.getResults(fqp.getReq(), key);
     if (results == null) {
       throw new RuntimeException("No xjoin results in request context");
     }
@@ -98,18 +111,26 @@ public class XJoinValueSourceParser extends ValueSourceParser {
   
   /**
    * ValueSource class for external process results.
+   *
+   * For each segment, external results are resolved at most once per ordinal of the join
+   * field's (sorted) doc values, so that most documents' values are an array lookup.
+   * Documents with no join field value (or no matching result) get the default value.
    */
   public class XJoinValueSource extends ValueSource {
 
     // the join field
     private String joinField;
-    
+
     // the external process results (generated by XJoinSearchComponent)
     private XJoinResults<?> results;
     
     // the attribute on external results objects to use as the value
     private String attribute;
 
+    // the accessor for our attribute, for the last result class seen (replaced as a
+    // whole, since the value source may be used by several threads at once)
+    private volatile Accessor accessor;
+
     /**
      * Create an ExternalValueSource for the given external process results, for
      * extracting the named attribute.
@@ -123,46 +144,105 @@ public class XJoinValueSourceParser extends ValueSourceParser {
     @Override
     @SuppressWarnings("rawtypes")
     public FunctionValues getValues(Map context, LeafReaderContext readerContext) throws IOException {
-      final BinaryDocValues joinValues = DocValues.getBinary(readerContext.reader(), joinField);
+      LeafReader reader = readerContext.reader();
+      FieldInfo fieldInfo = reader.getFieldInfos().fieldInfo(joinField);
+      if (fieldInfo != null) {
+        if (fieldInfo.getDocValuesType() == DocValuesType.SORTED) {
+          return ordinalValues(DocValues.getSorted(reader, joinField));
+        }
+        // fails (with IllegalStateException) if the join field's doc values are neither
+        // sorted nor binary
+        return binaryValues(DocValues.getBinary(reader, joinField));
+      }
 
+      // no join values in this segment
       return new DoubleDocValues(this) {
 
+        @Override
+        public double doubleVal(int doc) {
+          return defaultValue;
+        }
+
+        @Override
+        public boolean exists(int doc) {
+          return false;
+        }
+
+      };
+    }
+
+    // values looked up by join value ordinal, each ordinal being resolved (to a result
+    // value, or NaN if there is no result) the first time it is needed
+    private FunctionValues ordinalValues(SortedDocValues joinValues) {
+      final double[] values = new double[joinValues.getValueCount()];
+      final FixedBitSet resolved = new FixedBitSet(values.length);
+
+      return new DoubleDocValues(this) {
+
+        // the value for the doc, or NaN if there is none
+        private double value(int doc) throws IOException {
+          if (! joinValues.advanceExact(doc)) {
+            return Double.NaN;
+          }
+          int ord = joinValues.ordValue();
+          if (! resolved.getAndSet(ord)) {
+            Object result = results.getResult(joinValues.lookupOrd(ord).utf8ToString());
+            values[ord] = result != null ? getResultValue(result) : Double.NaN;
+          }
+          return values[ord];
+        }
+
         @Override
         public double doubleVal(int doc) throws IOException {
-          if (joinValues.advanceExact(doc) == false) {
-            throw new RuntimeException("No such doc: " + doc);
+          double value = value(doc);
+          return Double.isNaN(value) ? defaultValue : value;
+        }
+
+        @Override
+        public boolean exists(int doc) throws IOException {
+          return ! Double.isNaN(value(doc));
+        }
+
+      };
+    }
+
+    // values looked up by join value
+    private FunctionValues binaryValues(BinaryDocValues joinValues) {
+      return new DoubleDocValues(this) {
+
+        @Override
+        public double doubleVal(int doc) throws IOException {
+          if (! joinValues.advanceExact(doc)) {
+            return defaultValue;
           }
 
           BytesRef joinValue = joinValues.binaryValue();
           Object result = results.getResult(joinValue.utf8ToString());
-          if (result == null) {
-            return defaultValue;
-          }
-          if (result instanceof Iterable) {
-            Double max = null;
-            for (Object object : (Iterable)result) {
-              if (object != null) {
-                double value = getValue(object);
-                if (max == null || value > max) {
-                  max = value;
-                }
-              }
-            }
-            return max != null ? max : defaultValue;
-          } else {
-            return getValue(result);
-          }
+          return result != null ? getResultValue(result) : defaultValue;
         }
 
-//        @Override
-//        public boolean exists(int doc) {
-//          BytesRef joinValue = joinValues.get(doc);
-//          return joinValue != null;
-//        }
-        
       };
     }
 
+    // the value of a result, or the maximum value if the result is Iterable
+    @SuppressWarnings("rawtypes")
+    private double getResultValue(Object result) {
+      if (result instanceof Iterable) {
+        Double max = null;
+        for (Object object : (Iterable)result) {
+          if (object != null) {
+            double value = getValue(object);
+            if (max == null || value > max) {
+              max = value;
+            }
+          }
+        }
+        return max != null ? max : defaultValue;
+      } else {
+        return getValue(result);
+      }
+    }
+
     // unbox numeric types for coercing into double, also handle null
     // as a last resort, try to parse toString()
     private double convertFieldValue(Object object) {
@@ -186,14 +266,22 @@ public class XJoinValueSourceParser extends ValueSourceParser {
       if (result instanceof Map) {
         return convertFieldValue(((Map)result).get(attribute));
       } else {
-        try {
-          String methodName = NameConverter.getMethodName(attribute);
-          Method method = result.getClass().getMethod(methodName);
-          return convertFieldValue(method.invoke(result));
-        } catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-          throw new RuntimeException(e);
+        return convertFieldValue(getAccessor(result.getClass()).apply(result));
+      }
+    }
+
+    // get the accessor for our attribute, for the given result class
+    private Function<Object, Object> getAccessor(Class<?> type) {
+      Accessor accessor = this.accessor;
+      if (accessor == null || accessor.type != type) {
+        String methodName = NameConverter.getMethodName(attribute);
+        Function<Object, Object> method = ResultAccessors.forClass(type).getMethod(methodName);
+        if (method == null) {
+          throw new RuntimeException(new NoSuchMethodException(type.getName() + "." + methodName + "()"));
         }
+        this.accessor = accessor = new Accessor(type, method);
       }
+      return accessor.method;
     }
     
     @Override
@@ -206,7 +294,8 @@ public class XJoinValueSourceParser extends ValueSourceParser {
       if (! (object instanceof XJoinValueSource)) {
         return false;
       }
-      return results.equals(((XJoinValueSource)object).results);
+      XJoinValueSource other = (XJoinValueSource)object;
+      return results.equals(other.results) && joinField.equals(other.joinField) && attribute.equals(other.attribute);
     }
 
     @Override
@@ -216,4 +305,18 @@ public class XJoinValueSourceParser extends ValueSourceParser {
     
   }
 
+  // an accessor method, and the result class it is for
+  private static class Accessor {
+
+    private final Class<?> type;
+
+    private final Function<Object, Object> method;
+
+    private Accessor(Class<?> type, Function<Object, Object> method) {
+      this.type = type;
+      this.method = method;
+    }
+
+  }
+
 }
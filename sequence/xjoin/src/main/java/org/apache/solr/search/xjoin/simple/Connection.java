@@ -19,28 +19,40 @@ package org.apache.solr.search.xjoin.simple;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
+import java.net.URLEncoder;
 import java.util.Iterator;
 
 import org.apache.solr.common.params.SolrParams;
 
+/**
+ * Connection to an external results URL (with the given parameters, URL encoded) made
+ * using a Transport.
+ */
 public class Connection implements AutoCloseable {
   
-  private URLConnection cnx;
+  private final Transport transport;
+  
+  private final String accept;
   
   private InputStream in;
   
   private String url;
   
   public Connection(String rootUrl, String accept, SolrParams params) throws IOException {
-    StringBuilder sb = new StringBuilder("?");
+    this(new UrlTransport(), rootUrl, accept, params);
+  }
+  
+  public Connection(Transport transport, String rootUrl, String accept, SolrParams params) throws IOException {
+    this.transport = transport;
+    this.accept = accept;
+    
+    StringBuilder sb = new StringBuilder(rootUrl.indexOf('?') == -1 ? "?" : "&");
     for (Iterator<String> it = params.getParameterNamesIterator(); it.hasNext(); ) {
       String name = it.next();
       for (String value : params.getParams(name)) {
-        sb.append(name);
+        sb.append(URLEncoder.encode(name, "UTF-8"));
         sb.append("=");
-        sb.append(value);
+        sb.append(URLEncoder.encode(value, "UTF-8"));
         sb.append("&");
       }
     }
@@ -50,14 +62,12 @@ public class Connection implements AutoCloseable {
       url += sb.substring(0, sb.length() - 1);
     }
 
-    cnx = new URL(url).openConnection();
-    cnx.setRequestProperty("Accept", accept);
     in = null;
   }
   
   public void open() throws IOException {
     if (in == null) {
-      in = cnx.getInputStream();
+      in = transport.open(url, accept);
     }
   }
   
@@ -0,0 +1,187 @@
+package org.apache.solr.search.xjoin.simple;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.apache.solr.common.util.NamedList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transport using a pooled HTTP client, for http: and https: URLs (other URLs, such as file:
+ * URLs, are opened by a UrlTransport).
+ *
+ * At most maxConnectionsPerEndpoint requests are made to any one host at a time (further
+ * requests wait for up to the connect timeout for a connection to become free). Requests
+ * failing with an I/O error or a 429 or 5xx status are retried up to the given number of
+ * times, waiting retryBackoff milliseconds before the first retry and doubling the wait
+ * before each subsequent one (requests that time out are not retried). Responses are
+ * decompressed if gzip or deflate encoded.
+ */
+public class HttpTransport implements Transport {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(HttpTransport.class);
+
+  public static final String INIT_PARAM_MAX_CONNECTIONS = "maxConnections";
+  public static final String INIT_PARAM_MAX_CONNECTIONS_PER_ENDPOINT = "maxConnectionsPerEndpoint";
+  public static final String INIT_PARAM_RETRIES = "retries";
+  public static final String INIT_PARAM_RETRY_BACKOFF = "retryBackoff";
+
+  public static final int DEFAULT_MAX_CONNECTIONS = 64;
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT = 8;
+  public static final int DEFAULT_RETRIES = 2;
+  public static final int DEFAULT_RETRY_BACKOFF = 200;
+
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+  // transport for anything other than HTTP(S)
+  private final UrlTransport urlTransport = new UrlTransport();
+
+  private PoolingHttpClientConnectionManager connectionManager;
+
+  private CloseableHttpClient client;
+
+  private int retries;
+
+  private int retryBackoff;
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void init(NamedList args) {
+    urlTransport.init(args);
+
+    int connectTimeout = UrlTransport.getInt(args, INIT_PARAM_CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT);
+    int readTimeout = UrlTransport.getInt(args, INIT_PARAM_READ_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    retries = UrlTransport.getInt(args, INIT_PARAM_RETRIES, DEFAULT_RETRIES);
+    retryBackoff = UrlTransport.getInt(args, INIT_PARAM_RETRY_BACKOFF, DEFAULT_RETRY_BACKOFF);
+
+    connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(UrlTransport.getInt(args, INIT_PARAM_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS));
+    connectionManager.setDefaultMaxPerRoute(UrlTransport.getInt(args, INIT_PARAM_MAX_CONNECTIONS_PER_ENDPOINT, DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT));
+
+    RequestConfig config = RequestConfig.custom()
+        .setConnectionRequestTimeout(connectTimeout)
+        .setConnectTimeout(connectTimeout)
+        .setSocketTimeout(readTimeout)
+        .build();
+
+    // content compression is on by default; we do our own retrying
+    client = HttpClients.custom()
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(config)
+        .disableAutomaticRetries()
+        .build();
+  }
+
+  @Override
+  public InputStream open(String url, String accept) throws IOException {
+    if (! url.startsWith("http:") && ! url.startsWith("https:")) {
+      return urlTransport.open(url, accept);
+    }
+
+    for (int attempt = 0; ; ++attempt) {
+      HttpGet get = new HttpGet(url);
+      get.setHeader("Accept", accept);
+      int status;
+      try {
+        CloseableHttpResponse response = client.execute(get);
+        status = response.getStatusLine().getStatusCode();
+        if (status == HttpStatus.SC_OK) {
+          return content(response);
+        }
+        EntityUtils.consumeQuietly(response.getEntity());
+        response.close();
+      } catch (InterruptedIOException e) {
+        // timed out (connecting, reading, or waiting for a free connection) or interrupted,
+        // so do not add to the load on a slow endpoint
+        throw e;
+      } catch (IOException e) {
+        if (attempt >= retries) {
+          throw e;
+        }
+        LOGGER.warn("Error reading {} (retrying): {}", url, e.toString());
+        backoff(attempt);
+        continue;
+      }
+
+      String message = "HTTP status " + status + " from " + url;
+      if ((status != HTTP_TOO_MANY_REQUESTS && status < 500) || attempt >= retries) {
+        throw new IOException(message);
+      }
+      LOGGER.warn("{} (retrying)", message);
+      backoff(attempt);
+    }
+  }
+
+  // wait before retrying
+  private void backoff(int attempt) throws InterruptedIOException {
+    try {
+      Thread.sleep((long)retryBackoff << attempt);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to retry");
+    }
+  }
+
+  // stream reading the response content, and closing the response when closed
+  private static InputStream content(CloseableHttpResponse response) throws IOException {
+    HttpEntity entity = response.getEntity();
+    if (entity == null) {
+      response.close();
+      throw new IOException("No content in HTTP response");
+    }
+    return new FilterInputStream(entity.getContent()) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          response.close();
+        }
+      }
+    };
+  }
+
+  /**
+   * Get the number of requests currently being made to any endpoint.
+   */
+  public int getLeased() {
+    return connectionManager.getTotalStats().getLeased();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (client != null) {
+      client.close();
+    }
+  }
+
+}
@@ -0,0 +1,192 @@
+package org.apache.solr.search.xjoin.simple;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.noggit.JSONParser;
+
+/**
+ * Streaming extractor for JSON responses (using the noggit pull parser, which accepts the
+ * same relaxed JSON as json-smart), for paths of the forms:
+ *
+ *   global values:   $.a.b
+ *   join ids:        $.a.b[*].c
+ *   result fields:   $.a.b[?(@.c == 'JOINID')].d
+ *
+ * where each step may also be a chain of field names.
+ */
+/*package*/ class JsonStreamingExtractor extends StreamingExtractor {
+
+  private static final String NAME = "[^.\\[\\]()@=\\s'\"]+";
+
+  private static final String SIMPLE = "\\$(?:\\." + NAME + ")*";
+
+  private static final String SUB = "(?:\\." + NAME + ")+";
+
+  private static final Pattern GLOBAL_PATH = Pattern.compile("\\$(?:\\." + NAME + ")+");
+
+  private static final Pattern JOIN_ID_PATH = Pattern.compile("(" + SIMPLE + ")\\[\\*\\](" + SUB + ")");
+
+  /**
+   * Create an extractor for the given paths, or return null if any is not of a supported form.
+   */
+  /*package*/ static JsonStreamingExtractor compile(Map<String, String> globalFieldPaths, String joinIdPath,
+      String joinIdToken, Map<String, String> resultFieldPaths) {
+    JsonStreamingExtractor extractor = new JsonStreamingExtractor();
+    for (Map.Entry<String, String> entry : globalFieldPaths.entrySet()) {
+      if (! GLOBAL_PATH.matcher(entry.getValue()).matches()) {
+        return null;
+      }
+      extractor.addGlobal(entry.getKey(), entry.getValue());
+    }
+
+    Matcher m = JOIN_ID_PATH.matcher(joinIdPath);
+    if (! m.matches()) {
+      return null;
+    }
+    extractor.setJoinIds(m.group(1), m.group(2).substring(1));
+
+    Pattern fieldPath = Pattern.compile("(" + SIMPLE + ")\\[\\?\\(@(" + SUB + ")\\s*==\\s*(['\"]?)"
+        + Pattern.quote(joinIdToken) + "\\3\\)\\](" + SUB + ")");
+    for (Map.Entry<String, String> entry : resultFieldPaths.entrySet()) {
+      m = fieldPath.matcher(entry.getValue());
+      if (! m.matches()) {
+        return null;
+      }
+      extractor.addField(entry.getKey(), m.group(1), m.group(2).substring(1), m.group(4).substring(1));
+    }
+
+    return extractor.isSinglePass() ? extractor : null;
+  }
+
+  @Override
+  protected boolean isSeparator(char c) {
+    return c == '.';
+  }
+
+  @Override
+  public Table extract(InputStream in) throws IOException {
+    JSONParser parser = new JSONParser(new InputStreamReader(in, StandardCharsets.UTF_8));
+    Table table = new Table();
+    read(parser, parser.nextEvent(), "$", table);
+    return table;
+  }
+
+  // read the value starting with the given event, at the given path
+  private void read(JSONParser parser, int event, String path, Table table) throws IOException {
+    RecordSpec records = getRecords(path);
+    if (isGlobal(path)) {
+      // the first element of an array (or null if it is empty), as JsonDocumentFactory gives
+      Object value = value(parser, event);
+      if (value instanceof List) {
+        List<?> list = (List<?>)value;
+        value = list.isEmpty() ? null : list.get(0);
+      }
+      table.global(path, value);
+    } else if (records != null && event == JSONParser.ARRAY_START) {
+      for (event = parser.nextEvent(); event != JSONParser.ARRAY_END; event = parser.nextEvent()) {
+        Object record = value(parser, event);
+        table.record(records, subPath -> get(record, subPath));
+      }
+    } else if ((path.equals("$") || isPrefix(path)) && event == JSONParser.OBJECT_START) {
+      for (event = parser.nextEvent(); event != JSONParser.OBJECT_END; event = parser.nextEvent()) {
+        String key = parser.getString();
+        read(parser, parser.nextEvent(), path + "." + key, table);
+      }
+    } else {
+      skip(parser, event);
+    }
+  }
+
+  // get the value at the given (dot separated) path within a record
+  @SuppressWarnings("unchecked")
+  private static Object get(Object record, String path) {
+    Object value = record;
+    for (int i = 0, j; value != null && i <= path.length(); i = j + 1) {
+      j = path.indexOf('.', i);
+      if (j == -1) {
+        j = path.length();
+      }
+      value = value instanceof Map ? ((Map<String, Object>)value).get(path.substring(i, j)) : null;
+    }
+    return value;
+  }
+
+  // read the value starting with the given event, with numbers as json-smart would read them
+  private static Object value(JSONParser parser, int event) throws IOException {
+    switch (event) {
+      case JSONParser.STRING:
+        return parser.getString();
+      case JSONParser.LONG:
+        long l = parser.getLong();
+        return l == (int)l ? (Object)(int)l : (Object)l;
+      case JSONParser.NUMBER:
+        return parser.getDouble();
+      case JSONParser.BIGNUMBER:
+        return new BigDecimal(parser.getNumberChars().toString());
+      case JSONParser.BOOLEAN:
+        return parser.getBoolean();
+      case JSONParser.NULL:
+        parser.getNull();
+        return null;
+      case JSONParser.OBJECT_START:
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (event = parser.nextEvent(); event != JSONParser.OBJECT_END; event = parser.nextEvent()) {
+          String key = parser.getString();
+          map.put(key, value(parser, parser.nextEvent()));
+        }
+        return map;
+      case JSONParser.ARRAY_START:
+        List<Object> list = new ArrayList<>();
+        for (event = parser.nextEvent(); event != JSONParser.ARRAY_END; event = parser.nextEvent()) {
+          list.add(value(parser, event));
+        }
+        return list;
+      default:
+        throw new IOException("Unexpected JSON " + JSONParser.getEventString(event) + " at " + parser.getPosition());
+    }
+  }
+
+  // skip the value starting with the given event
+  private static void skip(JSONParser parser, int event) throws IOException {
+    for (int depth = 0; ; event = parser.nextEvent()) {
+      if (event == JSONParser.OBJECT_START || event == JSONParser.ARRAY_START) {
+        ++depth;
+      } else if (event == JSONParser.OBJECT_END || event == JSONParser.ARRAY_END) {
+        --depth;
+      } else if (event == JSONParser.EOF) {
+        throw new IOException("Unexpected end of JSON");
+      }
+      if (depth == 0) {
+        return;
+      }
+    }
+  }
+
+}
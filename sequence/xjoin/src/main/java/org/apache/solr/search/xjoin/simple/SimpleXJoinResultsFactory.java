@@ -17,9 +17,14 @@ package org.apache.solr.search.xjoin.simple;
  * limitations under the License.
  */
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.solr.common.params.SolrParams;
@@ -28,7 +33,7 @@ import org.apache.solr.search.xjoin.XJoinResults;
 import org.apache.solr.search.xjoin.XJoinResultsFactory;
 import org.xml.sax.SAXException;
 
-public class SimpleXJoinResultsFactory implements XJoinResultsFactory<String> {
+public class SimpleXJoinResultsFactory implements XJoinResultsFactory<String>, Closeable {
 
   public static final String INIT_PARAM_TYPE = "type";
   public static final String INIT_PARAM_ROOT_URL = "rootUrl";
@@ -36,6 +41,7 @@ public class SimpleXJoinResultsFactory implements XJoinResultsFactory<String> {
   public static final String INIT_PARAM_JOIN_ID_PATH = "joinIdPath";
   public static final String INIT_PARAM_JOIN_ID_TOKEN = "joinIdToken";
   public static final String INIT_PARAM_RESULT_FIELD_PATHS = "resultFieldPaths";
+  public static final String INIT_PARAM_TRANSPORT = "transport";
   
   public static final String DEFAULT_JOIN_ID_TOKEN = "JOINID";
   
@@ -52,6 +58,12 @@ public class SimpleXJoinResultsFactory implements XJoinResultsFactory<String> {
       protected PathDocument read(InputStream in) {
         return documentFactory.read(in);
       }
+
+      @Override
+      protected StreamingExtractor extractor(Map<String, String> globalFieldPaths, String joinIdPath,
+          String joinIdToken, Map<String, String> resultFieldPaths) {
+        return JsonStreamingExtractor.compile(globalFieldPaths, joinIdPath, joinIdToken, resultFieldPaths);
+      }
     },
     
     XML {
@@ -70,10 +82,23 @@ public class SimpleXJoinResultsFactory implements XJoinResultsFactory<String> {
           throw new IOException(e);
         }
       }
+
+      @Override
+      protected StreamingExtractor extractor(Map<String, String> globalFieldPaths, String joinIdPath,
+          String joinIdToken, Map<String, String> resultFieldPaths) {
+        return XmlStreamingExtractor.compile(globalFieldPaths, joinIdPath, joinIdToken, resultFieldPaths);
+      }
     };
     
     protected abstract String getMimeType();
     protected abstract PathDocument read(InputStream in) throws IOException;
+    
+    /**
+     * Get a single pass extractor for the given paths, or null if they are not all supported
+     * (in which case the whole response is read into a PathDocument).
+     */
+    protected abstract StreamingExtractor extractor(Map<String, String> globalFieldPaths, String joinIdPath,
+        String joinIdToken, Map<String, String> resultFieldPaths);
   }
   
   private Type type;
@@ -88,6 +113,10 @@ public class SimpleXJoinResultsFactory implements XJoinResultsFactory<String> {
   
   private Map<String, String> resultFieldPaths;
   
+  private Transport transport;
+  
+  private StreamingExtractor extractor;
+  
   /**
    * 
    */
@@ -123,27 +152,70 @@ public class SimpleXJoinResultsFactory implements XJoinResultsFactory<String> {
         resultFieldPaths.put(fieldName, value);
       }
     }
+    
+    NamedList transportArgs = (NamedList)args.get(INIT_PARAM_TRANSPORT);
+    String transportClass = transportArgs != null ? (String)transportArgs.get(Transport.INIT_PARAM_CLASS) : null;
+    try {
+      transport = transportClass != null ? (Transport)Class.forName(transportClass).newInstance() : new HttpTransport();
+    } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+    transport.init(transportArgs);
+    
+    extractor = type.extractor(globalFieldPaths, joinIdPath, joinIdToken, resultFieldPaths);
+  }
+  
+  /*package*/ Transport getTransport() {
+    return transport;
   }
 
   @Override
   public XJoinResults<String> getResults(SolrParams params) throws IOException {
-    try (Connection cnx = new Connection(rootUrl, type.getMimeType(), params)) {
+    try (Connection cnx = new Connection(transport, rootUrl, type.getMimeType(), params)) {
       cnx.open();
+      if (extractor != null) {
+        return new Results(extractor.extract(cnx.getInputStream()));
+      }
       return new Results(type.read(cnx.getInputStream()));
     }
   }
+
+  /**
+   * Close the transport (its pooled connections).
+   */
+  @Override
+  public void close() throws IOException {
+    if (transport != null) {
+      transport.close();
+    }
+  }
   
+  /**
+   * Results with global values (as map entries), and a result (a map of field values) for
+   * each join id.
+   */
   @SuppressWarnings("serial")
   public class Results extends HashMap<String, Object> implements XJoinResults<String> {
     
-    private Map<String, Map<String, Object>> results;
+    private final Map<String, Map<String, Object>> results = new HashMap<>();
+    
+    // sorted join ids
+    private final List<String> joinIds;
+    
+    private Results(StreamingExtractor.Table table) {
+      putAll(table.getGlobals());
+      
+      for (String joinId : table.getJoinIds()) {
+        results.put(joinId, table.getResult(joinId));
+      }
+      joinIds = sorted(results.keySet());
+    }
     
     private Results(PathDocument doc) {
       for (String fieldName : globalFieldPaths.keySet()) {
         put(fieldName, doc.getPathValue(globalFieldPaths.get(fieldName)));
       }
       
-      results = new HashMap<>();
       for (Object joinId : doc.getPathValues(joinIdPath)) {
         Map<String, Object> result = new HashMap<>();
         results.put(joinId.toString(), result);
@@ -156,6 +228,13 @@ public class SimpleXJoinResultsFactory implements XJoinResultsFactory<String> {
           }
         }
       }
+      joinIds = sorted(results.keySet());
+    }
+    
+    private List<String> sorted(Collection<String> joinIds) {
+      String[] array = joinIds.toArray(new String[joinIds.size()]);
+      Arrays.sort(array);
+      return Collections.unmodifiableList(Arrays.asList(array));
     }
     
     @Override
@@ -165,7 +244,7 @@ public class SimpleXJoinResultsFactory implements XJoinResultsFactory<String> {
 
     @Override
     public Iterable<String> getJoinIds() {
-      return results.keySet();
+      return joinIds;
     }
     
   }
@@ -0,0 +1,264 @@
+package org.apache.solr.search.xjoin.simple;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Extracts global values and per join id results from a response in a single pass, as it
+ * is read, so that time and memory scale with the size of the response. This works for the
+ * common forms of paths, where the join ids and result values are taken from a set of
+ * records (JSON array elements, or XML elements), and results are matched to join ids by a
+ * key in each record. Subclasses parse paths and responses of a particular type.
+ */
+/*package*/ abstract class StreamingExtractor {
+
+  // a set of records, each of which is read as a whole
+  /*package*/ static class RecordSpec {
+
+    // path of the records
+    private final String path;
+
+    // path within a record of its join id (if join ids are read from these records)
+    private String joinIdPath;
+
+    // result fields read from these records
+    private final List<FieldSpec> fields = new ArrayList<>();
+
+    private RecordSpec(String path) {
+      this.path = path;
+    }
+
+    /*package*/ String getPath() {
+      return path;
+    }
+
+  }
+
+  // a result field, read from the record with a key matching the join id
+  private static class FieldSpec {
+
+    private final int index;
+
+    private final String fieldName;
+
+    // path within a record of the key
+    private final String keyPath;
+
+    // path within a record of the value
+    private final String valuePath;
+
+    private FieldSpec(int index, String fieldName, String keyPath, String valuePath) {
+      this.index = index;
+      this.fieldName = fieldName;
+      this.keyPath = keyPath;
+      this.valuePath = valuePath;
+    }
+
+  }
+
+  // global field names by path
+  private final Map<String, List<String>> globalPaths = new HashMap<>();
+
+  // record specs by path
+  private final Map<String, RecordSpec> records = new HashMap<>();
+
+  // all result fields
+  private final List<FieldSpec> fields = new ArrayList<>();
+
+  // all proper prefixes of global and record paths
+  private final Set<String> prefixes = new HashSet<>();
+
+  /**
+   * Extract global values, join ids and results from the given response.
+   */
+  public abstract Table extract(InputStream in) throws IOException;
+
+  /**
+   * Add a global field, with the value at the given path.
+   */
+  protected void addGlobal(String fieldName, String path) {
+    globalPaths.computeIfAbsent(path, p -> new ArrayList<>()).add(fieldName);
+    addPrefixes(path);
+  }
+
+  /**
+   * Read join ids from the given path within the records at the given path.
+   */
+  protected void setJoinIds(String recordPath, String joinIdPath) {
+    getRecordSpec(recordPath).joinIdPath = joinIdPath;
+  }
+
+  /**
+   * Add a result field, with the value at the given path within the record (at the given
+   * path) that has the join id at the given key path.
+   */
+  protected void addField(String fieldName, String recordPath, String keyPath, String valuePath) {
+    FieldSpec field = new FieldSpec(fields.size(), fieldName, keyPath, valuePath);
+    fields.add(field);
+    getRecordSpec(recordPath).fields.add(field);
+  }
+
+  private RecordSpec getRecordSpec(String path) {
+    RecordSpec spec = records.get(path);
+    if (spec == null) {
+      spec = new RecordSpec(path);
+      records.put(path, spec);
+      addPrefixes(path);
+    }
+    return spec;
+  }
+
+  // add the proper prefixes of the given path
+  private void addPrefixes(String path) {
+    for (int i = path.length() - 1; i > 0; --i) {
+      if (isSeparator(path.charAt(i))) {
+        prefixes.add(path.substring(0, i));
+      }
+    }
+  }
+
+  /**
+   * Whether all global values and records can be found in a single pass (which they cannot
+   * if any is within a record, or within a global value).
+   */
+  protected boolean isSinglePass() {
+    for (String prefix : prefixes) {
+      if (globalPaths.containsKey(prefix) || records.containsKey(prefix)) {
+        return false;
+      }
+    }
+    for (String path : globalPaths.keySet()) {
+      if (records.containsKey(path)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Whether the given character separates the steps of a path.
+   */
+  protected abstract boolean isSeparator(char c);
+
+  /**
+   * Whether the given path is a global value path.
+   */
+  protected boolean isGlobal(String path) {
+    return globalPaths.containsKey(path);
+  }
+
+  /**
+   * Get the record spec for the given path (or null if there are no records there).
+   */
+  protected RecordSpec getRecords(String path) {
+    return records.get(path);
+  }
+
+  /**
+   * Whether there are global values or records below the given path.
+   */
+  protected boolean isPrefix(String path) {
+    return prefixes.contains(path);
+  }
+
+  /**
+   * Convert a result field value read from a record (join ids and keys are used as read).
+   */
+  protected Object fieldValue(Object value) {
+    return value;
+  }
+
+  /**
+   * Values read from a response.
+   */
+  /*package*/ class Table {
+
+    private final Map<String, Object> globals = new HashMap<>();
+
+    private final Set<String> joinIds = new HashSet<>();
+
+    // for each result field, values by key
+    private final List<Map<String, Object>> values = new ArrayList<>(fields.size());
+
+    protected Table() {
+      for (int i = 0; i < fields.size(); ++i) {
+        values.add(new HashMap<>());
+      }
+    }
+
+    /**
+     * Set the global value at the given path (if not already set).
+     */
+    protected void global(String path, Object value) {
+      for (String fieldName : globalPaths.get(path)) {
+        globals.putIfAbsent(fieldName, value);
+      }
+    }
+
+    /**
+     * Read a record, given a function returning values at paths within it.
+     */
+    protected void record(RecordSpec spec, Function<String, Object> values) {
+      if (spec.joinIdPath != null) {
+        Object joinId = values.apply(spec.joinIdPath);
+        if (joinId != null) {
+          joinIds.add(joinId.toString());
+        }
+      }
+      for (FieldSpec field : spec.fields) {
+        Object key = values.apply(field.keyPath);
+        if (key != null) {
+          Object value = fieldValue(values.apply(field.valuePath));
+          if (value != null) {
+            this.values.get(field.index).putIfAbsent(key.toString(), value);
+          }
+        }
+      }
+    }
+
+    /*package*/ Map<String, Object> getGlobals() {
+      return globals;
+    }
+
+    /*package*/ Set<String> getJoinIds() {
+      return joinIds;
+    }
+
+    /*package*/ Map<String, Object> getResult(String joinId) {
+      Map<String, Object> result = new HashMap<>();
+      for (FieldSpec field : fields) {
+        Object value = values.get(field.index).get(joinId);
+        if (value != null) {
+          result.put(field.fieldName, value);
+        }
+      }
+      return result;
+    }
+
+  }
+
+}
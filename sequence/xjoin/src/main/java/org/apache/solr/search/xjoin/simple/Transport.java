@@ -0,0 +1,51 @@
+package org.apache.solr.search.xjoin.simple;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.solr.common.util.NamedList;
+
+/**
+ * Means of fetching external results for SimpleXJoinResultsFactory. Implementations must
+ * be safe to use from several threads at once.
+ */
+public interface Transport extends Closeable {
+
+  public static final String INIT_PARAM_CLASS = "class";
+  public static final String INIT_PARAM_CONNECT_TIMEOUT = "connectTimeout";
+  public static final String INIT_PARAM_READ_TIMEOUT = "readTimeout";
+
+  public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+  public static final int DEFAULT_READ_TIMEOUT = 60000;
+
+  /**
+   * Initialise the transport with the given parameters (which may be empty).
+   */
+  @SuppressWarnings("rawtypes")
+  public void init(NamedList args);
+
+  /**
+   * Open a stream reading the content at the given (fully encoded) URL, asking for the given
+   * MIME type.
+   */
+  public InputStream open(String url, String accept) throws IOException;
+
+}
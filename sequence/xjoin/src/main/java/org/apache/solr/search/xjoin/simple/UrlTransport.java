@@ -0,0 +1,68 @@
+package org.apache.solr.search.xjoin.simple;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+
+import org.apache.solr.common.util.NamedList;
+
+/**
+ * Transport using a plain URLConnection for each request. This handles any kind of URL
+ * (e.g. file: URLs), but there is no connection pooling or retrying.
+ */
+public class UrlTransport implements Transport {
+
+  private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+  private int readTimeout = DEFAULT_READ_TIMEOUT;
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void init(NamedList args) {
+    connectTimeout = getInt(args, INIT_PARAM_CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT);
+    readTimeout = getInt(args, INIT_PARAM_READ_TIMEOUT, DEFAULT_READ_TIMEOUT);
+  }
+
+  @Override
+  public InputStream open(String url, String accept) throws IOException {
+    URLConnection cnx = new URL(url).openConnection();
+    cnx.setConnectTimeout(connectTimeout);
+    cnx.setReadTimeout(readTimeout);
+    cnx.setRequestProperty("Accept", accept);
+    return cnx.getInputStream();
+  }
+
+  @Override
+  public void close() {
+    // nothing to do
+  }
+
+  // get an integer parameter (or the given default value)
+  @SuppressWarnings("rawtypes")
+  /*package*/ static int getInt(NamedList args, String name, int defaultValue) {
+    Object value = args != null ? args.get(name) : null;
+    if (value == null) {
+      return defaultValue;
+    }
+    return value instanceof Number ? ((Number)value).intValue() : Integer.parseInt(value.toString());
+  }
+
+}
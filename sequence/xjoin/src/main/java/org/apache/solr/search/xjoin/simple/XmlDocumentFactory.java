@@ -56,25 +56,7 @@ public class XmlDocumentFactory {
       @Override
       public Object getPathValue(String path) {
         try {
-          String value = xPath.evaluate(path, xml);
-          // try to coerce into various types
-          try {
-            return Integer.valueOf(value);
-          } catch (NumberFormatException e) {
-            // do nothing
-          }
-          try {
-            return Double.valueOf(value);
-          } catch (NumberFormatException e) {
-            // do nothing
-          }
-          if (value.equalsIgnoreCase("true")) {
-            return true;
-          }
-          if (value.equalsIgnoreCase("false")) {
-            return false;
-          }
-          return value;
+          return coerce(xPath.evaluate(path, xml));
         } catch (XPathExpressionException e) {
           throw new RuntimeException(e);
         }
@@ -96,5 +78,31 @@ public class XmlDocumentFactory {
       
     };
   }
+  
+  /**
+   * Try to coerce the given value (if not null) into various types.
+   */
+  /*package*/ static Object coerce(String value) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      return Integer.valueOf(value);
+    } catch (NumberFormatException e) {
+      // do nothing
+    }
+    try {
+      return Double.valueOf(value);
+    } catch (NumberFormatException e) {
+      // do nothing
+    }
+    if (value.equalsIgnoreCase("true")) {
+      return true;
+    }
+    if (value.equalsIgnoreCase("false")) {
+      return false;
+    }
+    return value;
+  }
 
 }
@@ -0,0 +1,188 @@
+package org.apache.solr.search.xjoin.simple;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming (StAX) extractor for XML responses, for paths of the forms:
+ *
+ *   global values:   /a/b or /a/b/@c
+ *   join ids:        /a/b/@c or /a/b/c
+ *   result fields:   /a/b[@c='JOINID']/d or /a/b[c='JOINID']/@d
+ *
+ * where values are attributes or the text of child elements (optionally with /text()), and
+ * are converted to numbers or booleans where possible (as by XmlDocumentFactory).
+ */
+/*package*/ class XmlStreamingExtractor extends StreamingExtractor {
+
+  private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+  static {
+    FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+  }
+
+  private static final String NAME = "[A-Za-z_][\\w.\\-]*";
+
+  private static final String SIMPLE = "(?:/" + NAME + ")+";
+
+  private static final String VALUE = "(@?" + NAME + ")(?:/text\\(\\))?";
+
+  private static final Pattern GLOBAL_PATH = Pattern.compile("(" + SIMPLE + ")(?:/(@" + NAME + ")|/text\\(\\))?");
+
+  private static final Pattern JOIN_ID_PATH = Pattern.compile("(" + SIMPLE + ")/" + VALUE);
+
+  /**
+   * Create an extractor for the given paths, or return null if any is not of a supported form.
+   */
+  /*package*/ static XmlStreamingExtractor compile(Map<String, String> globalFieldPaths, String joinIdPath,
+      String joinIdToken, Map<String, String> resultFieldPaths) {
+    XmlStreamingExtractor extractor = new XmlStreamingExtractor();
+    for (Map.Entry<String, String> entry : globalFieldPaths.entrySet()) {
+      Matcher m = GLOBAL_PATH.matcher(entry.getValue());
+      if (! m.matches()) {
+        return null;
+      }
+      extractor.addGlobal(entry.getKey(), m.group(2) != null ? m.group(1) + "/" + m.group(2) : m.group(1));
+    }
+
+    Matcher m = JOIN_ID_PATH.matcher(joinIdPath);
+    if (! m.matches()) {
+      return null;
+    }
+    extractor.setJoinIds(m.group(1), m.group(2));
+
+    Pattern fieldPath = Pattern.compile("(" + SIMPLE + ")\\[(@?" + NAME + ")\\s*=\\s*(['\"]?)"
+        + Pattern.quote(joinIdToken) + "\\3\\]/" + VALUE);
+    for (Map.Entry<String, String> entry : resultFieldPaths.entrySet()) {
+      m = fieldPath.matcher(entry.getValue());
+      if (! m.matches()) {
+        return null;
+      }
+      extractor.addField(entry.getKey(), m.group(1), m.group(2), m.group(4));
+    }
+
+    return extractor.isSinglePass() ? extractor : null;
+  }
+
+  @Override
+  protected boolean isSeparator(char c) {
+    return c == '/';
+  }
+
+  // field values are coerced as XmlDocumentFactory does (join ids and keys are not, so they
+  // match the join field)
+  @Override
+  protected Object fieldValue(Object value) {
+    return XmlDocumentFactory.coerce((String)value);
+  }
+
+  @Override
+  public Table extract(InputStream in) throws IOException {
+    Table table = new Table();
+    try {
+      XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+      try {
+        StringBuilder path = new StringBuilder();
+        while (reader.hasNext()) {
+          int event = reader.next();
+          if (event == XMLStreamReader.START_ELEMENT) {
+            path.append('/').append(reader.getLocalName());
+            String p = path.toString();
+            for (int i = 0; i < reader.getAttributeCount(); ++i) {
+              String attributePath = p + "/@" + reader.getAttributeLocalName(i);
+              if (isGlobal(attributePath)) {
+                table.global(attributePath, XmlDocumentFactory.coerce(reader.getAttributeValue(i)));
+              }
+            }
+
+            RecordSpec records = getRecords(p);
+            if (records != null) {
+              Map<String, String> record = readRecord(reader);
+              table.record(records, record::get);
+            } else if (isGlobal(p)) {
+              table.global(p, XmlDocumentFactory.coerce(readText(reader)));
+            } else if (! isPrefix(p)) {
+              readText(reader);
+            } else {
+              continue;
+            }
+            // we have read to the end of the element
+            event = XMLStreamReader.END_ELEMENT;
+          }
+          if (event == XMLStreamReader.END_ELEMENT) {
+            path.setLength(path.lastIndexOf("/"));
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException e) {
+      throw new IOException(e);
+    }
+    return table;
+  }
+
+  // read the attributes (as @name) and child element text of the current element
+  private static Map<String, String> readRecord(XMLStreamReader reader) throws XMLStreamException {
+    Map<String, String> record = new HashMap<>();
+    for (int i = 0; i < reader.getAttributeCount(); ++i) {
+      record.putIfAbsent("@" + reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+    }
+    while (reader.next() != XMLStreamReader.END_ELEMENT) {
+      if (reader.getEventType() == XMLStreamReader.START_ELEMENT) {
+        String name = reader.getLocalName();
+        record.putIfAbsent(name, readText(reader));
+      }
+    }
+    return record;
+  }
+
+  // read all the text within the current element
+  private static String readText(XMLStreamReader reader) throws XMLStreamException {
+    StringBuilder text = new StringBuilder();
+    for (int depth = 1; depth > 0; ) {
+      switch (reader.next()) {
+        case XMLStreamReader.START_ELEMENT:
+          ++depth;
+          break;
+        case XMLStreamReader.END_ELEMENT:
+          --depth;
+          break;
+        case XMLStreamReader.CHARACTERS:
+        case XMLStreamReader.CDATA:
+        case XMLStreamReader.SPACE:
+          text.append(reader.getText());
+          break;
+        default:
+          break;
+      }
+    }
+    return text.toString();
+  }
+
+}